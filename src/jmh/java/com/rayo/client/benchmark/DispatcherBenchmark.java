@@ -0,0 +1,128 @@
+package com.rayo.client.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rayo.client.filter.XmppObjectFilter;
+import com.rayo.client.filter.XmppObjectIdFilter;
+import com.rayo.client.io.UnboundedQueueMessageDispatcher;
+import com.rayo.client.io.XmppReader;
+import com.rayo.client.listener.StanzaAdapter;
+import com.rayo.client.util.XmppObjectParser;
+import com.rayo.client.xmpp.stanza.AbstractXmppObject;
+import com.rayo.client.xmpp.stanza.Presence;
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Throughput of the dispatcher, from the reader thread handing a presence over until every
+ * listener and filter has seen it. The filters are id filters that do not match, like the ones
+ * left by threads waiting for IQ results.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatcherBenchmark {
+
+	private static final int BATCH = 1000;
+
+	@Param({"0", "10", "100"})
+	private int filters;
+
+	@Param({"1", "10"})
+	private int listeners;
+
+	private UnboundedQueueMessageDispatcher dispatcher;
+	private Presence presence;
+
+	private final AtomicLong listened = new AtomicLong();
+	private final AtomicLong filtered = new AtomicLong();
+	private long dispatched;
+
+	@Setup
+	public void setup() throws Exception {
+
+		presence = XmppObjectParser.parsePresence(Payloads.parser(Payloads.ANSWERED));
+		dispatcher = new UnboundedQueueMessageDispatcher();
+		for (int i = 0; i < listeners; i++) {
+			dispatcher.addStanzaListener(new StanzaAdapter() {
+
+				@Override
+				public void onPresence(Presence presence) {}
+			});
+		}
+		// Counts the presences once every other listener has seen them
+		dispatcher.addStanzaListener(new StanzaAdapter() {
+
+			@Override
+			public void onPresence(Presence presence) {
+
+				listened.incrementAndGet();
+			}
+		});
+		for (int i = 0; i < filters; i++) {
+			dispatcher.addFilter(new XmppObjectIdFilter("pending-" + i));
+		}
+		dispatcher.addFilter(new CountingFilter());
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		dispatcher.reset();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void dispatch() {
+
+		for (int i = 0; i < BATCH; i++) {
+			dispatcher.dispatch(presence);
+		}
+		dispatched += BATCH;
+		while (listened.get() < dispatched || filtered.get() < dispatched) {
+			Thread.yield();
+		}
+	}
+
+	private class CountingFilter implements XmppObjectFilter {
+
+		@Override
+		public void filter(AbstractXmppObject object) {
+
+			filtered.incrementAndGet();
+		}
+
+		@Override
+		public XmppObject poll() {
+			return null;
+		}
+
+		@Override
+		public XmppObject poll(int milliseconds) {
+			return null;
+		}
+
+		@Override
+		public void setReader(XmppReader reader) {}
+
+		@Override
+		public void stop() {}
+	}
+}
@@ -0,0 +1,85 @@
+package com.rayo.client.benchmark;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rayo.client.util.XmppObjectParser;
+import com.rayo.client.xmpp.extensions.Extension;
+import com.rayo.client.xmpp.extensions.ExtensionsManager;
+import com.rayo.core.DialCommand;
+import com.rayo.core.verb.Say;
+import com.rayo.core.verb.Ssml;
+
+/**
+ * <p>Marshalling of outgoing Rayo commands and unmarshalling of incoming Rayo events through
+ * the {@link ExtensionsManager}.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExtensionsBenchmark {
+
+	private DialCommand dial;
+	private Say say;
+	private Extension offer;
+	private Extension complete;
+
+	@Setup
+	public void setup() throws Exception {
+
+		dial = new DialCommand();
+		dial.setTo(new URI("sip:+13055195825@rayo.net"));
+		dial.setFrom(new URI("sip:usera@rayo.net"));
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("X-Account", "45211");
+		headers.put("X-Campaign", "reminders-2011-q3");
+		dial.setHeaders(headers);
+
+		say = new Say();
+		say.setPrompt(new Ssml("<speak>Your appointment with <emphasis>Doctor Smith</emphasis> is " +
+				"tomorrow at <say-as interpret-as=\"time\">10:30</say-as>. Press 1 to confirm.</speak>"));
+
+		offer = XmppObjectParser.parsePresence(Payloads.parser(Payloads.OFFER)).getExtension();
+		complete = XmppObjectParser.parsePresence(Payloads.parser(Payloads.SAY_COMPLETE)).getExtension();
+	}
+
+	@Benchmark
+	public Extension marshallDial() throws Exception {
+
+		return ExtensionsManager.buildExtension(dial);
+	}
+
+	@Benchmark
+	public Extension marshallSay() throws Exception {
+
+		return ExtensionsManager.buildExtension(say);
+	}
+
+	@Benchmark
+	public Object unmarshallOffer() throws Exception {
+
+		return ExtensionsManager.unmarshall(offer);
+	}
+
+	@Benchmark
+	public Object unmarshallComplete() throws Exception {
+
+		return ExtensionsManager.unmarshall(complete);
+	}
+}
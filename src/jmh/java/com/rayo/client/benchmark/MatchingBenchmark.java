@@ -0,0 +1,84 @@
+package com.rayo.client.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rayo.client.filter.XmppObjectExtensionNameFilter;
+import com.rayo.client.util.JID;
+import com.rayo.client.util.JIDImpl;
+import com.rayo.client.util.XmppObjectParser;
+import com.rayo.client.xmpp.stanza.AbstractXmppObject;
+import com.rayo.client.xmpp.stanza.Presence;
+
+/**
+ * <p>Work done for every incoming stanza to match it against filters and to find out the
+ * call and verb it belongs to.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatchingBenchmark {
+
+	private XmppObjectExtensionNameFilter offerFilter;
+	private XmppObjectExtensionNameFilter callFilter;
+	private Presence offer;
+	private Presence complete;
+
+	@Setup
+	public void setup() throws Exception {
+
+		offerFilter = new XmppObjectExtensionNameFilter("offer");
+		callFilter = new XmppObjectExtensionNameFilter("complete", "9f00061@call.rayo.net/fgh4590");
+		offer = XmppObjectParser.parsePresence(Payloads.parser(Payloads.OFFER));
+		complete = XmppObjectParser.parsePresence(Payloads.parser(Payloads.SAY_COMPLETE));
+	}
+
+	@Benchmark
+	public AbstractXmppObject extensionFilterHit() {
+
+		return offerFilter.doFilter(offer);
+	}
+
+	@Benchmark
+	public AbstractXmppObject extensionFilterMiss() {
+
+		return offerFilter.doFilter(complete);
+	}
+
+	@Benchmark
+	public AbstractXmppObject extensionFilterFromHit() {
+
+		return callFilter.doFilter(complete);
+	}
+
+	@Benchmark
+	public JIDImpl parseFullJid() {
+
+		return new JIDImpl(complete.getFrom());
+	}
+
+	@Benchmark
+	public JIDImpl parseBareJid() {
+
+		return new JIDImpl(offer.getFrom());
+	}
+
+	@Benchmark
+	public JID cachedFullJid() {
+
+		return complete.getFromJid();
+	}
+}
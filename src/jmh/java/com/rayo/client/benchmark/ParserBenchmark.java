@@ -0,0 +1,110 @@
+package com.rayo.client.benchmark;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlPullParser;
+
+import com.rayo.client.util.SymbolParser;
+import com.rayo.client.util.XmppObjectParser;
+import com.rayo.client.xmpp.stanza.IQ;
+import com.rayo.client.xmpp.stanza.Presence;
+
+/**
+ * <p>Parsing of incoming stanzas and their serialization back to XML, which is what the
+ * reader and the wire logs do for every stanza.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+
+	private XmlPullParser parser;
+	private Presence offer;
+	private IQ result;
+	private Presence compactOffer;
+
+	@Setup
+	public void setup() throws Exception {
+
+		parser = new SymbolParser();
+		parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+		offer = XmppObjectParser.parsePresence(Payloads.parser(Payloads.OFFER));
+		result = XmppObjectParser.parseIQ(Payloads.parser(Payloads.REF_RESULT));
+		compactOffer = XmppObjectParser.parseCompactPresence(Payloads.parser(Payloads.OFFER));
+	}
+
+	private XmlPullParser reset(String xml) throws Exception {
+
+		parser.setInput(new StringReader(xml));
+		parser.nextTag();
+		return parser;
+	}
+
+	@Benchmark
+	public IQ parseRefResult() throws Exception {
+
+		return XmppObjectParser.parseIQ(reset(Payloads.REF_RESULT));
+	}
+
+	@Benchmark
+	public IQ parseEmptyResult() throws Exception {
+
+		return XmppObjectParser.parseIQ(reset(Payloads.EMPTY_RESULT));
+	}
+
+	@Benchmark
+	public Presence parseOffer() throws Exception {
+
+		return XmppObjectParser.parsePresence(reset(Payloads.OFFER));
+	}
+
+	@Benchmark
+	public Presence parseComplete() throws Exception {
+
+		return XmppObjectParser.parsePresence(reset(Payloads.SAY_COMPLETE));
+	}
+
+	@Benchmark
+	public IQ parseCompactRefResult() throws Exception {
+
+		return XmppObjectParser.parseCompactIQ(reset(Payloads.REF_RESULT));
+	}
+
+	@Benchmark
+	public Presence parseCompactOffer() throws Exception {
+
+		return XmppObjectParser.parseCompactPresence(reset(Payloads.OFFER));
+	}
+
+	@Benchmark
+	public String offerToString() {
+
+		return offer.toString();
+	}
+
+	@Benchmark
+	public String resultToString() {
+
+		return result.toString();
+	}
+
+	@Benchmark
+	public String compactOfferToString() {
+
+		return compactOffer.toString();
+	}
+}
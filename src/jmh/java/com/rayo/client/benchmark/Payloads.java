@@ -0,0 +1,62 @@
+package com.rayo.client.benchmark;
+
+import java.io.StringReader;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import com.rayo.client.util.SymbolParser;
+
+/**
+ * <p>Realistic Rayo stanzas used by the benchmarks, as they arrive from a Rayo server.</p>
+ */
+public class Payloads {
+
+	public static final String OFFER =
+		"<presence from=\"9f00061@call.rayo.net\" to=\"usera@rayo.net/voxeo\">" +
+			"<offer xmlns=\"urn:xmpp:rayo:1\" to=\"sip:usera@rayo.net\" from=\"sip:+13055195825@rayo.net\">" +
+				"<header name=\"Via\" value=\"SIP/2.0/UDP 10.0.1.11:5060;branch=z9hG4bK-d8754z-a7fcb7a1\"/>" +
+				"<header name=\"Max-Forwards\" value=\"70\"/>" +
+				"<header name=\"Contact\" value=\"&lt;sip:+13055195825@10.0.1.11:5060&gt;\"/>" +
+				"<header name=\"To\" value=\"&lt;sip:usera@rayo.net&gt;\"/>" +
+				"<header name=\"From\" value=\"&lt;sip:+13055195825@rayo.net&gt;;tag=2b5e6f9a\"/>" +
+				"<header name=\"Call-ID\" value=\"OTZhNDMyMzRiNGFmYzQ2ZjQ3MDQ2MzQ0ZGFjNmI1ZTc.\"/>" +
+				"<header name=\"CSeq\" value=\"1 INVITE\"/>" +
+				"<header name=\"Allow\" value=\"INVITE, ACK, CANCEL, OPTIONS, BYE, REFER, NOTIFY, MESSAGE, SUBSCRIBE, INFO\"/>" +
+				"<header name=\"Content-Type\" value=\"application/sdp\"/>" +
+				"<header name=\"User-Agent\" value=\"X-Lite release 4.0 stamp 58832\"/>" +
+			"</offer>" +
+		"</presence>";
+
+	public static final String ANSWERED =
+		"<presence from=\"9f00061@call.rayo.net\" to=\"usera@rayo.net/voxeo\">" +
+			"<answered xmlns=\"urn:xmpp:rayo:1\"/>" +
+		"</presence>";
+
+	public static final String SAY_COMPLETE =
+		"<presence from=\"9f00061@call.rayo.net/fgh4590\" to=\"usera@rayo.net/voxeo\">" +
+			"<complete xmlns=\"urn:xmpp:rayo:ext:1\">" +
+				"<success xmlns=\"urn:xmpp:rayo:output:complete:1\"/>" +
+			"</complete>" +
+		"</presence>";
+
+	public static final String REF_RESULT =
+		"<iq type=\"result\" id=\"a4d8c9e2-3f1b-4c7e-9a2d-5b6e7f8a9b0c\" from=\"9f00061@call.rayo.net\" to=\"usera@rayo.net/voxeo\">" +
+			"<ref xmlns=\"urn:xmpp:rayo:1\" id=\"fgh4590\"/>" +
+		"</iq>";
+
+	public static final String EMPTY_RESULT =
+		"<iq type=\"result\" id=\"0e1f2a3b-4c5d-6e7f-8a9b-0c1d2e3f4a5b\" from=\"9f00061@call.rayo.net\" to=\"usera@rayo.net/voxeo\"/>";
+
+	/**
+	 * Creates a namespace aware parser, like the one used by the reader, positioned at the
+	 * start tag of the given stanza.
+	 */
+	public static XmlPullParser parser(String xml) throws Exception {
+
+		XmlPullParser parser = new SymbolParser();
+		parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+		parser.setInput(new StringReader(xml));
+		parser.nextTag();
+		return parser;
+	}
+}
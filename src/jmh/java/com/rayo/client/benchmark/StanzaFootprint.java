@@ -0,0 +1,71 @@
+package com.rayo.client.benchmark;
+
+import com.rayo.client.util.XmppObjectParser;
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Measures the heap retained by every received stanza, parsed into dom4j elements and
+ * into compact elements. It keeps a large number of parsed stanzas alive and divides the
+ * growth of the used heap after a full collection by their number. Every stanza gets its
+ * own id and call id, as retained stanzas rarely share them.</p>
+ *
+ * <pre>
+ * 	java -cp ... com.rayo.client.benchmark.StanzaFootprint [stanzas]
+ * </pre>
+ */
+public class StanzaFootprint {
+
+	public static void main(String[] args) throws Exception {
+
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		System.out.println(String.format("%-14s %10s %10s %8s", "stanza", "dom4j", "compact", "ratio"));
+		report("ref result", Payloads.REF_RESULT, count);
+		report("empty result", Payloads.EMPTY_RESULT, count);
+		report("answered", Payloads.ANSWERED, count);
+		report("say complete", Payloads.SAY_COMPLETE, count);
+		report("offer", Payloads.OFFER, count);
+	}
+
+	private static void report(String name, String xml, int count) throws Exception {
+
+		long dom4j = measure(xml, count, false);
+		long compact = measure(xml, count, true);
+		System.out.println(String.format("%-14s %9dB %9dB %7.1fx", name, dom4j, compact, (double)dom4j / compact));
+	}
+
+	private static long measure(String xml, int count, boolean compact) throws Exception {
+
+		boolean iq = xml.startsWith("<iq");
+		XmppObject[] retained = new XmppObject[count];
+		long before = usedMemory();
+		for (int i = 0; i < count; i++) {
+			String stanza = unique(xml, i);
+			if (iq) {
+				retained[i] = compact ? XmppObjectParser.parseCompactIQ(Payloads.parser(stanza)) : XmppObjectParser.parseIQ(Payloads.parser(stanza));
+			} else {
+				retained[i] = compact ? XmppObjectParser.parseCompactPresence(Payloads.parser(stanza)) : XmppObjectParser.parsePresence(Payloads.parser(stanza));
+			}
+		}
+		long after = usedMemory();
+		if (retained[count - 1] == null) {
+			throw new IllegalStateException();
+		}
+		return (after - before) / count;
+	}
+
+	private static String unique(String xml, int i) {
+
+		String stanza = xml.replace("9f00061", String.format("%07x", i));
+		return stanza.replaceFirst(" id=\"[^\"]*\"", String.format(" id=\"%036x\"", i));
+	}
+
+	private static long usedMemory() throws InterruptedException {
+
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -1,5 +1,7 @@
 package com.rayo.client;
 
+import java.util.Collection;
+
 import com.rayo.client.xmpp.stanza.IQ;
 
 /**
@@ -20,6 +22,10 @@ public class AsynchronousRayoClient extends RayoClient {
 		super(server, rayoServer);
 	}
 
+	public AsynchronousRayoClient(String server, Integer port, Collection<String> rayoServers) {
+		super(server, port, rayoServers);
+	}
+
 	@Override
 	protected IQ sendIQ(IQ iq) throws XmppException {
 
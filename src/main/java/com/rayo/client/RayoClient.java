@@ -4,13 +4,18 @@ import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.management.ObjectName;
 import javax.media.mscontrol.join.Joinable;
 
 import org.joda.time.Duration;
@@ -18,28 +23,51 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.rayo.client.auth.AuthenticationListener;
+import com.rayo.client.exception.ConnectionLostException;
 import com.rayo.client.exception.DialTimeoutException;
+import com.rayo.client.exception.NoRayoNodeAvailableException;
 import com.rayo.client.filter.XmppObjectFilter;
+import com.rayo.client.flow.CallEventPublisher;
+import com.rayo.client.flow.Flow;
 import com.rayo.client.listener.RayoMessageListener;
+import com.rayo.client.listener.StanzaAdapter;
 import com.rayo.client.listener.StanzaListener;
+import com.rayo.client.metrics.ClientMetrics;
+import com.rayo.client.metrics.Gauge;
+import com.rayo.client.metrics.MetricsMBean;
+import com.rayo.client.offer.OfferQueue;
+import com.rayo.client.offer.OfferWorkerPool;
 import com.rayo.client.registry.Call;
 import com.rayo.client.registry.CallsRegistry;
+import com.rayo.client.registry.CallsRegistryListener;
+import com.rayo.client.registry.VerbCompletionRegistry;
+import com.rayo.client.response.ResponseHandler;
+import com.rayo.client.selection.PowerOfTwoChoicesSelector;
+import com.rayo.client.selection.RayoNode;
+import com.rayo.client.selection.RayoNodeSelector;
+import com.rayo.client.util.JID;
+import com.rayo.client.util.JIDImpl;
 import com.rayo.client.verb.ClientPauseCommand;
 import com.rayo.client.verb.ClientResumeCommand;
 import com.rayo.client.verb.RefEvent;
+import com.rayo.client.verb.VerbFuture;
+import com.rayo.client.xmpp.Namespaces;
 import com.rayo.client.xmpp.extensions.Extension;
+import com.rayo.client.xmpp.stanza.Error;
 import com.rayo.client.xmpp.stanza.IQ;
 import com.rayo.client.xmpp.stanza.Ping;
 import com.rayo.client.xmpp.stanza.Presence;
 import com.rayo.client.xmpp.stanza.Presence.Show;
 import com.rayo.client.xmpp.stanza.Presence.Type;
 import com.rayo.client.xmpp.stanza.Stanza;
+import com.rayo.client.xmpp.stanza.XmppObject;
 import com.rayo.core.AcceptCommand;
 import com.rayo.core.AnswerCommand;
 import com.rayo.core.CallCommand;
 import com.rayo.core.CallRejectReason;
 import com.rayo.core.DialCommand;
 import com.rayo.core.DtmfCommand;
+import com.rayo.core.EndEvent;
 import com.rayo.core.HangupCommand;
 import com.rayo.core.JoinCommand;
 import com.rayo.core.JoinDestinationType;
@@ -67,6 +95,7 @@ import com.rayo.core.verb.StopCommand;
 import com.rayo.core.verb.Transfer;
 import com.rayo.core.verb.UnholdCommand;
 import com.rayo.core.verb.UnmuteCommand;
+import com.rayo.core.verb.VerbCompleteEvent;
 import com.rayo.core.verb.VerbRef;
 import com.rayo.core.verb.VolumeDownCommand;
 import com.rayo.core.verb.VolumeUpCommand;
@@ -84,13 +113,63 @@ public class RayoClient {
 	
 	protected final XmppConnection connection;
 	public static final String DEFAULT_RESOURCE = "voxeo";
+	
+	private static final int DEFAULT_OFFER_TIMEOUT = 20 * 1000;
+	
+	// Asynchronous dials that get no answer release their node after this many milliseconds
+	private static final long DIAL_TIMEOUT = XmppObjectFilter.DEFAULT_TIMEOUT;
 
 	private CallsRegistry callRegistry = new CallsRegistry();
 	
+	private VerbCompletionRegistry verbRegistry = new VerbCompletionRegistry();
+	
+	private OfferQueue offerQueue = new OfferQueue();
+	
+	private ConcurrentMap<String, CallEventPublisher> eventPublishers = new ConcurrentHashMap<String, CallEventPublisher>(50);
+	
 	private String rayoServer;
 	
+	private RayoNodeSelector nodeSelector;
+	
+	private Timer dialTimer;
+	
+	private volatile URI defaultFrom;
+	
+	private volatile ClientJID clientJid;
+	
 	private ReentrantReadWriteLock connectionLock = new ReentrantReadWriteLock();
 	
+	private volatile ConnectionLostException connectionLost;
+	
+	private ClientMetrics metrics;
+	
+	private ObjectName metricsName;
+	
+	private final XmppConnectionListener connectionLostListener = new XmppConnectionAdapter() {
+		
+		@Override
+		public void connectionError(String connectionId, Exception e) {
+			
+			connectionLost(new ConnectionLostException(e));
+		}
+	};
+	
+	// Calls discarded by the registry will never get their end event
+	private final CallsRegistryListener callsRegistryListener = new CallsRegistryListener() {
+		
+		@Override
+		public void callExpired(Call call) {
+			
+			discardCall(call.getCallId(), new XmppException(String.format("Call [%s] expired before it ended", call.getCallId())));
+		}
+		
+		@Override
+		public void callEvicted(Call call) {
+			
+			discardCall(call.getCallId(), new XmppException(String.format("Call [%s] was evicted before it ended", call.getCallId())));
+		}
+	};
+	
 	/**
 	 * Creates a new client object. This object will be used to interact with an Rayo server.
 	 * 
@@ -126,6 +205,35 @@ public class RayoClient {
 		this.rayoServer = rayoServer;
 	}
 	
+	/**
+	 * Creates a new client object that will be sending dial requests to a set of Rayo servers 
+	 * or gateways. Each dial will be sent to the node with the best observed latency, error rate 
+	 * and number of outstanding requests. Commands for existing calls will be always sent to the 
+	 * node that is handling the call.
+	 * 
+	 * @param xmppServer Server that this client will be connecting to
+	 * @param port Port number that the server is listening at
+	 * @param rayoServers JIDs of the Rayo servers or gateways
+	 */
+	public RayoClient(String xmppServer, Integer port, Collection<String> rayoServers) {
+
+		this(new SimpleXmppConnection(xmppServer, port), new PowerOfTwoChoicesSelector(rayoServers));
+	}
+	
+	/**
+	 * Creates a Rayo Client using the given XMPP connection and a custom strategy to 
+	 * select the Rayo node that will receive each dial request.
+	 * 
+	 * @param connection XMPP connection that will be used
+	 * @param nodeSelector Selector of Rayo nodes
+	 */
+	public RayoClient(XmppConnection connection, RayoNodeSelector nodeSelector) {
+
+		this.connection = connection;
+		this.nodeSelector = nodeSelector;
+		this.rayoServer = nodeSelector.getNodes().iterator().next().getJid();
+	}
+	
 	/**
 	 * Connects and authenticates into the Rayo Server. By default it will use the resource 'voxeo'.
 	 * 
@@ -177,40 +285,85 @@ public class RayoClient {
 		try {
 			logger.info("Connecting Rayo client XMPP Connection");
 			if (!connection.isConnected()) {
+				connectionLost = null;
 				connection.connect(timeout);
 				connection.login(username, password, resource, timeout);
 				
-				connection.addStanzaListener(new RayoMessageListener("offer") {
+				connection.removeXmppConnectionListener(connectionLostListener);
+				connection.addXmppConnectionListener(connectionLostListener);
+				callRegistry.removeListener(callsRegistryListener);
+				callRegistry.addListener(callsRegistryListener);
+				callRegistry.start();
+				
+				connection.addStanzaListener(new RayoMessageListener("offer", Namespaces.RAYO) {
 					
 					@Override
 					@SuppressWarnings("rawtypes")
 					public void messageReceived(Object object) {
 						
-						//TODO: Stanza should have methods to fetch the JID node name, domain, etc.
 						Stanza stanza = (Stanza)object;
-						int at = stanza.getFrom().indexOf('@');
-						String callId = stanza.getFrom().substring(0, at);
-						String domain = stanza.getFrom().substring(at+1);
-						if (domain.contains(":")) {
+						JID from = stanza.getFromJid();
+						String callId = from.getNode();
+						String domain = from.getDomain();
+						if (domain.indexOf(':') != -1) {
 							domain = domain.substring(0, domain.indexOf(':'));
 						}
 						Call call = new Call(callId, domain);
 						callRegistry.registerCall(callId, call);
+						
+						if (stanza.hasExtension() && stanza.getExtension().getObject() instanceof OfferEvent) {
+							OfferEvent source = (OfferEvent)stanza.getExtension().getObject();
+							call.setHeaders(source.getHeaders());
+							OfferEvent offer = new OfferEvent(callId);
+							offer.setTo(source.getTo());
+							offer.setFrom(source.getFrom());
+							offer.setHeaders(source.getHeaders());
+							offerQueue.add(offer);
+						}
 					}
 				});
-				connection.addStanzaListener(new RayoMessageListener("end") {
+				connection.addStanzaListener(new RayoMessageListener("end", Namespaces.RAYO) {
 					
 					@Override
 					@SuppressWarnings("rawtypes")
 					public void messageReceived(Object object) {
 						
-						//TODO: Stanza should have methods to fetch the JID node name, domain, etc.
 						Stanza stanza = (Stanza)object;
-						int at = stanza.getFrom().indexOf('@');
-						String callId = stanza.getFrom().substring(0, at);
+						String callId = stanza.getFromJid().getNode();
 						callRegistry.unregisterCal(callId);
+						verbRegistry.callEnded(callId);
 					}
 				});	
+				connection.addStanzaListener(new StanzaAdapter() {
+					
+					@Override
+					public void onPresence(Presence presence) {
+						
+						trackCallState(presence);
+						publishCallEvent(presence);
+					}
+				});
+				connection.addStanzaListener(new RayoMessageListener("complete") {
+					
+					@Override
+					@SuppressWarnings("rawtypes")
+					public void messageReceived(Object object) {
+						
+						Stanza stanza = (Stanza)object;
+						JID from = stanza.getFromJid();
+						if (from == null || from.getNode() == null || from.getResource() == null || !stanza.hasExtension()) {
+							return;
+						}
+						Object event = stanza.getExtension().getObject();
+						if (event instanceof VerbCompleteEvent) {
+							Call call = callRegistry.get(from.getNode());
+							if (call != null) {
+								call.removeVerb(from.getResource());
+							}
+							verbRegistry.complete(from.getNode(), from.getResource(), (VerbCompleteEvent)event);
+						}
+					}
+				});
 				
 				broadcastAvailability();
 				
@@ -224,7 +377,7 @@ public class RayoClient {
 				};
 				new Timer().schedule(pingTask, 5000, 30000);
 				
-				connection.addStanzaListener(new RayoMessageListener("ping") {
+				connection.addStanzaListener(new RayoMessageListener("ping", Namespaces.PING) {
 					
 					@Override
 					public void messageReceived(Object object) {
@@ -240,6 +393,8 @@ public class RayoClient {
 						}
 					}
 				});
+				
+				exportMetrics(username + "@" + connection.getServiceName() + "/" + resource);
 			} else {
 				logger.error("Trying to connect while the old XMPP connection is active. Please, disconnect first");
 			}
@@ -268,13 +423,15 @@ public class RayoClient {
 	
 	public void setStatus(Show status) throws XmppException {
 		
-		Presence presence = new Presence()
-			.setId(UUID.randomUUID().toString())
-			.setFrom(connection.getUsername() + "@" + connection.getServiceName() + "/" + connection.getResource())
-			.setTo(rayoServer)
-			.setShow(status);
-		
-		connection.send(presence);
+		for (String server: getRayoServers()) {
+			Presence presence = new Presence()
+				.setId(UUID.randomUUID().toString())
+				.setFrom(connection.getUsername() + "@" + connection.getServiceName() + "/" + connection.getResource())
+				.setTo(server)
+				.setShow(status);
+			
+			connection.send(presence);
+		}
 	}
 	
 	private void broadcastAvailability() throws XmppException {
@@ -284,23 +441,27 @@ public class RayoClient {
 			.setShow(Show.chat);
 		connection.send(presence);
 		
-		presence = new Presence()
-			.setId(UUID.randomUUID().toString())
-			.setFrom(connection.getUsername() + "@" + connection.getServiceName() + "/" + connection.getResource())
-			.setTo(rayoServer)
-			.setShow(Show.chat);
-		connection.send(presence);
-
+		for (String server: getRayoServers()) {
+			presence = new Presence()
+				.setId(UUID.randomUUID().toString())
+				.setFrom(connection.getUsername() + "@" + connection.getServiceName() + "/" + connection.getResource())
+				.setTo(server)
+				.setShow(Show.chat);
+			connection.send(presence);
+		}
 	}
 
 	private void broadcastUnavailability() throws XmppException {
 		
-		Presence presence = new Presence()
-			.setId(UUID.randomUUID().toString())
-			.setFrom(connection.getUsername() + "@" + connection.getServiceName() + "/" + connection.getResource())
-			.setTo(rayoServer)
-			.setType(Type.unavailable);
-		connection.send(presence);
+		Presence presence = null;
+		for (String server: getRayoServers()) {
+			presence = new Presence()
+				.setId(UUID.randomUUID().toString())
+				.setFrom(connection.getUsername() + "@" + connection.getServiceName() + "/" + connection.getResource())
+				.setTo(server)
+				.setType(Type.unavailable);
+			connection.send(presence);
+		}
 
 		presence = new Presence()
 			.setId(UUID.randomUUID().toString())
@@ -403,6 +564,13 @@ public class RayoClient {
 				
 				connection.disconnect();
 			}
+			unexportMetrics();
+			callRegistry.stop();
+			verbRegistry.clear(new XmppException("Disconnected before the verb completed"));
+			for (CallEventPublisher publisher: eventPublishers.values()) {
+				publisher.fail(new XmppException("Disconnected before the call ended"));
+			}
+			eventPublishers.clear();
 		} finally {
 			logger.info("Rayo Client XMPP Connection has been disconnected");
 			lock.unlock();
@@ -410,6 +578,151 @@ public class RayoClient {
 	}
 	
 	
+	/**
+	 * Fails everything that is waiting for the server as soon as the connection is lost, so 
+	 * callers can fail over right away instead of waiting for their timeouts. Verb futures and 
+	 * call event streams are failed and threads waiting for offers are released. 
+	 */
+	private void connectionLost(ConnectionLostException cause) {
+		
+		logger.error("Rayo client has lost its XMPP connection");
+		connectionLost = cause;
+		offerQueue.release();
+		verbRegistry.clear(cause);
+		for (CallEventPublisher publisher: eventPublishers.values()) {
+			publisher.fail(cause);
+		}
+		eventPublishers.clear();
+	}
+	
+	/**
+	 * <p>Returns the future outcome of a verb started by this client. The future is resolved 
+	 * when the complete event of this specific verb is received, so many verbs can be waited 
+	 * for concurrently without getting each other's events. Listeners can be added to the 
+	 * future to be notified without blocking.</p>
+	 * 
+	 * <p>Futures are discarded when their call ends. Verbs that have not completed by then 
+	 * are failed.</p>
+	 * 
+	 * @param ref Verb reference returned when the verb was started
+	 * 
+	 * @return VerbFuture Future outcome of the verb
+	 */
+	public VerbFuture getVerbCompletion(VerbRef ref) {
+		
+		return verbRegistry.get(ref);
+	}
+	
+	/**
+	 * <p>Returns the stream of Rayo events of a call that has been offered to or dialed by 
+	 * this client. The stream accepts a single subscriber and honors its demand, buffering up 
+	 * to {@link CallEventPublisher#DEFAULT_CAPACITY} events that have not been requested yet. 
+	 * It completes after the end event of the call.</p>
+	 * 
+	 * @param callId Id of the call
+	 * 
+	 * @return Flow.Publisher Events of the call or <code>null</code> if the call is not active
+	 */
+	public Flow.Publisher<Object> getCallEvents(String callId) {
+		
+		return eventPublishers.get(callId);
+	}
+	
+	/**
+	 * Releases the verb futures and the event stream of a call that will not get an end event
+	 */
+	private void discardCall(String callId, XmppException cause) {
+		
+		verbRegistry.callEnded(callId);
+		CallEventPublisher publisher = eventPublishers.remove(callId);
+		if (publisher != null) {
+			publisher.fail(cause);
+		}
+	}
+	
+	private CallEventPublisher getOrCreatePublisher(String callId) {
+		
+		CallEventPublisher publisher = eventPublishers.get(callId);
+		if (publisher == null) {
+			publisher = new CallEventPublisher(callId);
+			CallEventPublisher existing = eventPublishers.putIfAbsent(callId, publisher);
+			if (existing != null) {
+				publisher = existing;
+			}
+		}
+		return publisher;
+	}
+	
+	/**
+	 * Keeps the state, verbs and joined parties of the registered calls up to date. Any 
+	 * presence from a call counts as activity, so calls with events are never considered idle.
+	 */
+	private void trackCallState(Presence presence) {
+		
+		JID from = presence.getFromJid();
+		if (from == null || from.getNode() == null) {
+			return;
+		}
+		Call call = callRegistry.get(from.getNode());
+		if (call == null) {
+			return;
+		}
+		String name = presence.getChildName();
+		if ("ringing".equals(name)) {
+			call.transition(Call.State.RINGING);
+		} else if ("answered".equals(name)) {
+			call.transition(Call.State.ANSWERED);
+		} else if ("joined".equals(name) || "unjoined".equals(name)) {
+			String party = presence.getChildAttribute("call-id");
+			if (party == null) {
+				party = presence.getChildAttribute("mixer-name");
+			}
+			if (party == null) {
+				call.touch();
+			} else if ("joined".equals(name)) {
+				call.addJoined(party);
+			} else {
+				call.removeJoined(party);
+			}
+		} else {
+			call.touch();
+		}
+	}
+	
+	private void publishCallEvent(Presence presence) {
+		
+		JID from = presence.getFromJid();
+		if (from == null || from.getNode() == null) {
+			return;
+		}
+		// Streams are only opened for calls offered to or dialed by this client. Events of 
+		// any other call, or sent after the call ended, are dropped without unmarshalling them.
+		String callId = from.getNode();
+		boolean offer = "offer".equals(presence.getChildName());
+		CallEventPublisher publisher = offer ? null : eventPublishers.get(callId);
+		if (publisher == null && !offer) {
+			logger.debug("Dropping event of unknown call {}", callId);
+			return;
+		}
+		if (!presence.hasExtension()) {
+			return;
+		}
+		Object event = presence.getExtension().getObject();
+		if (event instanceof EndEvent) {
+			if (publisher != null && eventPublishers.remove(callId, publisher)) {
+				publisher.publish(event);
+				publisher.complete();
+			}
+			return;
+		}
+		if (event instanceof OfferEvent) {
+			publisher = getOrCreatePublisher(callId);
+		}
+		if (publisher != null) {
+			publisher.publish(event);
+		}
+	}
+	
 	/**
 	 * <p>Waits for an Offer Event. Shortcut method to wait for an incoming call.</p>
 	 * 
@@ -425,6 +738,10 @@ public class RayoClient {
 	/**
 	 * <p>Waits for an Offer Event. Shortcut method to wait for an incoming call.</p>
 	 * 
+	 * <p>Offers are taken from the {@link OfferQueue} of this client, so when several threads 
+	 * are waiting every offer is handed to only one of them, in the order they started 
+	 * waiting.</p>
+	 * 
 	 * @timeout Timeout 
 	 * @return OfferEvent Offer event that has been received
 	 * 
@@ -432,31 +749,33 @@ public class RayoClient {
 	 */
 	public OfferEvent waitForOffer(Integer timeout) throws XmppException {
 		
-		final StringBuilder callId = new StringBuilder();
-		RayoMessageListener tempListener = new RayoMessageListener("offer") {
-			
-			@Override
-			@SuppressWarnings("rawtypes")
-			public void messageReceived(Object object) {
-				
-				Stanza stanza = (Stanza)object;
-				callId.append(stanza.getFrom().substring(0, stanza.getFrom().indexOf('@')));
-			}
-		};
-		addStanzaListener(tempListener);
+		OfferEvent offer = null;
 		try {
-			OfferEvent stanza = waitFor("offer", OfferEvent.class, timeout);
-			
-			OfferEvent offer = new OfferEvent(callId.toString());
-			offer.setTo(stanza.getTo());
-			offer.setFrom(stanza.getFrom());
-			offer.setHeaders(stanza.getHeaders());
-			
-			return offer;
-		} finally {
-			removeStanzaListener(tempListener);
+			offer = offerQueue.take(timeout != null ? timeout : DEFAULT_OFFER_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (offer == null && connectionLost != null) {
+			throw connectionLost;
+		}
+		if (offer == null) {
+			throw new XmppException("Timed out while waiting for [offer]");
 		}
+		return offer;
+	}
+	
+	/**
+	 * <p>Returns the queue that hands every incoming offer to exactly one consumer. It feeds 
+	 * {@link #waitForOffer()} and can also feed a pool of call handling threads through an 
+	 * {@link OfferWorkerPool}.</p>
+	 * 
+	 * @return OfferQueue Offer intake queue
+	 */
+	public OfferQueue getOfferQueue() {
+		
+		return offerQueue;
 	}
+
 	
 	/**
 	 * <p>Waits for an Rayo message. This is a blocking call and therefore should be used carefully. 
@@ -895,27 +1214,204 @@ public class RayoClient {
 		DialCommand dial = new DialCommand();
 		dial.setTo(to);
 		if (from == null) {
+			from = getDefaultFrom();
+		}
+		dial.setFrom(from);
+		
+		return internalDial(dial);
+	}
+	
+	/**
+	 * <p>Sends a dial command without waiting for the Rayo server to answer it. The handler will 
+	 * be invoked from the dispatching thread when the IQ response arrives. The response will be 
+	 * an IQ of type result with the call reference or an IQ of type error.</p>
+	 * 
+	 * <p>If no response arrives the handler will never be invoked. It is up to the caller to 
+	 * enforce a timeout. When the dial goes through a {@link RayoNodeSelector}, a dial left 
+	 * unanswered for a minute is counted as a failure of its node.</p>
+	 * 
+	 * @param command Dial command
+	 * @param handler Handler that will receive the IQ response
+	 * 
+	 * @throws XmppException If the dial command could not be sent
+	 */
+	public void dial(DialCommand command, final ResponseHandler handler) throws XmppException {
+		
+		if (command.getFrom() == null) {
+			command.setFrom(getDefaultFrom());
+		}
+		IQ iq = buildDial(command);
+		// The node is acquired once nothing else can fail before sending
+		final RayoNode node = selectNode(iq);
+		
+		Lock lock = connectionLock.readLock();
+		lock.lock();
+		try {
+			final String id = iq.getId();
+			final long start = System.nanoTime();
+			// The node is released exactly once, by the answer or by the timeout
+			final AtomicBoolean finished = new AtomicBoolean();
+			final TimerTask timeout = node == null ? null : new TimerTask() {
+				
+				@Override
+				public void run() {
+					
+					if (finished.compareAndSet(false, true)) {
+						node.requestFinished(id, System.nanoTime() - start, true);
+					}
+				}
+			};
+			if (timeout != null) {
+				getDialTimer().schedule(timeout, DIAL_TIMEOUT);
+			}
 			try {
-				from = new URI(String.format("sip:%s:5060",InetAddress.getLocalHost().getHostAddress()));
-			} catch (Exception e) {
-				e.printStackTrace();
+				connection.send(iq, new ResponseHandler() {
+					
+					@Override
+					public void handle(XmppObject response) {
+						
+						IQ result = (IQ)response;
+						if (timeout != null) {
+							timeout.cancel();
+							if (finished.compareAndSet(false, true)) {
+								node.requestFinished(id, System.nanoTime() - start, result.isError() && isServerFailure(result.getError()));
+							}
+						}
+						if (!result.isError()) {
+							RefEvent reference = (RefEvent)result.getExtension().getObject();
+							trackDialedCall(reference.getJid(), node);
+						}
+						if (handler != null) {
+							handler.handle(response);
+						}
+					}
+				});
+			} catch (XmppException xe) {
+				if (timeout != null) {
+					timeout.cancel();
+					if (finished.compareAndSet(false, true)) {
+						node.requestFinished(id, System.nanoTime() - start, true);
+					}
+				}
+				throw xe;
 			}
+		} finally {
+			lock.unlock();
 		}
-		dial.setFrom(from);
+	}
+	
+	/**
+	 * Registers a call placed by this client, so its event stream is open and the call is 
+	 * released if its end event gets lost
+	 */
+	private void trackDialedCall(String callId, RayoNode node) {
 		
-		IQ iq = new IQ(IQ.Type.set)
+		String domain = node == null ? rayoServer : node.getJid();
+		callRegistry.registerCall(callId, new Call(callId, domain, Call.State.DIALING));
+		getOrCreatePublisher(callId);
+	}
+	
+	private synchronized Timer getDialTimer() {
+		
+		if (dialTimer == null) {
+			dialTimer = new Timer("rayo-dial-timeouts", true);
+		}
+		return dialTimer;
+	}
+	
+	/**
+	 * Selects and acquires the node the given dial is sent to. The node must be released with 
+	 * {@link RayoNode#requestFinished(String, long, boolean)}.
+	 */
+	private RayoNode selectNode(IQ dial) throws XmppException {
+		
+		if (nodeSelector == null) {
+			return null;
+		}
+		RayoNode node = nodeSelector.select(dial.getId());
+		if (node == null) {
+			throw new NoRayoNodeAvailableException();
+		}
+		dial.setTo(node.getJid());
+		return node;
+	}
+	
+	private IQ buildDial(DialCommand command) throws XmppException {
+		
+		return new IQ(IQ.Type.set)
 			.setFrom(buildFrom())
 			.setTo(rayoServer)
-			.setChild(Extension.create(dial));
+			.setChild(Extension.create(command));
+	}
+	
+	private VerbRef internalDial(DialCommand command) throws XmppException {
+		
+		IQ iq = buildDial(command);
+		RayoNode node = selectNode(iq);
+
+		VerbRef ref = null;
+		if (node == null) {
+			ref = sendAndGetRef(null, iq);
+		} else {
+			boolean failed = true;
+			long start = System.nanoTime();
+			try {
+				ref = sendAndGetRef(null, iq);
+				failed = (ref == null);
+			} catch (XmppException xe) {
+				failed = isServerFailure(xe.getError());
+				throw xe;
+			} finally {
+				node.requestFinished(iq.getId(), System.nanoTime() - start, failed);
+			}
+		}
 		
-		VerbRef ref = sendAndGetRef(null, iq);
 		if (ref == null) {
 			throw new DialTimeoutException();
 		}
 		// dials return a call id on refs, so different than other components
 		ref.setCallId(ref.getVerbId());
+		// Further commands on this call must go to the node that is handling it
+		trackDialedCall(ref.getCallId(), node);
 		return ref;
 	}
+	
+	/**
+	 * Only server side errors count against a node's health. Client errors like a bad 
+	 * request would fail on any node. 
+	 */
+	private boolean isServerFailure(Error error) {
+		
+		if (error == null) {
+			return true;
+		}
+		Error.Condition condition;
+		try {
+			condition = error.getCondition();
+		} catch (IllegalArgumentException e) {
+			// Unknown condition
+			return true;
+		}
+		return condition == null || condition.getLegacyCode() >= 500;
+	}
+	
+	/**
+	 * Returns the URI used as caller for the dials that do not specify one. It is computed 
+	 * only once as resolving the local host name may block on DNS. 
+	 */
+	private URI getDefaultFrom() {
+		
+		URI from = defaultFrom;
+		if (from == null) {
+			try {
+				from = new URI(String.format("sip:%s:5060",InetAddress.getLocalHost().getHostAddress()));
+				defaultFrom = from;
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		return from;
+	}
 
 	private VerbRef sendAndGetRef(String callId, IQ iq) throws XmppException {
 		
@@ -930,6 +1426,15 @@ public class RayoClient {
 				}
 				RefEvent reference = (RefEvent)result.getExtension().getObject();
 				ref = new VerbRef(callId, reference.getJid());
+				// Dials have no call yet, their reference is the call itself
+				if (callId != null) {
+					// Track the verb right away so its completion can not be missed
+					verbRegistry.get(ref);
+					Call call = callRegistry.get(callId);
+					if (call != null) {
+						call.addVerb(ref.getVerbId());
+					}
+				}
 				return ref;
 			} else {
 				return null;
@@ -1303,20 +1808,36 @@ public class RayoClient {
         return sendIQ(iq);
 	}
 	
-	public VerbRef dial(DialCommand command) throws XmppException {
-        
-		IQ iq = new IQ(IQ.Type.set)
+	/**
+	 * <p>Sends a command to a call without waiting for the Rayo server to answer it. The handler 
+	 * will be invoked from the dispatching thread when the IQ response arrives.</p>
+	 * 
+	 * <p>If no response arrives the handler will never be invoked.</p>
+	 * 
+	 * @param command Command
+	 * @param callId Id of the call
+	 * @param handler Handler that will receive the IQ response or <code>null</code>
+	 * 
+	 * @throws XmppException If the command could not be sent
+	 */
+	public void command(CallCommand command, String callId, ResponseHandler handler) throws XmppException {
+		
+        IQ iq = new IQ(IQ.Type.set)
             .setFrom(buildFrom())
-            .setTo(rayoServer) 
+            .setTo(buildTo(callId))
             .setChild(Extension.create(command));
-        VerbRef ref = sendAndGetRef(null, iq);
+		Lock lock = connectionLock.readLock();
+		lock.lock();
+		try {
+			connection.send(iq, handler);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	public VerbRef dial(DialCommand command) throws XmppException {
         
-        if (ref == null) {
-        	throw new DialTimeoutException();
-        }
-		// dials return a call id on refs, so different than other components
-		ref.setCallId(ref.getVerbId());
-        return ref;
+		return internalDial(command);
 	}
 	
 	/**
@@ -1358,7 +1879,16 @@ public class RayoClient {
 	
 	private String buildFrom() {
 		
-		return connection.getUsername() + "@" + connection.getServiceName() + "/" + connection.getResource();
+		String username = connection.getUsername();
+		String serviceName = connection.getServiceName();
+		String resource = connection.getResource();
+		ClientJID jid = clientJid;
+		// The connection keeps the same instances until it logs in again
+		if (jid == null || !jid.isBuiltFrom(username, serviceName, resource)) {
+			jid = new ClientJID(username, serviceName, resource);
+			clientJid = jid;
+		}
+		return jid.value;
 	}
 	
 	private String buildTo(String callId) {
@@ -1368,7 +1898,12 @@ public class RayoClient {
 
 	private String buildTo(String callId, String resourceId) {
 		
-		String to = callId + "@" + rayoServer;
+		String domain = rayoServer;
+		Call call = callRegistry.get(callId);
+		if (nodeSelector != null && call != null && call.getCallDomain() != null) {
+			domain = call.getCallDomain().toString();
+		}
+		String to = call != null ? call.getJid(domain) : callId + "@" + domain;
 		if (resourceId != null) {
 			to = to + "/" + resourceId;
 		}
@@ -1379,6 +1914,133 @@ public class RayoClient {
 		
 		return connection;
 	}
+	
+	/**
+	 * @return int Number of calls offered to this client, or dialed through a node selector, 
+	 * that have not ended yet
+	 */
+	public int getActiveCallsCount() {
+		
+		return callRegistry.size();
+	}
+	
+	/**
+	 * Returns the registry with the state of the calls handled by this client. It can be used 
+	 * to tune how long orphan calls are kept or to monitor how many calls have been evicted.
+	 * 
+	 * @return CallsRegistry Calls registry
+	 */
+	public CallsRegistry getCallsRegistry() {
+		
+		return callRegistry;
+	}
+	
+	/**
+	 * Returns the metrics of this client: the stanzas, bytes and requests going through its 
+	 * connection, the round trip times of every command, the state of the dispatching queues 
+	 * and the calls being tracked. The metrics are exported through JMX while the client is 
+	 * connected.
+	 * 
+	 * @return ClientMetrics Client metrics
+	 */
+	public synchronized ClientMetrics getMetrics() {
+		
+		if (metrics == null) {
+			metrics = connection instanceof SimpleXmppConnection ? 
+					((SimpleXmppConnection)connection).getMetrics() : new ClientMetrics();
+			metrics.addGauge("calls.active", new Gauge() {
+				
+				@Override
+				public long getValue() {
+
+					return callRegistry.size();
+				}
+			});
+			metrics.addGauge("calls.peak", new Gauge() {
+				
+				@Override
+				public long getValue() {
+
+					return callRegistry.getPeakSize();
+				}
+			});
+			metrics.addGauge("calls.expired", new Gauge() {
+				
+				@Override
+				public long getValue() {
+
+					return callRegistry.getExpiredCount();
+				}
+			});
+			metrics.addGauge("calls.evicted", new Gauge() {
+				
+				@Override
+				public long getValue() {
+
+					return callRegistry.getEvictedCount();
+				}
+			});
+			metrics.addGauge("verbs.calls", new Gauge() {
+				
+				@Override
+				public long getValue() {
+
+					return verbRegistry.getCallsCount();
+				}
+			});
+		}
+		return metrics;
+	}
+	
+	private synchronized void exportMetrics(String name) {
+		
+		if (metricsName != null) {
+			return;
+		}
+		try {
+			metricsName = MetricsMBean.register(getMetrics(), name);
+		} catch (Exception e) {
+			// Several clients may log in with the same JID. Metrics are still available through getMetrics.
+			logger.warn(String.format("Could not export the metrics of client [%s] through JMX: %s", name, e.getMessage()));
+		}
+	}
+	
+	private synchronized void unexportMetrics() {
+		
+		if (metricsName == null) {
+			return;
+		}
+		try {
+			MetricsMBean.unregister(metricsName);
+		} catch (Exception e) {
+			logger.warn(String.format("Could not unregister MBean [%s]", metricsName), e);
+		}
+		metricsName = null;
+	}
+	
+	/**
+	 * Returns the node selector used to distribute dial requests or <code>null</code> if 
+	 * this client is only talking to a single Rayo server
+	 * 
+	 * @return RayoNodeSelector Node selector
+	 */
+	public RayoNodeSelector getNodeSelector() {
+		
+		return nodeSelector;
+	}
+	
+	private List<String> getRayoServers() {
+		
+		List<String> servers = new ArrayList<String>();
+		if (nodeSelector == null) {
+			servers.add(rayoServer);
+		} else {
+			for (RayoNode node: nodeSelector.getNodes()) {
+				servers.add(node.getJid());
+			}
+		}
+		return servers;
+	}
 
 	private void ping() {
 		
@@ -1386,18 +2048,50 @@ public class RayoClient {
 		lock.lock();
 		try {
 			if (connection.isConnected()) {
-				IQ ping = new IQ(IQ.Type.get)
-					.setFrom(buildFrom())
-					.setTo(rayoServer)
-					.setChild(new Ping());
-				try {
-					connection.send(ping);
-				} catch (XmppException e) {
-					e.printStackTrace();
+				for (String server: getRayoServers()) {
+					IQ ping = new IQ(IQ.Type.get)
+						.setFrom(buildFrom())
+						.setTo(server)
+						.setChild(new Ping());
+					try {
+						connection.send(ping);
+					} catch (XmppException e) {
+						e.printStackTrace();
+					}
 				}
 			}
 		} finally {
 			lock.unlock();
 		}		
 	}
+
+	/**
+	 * The JID of this client and the connection values it was built from
+	 */
+	private static class ClientJID {
+		
+		private final String username;
+		private final String serviceName;
+		private final String resource;
+		private final String value;
+		
+		ClientJID(String username, String serviceName, String resource) {
+			
+			this.username = username;
+			this.serviceName = serviceName;
+			this.resource = resource;
+			this.value = new JIDImpl(username, serviceName, resource).toString();
+		}
+		
+		boolean isBuiltFrom(String username, String serviceName, String resource) {
+			
+			return same(this.username, username) && same(this.serviceName, serviceName) && 
+				same(this.resource, resource);
+		}
+		
+		private static boolean same(String a, String b) {
+			
+			return a == b || (a != null && a.equals(b));
+		}
+	}
 }
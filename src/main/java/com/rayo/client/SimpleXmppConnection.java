@@ -3,7 +3,9 @@ package com.rayo.client;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
 import java.net.UnknownHostException;
@@ -18,21 +20,39 @@ import org.slf4j.LoggerFactory;
 import com.rayo.client.auth.AuthenticationHandler;
 import com.rayo.client.auth.AuthenticationListener;
 import com.rayo.client.auth.SimpleAuthenticationHandler;
+import com.rayo.client.capture.CapturingInputStream;
+import com.rayo.client.capture.CapturingOutputStream;
+import com.rayo.client.capture.WireCapture;
+import com.rayo.client.compression.ZlibCompression;
+import com.rayo.client.exception.ConnectionLostException;
+import com.rayo.client.exception.RequestRejectedException;
 import com.rayo.client.filter.XmppObjectExtensionNameFilter;
 import com.rayo.client.filter.XmppObjectFilter;
 import com.rayo.client.filter.XmppObjectIdFilter;
 import com.rayo.client.filter.XmppObjectNameFilter;
+import com.rayo.client.io.InboundInterceptor;
+import com.rayo.client.io.PresenceCoalescer;
+import com.rayo.client.io.PriorityXmppWriter;
 import com.rayo.client.io.SimpleXmppReader;
-import com.rayo.client.io.SimpleXmppWriter;
+import com.rayo.client.io.SlowHandlerDetector;
+import com.rayo.client.io.UnboundedQueueMessageDispatcher;
 import com.rayo.client.io.XmppReader;
 import com.rayo.client.io.XmppWriter;
+import com.rayo.client.limiter.AdaptiveConcurrencyLimiter;
 import com.rayo.client.listener.StanzaListener;
+import com.rayo.client.metrics.ClientMetrics;
+import com.rayo.client.metrics.CountingInputStream;
+import com.rayo.client.metrics.CountingOutputStream;
+import com.rayo.client.metrics.Gauge;
 import com.rayo.client.response.FilterCleaningResponseHandler;
 import com.rayo.client.response.ResponseHandler;
+import com.rayo.client.trace.StanzaTracer;
+import com.rayo.client.trace.WireLog;
 import com.rayo.client.xmpp.extensions.Extension;
 import com.rayo.client.xmpp.stanza.Error;
 import com.rayo.client.xmpp.stanza.Error.Condition;
 import com.rayo.client.xmpp.stanza.Error.Type;
+import com.rayo.client.xmpp.stanza.IQ;
 import com.rayo.client.xmpp.stanza.Stanza;
 import com.rayo.client.xmpp.stanza.XmppObject;
 
@@ -41,6 +61,7 @@ public class SimpleXmppConnection implements XmppConnection {
 	private Logger log = LoggerFactory.getLogger(SimpleXmppConnection.class);
 	
 	private XmppReader reader;
+	private UnboundedQueueMessageDispatcher dispatcher;
 	private XmppWriter writer;
 	private ConnectionConfiguration config;
 	private Socket socket;
@@ -53,11 +74,46 @@ public class SimpleXmppConnection implements XmppConnection {
 	private AuthenticationHandler authenticationHandler;
 	private boolean loggingIn;
 	private boolean connected;
+	private volatile ConnectionLostException connectionLost;
 	
 	private int DEFAULT_TIMEOUT = XmppObjectFilter.DEFAULT_TIMEOUT;
 	
 	private List<XmppConnectionListener> listeners = new ArrayList<XmppConnectionListener>();
 	
+	private AdaptiveConcurrencyLimiter requestLimiter = new AdaptiveConcurrencyLimiter();
+	
+	private final ClientMetrics metrics = new ClientMetrics();
+	
+	private volatile StanzaTracer tracer;
+	
+	private volatile WireCapture wireCapture;
+	private volatile CapturingOutputStream capturingOut;
+	
+	private volatile ZlibCompression compression;
+	
+	private volatile boolean compactStanzas;
+	
+	private final WireLog wireLog = new WireLog();
+	
+	// Releases the permits of the requests that get an answer from the server. It runs on 
+	// the reading thread, so a listener waiting for a permit never waits for its own thread 
+	// and the round trip times do not include the listeners queue lag.
+	private InboundInterceptor requestLimiterInterceptor = new InboundInterceptor() {
+		
+		@Override
+		public boolean accept(XmppObject object) {
+
+			if (object instanceof IQ) {
+				IQ iq = (IQ)object;
+				if (iq.isResult() || iq.isError()) {
+					requestLimiter.complete(iq.getId());
+					metrics.responseReceived(iq.getId(), iq.isError());
+				}
+			}
+			return true;
+		}
+	};
+	
 	public SimpleXmppConnection(String serviceName) {
 		
 		this(serviceName, null);
@@ -72,7 +128,157 @@ public class SimpleXmppConnection implements XmppConnection {
 		
 		authenticationHandler = new SimpleAuthenticationHandler(this);
 		
-		reader = new SimpleXmppReader();
+		dispatcher = new UnboundedQueueMessageDispatcher();
+		SimpleXmppReader reader = new SimpleXmppReader(dispatcher);
+		reader.setWireLog(wireLog);
+		this.reader = reader;
+		initMetrics();
+	}
+	
+	private void initMetrics() {
+		
+		dispatcher.addInterceptor(requestLimiterInterceptor);
+		dispatcher.addInterceptor(new InboundInterceptor() {
+			
+			@Override
+			public boolean accept(XmppObject object) {
+
+				metrics.stanzaReceived();
+				return true;
+			}
+		});
+		metrics.addGauge("dispatcher.queue.depth", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				return dispatcher.getQueueDepth();
+			}
+		});
+		metrics.addGauge("dispatcher.queue.lag", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				return dispatcher.getQueueLag();
+			}
+		});
+		metrics.addGauge("dispatcher.filters.queue.depth", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				return dispatcher.getFiltersQueueDepth();
+			}
+		});
+		metrics.addGauge("dispatcher.filters", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				return dispatcher.getFiltersCount();
+			}
+		});
+		metrics.addGauge("dispatcher.listeners", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				return dispatcher.getListenersCount();
+			}
+		});
+		metrics.addGauge("dispatcher.handlers.violations", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				return dispatcher.getSlowHandlerDetector().getViolations();
+			}
+		});
+		metrics.addGauge("dispatcher.handlers.quarantined", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				return dispatcher.getSlowHandlerDetector().getQuarantinedCount();
+			}
+		});
+		metrics.addGauge("dispatcher.handlers.dropped", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				return dispatcher.getSlowHandlerDetector().getDropped();
+			}
+		});
+		metrics.addGauge("wirelog.dropped", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				return wireLog.getDropped();
+			}
+		});
+		metrics.addGauge("compression.saved.in", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				ZlibCompression compression = SimpleXmppConnection.this.compression;
+				return compression == null ? 0 : compression.getBytesSavedIn();
+			}
+		});
+		metrics.addGauge("compression.saved.out", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				ZlibCompression compression = SimpleXmppConnection.this.compression;
+				return compression == null ? 0 : compression.getBytesSavedOut();
+			}
+		});
+		metrics.addGauge("compression.inflate.nanos", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				ZlibCompression compression = SimpleXmppConnection.this.compression;
+				return compression == null ? 0 : compression.getInflateNanos();
+			}
+		});
+		metrics.addGauge("compression.deflate.nanos", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				ZlibCompression compression = SimpleXmppConnection.this.compression;
+				return compression == null ? 0 : compression.getDeflateNanos();
+			}
+		});
+		metrics.addGauge("requests.inflight", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				return requestLimiter.getInFlight();
+			}
+		});
+		metrics.addGauge("requests.limit", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				return requestLimiter.getLimit();
+			}
+		});
+		metrics.addGauge("requests.rejected", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				return requestLimiter.getRejected();
+			}
+		});
 	}
 	
 	@Override
@@ -119,6 +325,7 @@ public class SimpleXmppConnection implements XmppConnection {
 			return;
 		}
 		
+		connectionLost = null;
 		try {			
 			initIO();
 			initAuth();
@@ -144,6 +351,7 @@ public class SimpleXmppConnection implements XmppConnection {
 			if (!connected) {
 				throw new XmppException(new Error(Condition.service_unavailable, Type.cancel, "Could not connect to server."));
 			}
+			metrics.connected();
 			//TODO: Keep alive
 
 			// Wait a little bit to let connection id get populated on the listener
@@ -184,6 +392,7 @@ public class SimpleXmppConnection implements XmppConnection {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		wireLog.shutdown();
 
 		// Wait a little bit for cleanup
 		try {
@@ -207,8 +416,44 @@ public class SimpleXmppConnection implements XmppConnection {
 		if (!loggingIn && !authenticationHandler.isAuthenticated()) {
 			throw new XmppException(new Error(Condition.not_authorized, Type.cancel, "Not authenticated. You need to authenticate first."));			
 		}
-    	log.debug(String.format("[OUT] [%s]",object));
-		writer.write(object);
+		
+		StanzaTracer tracer = this.tracer;
+		long start = tracer == null ? 0 : System.nanoTime();
+		long permitted = start;
+		
+		// Requests are subject to the adaptive limit of requests waiting for an answer
+		String requestId = null;
+		if (isRequest(object)) {
+			requestId = object.getId();
+			boolean acquired = requestLimiter.acquire(requestId);
+			if (tracer != null) {
+				permitted = System.nanoTime();
+			}
+			if (!acquired) {
+				throw new RequestRejectedException();
+			}
+			if (connectionLost != null) {
+				// The connection was lost while this request was waiting for a permit
+				requestLimiter.cancel(requestId);
+				throw connectionLost;
+			}
+			// Timing starts before writing, as the answer may arrive before write returns
+			metrics.requestSent(requestId, ((IQ)object).getChildName());
+		}
+    	wireLog.outbound(object);
+    	try {
+    		writer.write(object);
+    	} catch (XmppException xe) {
+    		if (requestId != null) {
+    			requestLimiter.cancel(requestId);
+    			metrics.requestAbandoned(requestId, false);
+    		}
+    		throw xe;
+    	}
+    	metrics.stanzaSent();
+    	if (tracer != null) {
+    		tracer.sent(object, permitted - start, System.nanoTime() - permitted);
+    	}
 		
 		for (XmppConnectionListener listener: listeners) {
 			listener.messageSent(object);
@@ -224,7 +469,13 @@ public class SimpleXmppConnection implements XmppConnection {
 		XmppObjectIdFilter filter = new XmppObjectIdFilter(object.getId(), filterHandler);
 		filterHandler.setFilter(filter);
         addFilter(filter);
-        send(object);
+        try {
+        	send(object);
+        } catch (XmppException xe) {
+        	// Nothing was sent, so no answer will ever remove the filter
+        	removeFilter(filter);
+        	throw xe;
+        }
 	}
 	
 	@Override
@@ -238,12 +489,39 @@ public class SimpleXmppConnection implements XmppConnection {
 
 		XmppObjectIdFilter filter = new XmppObjectIdFilter(object.getId());
         addFilter(filter);
-        send(object);
+        StanzaTracer tracer = this.tracer;
+        long start = tracer == null ? 0 : System.nanoTime();
+        try {
+        	send(object);
+        } catch (XmppException xe) {
+        	removeFilter(filter);
+        	throw xe;
+        }
         XmppObject response = filter.poll(timeout);
         removeFilter(filter);
+        if (tracer != null) {
+        	tracer.answered(object, response, System.nanoTime() - start);
+        }
+        if (response == null && object.getId() != null) {
+        	// Do not wait for the limiter to find out that this request has been lost
+        	requestLimiter.cancel(object.getId());
+        	metrics.requestAbandoned(object.getId(), connectionLost == null);
+        }
+        if (response == null && connectionLost != null) {
+        	throw connectionLost;
+        }
         return response;
 	}	
 	
+	private boolean isRequest(XmppObject object) {
+		
+		if (!(object instanceof IQ) || object.getId() == null) {
+			return false;
+		}
+		IQ.Type type = ((IQ)object).getType();
+		return type == IQ.Type.get || type == IQ.Type.set;
+	}
+	
 	private void openStream() throws XmppException {
 
 		writer.openStream(serviceName);
@@ -272,11 +550,7 @@ public class SimpleXmppConnection implements XmppConnection {
 			@Override
 			public void connectionError(String connectionId, Exception e) {
 
-				try {
-					disconnect();
-				} catch (XmppException xe) {
-					xe.printStackTrace();
-				}
+				connectionLost(e);
 			}
 		});
 		
@@ -286,10 +560,37 @@ public class SimpleXmppConnection implements XmppConnection {
 	private void initIO() throws XmppException {
 
 		try {
-	        reader.init(new BufferedReader(
-	        		new InputStreamReader(socket.getInputStream(), "UTF-8")));
-	        writer = new SimpleXmppWriter(new BufferedWriter(
-	        		new OutputStreamWriter(socket.getOutputStream(), "UTF-8")));
+			InputStream in = new CountingInputStream(socket.getInputStream(), metrics.getBytesIn());
+			OutputStream out = new CountingOutputStream(socket.getOutputStream(), metrics.getBytesOut());
+			ZlibCompression compression = this.compression;
+			if (compression != null) {
+				in = compression.wrap(in);
+				out = compression.wrap(out);
+			}
+			// Captures are taken after decompression, so they can always be replayed. What is 
+			// sent is not captured until the user is authenticated, so credentials never 
+			// reach the capture file.
+			WireCapture capture = wireCapture;
+			CapturingOutputStream capturingOut = null;
+			if (capture != null) {
+				in = new CapturingInputStream(in, capture);
+				capturingOut = new CapturingOutputStream(out, capture);
+				capturingOut.suspend();
+				out = capturingOut;
+			}
+			this.capturingOut = capturingOut;
+			if (reader instanceof SimpleXmppReader) {
+				((SimpleXmppReader)reader).setCompression(compression);
+				((SimpleXmppReader)reader).setCompactStanzas(compactStanzas);
+			}
+	        reader.init(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+	        PriorityXmppWriter writer = new PriorityXmppWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+	        writer.setTracer(tracer);
+	        writer.start();
+	        this.writer = writer;
+	        if (compression != null) {
+	        	compression.setWriter(writer);
+	        }
 		} catch (IOException ioe) {
 			throw new XmppException("Could not initialise IO system", Error.Condition.remote_server_error, ioe);
 		}
@@ -307,6 +608,10 @@ public class SimpleXmppConnection implements XmppConnection {
 		log.debug("Logging in as " + username + " and resource " + resourceName);
 		authenticationHandler.login(username, password, resourceName, timeout);
 		
+		CapturingOutputStream capturingOut = this.capturingOut;
+		if (capturingOut != null) {
+			capturingOut.resume();
+		}
 		loggingIn = false;
 		this.username = username;
 		this.resource = resourceName;
@@ -333,6 +638,9 @@ public class SimpleXmppConnection implements XmppConnection {
 	        	response = filter.poll();
 	        }
 	        if (response == null) {
+	        	if (connectionLost != null) {
+	        		throw connectionLost;
+	        	}
 	        	throw new XmppException(String.format("Timed out while waiting for [%s]",node));
 	        }	        
 	        return response;
@@ -363,6 +671,9 @@ public class SimpleXmppConnection implements XmppConnection {
 	        	response = filter.poll();
 	        }
 	        if (response == null) {
+	        	if (connectionLost != null) {
+	        		throw connectionLost;
+	        	}
 	        	throw new XmppException(String.format("Timed out while waiting for [%s]",extensionName));
 	        }
 	        return ((Stanza<?>)response).getExtension();
@@ -372,6 +683,49 @@ public class SimpleXmppConnection implements XmppConnection {
 
 	}
 	
+    /**
+     * Fails everything that is waiting for the server as soon as the connection is lost. 
+     * Threads blocked on {@link #sendAndWait(XmppObject)} or on any of the wait methods get a 
+     * {@link ConnectionLostException} and asynchronous requests get an error answer. The 
+     * connection is then closed on a separate thread, so the other connection listeners are 
+     * notified without waiting for it.
+     */
+    private void connectionLost(Exception e) {
+    	
+    	if (connectionLost != null) {
+    		return;
+    	}
+    	log.error("Connection to the server has been lost", e);
+    	connectionLost = new ConnectionLostException(e);
+    	dispatcher.abortFilters();
+    	requestLimiter.reset();
+    	metrics.connectionLost();
+    	
+    	Thread closer = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+
+				try {
+					disconnect();
+				} catch (XmppException xe) {
+					xe.printStackTrace();
+				}
+			}
+		}, "rayo-connection-closer");
+    	closer.setDaemon(true);
+    	closer.start();
+    }
+    
+    /**
+     * @return ConnectionLostException Error that made this connection drop or <code>null</code> if 
+     * the connection has not been lost
+     */
+    public ConnectionLostException getConnectionLost() {
+    	
+    	return connectionLost;
+    }
+    
     private void cleanup() {
     	
     	config = null;
@@ -384,6 +738,7 @@ public class SimpleXmppConnection implements XmppConnection {
     	resource = null;
     	connected = false;
     	loggingIn = false;
+    	requestLimiter.reset();
     }
     
     @Override
@@ -479,8 +834,167 @@ public class SimpleXmppConnection implements XmppConnection {
     	return username;
     }
     
+    /**
+     * Returns the writer used to send data to the server or <code>null</code> if the 
+     * connection has not been established
+     * 
+     * @return XmppWriter Writer
+     */
+    public XmppWriter getWriter() {
+    	
+    	return writer;
+    }
+    
+    /**
+     * Returns the limiter that controls how many requests can be waiting for an answer 
+     * on this connection. The limiter can be used to tune the limits and to query the 
+     * current limit and the number of rejected requests.
+     * 
+     * @return AdaptiveConcurrencyLimiter Request limiter
+     */
+    public AdaptiveConcurrencyLimiter getRequestLimiter() {
+    	
+    	return requestLimiter;
+    }
+    
+    /**
+     * Returns the dispatcher that delivers incoming objects to the listeners and filters 
+     * of this connection
+     * 
+     * @return UnboundedQueueMessageDispatcher Message dispatcher
+     */
+    public UnboundedQueueMessageDispatcher getDispatcher() {
+    	
+    	return dispatcher;
+    }
+    
+    /**
+     * Returns the stage that coalesces and rate limits high frequency presences before they 
+     * reach the stanza listeners. It lets everything through until it is configured.
+     * 
+     * @return PresenceCoalescer Presence coalescer
+     */
+    public PresenceCoalescer getPresenceCoalescer() {
+    	
+    	return dispatcher.getPresenceCoalescer();
+    }
+    
+    /**
+     * Returns the metrics of this connection. They survive reconnections, so counters keep 
+     * growing across connections. Use {@link com.rayo.client.metrics.MetricsMBean} to export 
+     * them through JMX or {@link ClientMetrics#visit(com.rayo.client.metrics.MetricsVisitor)} 
+     * to publish them into other metrics registries.
+     * 
+     * @return ClientMetrics Connection metrics
+     */
+    public ClientMetrics getMetrics() {
+    	
+    	return metrics;
+    }
+    
+    /**
+     * Sets a tracer that is notified every time a stanza goes through the reader, the 
+     * dispatcher, the writer or the send methods of this connection, with the time it spent 
+     * on each of them. There is no tracer by default, and then nothing is measured.
+     * 
+     * @param tracer Tracer or <code>null</code> to disable tracing
+     */
+    public void setTracer(StanzaTracer tracer) {
+    	
+    	this.tracer = tracer;
+    	dispatcher.setTracer(tracer);
+    	if (reader instanceof SimpleXmppReader) {
+    		((SimpleXmppReader)reader).setTracer(tracer);
+    	}
+    	if (writer instanceof PriorityXmppWriter) {
+    		((PriorityXmppWriter)writer).setTracer(tracer);
+    	}
+    }
+    
+    /**
+     * Returns the log of the stanzas sent and received by this connection, written to the 
+     * <code>com.rayo.client.wire</code> logger at debug level. It can be used to sample 
+     * calls or to stop masking SASL credentials.
+     * 
+     * @return WireLog Wire log
+     */
+    public WireLog getWireLog() {
+    	
+    	return wireLog;
+    }
+    
+    /**
+     * Records the XML bytes sent and received by this connection into a capture file, which 
+     * can be replayed later with a {@link com.rayo.client.capture.ReplayDriver}. It applies 
+     * to the next connection made, so it has to be set before connecting. The capture is 
+     * not closed by this connection. Bytes sent before logging in, including the 
+     * credentials, are not captured.
+     * 
+     * @param wireCapture Capture or <code>null</code> to stop capturing on the next connection
+     */
+    public void setWireCapture(WireCapture wireCapture) {
+    	
+    	this.wireCapture = wireCapture;
+    }
+    
+    public WireCapture getWireCapture() {
+    	
+    	return wireCapture;
+    }
+    
+    /**
+     * Compresses the stream with zlib when the server offers it after authentication 
+     * (XEP-0138). It applies to the next connection made, so it has to be set before 
+     * connecting. The level, flush mode and statistics are kept in the given compression.
+     * 
+     * @param compression Compression or <code>null</code> to not compress the next connection
+     */
+    public void setCompression(ZlibCompression compression) {
+    	
+    	this.compression = compression;
+    }
+    
+    public ZlibCompression getCompression() {
+    	
+    	return compression;
+    }
+    
+    /**
+     * Backs the received IQs and presences with compact elements, which build their dom4j 
+     * element only when it is needed. Disabled by default. It applies to the next connection 
+     * made, so it has to be set before connecting.
+     * 
+     * @param compactStanzas <code>true</code> to parse received stanzas into compact elements
+     */
+    public void setCompactStanzas(boolean compactStanzas) {
+    	
+    	this.compactStanzas = compactStanzas;
+    }
+    
+    public boolean isCompactStanzas() {
+    	
+    	return compactStanzas;
+    }
+    
+    /**
+     * Returns the stage that finds the stanza listeners and filters that block the 
+     * dispatching threads of this connection and can move them to their own threads
+     * 
+     * @return SlowHandlerDetector Slow handler detector
+     */
+    public SlowHandlerDetector getSlowHandlerDetector() {
+    	
+    	return dispatcher.getSlowHandlerDetector();
+    }
+    
+    public StanzaTracer getTracer() {
+    	
+    	return tracer;
+    }
+    
     public void setDefaultTimeout(int timeout) {
     	
     	this.DEFAULT_TIMEOUT = timeout;
+    	requestLimiter.setRequestTimeout(timeout);
     }
 }
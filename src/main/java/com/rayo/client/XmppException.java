@@ -43,7 +43,7 @@ public class XmppException extends Exception {
 	
 	public Error.Condition getCondition() {
 		
-		return error.getCondition();
+		return error == null ? null : error.getCondition();
 	}
 	
 	public Error getError() {
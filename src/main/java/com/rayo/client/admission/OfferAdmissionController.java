@@ -0,0 +1,298 @@
+package com.rayo.client.admission;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rayo.client.RayoClient;
+import com.rayo.client.SimpleXmppConnection;
+import com.rayo.client.XmppConnection;
+import com.rayo.client.XmppException;
+import com.rayo.client.io.InboundInterceptor;
+import com.rayo.client.io.UnboundedQueueMessageDispatcher;
+import com.rayo.client.response.ResponseHandler;
+import com.rayo.client.util.JID;
+import com.rayo.client.xmpp.stanza.IQ;
+import com.rayo.client.xmpp.stanza.Presence;
+import com.rayo.client.xmpp.stanza.XmppObject;
+import com.rayo.core.CallRejectReason;
+import com.rayo.core.RejectCommand;
+
+/**
+ * <p>Stops accepting new calls when the application falls behind. The controller watches the
+ * number of objects waiting for the stanza listeners, how long the oldest of them has been
+ * waiting and the number of active calls. When any of them goes over its threshold the client
+ * becomes overloaded and:</p>
+ *
+ * <ul>
+ * 	<li>New offers are rejected as busy straight from the socket reading thread. They never
+ * 	reach the listeners nor the calls registry. Rejections are sent without waiting for the
+ * 	server to answer them, so a burst of offers does not hold up the controller.</li>
+ * 	<li>Optionally, the client advertises itself as unavailable so the Rayo server stops
+ * 	sending offers to it.</li>
+ * </ul>
+ *
+ * <p>The client recovers once all the metrics have dropped below their threshold times the
+ * recovery ratio, so it does not flap around the thresholds.</p>
+ */
+public class OfferAdmissionController implements InboundInterceptor {
+
+	private static final Logger log = LoggerFactory.getLogger(OfferAdmissionController.class);
+
+	private final RayoClient client;
+	private final UnboundedQueueMessageDispatcher dispatcher;
+
+	private int maxQueueDepth = 1000;
+	private long maxQueueLag = 500;
+	private int maxActiveCalls = Integer.MAX_VALUE;
+	private double recoveryRatio = 0.5;
+	private boolean advertiseUnavailable = false;
+	private long checkInterval = 100;
+
+	private volatile boolean overloaded;
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong overloads = new AtomicLong();
+
+	private ScheduledExecutorService executor;
+
+	public OfferAdmissionController(RayoClient client) {
+
+		this.client = client;
+		XmppConnection connection = client.getXmppConnection();
+		if (!(connection instanceof SimpleXmppConnection)) {
+			throw new IllegalArgumentException("Admission control requires a SimpleXmppConnection");
+		}
+		this.dispatcher = ((SimpleXmppConnection)connection).getDispatcher();
+	}
+
+	/**
+	 * Starts watching the client. Offers are intercepted from this moment on.
+	 */
+	public synchronized void start() {
+
+		if (executor != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+
+				Thread thread = new Thread(r, "rayo-admission");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+					check();
+				} catch (Exception e) {
+					log.error("Error while checking the client load", e);
+				}
+			}
+		}, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+		dispatcher.addInterceptor(this);
+	}
+
+	/**
+	 * Stops watching the client. If the client was overloaded it is advertised as available again.
+	 */
+	public synchronized void stop() {
+
+		if (executor == null) {
+			return;
+		}
+		dispatcher.removeInterceptor(this);
+		executor.shutdownNow();
+		executor = null;
+		if (overloaded) {
+			overloaded = false;
+			if (advertiseUnavailable) {
+				setAvailable(true);
+			}
+		}
+	}
+
+	@Override
+	public boolean accept(XmppObject object) {
+
+		if (!(object instanceof Presence) || !"offer".equals(((Presence)object).getChildName())) {
+			return true;
+		}
+		// Check straight away, bursts of offers can arrive between two periodic checks
+		if (!overloaded && isOverloaded(1)) {
+			overload();
+		}
+		if (!overloaded) {
+			return true;
+		}
+		JID from = ((Presence)object).getFromJid();
+		if (from == null || from.getNode() == null) {
+			return true;
+		}
+		final String callId = from.getNode();
+		rejected.incrementAndGet();
+		ScheduledExecutorService executor = this.executor;
+		if (executor != null) {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+
+					reject(callId);
+				}
+			});
+		}
+		return false;
+	}
+
+	private void reject(final String callId) {
+
+		try {
+			client.command(new RejectCommand(callId, CallRejectReason.BUSY), callId, new ResponseHandler() {
+
+				@Override
+				public void handle(XmppObject response) {
+
+					if (((IQ)response).isError()) {
+						log.warn(String.format("Call [%s] could not be rejected: %s", callId, ((IQ)response).getError()));
+					}
+				}
+			});
+		} catch (XmppException e) {
+			log.error(String.format("Could not reject call [%s]", callId), e);
+		}
+	}
+
+	private void check() {
+
+		if (!overloaded) {
+			if (isOverloaded(1)) {
+				overload();
+			}
+		} else if (!isOverloaded(recoveryRatio)) {
+			overloaded = false;
+			log.info("Client has recovered. Accepting offers again");
+			if (advertiseUnavailable) {
+				setAvailable(true);
+			}
+		}
+	}
+
+	private boolean isOverloaded(double ratio) {
+
+		return dispatcher.getQueueDepth() > maxQueueDepth * ratio ||
+			   dispatcher.getQueueLag() > maxQueueLag * ratio ||
+			   client.getActiveCallsCount() > maxActiveCalls * ratio;
+	}
+
+	private synchronized void overload() {
+
+		if (overloaded) {
+			return;
+		}
+		overloaded = true;
+		overloads.incrementAndGet();
+		log.warn(String.format("Client is overloaded [queue depth=%s, queue lag=%sms, active calls=%s]. Rejecting offers",
+				dispatcher.getQueueDepth(), dispatcher.getQueueLag(), client.getActiveCallsCount()));
+		if (advertiseUnavailable && executor != null) {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+
+					// The overload may have cleared already
+					if (overloaded) {
+						setAvailable(false);
+					}
+				}
+			});
+		}
+	}
+
+	private void setAvailable(boolean available) {
+
+		try {
+			client.setAvailable(available);
+		} catch (XmppException e) {
+			log.error("Could not change the client availability", e);
+		}
+	}
+
+	/**
+	 * @return boolean <code>true</code> if offers are being rejected
+	 */
+	public boolean isOverloaded() {
+		return overloaded;
+	}
+
+	/**
+	 * @return long Number of offers rejected
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return long Number of times the client has become overloaded
+	 */
+	public long getOverloadsCount() {
+		return overloads.get();
+	}
+
+	/**
+	 * Sets the number of objects waiting for the listeners over which the client is
+	 * overloaded. Defaults to 1000.
+	 */
+	public void setMaxQueueDepth(int maxQueueDepth) {
+		this.maxQueueDepth = maxQueueDepth;
+	}
+
+	/**
+	 * Sets the milliseconds that the oldest object waiting for the listeners may wait before
+	 * the client is overloaded. Defaults to 500.
+	 */
+	public void setMaxQueueLag(long maxQueueLag) {
+		this.maxQueueLag = maxQueueLag;
+	}
+
+	/**
+	 * Sets the number of active calls over which the client is overloaded. Unlimited by default.
+	 */
+	public void setMaxActiveCalls(int maxActiveCalls) {
+		this.maxActiveCalls = maxActiveCalls;
+	}
+
+	/**
+	 * Sets the fraction of every threshold that all the metrics must go below for the client
+	 * to recover. Defaults to 0.5.
+	 */
+	public void setRecoveryRatio(double recoveryRatio) {
+		this.recoveryRatio = recoveryRatio;
+	}
+
+	/**
+	 * Sets whether the client advertises itself as unavailable while it is overloaded.
+	 * Defaults to <code>false</code>.
+	 */
+	public void setAdvertiseUnavailable(boolean advertiseUnavailable) {
+		this.advertiseUnavailable = advertiseUnavailable;
+	}
+
+	/**
+	 * Sets the milliseconds between load checks. Must be set before starting the controller.
+	 * Defaults to 100.
+	 */
+	public void setCheckInterval(long checkInterval) {
+		this.checkInterval = checkInterval;
+	}
+}
@@ -0,0 +1,47 @@
+package com.rayo.client.capture;
+
+/**
+ * A chunk of bytes read from or written to the socket, as stored by {@link WireCapture}
+ */
+public class CaptureRecord {
+
+	private final byte direction;
+	private final long nanos;
+	private final byte[] data;
+	
+	public CaptureRecord(byte direction, long nanos, byte[] data) {
+		
+		this.direction = direction;
+		this.nanos = nanos;
+		this.data = data;
+	}
+	
+	public boolean isInbound() {
+		
+		return direction == WireCapture.INBOUND;
+	}
+	
+	public boolean isOutbound() {
+		
+		return direction == WireCapture.OUTBOUND;
+	}
+	
+	/**
+	 * @return long Nanoseconds since the capture started
+	 */
+	public long getNanos() {
+		
+		return nanos;
+	}
+	
+	public byte[] getData() {
+		
+		return data;
+	}
+	
+	@Override
+	public String toString() {
+		
+		return String.format("[%s %sus %s bytes]", isInbound() ? "IN " : "OUT", nanos / 1000, data.length);
+	}
+}
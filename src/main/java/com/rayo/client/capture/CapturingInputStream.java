@@ -0,0 +1,48 @@
+package com.rayo.client.capture;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Copies every byte read from the wrapped stream into a {@link WireCapture}
+ */
+public class CapturingInputStream extends FilterInputStream {
+
+	private final WireCapture capture;
+	
+	public CapturingInputStream(InputStream in, WireCapture capture) {
+		
+		super(in);
+		this.capture = capture;
+	}
+	
+	@Override
+	public int read() throws IOException {
+
+		int b = super.read();
+		if (b != -1) {
+			capture.inbound(new byte[]{(byte)b}, 0, 1);
+		}
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		int read = super.read(b, off, len);
+		if (read > 0) {
+			capture.inbound(b, off, read);
+		}
+		return read;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+
+		// Skipped bytes could not be replayed
+		byte[] skipped = new byte[(int)Math.min(n, 8192)];
+		int read = read(skipped, 0, skipped.length);
+		return read == -1 ? 0 : read;
+	}
+}
@@ -0,0 +1,59 @@
+package com.rayo.client.capture;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>Copies every byte written to the wrapped stream into a {@link WireCapture}</p>
+ * 
+ * <p>Capturing can be suspended while sensitive data like SASL credentials is written. 
+ * Bytes written while suspended go through to the wrapped stream but are not captured.</p>
+ */
+public class CapturingOutputStream extends FilterOutputStream {
+
+	private final WireCapture capture;
+	private volatile boolean suspended;
+	
+	public CapturingOutputStream(OutputStream out, WireCapture capture) {
+		
+		super(out);
+		this.capture = capture;
+	}
+	
+	/**
+	 * Stops capturing the bytes written until {@link #resume()} is called
+	 */
+	public void suspend() {
+		
+		suspended = true;
+	}
+	
+	public void resume() {
+		
+		suspended = false;
+	}
+	
+	public boolean isSuspended() {
+		
+		return suspended;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+
+		out.write(b);
+		if (!suspended) {
+			capture.outbound(new byte[]{(byte)b}, 0, 1);
+		}
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+
+		out.write(b, off, len);
+		if (!suspended) {
+			capture.outbound(b, off, len);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.rayo.client.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+
+import com.rayo.client.io.MessageDispatcher;
+import com.rayo.client.io.XmppReaderWorker;
+
+/**
+ * <p>Feeds the bytes received from the server in a {@link WireCapture} file back into an 
+ * {@link XmppReaderWorker}, so the exact stream seen in production can be parsed and 
+ * dispatched again to reproduce a problem, to benchmark the inbound path or as input for 
+ * regression tests. The stream can be replayed at its original speed, accelerated or as 
+ * fast as possible.</p>
+ * 
+ * <p>Only inbound bytes are replayed. Nothing is sent anywhere, so whatever the listeners 
+ * send in response to the replayed stanzas is up to the connection they use.</p>
+ * 
+ * <pre>
+ * 	UnboundedQueueMessageDispatcher dispatcher = new UnboundedQueueMessageDispatcher();
+ * 	dispatcher.addStanzaListener(listener);
+ * 	ReplayDriver driver = new ReplayDriver(new File("rayo.capture"));
+ * 	driver.setSpeed(10);
+ * 	driver.replay(dispatcher);
+ * </pre>
+ */
+public class ReplayDriver {
+
+	private final List<CaptureRecord> records;
+	private double speed = 1;
+	
+	public ReplayDriver(File file) throws IOException {
+		
+		this(new WireCaptureReader(file).getInboundRecords());
+	}
+	
+	/**
+	 * @param records Records to replay. All of them are fed to the reader, whatever their 
+	 * direction.
+	 */
+	public ReplayDriver(List<CaptureRecord> records) {
+		
+		this.records = records;
+	}
+	
+	/**
+	 * @param speed 1 for the original speed, which is the default, 2 for twice as fast, etc. 
+	 * 0 replays everything without waiting.
+	 */
+	public void setSpeed(double speed) {
+		
+		this.speed = speed;
+	}
+	
+	/**
+	 * Replays the stream on the calling thread through a new reader worker that dispatches 
+	 * to the given dispatcher. It returns once all the records have been parsed.
+	 * 
+	 * @param dispatcher Dispatcher with the listeners and filters that should get the stanzas
+	 * 
+	 * @return XmppReaderWorker Worker that has parsed the stream
+	 */
+	public XmppReaderWorker replay(MessageDispatcher dispatcher) throws IOException {
+		
+		XmppReaderWorker worker = new XmppReaderWorker(dispatcher);
+		replay(worker);
+		return worker;
+	}
+	
+	/**
+	 * Replays the stream on the calling thread through the given worker. It returns once all 
+	 * the records have been parsed.
+	 * 
+	 * @param worker Reader worker
+	 */
+	public void replay(final XmppReaderWorker worker) throws IOException {
+		
+		ReplayInputStream input = new ReplayInputStream(records, speed, new Runnable() {
+			
+			@Override
+			public void run() {
+
+				worker.setDone(true);
+			}
+		});
+		// No buffering on top, so the parser gets one record at a time like from the socket
+		worker.resetParser(new InputStreamReader(input, "UTF-8"));
+		worker.run();
+	}
+}
@@ -0,0 +1,98 @@
+package com.rayo.client.capture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Plays back captured records as a stream. Each record becomes available at the time it 
+ * was captured, relative to the first record and scaled by the speed, and a single read 
+ * never returns bytes of more than one record, so the parser sees the same chunks that it 
+ * saw when the data came from the socket.</p>
+ */
+public class ReplayInputStream extends InputStream {
+
+	private final Iterator<CaptureRecord> records;
+	private final double speed;
+	private final Runnable onEnd;
+	
+	private long firstNanos = -1;
+	private long startNanos;
+	private byte[] current;
+	private int position;
+	
+	/**
+	 * @param records Records to play back, usually the inbound ones
+	 * @param speed 1 for the original speed, 2 for twice as fast, etc. 0 plays everything 
+	 * back without waiting.
+	 * @param onEnd Invoked once all the records have been read, or <code>null</code>
+	 */
+	public ReplayInputStream(List<CaptureRecord> records, double speed, Runnable onEnd) {
+		
+		this.records = records.iterator();
+		this.speed = speed;
+		this.onEnd = onEnd;
+	}
+	
+	@Override
+	public int read() throws IOException {
+
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		if (len == 0) {
+			return 0;
+		}
+		if (current == null || position == current.length) {
+			if (!next()) {
+				if (onEnd != null) {
+					onEnd.run();
+				}
+				return -1;
+			}
+		}
+		int read = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, read);
+		position += read;
+		return read;
+	}
+	
+	@Override
+	public int available() {
+
+		// Only what is left of the current record, so decoders do not pull the next one
+		return current == null ? 0 : current.length - position;
+	}
+	
+	private boolean next() throws IOException {
+		
+		if (!records.hasNext()) {
+			return false;
+		}
+		CaptureRecord record = records.next();
+		if (firstNanos == -1) {
+			firstNanos = record.getNanos();
+			startNanos = System.nanoTime();
+		} else if (speed > 0) {
+			long due = startNanos + (long)((record.getNanos() - firstNanos) / speed);
+			long wait = due - System.nanoTime();
+			if (wait > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Replay interrupted");
+				}
+			}
+		}
+		current = record.getData();
+		position = 0;
+		return true;
+	}
+}
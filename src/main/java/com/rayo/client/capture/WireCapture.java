@@ -0,0 +1,220 @@
+package com.rayo.client.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Records the raw bytes that go through a connection, in both directions, into a ring
+ * file mapped in memory. Every chunk of bytes is stored with its direction and the time it
+ * went through the socket, so the exact stream received from the server can be replayed
+ * later with {@link ReplayDriver}.</p>
+ *
+ * <p>The file never grows beyond its capacity. Once it is full the oldest records are
+ * overwritten. Appending is a copy into the mapped memory, so the reader and writer threads
+ * never wait for the disk. The operating system writes the pages to the file on its own,
+ * even if the process dies.</p>
+ *
+ * <p>File layout: a header with the magic number, the version, the capacity, the position
+ * of the oldest and the next record, the number of records and the time the capture
+ * started, followed by the ring of records. Each record is the length of its data, its
+ * direction, the nanoseconds since the capture started and the data itself. A length of
+ * -1 marks the end of the used space before the ring wraps.</p>
+ */
+public class WireCapture {
+
+	private static final Logger log = LoggerFactory.getLogger(WireCapture.class);
+
+	static final int MAGIC = 0x52415943;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+	static final int RECORD_HEADER_SIZE = 4 + 1 + 8;
+	static final int WRAP = -1;
+
+	static final int CAPACITY_OFFSET = 8;
+	static final int TAIL_OFFSET = 16;
+	static final int HEAD_OFFSET = 24;
+	static final int COUNT_OFFSET = 32;
+	static final int START_MILLIS_OFFSET = 40;
+
+	public static final long DEFAULT_CAPACITY = 64 * 1024 * 1024;
+
+	public static final byte INBOUND = 0;
+	public static final byte OUTBOUND = 1;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buffer;
+	private final ByteBuffer data;
+	private final int capacity;
+	private final int maxChunk;
+	private final long startNanos = System.nanoTime();
+
+	private int head;
+	private int tail;
+	private long count;
+	private boolean closed;
+
+	/**
+	 * Creates a capture file with the default capacity of 64MB
+	 *
+	 * @param file Capture file. It is overwritten if it exists.
+	 */
+	public WireCapture(File file) throws IOException {
+
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a capture file
+	 *
+	 * @param file Capture file. It is overwritten if it exists.
+	 * @param capacity Bytes available for records
+	 */
+	public WireCapture(File file, long capacity) throws IOException {
+
+		if (capacity < 1024 || capacity > Integer.MAX_VALUE - HEADER_SIZE) {
+			throw new IllegalArgumentException("Capacity must be between 1KB and 2GB");
+		}
+		this.file = file;
+		this.capacity = (int)capacity;
+		// Bigger chunks are split, so a single chunk can never evict the whole ring
+		this.maxChunk = this.capacity / 4 - RECORD_HEADER_SIZE;
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		raf.setLength(HEADER_SIZE + capacity);
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+		data = buffer.duplicate();
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putLong(CAPACITY_OFFSET, capacity);
+		buffer.putLong(START_MILLIS_OFFSET, System.currentTimeMillis());
+		writeHeader();
+	}
+
+	/**
+	 * Appends inbound bytes
+	 */
+	public void inbound(byte[] data, int offset, int length) {
+
+		append(INBOUND, data, offset, length);
+	}
+
+	/**
+	 * Appends outbound bytes
+	 */
+	public void outbound(byte[] data, int offset, int length) {
+
+		append(OUTBOUND, data, offset, length);
+	}
+
+	private synchronized void append(byte direction, byte[] data, int offset, int length) {
+
+		if (closed) {
+			return;
+		}
+		long nanos = System.nanoTime() - startNanos;
+		while (length > 0) {
+			int chunk = Math.min(length, maxChunk);
+			write(direction, nanos, data, offset, chunk);
+			offset += chunk;
+			length -= chunk;
+		}
+		writeHeader();
+	}
+
+	private void write(byte direction, long nanos, byte[] data, int offset, int length) {
+
+		int size = RECORD_HEADER_SIZE + length;
+		if (head + size > capacity) {
+			// Mark the end of the used space and start again from the beginning
+			evict(capacity);
+			if (capacity - head >= 4) {
+				buffer.putInt(HEADER_SIZE + head, WRAP);
+			}
+			head = 0;
+			if (count == 0) {
+				tail = 0;
+			}
+		}
+		evict(head + size);
+
+		int position = HEADER_SIZE + head;
+		buffer.putInt(position, length);
+		buffer.put(position + 4, direction);
+		buffer.putLong(position + 5, nanos);
+		this.data.position(position + RECORD_HEADER_SIZE);
+		this.data.put(data, offset, length);
+		if (count == 0) {
+			tail = head;
+		}
+		head += size;
+		count++;
+	}
+
+	/**
+	 * Drops the oldest records while they are between the head and the given position
+	 */
+	private void evict(int end) {
+
+		while (count > 0 && tail >= head && tail < end) {
+			int length = capacity - tail >= 4 ? buffer.getInt(HEADER_SIZE + tail) : WRAP;
+			if (length == WRAP) {
+				tail = 0;
+				continue;
+			}
+			tail += RECORD_HEADER_SIZE + length;
+			count--;
+			if (capacity - tail < 4) {
+				// No room for a wrap marker after the last record
+				tail = 0;
+			}
+		}
+		if (count == 0) {
+			tail = head;
+		}
+	}
+
+	private void writeHeader() {
+
+		buffer.putLong(TAIL_OFFSET, tail);
+		buffer.putLong(HEAD_OFFSET, head);
+		buffer.putLong(COUNT_OFFSET, count);
+	}
+
+	/**
+	 * @return long Number of records currently in the ring
+	 */
+	public synchronized long getRecordCount() {
+
+		return count;
+	}
+
+	public File getFile() {
+
+		return file;
+	}
+
+	/**
+	 * Flushes the file and stops capturing
+	 */
+	public synchronized void close() {
+
+		if (closed) {
+			return;
+		}
+		closed = true;
+		buffer.force();
+		try {
+			raf.close();
+		} catch (IOException e) {
+			log.error(String.format("Error closing capture file [%s]", file), e);
+		}
+	}
+}
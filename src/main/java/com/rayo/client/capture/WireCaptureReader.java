@@ -0,0 +1,89 @@
+package com.rayo.client.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Reads the records of a file written by {@link WireCapture}, from the oldest to the 
+ * newest one. Files should be read once their capture has been closed or the process that 
+ * was writing them has died.</p>
+ */
+public class WireCaptureReader {
+
+	private final long startMillis;
+	private final List<CaptureRecord> records = new ArrayList<CaptureRecord>();
+	
+	public WireCaptureReader(File file) throws IOException {
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (buffer.limit() < WireCapture.HEADER_SIZE || buffer.getInt(0) != WireCapture.MAGIC) {
+				throw new IOException(String.format("[%s] is not a capture file", file));
+			}
+			if (buffer.getInt(4) != WireCapture.VERSION) {
+				throw new IOException(String.format("Unsupported capture file version [%s]", buffer.getInt(4)));
+			}
+			int capacity = (int)buffer.getLong(WireCapture.CAPACITY_OFFSET);
+			int position = (int)buffer.getLong(WireCapture.TAIL_OFFSET);
+			long count = buffer.getLong(WireCapture.COUNT_OFFSET);
+			startMillis = buffer.getLong(WireCapture.START_MILLIS_OFFSET);
+			
+			while (records.size() < count) {
+				int length = capacity - position >= 4 ? buffer.getInt(WireCapture.HEADER_SIZE + position) : WireCapture.WRAP;
+				if (length == WireCapture.WRAP) {
+					position = 0;
+					continue;
+				}
+				if (length < 0 || position + WireCapture.RECORD_HEADER_SIZE + length > capacity) {
+					throw new IOException(String.format("Corrupted record at position [%s] of [%s]", position, file));
+				}
+				int start = WireCapture.HEADER_SIZE + position;
+				byte[] data = new byte[length];
+				ByteBuffer slice = buffer.duplicate();
+				slice.position(start + WireCapture.RECORD_HEADER_SIZE);
+				slice.get(data);
+				records.add(new CaptureRecord(buffer.get(start + 4), buffer.getLong(start + 5), data));
+				position += WireCapture.RECORD_HEADER_SIZE + length;
+			}
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * @return List<CaptureRecord> Records from the oldest to the newest one
+	 */
+	public List<CaptureRecord> getRecords() {
+		
+		return records;
+	}
+	
+	/**
+	 * @return List<CaptureRecord> Records received from the server, from the oldest to the 
+	 * newest one
+	 */
+	public List<CaptureRecord> getInboundRecords() {
+		
+		List<CaptureRecord> inbound = new ArrayList<CaptureRecord>();
+		for (CaptureRecord record: records) {
+			if (record.isInbound()) {
+				inbound.add(record);
+			}
+		}
+		return inbound;
+	}
+	
+	/**
+	 * @return long Wall clock time the capture started at, in milliseconds
+	 */
+	public long getStartMillis() {
+		
+		return startMillis;
+	}
+}
@@ -0,0 +1,294 @@
+package com.rayo.client.compression;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import com.rayo.client.XmppException;
+import com.rayo.client.io.XmppWriter;
+import com.rayo.client.xmpp.stanza.Compress;
+
+/**
+ * <p>Zlib stream compression (XEP-0138) for a connection. When the server offers zlib
+ * compression after authentication, the client requests it before binding its resource.
+ * Once the server confirms it, both directions of the connection are compressed and a new
+ * stream is opened.</p>
+ *
+ * <p>Rayo offers with their SIP headers and say commands with SSML are large and very
+ * repetitive XML, so they compress well. Compression costs CPU on both sides though, so the
+ * bytes saved and the time spent compressing and decompressing are counted and can be
+ * compared.</p>
+ *
+ * <p>Every write burst of the connection ends with a flush, so the server can decompress
+ * every stanza as soon as it arrives. The flush mode decides whether the compression
+ * dictionary is kept across flushes.</p>
+ *
+ * <p>Flushing a zlib stream needs Java 7 or later. The client is built for Java 6, so the
+ * flushing method is looked up at runtime and compression is not requested on older
+ * runtimes.</p>
+ */
+public class ZlibCompression {
+
+	public static final String METHOD = "zlib";
+
+	/**
+	 * How the compressed stream is flushed after every write burst
+	 */
+	public enum FlushMode {
+
+		/**
+		 * Keeps the dictionary across flushes, so repeated content compresses best
+		 */
+		SYNC(2),
+
+		/**
+		 * Resets the dictionary on every flush. Compresses worse but every burst can be
+		 * decompressed on its own.
+		 */
+		FULL(3);
+
+		// Values of Deflater.SYNC_FLUSH and Deflater.FULL_FLUSH, which do not exist before Java 7
+		final Integer value;
+
+		private FlushMode(int value) {
+
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Deflater.deflate(byte[], int, int, int), or null before Java 7
+	 */
+	static final Method deflateWithFlush = getFlushMethod();
+
+	private volatile int level = Deflater.DEFAULT_COMPRESSION;
+	private volatile FlushMode flushMode = FlushMode.SYNC;
+
+	private volatile ZlibInputStream in;
+	private volatile ZlibOutputStream out;
+	private volatile XmppWriter writer;
+
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong inflatedBytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final AtomicLong deflatedBytesOut = new AtomicLong();
+	private final AtomicLong inflateNanos = new AtomicLong();
+	private final AtomicLong deflateNanos = new AtomicLong();
+
+	private static Method getFlushMethod() {
+
+		try {
+			return Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return boolean Whether this runtime can compress streams
+	 */
+	public static boolean isAvailable() {
+
+		return deflateWithFlush != null;
+	}
+
+	/**
+	 * Compression level, from 0 for no compression to 9 for the best compression. Defaults to
+	 * the zlib default, -1, which is 6. It applies to the next connection compressed.
+	 */
+	public void setLevel(int level) {
+
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Compression level must be between -1 and 9");
+		}
+		this.level = level;
+	}
+
+	public int getLevel() {
+
+		return level;
+	}
+
+	/**
+	 * Flush mode of the compressed stream sent to the server. Defaults to
+	 * {@link FlushMode#SYNC}. It applies to the next connection compressed.
+	 */
+	public void setFlushMode(FlushMode flushMode) {
+
+		if (flushMode == null) {
+			throw new IllegalArgumentException("Flush mode cannot be null");
+		}
+		this.flushMode = flushMode;
+	}
+
+	public FlushMode getFlushMode() {
+
+		return flushMode;
+	}
+
+	/**
+	 * Wraps the stream read from the server on a new connection. Bytes are passed through
+	 * until compression starts.
+	 *
+	 * @param in Stream read from the socket
+	 *
+	 * @return InputStream Stream to read the XML stream from
+	 */
+	public InputStream wrap(InputStream in) {
+
+		ZlibInputStream stream = new ZlibInputStream(in, this);
+		this.in = stream;
+		return stream;
+	}
+
+	/**
+	 * Wraps the stream written to the server on a new connection. Bytes are passed through
+	 * until compression starts.
+	 *
+	 * @param out Stream written to the socket
+	 *
+	 * @return OutputStream Stream to write the XML stream to
+	 */
+	public OutputStream wrap(OutputStream out) {
+
+		ZlibOutputStream stream = new ZlibOutputStream(out, this);
+		this.out = stream;
+		return stream;
+	}
+
+	/**
+	 * @param writer Writer of the connection, used to request compression
+	 */
+	public void setWriter(XmppWriter writer) {
+
+		this.writer = writer;
+	}
+
+	/**
+	 * @return boolean Whether the current connection is compressed
+	 */
+	public boolean isActive() {
+
+		ZlibInputStream in = this.in;
+		return in != null && in.isStarted();
+	}
+
+	/**
+	 * Asks the server to compress the stream
+	 *
+	 * @throws XmppException If the request cannot be sent
+	 */
+	public void request() throws XmppException {
+
+		XmppWriter writer = this.writer;
+		if (writer == null || in == null || out == null) {
+			throw new XmppException("Compression streams have not been set up");
+		}
+		writer.write(new Compress(METHOD));
+	}
+
+	/**
+	 * Compresses both directions of the connection. It is called by the reading thread when
+	 * the server confirms compression, before anything else is read from the server and
+	 * before the new stream is opened.
+	 */
+	public void start() {
+
+		ZlibInputStream in = this.in;
+		if (in != null) {
+			in.start();
+		}
+		ZlibOutputStream out = this.out;
+		if (out != null) {
+			out.start(level, flushMode);
+		}
+	}
+
+	void inflated(int compressed, int inflated, long nanos) {
+
+		if (compressed > 0) {
+			bytesIn.addAndGet(compressed);
+		}
+		if (inflated > 0) {
+			inflatedBytesIn.addAndGet(inflated);
+		}
+		inflateNanos.addAndGet(nanos);
+	}
+
+	void deflated(int plain, int deflated, long nanos) {
+
+		if (plain > 0) {
+			bytesOut.addAndGet(plain);
+		}
+		if (deflated > 0) {
+			deflatedBytesOut.addAndGet(deflated);
+		}
+		deflateNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * @return long Compressed bytes received from the server
+	 */
+	public long getBytesIn() {
+
+		return bytesIn.get();
+	}
+
+	/**
+	 * @return long Bytes received from the server once decompressed
+	 */
+	public long getInflatedBytesIn() {
+
+		return inflatedBytesIn.get();
+	}
+
+	/**
+	 * @return long Bytes sent to the server before compressing them
+	 */
+	public long getBytesOut() {
+
+		return bytesOut.get();
+	}
+
+	/**
+	 * @return long Compressed bytes sent to the server
+	 */
+	public long getDeflatedBytesOut() {
+
+		return deflatedBytesOut.get();
+	}
+
+	/**
+	 * @return long Bytes not received thanks to compression
+	 */
+	public long getBytesSavedIn() {
+
+		return inflatedBytesIn.get() - bytesIn.get();
+	}
+
+	/**
+	 * @return long Bytes not sent thanks to compression
+	 */
+	public long getBytesSavedOut() {
+
+		return bytesOut.get() - deflatedBytesOut.get();
+	}
+
+	/**
+	 * @return long Time in nanoseconds spent decompressing
+	 */
+	public long getInflateNanos() {
+
+		return inflateNanos.get();
+	}
+
+	/**
+	 * @return long Time in nanoseconds spent compressing
+	 */
+	public long getDeflateNanos() {
+
+		return deflateNanos.get();
+	}
+}
@@ -0,0 +1,136 @@
+package com.rayo.client.compression;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Passes the bytes read from the wrapped stream through until it is started, and
+ * decompresses them afterwards. Unlike {@link java.util.zip.InflaterInputStream},
+ * <code>available</code> only counts what can be read without blocking, so a reader on top
+ * does not wait for the next stanza to finish decoding the current one.
+ */
+class ZlibInputStream extends FilterInputStream {
+
+	private final ZlibCompression compression;
+	private final byte[] input = new byte[4096];
+	private final byte[] output = new byte[8192];
+	private int position;
+	private int limit;
+
+	private volatile Inflater inflater;
+
+	ZlibInputStream(InputStream in, ZlibCompression compression) {
+
+		super(in);
+		this.compression = compression;
+	}
+
+	void start() {
+
+		inflater = new Inflater();
+	}
+
+	boolean isStarted() {
+
+		return inflater != null;
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		byte[] b = new byte[1];
+		int read = read(b, 0, 1);
+		return read == -1 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		Inflater inflater = this.inflater;
+		if (inflater == null) {
+			return in.read(b, off, len);
+		}
+		if (len == 0) {
+			return 0;
+		}
+		while (position == limit && inflate(inflater) == 0) {
+			if (inflater.finished() || inflater.needsDictionary()) {
+				return -1;
+			}
+			if (inflater.needsInput()) {
+				int read = in.read(input);
+				if (read == -1) {
+					return -1;
+				}
+				compression.inflated(read, 0, 0);
+				inflater.setInput(input, 0, read);
+			}
+		}
+		int read = Math.min(len, limit - position);
+		System.arraycopy(output, position, b, off, read);
+		position += read;
+		return read;
+	}
+
+	private int inflate(Inflater inflater) throws IOException {
+
+		if (inflater.needsInput()) {
+			return 0;
+		}
+		long start = System.nanoTime();
+		int inflated;
+		try {
+			inflated = inflater.inflate(output);
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid compressed data: " + e.getMessage());
+		}
+		compression.inflated(0, inflated, System.nanoTime() - start);
+		position = 0;
+		limit = inflated;
+		return inflated;
+	}
+
+	@Override
+	public int available() throws IOException {
+
+		Inflater inflater = this.inflater;
+		if (inflater == null) {
+			return in.available();
+		}
+		if (position == limit) {
+			// Decompresses what has already been read, it never blocks
+			inflate(inflater);
+		}
+		return limit - position;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+
+		if (inflater == null) {
+			return in.skip(n);
+		}
+		byte[] b = new byte[(int)Math.min(n, output.length)];
+		int read = read(b, 0, b.length);
+		return read == -1 ? 0 : read;
+	}
+
+	@Override
+	public boolean markSupported() {
+
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		Inflater inflater = this.inflater;
+		if (inflater != null) {
+			inflater.end();
+		}
+		super.close();
+	}
+}
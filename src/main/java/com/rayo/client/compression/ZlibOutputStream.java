@@ -0,0 +1,109 @@
+package com.rayo.client.compression;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.zip.Deflater;
+
+import com.rayo.client.compression.ZlibCompression.FlushMode;
+
+/**
+ * Passes the bytes written through to the wrapped stream until it is started, and
+ * compresses them afterwards. Every flush ends the current zlib block with the configured
+ * flush mode, so the server can decompress everything written so far.
+ */
+class ZlibOutputStream extends FilterOutputStream {
+
+	private final ZlibCompression compression;
+	private final byte[] buffer = new byte[8192];
+
+	private Deflater deflater;
+	private Integer flushMode;
+
+	ZlibOutputStream(OutputStream out, ZlibCompression compression) {
+
+		super(out);
+		this.compression = compression;
+	}
+
+	synchronized void start(int level, FlushMode flushMode) {
+
+		this.deflater = new Deflater(level);
+		this.flushMode = flushMode.value;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+
+		write(new byte[]{(byte)b}, 0, 1);
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+
+		if (deflater == null) {
+			out.write(b, off, len);
+			return;
+		}
+		deflater.setInput(b, off, len);
+		int deflated = 0;
+		long nanos = 0;
+		while (!deflater.needsInput()) {
+			long start = System.nanoTime();
+			int count = deflater.deflate(buffer);
+			nanos += System.nanoTime() - start;
+			if (count > 0) {
+				out.write(buffer, 0, count);
+				deflated += count;
+			}
+		}
+		compression.deflated(len, deflated, nanos);
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+
+		if (deflater != null) {
+			int deflated = 0;
+			long nanos = 0;
+			int count;
+			do {
+				long start = System.nanoTime();
+				count = deflate();
+				nanos += System.nanoTime() - start;
+				out.write(buffer, 0, count);
+				deflated += count;
+			} while (count == buffer.length);
+			compression.deflated(0, deflated, nanos);
+		}
+		out.flush();
+	}
+
+	private int deflate() throws IOException {
+
+		try {
+			return (Integer)ZlibCompression.deflateWithFlush.invoke(deflater, buffer, 0, buffer.length, flushMode);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw new IOException("Could not flush the compressed stream: " + cause);
+		} catch (IllegalAccessException e) {
+			throw new IOException("Could not flush the compressed stream: " + e);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+
+		try {
+			super.close();
+		} finally {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,617 @@
+package com.rayo.client.dialer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rayo.client.RayoClient;
+import com.rayo.client.XmppConnectionAdapter;
+import com.rayo.client.XmppConnectionListener;
+import com.rayo.client.XmppException;
+import com.rayo.client.exception.DialTimeoutException;
+import com.rayo.client.listener.StanzaAdapter;
+import com.rayo.client.listener.StanzaListener;
+import com.rayo.client.registry.Call;
+import com.rayo.client.registry.CallsRegistryListener;
+import com.rayo.client.response.ResponseHandler;
+import com.rayo.client.util.JID;
+import com.rayo.client.verb.RefEvent;
+import com.rayo.client.xmpp.stanza.Error;
+import com.rayo.client.xmpp.stanza.IQ;
+import com.rayo.client.xmpp.stanza.Presence;
+import com.rayo.client.xmpp.stanza.XmppObject;
+import com.rayo.core.DialCommand;
+
+/**
+ * <p>High rate outbound dialer built on top of a {@link RayoClient}. Dial commands are queued
+ * with {@link #submit(DialCommand)} and released by a single dialer thread at the configured
+ * number of calls per second, as long as the number of concurrent calls stays below the
+ * configured maximum. A call counts against the maximum from the moment its dial command is
+ * sent until its end event is received. Calls whose end event will never arrive are released
+ * too: the ones that the calls registry of the client expires or evicts, and every call when
+ * the connection is lost. Listeners are told those calls have ended.</p>
+ *
+ * <p>Dial commands are sent asynchronously so the dialer thread never blocks waiting for the
+ * Rayo server. Call references are collected when the IQ responses arrive and reported to the
+ * registered {@link DialerListener}s. Dials are only retried, up to the configured number of
+ * times, when the error proves that the call was not placed, like a dial that could not be
+ * sent or that the server rejected because it was busy. Dials that time out are failed and
+ * not retried, as the call may exist. If its reference arrives later the call is hung up.</p>
+ *
+ * <p>The dialer keeps live counters that can be queried at any time, like the number of dials
+ * per second or the answer rate.</p>
+ */
+public class Dialer {
+
+	private static final Logger log = LoggerFactory.getLogger(Dialer.class);
+
+	private static final long PUMP_INTERVAL = 5;
+
+	private final RayoClient client;
+	private final DialerConfiguration config;
+
+	private final Collection<DialerListener> listeners = new ConcurrentLinkedQueue<DialerListener>();
+	private final LinkedBlockingQueue<DialRequest> pending = new LinkedBlockingQueue<DialRequest>();
+	private final Map<String, DialRequest> calls = new ConcurrentHashMap<String, DialRequest>();
+
+	// Dials sent that have not got their reference yet, and the events of unknown calls
+	// received meanwhile, which may belong to those dials
+	private final Set<DialAttempt> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<DialAttempt, Boolean>());
+	private final Map<String, EarlyEvents> earlyEvents = new ConcurrentHashMap<String, EarlyEvents>();
+
+	private final AtomicInteger concurrentCalls = new AtomicInteger();
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong dialed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong answered = new AtomicLong();
+	private final AtomicLong ended = new AtomicLong();
+	private final AtomicLong lateHangups = new AtomicLong();
+	private final AtomicLong lost = new AtomicLong();
+
+	private volatile long dialsPerSecond;
+	private long lastDialed;
+
+	// Only accessed from the dialer thread
+	private long nextSlot;
+
+	private ScheduledExecutorService scheduler;
+	private StanzaListener callListener;
+	private CallsRegistryListener registryListener;
+	private XmppConnectionListener connectionListener;
+
+	public Dialer(RayoClient client) {
+
+		this(client, new DialerConfiguration());
+	}
+
+	public Dialer(RayoClient client, DialerConfiguration config) {
+
+		this.client = client;
+		this.config = config;
+	}
+
+	/**
+	 * Starts the dialer thread. The Rayo client must be already connected.
+	 */
+	public synchronized void start() {
+
+		if (scheduler != null) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+
+				Thread thread = new Thread(r, "rayo-dialer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		callListener = new StanzaAdapter() {
+
+			@Override
+			public void onPresence(Presence presence) {
+
+				callEvent(presence);
+			}
+		};
+		client.addStanzaListener(callListener);
+
+		registryListener = new CallsRegistryListener() {
+
+			@Override
+			public void callExpired(Call call) {
+
+				lost(call.getCallId(), "expired");
+			}
+
+			@Override
+			public void callEvicted(Call call) {
+
+				lost(call.getCallId(), "was evicted");
+			}
+		};
+		client.getCallsRegistry().addListener(registryListener);
+
+		connectionListener = new XmppConnectionAdapter() {
+
+			@Override
+			public void connectionError(String connectionId, Exception e) {
+
+				for (String callId: calls.keySet()) {
+					lost(callId, "lost its connection");
+				}
+			}
+		};
+		client.getXmppConnection().addXmppConnectionListener(connectionListener);
+
+		nextSlot = System.nanoTime();
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+					pump();
+				} catch (Exception e) {
+					log.error("Error while releasing dials", e);
+				}
+			}
+		}, 0, PUMP_INTERVAL, TimeUnit.MILLISECONDS);
+
+		scheduler.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+
+				long current = dialed.get();
+				dialsPerSecond = current - lastDialed;
+				lastDialed = current;
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops the dialer thread. Dial commands that have not been sent yet are discarded.
+	 */
+	public synchronized void stop() {
+
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdownNow();
+		scheduler = null;
+		client.removeStanzaListener(callListener);
+		callListener = null;
+		client.getCallsRegistry().removeListener(registryListener);
+		registryListener = null;
+		client.getXmppConnection().removeXmppConnectionListener(connectionListener);
+		connectionListener = null;
+		pending.clear();
+		earlyEvents.clear();
+	}
+
+	/**
+	 * Queues a dial command. The command will be sent as soon as the pacing and the
+	 * concurrent calls limit allow it.
+	 *
+	 * @param command Dial command
+	 */
+	public void submit(DialCommand command) {
+
+		submitted.incrementAndGet();
+		pending.add(new DialRequest(command));
+	}
+
+	public void addDialerListener(DialerListener listener) {
+
+		listeners.add(listener);
+	}
+
+	public void removeDialerListener(DialerListener listener) {
+
+		listeners.remove(listener);
+	}
+
+	private void pump() {
+
+		long now = System.nanoTime();
+		long interval = TimeUnit.SECONDS.toNanos(1) / config.getCallsPerSecond();
+		while (nextSlot <= now) {
+			if (concurrentCalls.get() >= config.getMaxConcurrentCalls()) {
+				break;
+			}
+			DialRequest request = pending.poll();
+			if (request == null) {
+				break;
+			}
+			nextSlot += interval;
+			send(request);
+		}
+		// Do not accumulate credit while idle, otherwise we would burst later
+		if (nextSlot < now) {
+			nextSlot = now;
+		}
+		purgeEarlyEvents();
+	}
+
+	private void send(DialRequest request) {
+
+		concurrentCalls.incrementAndGet();
+		request.attempts++;
+		DialAttempt attempt = new DialAttempt(request);
+		// Registered before sending, the events of the call can arrive before its reference
+		inFlight.add(attempt);
+		try {
+			client.dial(request.command, attempt);
+			attempt.timeout = scheduler.schedule(attempt, config.getDialTimeout(), TimeUnit.MILLISECONDS);
+		} catch (XmppException xe) {
+			if (attempt.done.compareAndSet(false, true)) {
+				inFlight.remove(attempt);
+				dialFailed(request, xe, false);
+			}
+		}
+	}
+
+	private void dialFailed(final DialRequest request, XmppException xe, boolean sent) {
+
+		concurrentCalls.decrementAndGet();
+		if (canRetry(xe, sent) && request.attempts <= config.getMaxRetries()) {
+			retried.incrementAndGet();
+			log.debug(String.format("Retrying dial to [%s] after error: %s", request.command.getTo(), xe.getMessage()));
+			ScheduledExecutorService scheduler = this.scheduler;
+			if (scheduler != null) {
+				scheduler.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+
+						pending.add(request);
+					}
+				}, config.getRetryDelay(), TimeUnit.MILLISECONDS);
+				return;
+			}
+		}
+		failed.incrementAndGet();
+		for (DialerListener listener: listeners) {
+			listener.failed(request.command, xe);
+		}
+	}
+
+	private void dialed(DialRequest request, String callId) {
+
+		EarlyEvents early;
+		synchronized (calls) {
+			early = earlyEvents.remove(callId);
+			if (early == null || !early.ended) {
+				calls.put(callId, request);
+			}
+		}
+		dialed.incrementAndGet();
+		for (DialerListener listener: listeners) {
+			listener.dialed(request.command, callId);
+		}
+		if (early != null) {
+			if (early.answered) {
+				answered(request, callId);
+			}
+			if (early.ended) {
+				ended(request, callId);
+			}
+		}
+	}
+
+	private void callEvent(Presence presence) {
+
+		JID from = presence.getFromJid();
+		if (from == null || from.getNode() == null) {
+			return;
+		}
+		String name = presence.getChildName();
+		boolean isAnswered = "answered".equals(name);
+		boolean isEnd = "end".equals(name);
+		if (!isAnswered && !isEnd) {
+			return;
+		}
+		String callId = from.getNode();
+		DialRequest request;
+		synchronized (calls) {
+			request = isEnd ? calls.remove(callId) : calls.get(callId);
+			if (request == null) {
+				if (!inFlight.isEmpty()) {
+					// The reference of this call may not have been processed yet
+					EarlyEvents early = earlyEvents.get(callId);
+					if (early == null) {
+						early = new EarlyEvents();
+						earlyEvents.put(callId, early);
+					}
+					early.answered |= isAnswered;
+					early.ended |= isEnd;
+				}
+				return;
+			}
+		}
+		if (isAnswered) {
+			answered(request, callId);
+		} else {
+			ended(request, callId);
+		}
+	}
+
+	private void answered(DialRequest request, String callId) {
+
+		answered.incrementAndGet();
+		for (DialerListener listener: listeners) {
+			listener.answered(request.command, callId);
+		}
+	}
+
+	private void ended(DialRequest request, String callId) {
+
+		ended.incrementAndGet();
+		concurrentCalls.decrementAndGet();
+		for (DialerListener listener: listeners) {
+			listener.ended(request.command, callId);
+		}
+	}
+
+	/**
+	 * Releases the slot of a call that will not get its end event
+	 */
+	private void lost(String callId, String reason) {
+
+		DialRequest request;
+		synchronized (calls) {
+			request = calls.remove(callId);
+		}
+		if (request == null) {
+			return;
+		}
+		lost.incrementAndGet();
+		log.warn(String.format("Call [%s] %s before it ended. Releasing it", callId, reason));
+		concurrentCalls.decrementAndGet();
+		for (DialerListener listener: listeners) {
+			listener.ended(request.command, callId);
+		}
+	}
+
+	/**
+	 * Drops the events of unknown calls that are too old to belong to a dial in flight
+	 */
+	private void purgeEarlyEvents() {
+
+		if (earlyEvents.isEmpty()) {
+			return;
+		}
+		long oldest = System.currentTimeMillis() - config.getDialTimeout();
+		Iterator<EarlyEvents> it = earlyEvents.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().received < oldest) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * A dial is only retried when the error proves the call was not placed, otherwise the
+	 * same destination could be called twice
+	 *
+	 * @param xe Failure cause
+	 * @param sent Whether the dial command was sent to the server
+	 */
+	private boolean canRetry(XmppException xe, boolean sent) {
+
+		if (xe instanceof DialTimeoutException) {
+			// No answer does not mean no call
+			return false;
+		}
+		Error error = xe.getError();
+		if (error == null) {
+			return !sent;
+		}
+		if (error.getType() == Error.Type.wait) {
+			return true;
+		}
+		Error.Condition condition = error.getCondition();
+		if (condition == Error.Condition.service_unavailable ||
+			condition == Error.Condition.resource_constraint) {
+			return true;
+		}
+		return !sent && (condition == Error.Condition.remote_server_timeout ||
+			   condition == Error.Condition.internal_server_error);
+	}
+
+	private void hangupLateCall(final String callId) {
+
+		lateHangups.incrementAndGet();
+		log.warn(String.format("Dial of call [%s] had already timed out. Hanging it up", callId));
+		ScheduledExecutorService scheduler = this.scheduler;
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.execute(new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+					client.hangup(callId);
+				} catch (XmppException e) {
+					log.error(String.format("Could not hang up call [%s]", callId), e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return long Number of dial commands submitted to this dialer
+	 */
+	public long getSubmitted() {
+		return submitted.get();
+	}
+
+	/**
+	 * @return long Number of dial commands that got a call id back
+	 */
+	public long getDialed() {
+		return dialed.get();
+	}
+
+	/**
+	 * @return long Number of dial commands that have failed after all the retries
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return long Number of retries
+	 */
+	public long getRetried() {
+		return retried.get();
+	}
+
+	/**
+	 * @return long Number of calls hung up because their reference arrived after the dial
+	 * timed out
+	 */
+	public long getLateHangups() {
+		return lateHangups.get();
+	}
+
+	/**
+	 * @return long Number of calls released without an end event, because the calls registry
+	 * discarded them or the connection was lost
+	 */
+	public long getLost() {
+		return lost.get();
+	}
+
+	/**
+	 * @return long Number of dialed calls that have been answered
+	 */
+	public long getAnswered() {
+		return answered.get();
+	}
+
+	/**
+	 * @return long Number of dialed calls that have ended
+	 */
+	public long getEnded() {
+		return ended.get();
+	}
+
+	/**
+	 * @return int Number of dial commands waiting to be sent
+	 */
+	public int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * @return int Number of calls that are being dialed or are established
+	 */
+	public int getConcurrentCalls() {
+		return concurrentCalls.get();
+	}
+
+	/**
+	 * @return long Number of dials that got a call id back during the last second
+	 */
+	public long getDialsPerSecond() {
+		return dialsPerSecond;
+	}
+
+	/**
+	 * @return double Ratio of answered calls over dialed calls
+	 */
+	public double getAnswerRate() {
+
+		long total = dialed.get();
+		return total == 0 ? 0 : (double)answered.get() / total;
+	}
+
+	private static class EarlyEvents {
+
+		private final long received = System.currentTimeMillis();
+		private boolean answered;
+		private boolean ended;
+	}
+
+	private static class DialRequest {
+
+		private final DialCommand command;
+		private int attempts;
+
+		DialRequest(DialCommand command) {
+
+			this.command = command;
+		}
+	}
+
+	private class DialAttempt implements ResponseHandler, Runnable {
+
+		private final DialRequest request;
+		private final AtomicBoolean done = new AtomicBoolean(false);
+		private volatile ScheduledFuture<?> timeout;
+
+		DialAttempt(DialRequest request) {
+
+			this.request = request;
+		}
+
+		@Override
+		public void handle(XmppObject response) {
+
+			IQ result = (IQ)response;
+			if (!done.compareAndSet(false, true)) {
+				if (!result.isError()) {
+					// Already reported as failed, the call must not stay up
+					hangupLateCall(((RefEvent)result.getExtension().getObject()).getJid());
+				}
+				return;
+			}
+			ScheduledFuture<?> timeout = this.timeout;
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+			if (result.isError()) {
+				inFlight.remove(this);
+				Error error = result.getError();
+				dialFailed(request, error != null ? new XmppException(error) : new XmppException("Dial failed"), true);
+			} else {
+				RefEvent reference = (RefEvent)result.getExtension().getObject();
+				dialed(request, reference.getJid());
+				inFlight.remove(this);
+			}
+		}
+
+		@Override
+		public void run() {
+
+			if (done.compareAndSet(false, true)) {
+				inFlight.remove(this);
+				dialFailed(request, new DialTimeoutException(), true);
+			}
+		}
+	}
+}
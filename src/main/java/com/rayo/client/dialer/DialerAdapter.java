@@ -0,0 +1,27 @@
+package com.rayo.client.dialer;
+
+import com.rayo.client.XmppException;
+import com.rayo.core.DialCommand;
+
+public abstract class DialerAdapter implements DialerListener {
+
+	@Override
+	public void dialed(DialCommand command, String callId) {
+
+	}
+
+	@Override
+	public void failed(DialCommand command, XmppException e) {
+
+	}
+
+	@Override
+	public void answered(DialCommand command, String callId) {
+
+	}
+
+	@Override
+	public void ended(DialCommand command, String callId) {
+
+	}
+}
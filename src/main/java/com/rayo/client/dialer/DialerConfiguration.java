@@ -0,0 +1,74 @@
+package com.rayo.client.dialer;
+
+/**
+ * Settings for a {@link Dialer}
+ */
+public class DialerConfiguration {
+
+	private int callsPerSecond = 10;
+	private int maxConcurrentCalls = 100;
+	private int maxRetries = 2;
+	private long retryDelay = 1000;
+	private long dialTimeout = 10000;
+
+	/**
+	 * Maximum number of dial commands that will be sent per second
+	 */
+	public int getCallsPerSecond() {
+		return callsPerSecond;
+	}
+
+	public void setCallsPerSecond(int callsPerSecond) {
+		if (callsPerSecond <= 0) {
+			throw new IllegalArgumentException("Calls per second must be positive");
+		}
+		this.callsPerSecond = callsPerSecond;
+	}
+
+	/**
+	 * Maximum number of calls, dialing or already established, at any given time
+	 */
+	public int getMaxConcurrentCalls() {
+		return maxConcurrentCalls;
+	}
+
+	public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+		if (maxConcurrentCalls <= 0) {
+			throw new IllegalArgumentException("Max concurrent calls must be positive");
+		}
+		this.maxConcurrentCalls = maxConcurrentCalls;
+	}
+
+	/**
+	 * Number of times a dial will be retried when its error proves the call was not placed
+	 */
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Milliseconds to wait before retrying a dial
+	 */
+	public long getRetryDelay() {
+		return retryDelay;
+	}
+
+	public void setRetryDelay(long retryDelay) {
+		this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * Milliseconds to wait for the Rayo server to answer a dial command
+	 */
+	public long getDialTimeout() {
+		return dialTimeout;
+	}
+
+	public void setDialTimeout(long dialTimeout) {
+		this.dialTimeout = dialTimeout;
+	}
+}
@@ -0,0 +1,44 @@
+package com.rayo.client.dialer;
+
+import com.rayo.client.XmppException;
+import com.rayo.core.DialCommand;
+
+/**
+ * <p>Callback interface for the events generated by a {@link Dialer}. Callbacks are
+ * invoked either from the dialer thread or from the connection's dispatching thread
+ * so implementations must return quickly.</p>
+ */
+public interface DialerListener {
+
+	/**
+	 * The Rayo server has accepted the dial command and has returned a call id
+	 *
+	 * @param command Dial command
+	 * @param callId Id of the new call
+	 */
+	public void dialed(DialCommand command, String callId);
+
+	/**
+	 * The dial command has failed and will not be retried anymore
+	 *
+	 * @param command Dial command
+	 * @param e Failure cause
+	 */
+	public void failed(DialCommand command, XmppException e);
+
+	/**
+	 * The call created by the dial command has been answered
+	 *
+	 * @param command Dial command
+	 * @param callId Id of the call
+	 */
+	public void answered(DialCommand command, String callId);
+
+	/**
+	 * The call created by the dial command has ended
+	 *
+	 * @param command Dial command
+	 * @param callId Id of the call
+	 */
+	public void ended(DialCommand command, String callId);
+}
@@ -0,0 +1,20 @@
+package com.rayo.client.exception;
+
+import com.rayo.client.XmppException;
+import com.rayo.client.xmpp.stanza.Error;
+
+/**
+ * <p>This exception is thrown to every thread waiting for an answer from the
+ * server when the connection to the server is lost. Those answers will never
+ * arrive, so waiting threads are released right away instead of waiting for
+ * their timeouts.</p>
+ *
+ */
+@SuppressWarnings("serial")
+public class ConnectionLostException extends XmppException {
+
+	public ConnectionLostException(Throwable cause) {
+
+		super("Connection to the server has been lost", Error.Condition.service_unavailable, cause);
+	}
+}
@@ -0,0 +1,18 @@
+package com.rayo.client.exception;
+
+import com.rayo.client.XmppException;
+import com.rayo.client.xmpp.stanza.Error;
+
+/**
+ * <p>This exception is thrown when a request has to be sent to one of the
+ * configured Rayo nodes but all of them have been taken out of rotation.</p>
+ *
+ */
+@SuppressWarnings("serial")
+public class NoRayoNodeAvailableException extends XmppException {
+
+	public NoRayoNodeAvailableException() {
+
+		super("There is no Rayo node available", Error.Condition.service_unavailable);
+	}
+}
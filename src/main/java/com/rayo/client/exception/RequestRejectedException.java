@@ -0,0 +1,18 @@
+package com.rayo.client.exception;
+
+import com.rayo.client.XmppException;
+import com.rayo.client.xmpp.stanza.Error;
+
+/**
+ * <p>This exception is thrown when a request is not sent because there are
+ * already too many requests waiting for an answer on the connection.</p>
+ *
+ */
+@SuppressWarnings("serial")
+public class RequestRejectedException extends XmppException {
+
+	public RequestRejectedException() {
+
+		super("Too many requests waiting for an answer", Error.Condition.resource_constraint);
+	}
+}
@@ -5,12 +5,17 @@ import java.util.concurrent.TimeUnit;
 
 import com.rayo.client.io.XmppReader;
 import com.rayo.client.xmpp.stanza.AbstractXmppObject;
+import com.rayo.client.xmpp.stanza.Error;
+import com.rayo.client.xmpp.stanza.Error.Condition;
 import com.rayo.client.xmpp.stanza.XmppObject;
 
 public abstract class AbstractXmppObjectFilter implements XmppObjectFilter {
 
 	private int DEFAULT_TIMEOUT = 20 * 1000; // 20 seconds default timeout
 	
+	// Marker that releases the threads polling an aborted filter
+	private static final AbstractXmppObject ABORTED = new Error(Condition.service_unavailable);
+	
 	private LinkedBlockingQueue<AbstractXmppObject> queue = new LinkedBlockingQueue<AbstractXmppObject>(1000);
 
 	private XmppReader reader;
@@ -34,16 +39,19 @@ public abstract class AbstractXmppObjectFilter implements XmppObjectFilter {
 	
 	public XmppObject poll() {
 		
-		try {
-			return queue.poll(DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
-		} catch (InterruptedException e) {}
-		return null;
+		return poll(DEFAULT_TIMEOUT);
 	}
 	
 	public XmppObject poll(int milliseconds) {
 		
 		try {
-			return queue.poll(milliseconds, TimeUnit.MILLISECONDS);
+			AbstractXmppObject object = queue.poll(milliseconds, TimeUnit.MILLISECONDS);
+			if (object == ABORTED) {
+				// Leave the marker for any other thread polling this filter
+				queue.offer(ABORTED);
+				return null;
+			}
+			return object;
 		} catch (InterruptedException e) {}
 		return null;
 	}
@@ -61,6 +69,15 @@ public abstract class AbstractXmppObjectFilter implements XmppObjectFilter {
 		reader = null;
 	}
 	
+	/**
+	 * Aborts this filter because no more objects will arrive, e.g. because the connection has 
+	 * been lost. Threads polling this filter are released right away and get <code>null</code>.
+	 */
+	public void abort() {
+		
+		queue.offer(ABORTED);
+	}
+	
 	public void setDefaultTimeout(int timeout) {
 		
 		DEFAULT_TIMEOUT = timeout;
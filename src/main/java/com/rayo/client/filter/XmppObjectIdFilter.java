@@ -2,6 +2,10 @@ package com.rayo.client.filter;
 
 import com.rayo.client.response.ResponseHandler;
 import com.rayo.client.xmpp.stanza.AbstractXmppObject;
+import com.rayo.client.xmpp.stanza.Error;
+import com.rayo.client.xmpp.stanza.Error.Condition;
+import com.rayo.client.xmpp.stanza.Error.Type;
+import com.rayo.client.xmpp.stanza.IQ;
 
 public class XmppObjectIdFilter extends AbstractXmppObjectFilter {
 
@@ -30,4 +34,17 @@ public class XmppObjectIdFilter extends AbstractXmppObjectFilter {
 		}
 		return null;
 	}
+	
+	@Override
+	public void abort() {
+		
+		super.abort();
+		if (handler != null) {
+			// Asynchronous requests get an error answer as the real one will never arrive
+			IQ error = new IQ(IQ.Type.error);
+			error.setId(id);
+			error.setError(new Error(Condition.service_unavailable, Type.cancel, "Connection to the server has been lost"));
+			handler.handle(error);
+		}
+	}
 }
@@ -0,0 +1,219 @@
+package com.rayo.client.flow;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rayo.client.XmppException;
+import com.rayo.client.xmpp.stanza.Error;
+
+/**
+ * <p>Publishes the Rayo events of a single call. The publisher accepts a single subscriber
+ * and keeps the events that the subscriber has not requested yet in a bounded buffer. Events
+ * received before the subscriber arrives are buffered too, so no event is lost between the
+ * call being offered or dialed and the application subscribing to it.</p>
+ *
+ * <p>If the subscriber does not keep up and the buffer fills up, the stream is failed with an
+ * {@link XmppException} rather than growing without limit. The stream completes after the
+ * call's end event has been delivered.</p>
+ *
+ * <p>No thread is dedicated to a call. Events are delivered either by the thread that
+ * dispatches incoming events or by the subscriber's thread when it requests more events,
+ * never by both at the same time, so subscribers must not block.</p>
+ */
+public class CallEventPublisher implements Flow.Publisher<Object> {
+
+	private static final Logger log = LoggerFactory.getLogger(CallEventPublisher.class);
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final String callId;
+	private final int capacity;
+
+	private final Queue<Object> buffer = new ConcurrentLinkedQueue<Object>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong requested = new AtomicLong();
+	private final AtomicInteger wip = new AtomicInteger();
+	private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+	private volatile Flow.Subscriber<? super Object> subscriber;
+	private volatile boolean completed;
+	private volatile boolean cancelled;
+	private volatile Throwable error;
+
+	// Only accessed from the drain loop
+	private boolean terminated;
+
+	public CallEventPublisher(String callId) {
+
+		this(callId, DEFAULT_CAPACITY);
+	}
+
+	public CallEventPublisher(String callId, int capacity) {
+
+		this.callId = callId;
+		this.capacity = capacity;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super Object> subscriber) {
+
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {}
+				public void cancel() {}
+			});
+			subscriber.onError(new IllegalStateException(String.format("Call [%s] already has a subscriber", callId)));
+			return;
+		}
+		subscriber.onSubscribe(new CallSubscription());
+		this.subscriber = subscriber;
+		drain();
+	}
+
+	/**
+	 * Adds an event to the stream
+	 *
+	 * @param event Rayo event
+	 *
+	 * @return boolean <code>false</code> if the event has been discarded because the stream
+	 * has finished or the buffer is full
+	 */
+	public boolean publish(Object event) {
+
+		if (completed || cancelled) {
+			return false;
+		}
+		if (size.incrementAndGet() > capacity) {
+			size.decrementAndGet();
+			log.warn(String.format("Event buffer of call [%s] is full. Failing the event stream", callId));
+			error = new XmppException(String.format("Event buffer of call [%s] is full", callId), Error.Condition.resource_constraint);
+			completed = true;
+			drain();
+			return false;
+		}
+		buffer.offer(event);
+		drain();
+		return true;
+	}
+
+	/**
+	 * Completes the stream once all the buffered events have been delivered
+	 */
+	public void complete() {
+
+		completed = true;
+		drain();
+	}
+
+	/**
+	 * Fails the stream immediately, discarding the buffered events
+	 *
+	 * @param cause Reason of the failure
+	 */
+	public void fail(Throwable cause) {
+
+		if (completed) {
+			return;
+		}
+		error = cause;
+		completed = true;
+		drain();
+	}
+
+	public String getCallId() {
+
+		return callId;
+	}
+
+	/**
+	 * @return int Number of events waiting to be requested by the subscriber
+	 */
+	public int getBufferedCount() {
+
+		return size.get();
+	}
+
+	private void drain() {
+
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+		int missed = 1;
+		do {
+			Flow.Subscriber<? super Object> s = subscriber;
+			if (s != null && !terminated) {
+				if (cancelled) {
+					clear();
+					terminated = true;
+				} else if (error != null) {
+					clear();
+					terminated = true;
+					s.onError(error);
+				} else {
+					long r = requested.get();
+					long emitted = 0;
+					while (emitted != r && !cancelled) {
+						Object event = buffer.poll();
+						if (event == null) {
+							break;
+						}
+						size.decrementAndGet();
+						s.onNext(event);
+						emitted++;
+					}
+					if (emitted != 0 && r != Long.MAX_VALUE) {
+						requested.addAndGet(-emitted);
+					}
+					if (completed && error == null && buffer.isEmpty() && !cancelled) {
+						terminated = true;
+						s.onComplete();
+					}
+				}
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void clear() {
+
+		buffer.clear();
+		size.set(0);
+	}
+
+	private class CallSubscription implements Flow.Subscription {
+
+		@Override
+		public void request(long n) {
+
+			if (n <= 0) {
+				fail(new IllegalArgumentException("Requested events must be positive"));
+				return;
+			}
+			long current, next;
+			do {
+				current = requested.get();
+				if (current == Long.MAX_VALUE) {
+					return;
+				}
+				next = current + n;
+				if (next < 0) {
+					next = Long.MAX_VALUE;
+				}
+			} while (!requested.compareAndSet(current, next));
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+
+			cancelled = true;
+			drain();
+		}
+	}
+}
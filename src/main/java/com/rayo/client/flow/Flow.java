@@ -0,0 +1,59 @@
+package com.rayo.client.flow;
+
+/**
+ * <p>Interfaces for asynchronous streams with non blocking back pressure, following the
+ * Reactive Streams specification. They mirror the ones nested in
+ * <code>java.util.concurrent.Flow</code>, which is not available on every JVM this library runs
+ * on, so adapters to that API or to any other Reactive Streams implementation are trivial.</p>
+ */
+public final class Flow {
+
+	private Flow() {}
+
+	/**
+	 * A producer of items that are received by a {@link Subscriber}
+	 */
+	public static interface Publisher<T> {
+
+		/**
+		 * Adds the given subscriber. The publisher will invoke {@link Subscriber#onSubscribe(Subscription)}
+		 * before signalling anything else to the subscriber.
+		 *
+		 * @param subscriber Subscriber
+		 */
+		public void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A receiver of items. Items are only signalled after they have been requested through
+	 * the subscriber's {@link Subscription}.
+	 */
+	public static interface Subscriber<T> {
+
+		public void onSubscribe(Subscription subscription);
+
+		public void onNext(T item);
+
+		public void onError(Throwable throwable);
+
+		public void onComplete();
+	}
+
+	/**
+	 * Link between a publisher and a subscriber
+	 */
+	public static interface Subscription {
+
+		/**
+		 * Adds the given number of items to the demand of the subscriber
+		 *
+		 * @param n Number of items. Must be positive.
+		 */
+		public void request(long n);
+
+		/**
+		 * Stops receiving items
+		 */
+		public void cancel();
+	}
+}
@@ -0,0 +1,19 @@
+package com.rayo.client.io;
+
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Sees every incoming XMPP object before it is handed to the filters and listeners and 
+ * can prevent it from being dispatched at all. Interceptors run on the thread that reads 
+ * from the socket, so they must be fast and must never block.</p>
+ */
+public interface InboundInterceptor {
+
+	/**
+	 * @param object Incoming object
+	 * 
+	 * @return boolean <code>true</code> if the object must be dispatched, <code>false</code> 
+	 * if it must be discarded
+	 */
+	public boolean accept(XmppObject object);
+}
@@ -0,0 +1,69 @@
+package com.rayo.client.io;
+
+import com.rayo.client.xmpp.stanza.AbstractXmppObject;
+import com.rayo.client.xmpp.stanza.IQ;
+import com.rayo.client.xmpp.stanza.Presence;
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Priority classes for outbound XMPP objects. Objects on a higher priority class are always
+ * written to the socket before any object of a lower priority class, so a time critical hangup
+ * or stop does not have to wait behind a large SSML say.</p>
+ *
+ * <p>Classes are declared from the highest to the lowest priority.</p>
+ */
+public enum OutboundPriority {
+
+	/**
+	 * Commands that tear down or redirect calls and media: hangup, stop, reject and redirect.
+	 * Stream level data like stream headers is also written with this priority.
+	 */
+	CALL_CONTROL,
+
+	/**
+	 * Any other command or IQ result
+	 */
+	NORMAL,
+
+	/**
+	 * Media commands: say, output, record, ask and input
+	 */
+	MEDIA,
+
+	/**
+	 * Presences and pings
+	 */
+	BACKGROUND;
+
+	/**
+	 * Returns the priority class of the given XMPP object
+	 *
+	 * @param object XMPP object
+	 *
+	 * @return OutboundPriority Priority class
+	 */
+	public static OutboundPriority of(XmppObject object) {
+
+		if (object instanceof Presence) {
+			return BACKGROUND;
+		}
+		if (object instanceof IQ) {
+			String child = ((AbstractXmppObject)object).getChildName();
+			if (child == null) {
+				return NORMAL;
+			}
+			if (child.equals("hangup") || child.equals("stop") ||
+				child.equals("reject") || child.equals("redirect")) {
+				return CALL_CONTROL;
+			}
+			if (child.equals("say") || child.equals("output") || child.equals("record") ||
+				child.equals("ask") || child.equals("input")) {
+				return MEDIA;
+			}
+			if (child.equals("ping")) {
+				return BACKGROUND;
+			}
+		}
+		return NORMAL;
+	}
+}
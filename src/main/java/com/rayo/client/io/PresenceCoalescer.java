@@ -0,0 +1,301 @@
+package com.rayo.client.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rayo.client.xmpp.stanza.Presence;
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Coalescing stage that sits in front of the stanza listeners and protects them from
+ * bursts of high frequency presences, like the speaking or joined events of a large
+ * conference. Two mechanisms can be configured per presence element name:</p>
+ *
+ * <ul>
+ * 	<li><b>Coalescing</b>. Elements are assigned to a state group, e.g. <i>speaking</i> and
+ * 	<i>finished-speaking</i>. Presences of the same group from the same call or mixer about the
+ * 	same participant supersede each other. They are held for a time window and only the
+ * 	latest one is delivered when the window closes.</li>
+ * 	<li><b>Rate limiting</b>. Presences over the configured rate are dropped.</li>
+ * </ul>
+ *
+ * <p>Presences of any other element, like offers, answers, end or complete events, are
+ * never held nor dropped. Coalesced presences may be delivered after events that arrived
+ * later than them, but never after the end of their call: when it arrives, the presences
+ * held for the call are delivered right before it. Filters, and therefore
+ * <code>waitFor</code> calls, are not affected.</p>
+ *
+ * <p>Compact presences are inspected without building their dom4j element.</p>
+ *
+ * <p>With no configuration every object passes straight through.</p>
+ */
+public class PresenceCoalescer {
+
+	private volatile long window = 100;
+
+	private final Map<String, String> groups = new ConcurrentHashMap<String, String>();
+	private final Map<String, RateLimit> limits = new ConcurrentHashMap<String, RateLimit>();
+	private final LinkedHashMap<String, Pending> pending = new LinkedHashMap<String, Pending>();
+	private volatile boolean enabled;
+
+	private final AtomicLong merged = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Coalesces the presences with the given element name within the given state group.
+	 *
+	 * @param element Name of the presence child element, e.g. <i>speaking</i>
+	 * @param group Name of the state group, e.g. <i>speaking</i> for both <i>speaking</i> and
+	 * <i>finished-speaking</i>
+	 */
+	public void coalesce(String element, String group) {
+
+		groups.put(element, group);
+		enabled = true;
+	}
+
+	/**
+	 * Limits the number of presences with the given element name that are delivered per
+	 * second. Presences over the limit are dropped.
+	 *
+	 * @param element Name of the presence child element, e.g. <i>dtmf</i>
+	 * @param perSecond Maximum presences per second
+	 */
+	public void setRateLimit(String element, int perSecond) {
+
+		limits.put(element, new RateLimit(perSecond));
+		enabled = true;
+	}
+
+	/**
+	 * Sets the milliseconds that coalesced presences are held. Defaults to 100.
+	 */
+	public void setWindow(long window) {
+
+		this.window = window;
+	}
+
+	public long getWindow() {
+
+		return window;
+	}
+
+	public boolean isEnabled() {
+
+		return enabled;
+	}
+
+	/**
+	 * Offers an incoming object to this stage
+	 *
+	 * @param object Incoming object
+	 *
+	 * @return boolean <code>true</code> if the object has been held or dropped and must not be
+	 * delivered now, <code>false</code> if it must be delivered immediately
+	 */
+	public boolean offer(XmppObject object) {
+
+		if (!enabled || !(object instanceof Presence)) {
+			return false;
+		}
+		Presence presence = (Presence)object;
+		String name = presence.getChildName();
+		if (name == null) {
+			return false;
+		}
+		RateLimit limit = limits.get(name);
+		if (limit != null && !limit.tryAcquire()) {
+			dropped.incrementAndGet();
+			return true;
+		}
+		String group = groups.get(name);
+		if (group == null) {
+			return false;
+		}
+
+		String target = presence.getChildAttribute("call-id");
+		if (target == null) {
+			target = presence.getChildAttribute("mixer-name");
+		}
+		String from = bare(presence.getFrom());
+		String key = from + '|' + group + '|' + target;
+		synchronized (pending) {
+			Pending entry = pending.get(key);
+			if (entry != null) {
+				entry.object = object;
+				merged.incrementAndGet();
+			} else {
+				pending.put(key, new Pending(object, from, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(window)));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the presences held for a call when its end event arrives
+	 *
+	 * @param object Incoming object
+	 *
+	 * @return List Presences held for the call that must be delivered before the given end
+	 * event, in the order they were first held. Empty if the object is not an end event.
+	 */
+	public List<XmppObject> flush(XmppObject object) {
+
+		if (!enabled || !(object instanceof Presence) || !"end".equals(((Presence)object).getChildName())) {
+			return Collections.emptyList();
+		}
+		String from = bare(((Presence)object).getFrom());
+		List<XmppObject> held = null;
+		synchronized (pending) {
+			Iterator<Pending> it = pending.values().iterator();
+			while (it.hasNext()) {
+				Pending entry = it.next();
+				if (entry.from.equals(from)) {
+					if (held == null) {
+						held = new ArrayList<XmppObject>();
+					}
+					held.add(entry.object);
+					it.remove();
+				}
+			}
+		}
+		return held == null ? Collections.<XmppObject>emptyList() : held;
+	}
+
+	private static String bare(String jid) {
+
+		if (jid == null) {
+			return "";
+		}
+		int slash = jid.indexOf('/');
+		return slash == -1 ? jid : jid.substring(0, slash);
+	}
+
+	/**
+	 * Removes the held presences whose window has closed
+	 *
+	 * @return List Presences to deliver, in the order they were first held
+	 */
+	public List<XmppObject> drain() {
+
+		if (!enabled) {
+			return Collections.emptyList();
+		}
+		long now = System.nanoTime();
+		List<XmppObject> due = null;
+		synchronized (pending) {
+			Iterator<Pending> it = pending.values().iterator();
+			while (it.hasNext()) {
+				Pending entry = it.next();
+				if (entry.deadline - now > 0) {
+					// Entries are ordered by deadline
+					break;
+				}
+				if (due == null) {
+					due = new ArrayList<XmppObject>();
+				}
+				due.add(entry.object);
+				it.remove();
+			}
+		}
+		return due == null ? Collections.<XmppObject>emptyList() : due;
+	}
+
+	/**
+	 * @return long Nanoseconds until the next held presence must be delivered. If nothing is
+	 * held, new presences may arrive at any time so the window length is returned.
+	 */
+	public long nextTimeout() {
+
+		synchronized (pending) {
+			if (!pending.isEmpty()) {
+				return Math.max(0, pending.values().iterator().next().deadline - System.nanoTime());
+			}
+		}
+		return TimeUnit.MILLISECONDS.toNanos(window);
+	}
+
+	/**
+	 * Discards the held presences
+	 */
+	public void clear() {
+
+		synchronized (pending) {
+			pending.clear();
+		}
+	}
+
+	/**
+	 * @return long Number of presences that have been superseded by a later presence
+	 */
+	public long getMergedCount() {
+
+		return merged.get();
+	}
+
+	/**
+	 * @return long Number of presences dropped by the rate limits
+	 */
+	public long getDroppedCount() {
+
+		return dropped.get();
+	}
+
+	/**
+	 * @return int Number of presences being held
+	 */
+	public int getPendingCount() {
+
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	private static class Pending {
+
+		private XmppObject object;
+		private final String from;
+		private final long deadline;
+
+		Pending(XmppObject object, String from, long deadline) {
+
+			this.object = object;
+			this.from = from;
+			this.deadline = deadline;
+		}
+	}
+
+	private static class RateLimit {
+
+		private final double perNano;
+		private final double capacity;
+		private double tokens;
+		private long last = System.nanoTime();
+
+		RateLimit(int perSecond) {
+
+			this.perNano = perSecond / (double)TimeUnit.SECONDS.toNanos(1);
+			this.capacity = perSecond;
+			this.tokens = perSecond;
+		}
+
+		synchronized boolean tryAcquire() {
+
+			long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (now - last) * perNano);
+			last = now;
+			if (tokens >= 1) {
+				tokens--;
+				return true;
+			}
+			return false;
+		}
+	}
+}
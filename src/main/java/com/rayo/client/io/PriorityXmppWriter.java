@@ -0,0 +1,310 @@
+package com.rayo.client.io;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rayo.client.XmppException;
+import com.rayo.client.trace.StanzaTracer;
+import com.rayo.client.xmpp.stanza.Error;
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>An {@link XmppWriter} that never writes from the caller thread. Outbound objects are
+ * placed on one lock-free queue per {@link OutboundPriority} class and a single writer thread
+ * drains them, always taking from the highest priority queue that has data. This guarantees
+ * that bytes from concurrent senders never interleave and that call control commands overtake
+ * media commands, presences and pings that are waiting to be written.</p>
+ *
+ * <p>The writer thread only flushes the socket once all the queues are empty, so bursts of
+ * commands are written with a single flush. It is started by {@link #start()}, objects
+ * written before are kept on their queues. Closing is handed to the writer thread too, so
+ * the stream end is written after everything that was pending.</p>
+ *
+ * <p>The time every object spends waiting on its queue is measured per priority class.</p>
+ */
+public class PriorityXmppWriter extends SimpleXmppWriter {
+
+	private static final Logger log = LoggerFactory.getLogger(PriorityXmppWriter.class);
+
+	private static final OutboundPriority[] PRIORITIES = OutboundPriority.values();
+	private static final long CLOSE_TIMEOUT = 1000;
+
+	private final List<Queue<Entry>> queues;
+	private final AtomicInteger[] depths;
+	private final AtomicLong[] written;
+	private final AtomicLong[] totalWait;
+	private final AtomicLong[] maxWait;
+
+	private final Thread thread;
+	private boolean started = false;
+	private volatile boolean running = true;
+	private volatile boolean waiting = false;
+	private volatile IOException failure;
+	private volatile StanzaTracer tracer;
+
+	public PriorityXmppWriter(Writer writer) {
+
+		super(writer);
+
+		int size = PRIORITIES.length;
+		queues = new ArrayList<Queue<Entry>>(size);
+		depths = new AtomicInteger[size];
+		written = new AtomicLong[size];
+		totalWait = new AtomicLong[size];
+		maxWait = new AtomicLong[size];
+		for (int i = 0; i < size; i++) {
+			queues.add(new ConcurrentLinkedQueue<Entry>());
+			depths[i] = new AtomicInteger();
+			written[i] = new AtomicLong();
+			totalWait[i] = new AtomicLong();
+			maxWait[i] = new AtomicLong();
+		}
+
+		thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+
+				drain();
+			}
+		}, "rayo-writer");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts the writer thread. Nothing is written to the socket until then.
+	 */
+	public synchronized void start() {
+
+		if (!started && running) {
+			started = true;
+			thread.start();
+		}
+	}
+
+	@Override
+	public void write(XmppObject object) throws XmppException {
+
+		// The object is only kept around when there is somebody to report it to
+		enqueue(OutboundPriority.of(object), object.toString(), tracer == null ? null : object);
+	}
+
+	@Override
+	public void write(String string) throws XmppException {
+
+		enqueue(OutboundPriority.CALL_CONTROL, string, null);
+	}
+
+	private void enqueue(OutboundPriority priority, String data, XmppObject object) throws XmppException {
+
+		if (failure != null) {
+			throw new XmppException("IO Error: Could not write", Error.Condition.remote_server_error, failure);
+		}
+		if (!running) {
+			throw new XmppException("IO Error: Writer is closed", Error.Condition.service_unavailable);
+		}
+		int index = priority.ordinal();
+		depths[index].incrementAndGet();
+		queues.get(index).offer(new Entry(data, object));
+		if (waiting) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	private Entry next() {
+
+		for (int i = 0; i < queues.size(); i++) {
+			Entry entry = queues.get(i).poll();
+			if (entry != null) {
+				depths[i].decrementAndGet();
+				long wait = System.nanoTime() - entry.enqueued;
+				written[i].incrementAndGet();
+				totalWait[i].addAndGet(wait);
+				long max = maxWait[i].get();
+				while (wait > max && !maxWait[i].compareAndSet(max, wait)) {
+					max = maxWait[i].get();
+				}
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private void drain() {
+
+		Writer writer = getWriter();
+		boolean dirty = false;
+		while (running || !isEmpty()) {
+			Entry entry = next();
+			if (entry == null) {
+				if (dirty) {
+					dirty = !flush(writer);
+					continue;
+				}
+				// Publish that we are going to sleep and check again so producers that
+				// did not see the flag have their entries picked up before parking
+				waiting = true;
+				entry = next();
+				if (entry == null) {
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+					waiting = false;
+					continue;
+				}
+				waiting = false;
+			}
+			try {
+				StanzaTracer tracer = this.tracer;
+				if (tracer == null || entry.object == null) {
+					writer.write(entry.data);
+				} else {
+					long start = System.nanoTime();
+					writer.write(entry.data);
+					tracer.written(entry.object, start - entry.enqueued, System.nanoTime() - start);
+				}
+				dirty = true;
+			} catch (IOException ioe) {
+				fail(ioe);
+				return;
+			}
+		}
+		if (flush(writer)) {
+			closeQuietly();
+		}
+	}
+
+	private void closeQuietly() {
+
+		try {
+			super.close();
+		} catch (XmppException e) {
+			log.error("Error while closing the XMPP stream", e);
+		}
+	}
+
+	private boolean flush(Writer writer) {
+
+		try {
+			writer.flush();
+			return true;
+		} catch (IOException ioe) {
+			fail(ioe);
+			return false;
+		}
+	}
+
+	private void fail(IOException ioe) {
+
+		log.error("Error while writing to the XMPP socket", ioe);
+		failure = ioe;
+		running = false;
+		for (int i = 0; i < queues.size(); i++) {
+			queues.get(i).clear();
+			depths[i].set(0);
+		}
+	}
+
+	private boolean isEmpty() {
+
+		for (int i = 0; i < queues.size(); i++) {
+			if (!queues.get(i).isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws XmppException {
+
+		synchronized(this) {
+			running = false;
+			if (!started) {
+				// Nobody else is writing
+				super.close();
+				return;
+			}
+		}
+		// The writer thread flushes whatever is pending and then closes the stream. If it has
+		// already stopped because of an error, the stream is closed from here.
+		LockSupport.unpark(thread);
+		try {
+			thread.join(CLOSE_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (thread.isAlive()) {
+			log.warn("Writer thread is still writing after {}ms. The stream is not closed", CLOSE_TIMEOUT);
+		} else if (failure != null) {
+			super.close();
+		}
+	}
+
+	/**
+	 * @return int Number of objects waiting to be written on the given priority class
+	 */
+	public int getQueueDepth(OutboundPriority priority) {
+
+		return depths[priority.ordinal()].get();
+	}
+
+	/**
+	 * @return long Number of objects written on the given priority class
+	 */
+	public long getWrittenCount(OutboundPriority priority) {
+
+		return written[priority.ordinal()].get();
+	}
+
+	/**
+	 * @return long Average time in nanoseconds that objects on the given priority class have
+	 * waited on the queue before being written
+	 */
+	public long getAverageWaitNanos(OutboundPriority priority) {
+
+		long count = written[priority.ordinal()].get();
+		return count == 0 ? 0 : totalWait[priority.ordinal()].get() / count;
+	}
+
+	/**
+	 * @return long Maximum time in nanoseconds that an object on the given priority class has
+	 * waited on the queue before being written
+	 */
+	public long getMaxWaitNanos(OutboundPriority priority) {
+
+		return maxWait[priority.ordinal()].get();
+	}
+
+	/**
+	 * Sets the tracer that is notified every time an object has been written to the socket
+	 * 
+	 * @param tracer Tracer or <code>null</code> to disable tracing
+	 */
+	public void setTracer(StanzaTracer tracer) {
+
+		this.tracer = tracer;
+	}
+
+	private static class Entry {
+
+		private final String data;
+		private final XmppObject object;
+		private final long enqueued = System.nanoTime();
+
+		Entry(String data, XmppObject object) {
+
+			this.data = data;
+			this.object = object;
+		}
+	}
+}
@@ -6,8 +6,11 @@ import java.io.Reader;
 import com.rayo.client.XmppConnectionListener;
 import com.rayo.client.XmppException;
 import com.rayo.client.auth.AuthenticationListener;
+import com.rayo.client.compression.ZlibCompression;
 import com.rayo.client.filter.XmppObjectFilter;
 import com.rayo.client.listener.StanzaListener;
+import com.rayo.client.trace.StanzaTracer;
+import com.rayo.client.trace.WireLog;
 import com.rayo.client.xmpp.stanza.Error;
 
 public class SimpleXmppReader implements XmppReader {
@@ -21,6 +24,11 @@ public class SimpleXmppReader implements XmppReader {
 		this.readingTask = new XmppReaderWorker();
 	}
 	
+	public SimpleXmppReader(MessageDispatcher messageDispatcher) {
+		
+		this.readingTask = new XmppReaderWorker(messageDispatcher);
+	}
+	
 	public void init(Reader reader) throws XmppException {
 		
 		this.reader = reader;
@@ -84,6 +92,41 @@ public class SimpleXmppReader implements XmppReader {
 		thread.start();
 	}
 		
+	/**
+	 * @param tracer Tracer notified of every stanza read from the server or <code>null</code> 
+	 * to disable tracing
+	 */
+	public void setTracer(StanzaTracer tracer) {
+		
+		readingTask.setTracer(tracer);
+	}
+	
+	/**
+	 * @param wireLog Wire log every stanza read from the server is written to
+	 */
+	public void setWireLog(WireLog wireLog) {
+		
+		readingTask.setWireLog(wireLog);
+	}
+	
+	/**
+	 * @param compactStanzas Whether received IQs and presences are backed by compact elements 
+	 * until their dom4j element is needed
+	 */
+	public void setCompactStanzas(boolean compactStanzas) {
+		
+		readingTask.setCompactStanzas(compactStanzas);
+	}
+	
+	/**
+	 * @param compression Compression negotiated with the server after authentication or 
+	 * <code>null</code> to not compress the stream
+	 */
+	public void setCompression(ZlibCompression compression) {
+		
+		readingTask.setCompression(compression);
+	}
+	
 	public Reader getReader() {
 		
 		return reader;
@@ -0,0 +1,555 @@
+package com.rayo.client.io;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rayo.client.listener.SlowHandlerListener;
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Watches how long every stanza listener and filter takes on the dispatching threads.
+ * Listeners and filters run one after another on those threads, so a single handler doing
+ * blocking I/O delays every other handler and every stanza behind it. This stage finds out
+ * which handler it is and can move it out of the way.</p>
+ *
+ * <ul>
+ * 	<li><b>Budget</b>. Handlers that take longer than the budget are reported to the
+ * 	{@link SlowHandlerListener}s, naming the handler and the object it was processing.</li>
+ * 	<li><b>Sampling</b>. By default every invocation is timed. With a sample rate of N only
+ * 	one of every N invocations of each handler is timed, for handlers that are invoked at
+ * 	very high rates.</li>
+ * 	<li><b>Quarantine</b>. Handlers that exceed their budget a number of times are moved to
+ * 	their own queue on an executor. They keep getting objects in order, but the dispatching
+ * 	threads do not wait for them anymore, so they may see objects after other handlers have
+ * 	already processed later ones. The queue is bounded, objects that do not fit are dropped
+ * 	for that handler and counted.</li>
+ * </ul>
+ *
+ * <p>With no budget set, which is the default, handlers are invoked straight away and
+ * nothing is measured.</p>
+ */
+public class SlowHandlerDetector {
+
+	private static final Logger log = LoggerFactory.getLogger(SlowHandlerDetector.class);
+
+	public static final int DEFAULT_QUARANTINE_CAPACITY = 10000;
+
+	private volatile long budget;
+	private volatile int sampleRate = 1;
+	private volatile int quarantineThreshold;
+	private volatile int quarantineCapacity = DEFAULT_QUARANTINE_CAPACITY;
+	private volatile Executor executor;
+
+	private final ConcurrentMap<Object, HandlerStats> stats = new ConcurrentHashMap<Object, HandlerStats>();
+	private final Map<Object, SerialQueue> quarantined = new ConcurrentHashMap<Object, SerialQueue>();
+	private final Collection<SlowHandlerListener> listeners = new ConcurrentLinkedQueue<SlowHandlerListener>();
+
+	private final AtomicLong violations = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * @return boolean Whether handler invocations have to go through
+	 * {@link #run(Object, XmppObject, Runnable)}
+	 */
+	public boolean isEnabled() {
+
+		return budget > 0 || !quarantined.isEmpty();
+	}
+
+	/**
+	 * Sets the time a handler can take on a single object. A budget of 0 disables the
+	 * detector.
+	 *
+	 * @param budget Budget
+	 * @param unit Time unit of the budget
+	 */
+	public void setBudget(long budget, TimeUnit unit) {
+
+		this.budget = unit.toNanos(budget);
+	}
+
+	/**
+	 * Times only one of every <code>sampleRate</code> invocations of each handler. Defaults
+	 * to 1, which times every invocation.
+	 */
+	public void setSampleRate(int sampleRate) {
+
+		if (sampleRate < 1) {
+			throw new IllegalArgumentException("Sample rate must be 1 or greater");
+		}
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Quarantines the handlers that exceed their budget the given number of times. Defaults
+	 * to 0, which never quarantines handlers.
+	 */
+	public void setQuarantineThreshold(int quarantineThreshold) {
+
+		this.quarantineThreshold = quarantineThreshold;
+	}
+
+	/**
+	 * Sets the number of objects that can be waiting for each quarantined handler. Objects
+	 * beyond it are dropped for that handler. Defaults to {@link #DEFAULT_QUARANTINE_CAPACITY}
+	 * and applies to the handlers quarantined from then on.
+	 */
+	public void setQuarantineCapacity(int quarantineCapacity) {
+
+		if (quarantineCapacity < 1) {
+			throw new IllegalArgumentException("Quarantine capacity must be 1 or greater");
+		}
+		this.quarantineCapacity = quarantineCapacity;
+	}
+
+	/**
+	 * Sets the executor that runs the quarantined handlers. Each quarantined handler still
+	 * gets its objects one at a time and in order. By default a pool of daemon threads is
+	 * created when the first handler is quarantined.
+	 */
+	public void setQuarantineExecutor(Executor executor) {
+
+		this.executor = executor;
+	}
+
+	public void addSlowHandlerListener(SlowHandlerListener listener) {
+
+		listeners.add(listener);
+	}
+
+	public void removeSlowHandlerListener(SlowHandlerListener listener) {
+
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Runs a handler invocation, timing it or handing it to the quarantine queue of the
+	 * handler as needed
+	 *
+	 * @param handler Listener or filter
+	 * @param object Object being handled, or <code>null</code> for batches
+	 * @param invocation Invocation of the handler
+	 */
+	public void run(Object handler, XmppObject object, Runnable invocation) {
+
+		SerialQueue queue = quarantined.get(handler);
+		if (queue != null) {
+			if (queue.execute(invocation)) {
+				return;
+			}
+			// Released and drained, the handler is back on the dispatching threads
+			quarantined.remove(handler, queue);
+		}
+		long budget = this.budget;
+		if (budget <= 0) {
+			invocation.run();
+			return;
+		}
+		HandlerStats handlerStats = getStats(handler);
+		int sampleRate = this.sampleRate;
+		if (sampleRate > 1 && handlerStats.invocations.incrementAndGet() % sampleRate != 0) {
+			invocation.run();
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			invocation.run();
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			handlerStats.record(elapsed);
+			if (elapsed > budget) {
+				budgetExceeded(handler, handlerStats, object, elapsed);
+			}
+		}
+	}
+
+	private void budgetExceeded(Object handler, HandlerStats handlerStats, XmppObject object, long elapsed) {
+
+		violations.incrementAndGet();
+		int count = handlerStats.violations.incrementAndGet();
+		if (log.isDebugEnabled()) {
+			log.debug(String.format("Handler [%s] took %sms processing [%s]",
+					handler, TimeUnit.NANOSECONDS.toMillis(elapsed), object == null ? "batch" : object.getId()));
+		}
+		for (SlowHandlerListener listener: listeners) {
+			try {
+				listener.budgetExceeded(handler, object, elapsed);
+			} catch (Exception e) {
+				log.error(String.format("Error on slow handler listener [%s]", listener), e);
+			}
+		}
+		int threshold = quarantineThreshold;
+		if (threshold > 0 && count >= threshold) {
+			quarantine(handler);
+		}
+	}
+
+	/**
+	 * Moves a handler to its own queue, so it does not block the dispatching threads anymore
+	 *
+	 * @param handler Listener or filter
+	 */
+	public synchronized void quarantine(Object handler) {
+
+		SerialQueue queue = quarantined.get(handler);
+		if (queue != null && !queue.isReleased()) {
+			return;
+		}
+		// A released queue that is still draining is reused, so the order is kept
+		if (queue == null || !queue.quarantine()) {
+			quarantined.put(handler, new SerialQueue(handler, getExecutor(), quarantineCapacity));
+		}
+		log.warn(String.format("Handler [%s] is too slow and has been moved out of the dispatching threads", handler));
+		for (SlowHandlerListener listener: listeners) {
+			try {
+				listener.quarantined(handler);
+			} catch (Exception e) {
+				log.error(String.format("Error on slow handler listener [%s]", listener), e);
+			}
+		}
+	}
+
+	/**
+	 * Brings a quarantined handler back to the dispatching threads. Objects already queued
+	 * for it, and any object that arrives before they have all been processed, still go
+	 * through the quarantine queue, so the handler never runs on two threads at once.
+	 *
+	 * @param handler Listener or filter
+	 */
+	public void release(Object handler) {
+
+		SerialQueue queue = quarantined.get(handler);
+		if (queue != null && queue.release()) {
+			quarantined.remove(handler, queue);
+		}
+		HandlerStats handlerStats = stats.get(handler);
+		if (handlerStats != null) {
+			handlerStats.violations.set(0);
+		}
+	}
+
+	public boolean isQuarantined(Object handler) {
+
+		SerialQueue queue = quarantined.get(handler);
+		return queue != null && !queue.isReleased();
+	}
+
+	/**
+	 * Forgets everything about a handler that is no longer registered
+	 *
+	 * @param handler Listener or filter
+	 */
+	public void remove(Object handler) {
+
+		if (!stats.isEmpty()) {
+			stats.remove(handler);
+		}
+		if (!quarantined.isEmpty()) {
+			SerialQueue queue = quarantined.remove(handler);
+			if (queue != null) {
+				queue.close();
+			}
+		}
+	}
+
+	/**
+	 * Forgets all the handlers. The configuration is kept.
+	 */
+	public void clear() {
+
+		stats.clear();
+		closeQueues();
+	}
+
+	private void closeQueues() {
+
+		for (Object handler: quarantined.keySet()) {
+			SerialQueue queue = quarantined.remove(handler);
+			if (queue != null) {
+				queue.close();
+			}
+		}
+	}
+
+	/**
+	 * @return long Number of times any handler has exceeded the budget
+	 */
+	public long getViolations() {
+
+		return violations.get();
+	}
+
+	/**
+	 * @return long Number of objects not delivered to quarantined handlers because their
+	 * queue was full
+	 */
+	public long getDropped() {
+
+		return dropped.get();
+	}
+
+	/**
+	 * @return int Number of handlers currently quarantined
+	 */
+	public int getQuarantinedCount() {
+
+		int count = 0;
+		for (SerialQueue queue: quarantined.values()) {
+			if (!queue.isReleased()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return Map<Object, HandlerStats> Timing of every handler that has been timed so far
+	 */
+	public Map<Object, HandlerStats> getStats() {
+
+		return new HashMap<Object, HandlerStats>(stats);
+	}
+
+	private HandlerStats getStats(Object handler) {
+
+		HandlerStats handlerStats = stats.get(handler);
+		if (handlerStats == null) {
+			HandlerStats created = new HandlerStats();
+			handlerStats = stats.putIfAbsent(handler, created);
+			if (handlerStats == null) {
+				handlerStats = created;
+			}
+		}
+		return handlerStats;
+	}
+
+	private synchronized Executor getExecutor() {
+
+		if (executor == null) {
+			executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+
+					Thread thread = new Thread(r, "rayo-quarantine-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Discards the objects waiting for the quarantined handlers, which go back to the
+	 * dispatching threads, and shuts down the default quarantine executor, if it was created
+	 */
+	public synchronized void shutdown() {
+
+		closeQueues();
+		if (executor instanceof ExecutorService) {
+			((ExecutorService)executor).shutdown();
+		}
+		executor = null;
+	}
+
+	/**
+	 * Execution times of a handler. Only the timed invocations are counted.
+	 */
+	public static class HandlerStats {
+
+		private final AtomicLong invocations = new AtomicLong();
+		private final AtomicLong timed = new AtomicLong();
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+		private final AtomicInteger violations = new AtomicInteger();
+
+		void record(long nanos) {
+
+			timed.incrementAndGet();
+			total.addAndGet(nanos);
+			long current = max.get();
+			while (nanos > current && !max.compareAndSet(current, nanos)) {
+				current = max.get();
+			}
+		}
+
+		public long getTimedCount() {
+
+			return timed.get();
+		}
+
+		public long getAverageNanos() {
+
+			long count = timed.get();
+			return count == 0 ? 0 : total.get() / count;
+		}
+
+		public long getMaxNanos() {
+
+			return max.get();
+		}
+
+		/**
+		 * @return int Budget violations since the handler was last released from quarantine
+		 */
+		public int getViolations() {
+
+			return violations.get();
+		}
+
+		@Override
+		public String toString() {
+
+			return String.format("timed=%s avg=%sus max=%sus violations=%s", getTimedCount(),
+					TimeUnit.NANOSECONDS.toMicros(getAverageNanos()), TimeUnit.NANOSECONDS.toMicros(getMaxNanos()), getViolations());
+		}
+	}
+
+	/**
+	 * Runs the invocations of a quarantined handler one at a time and in order on a shared
+	 * executor. Once released it keeps taking invocations until it is drained, and then it
+	 * closes so the dispatching threads run the handler again.
+	 */
+	private class SerialQueue implements Runnable {
+
+		private final Object handler;
+		private final Executor executor;
+		private final int capacity;
+
+		// Guarded by this
+		private final LinkedList<Runnable> invocations = new LinkedList<Runnable>();
+		private boolean scheduled;
+		private volatile boolean released;
+		private boolean closed;
+		private long droppedObjects;
+
+		SerialQueue(Object handler, Executor executor, int capacity) {
+
+			this.handler = handler;
+			this.executor = executor;
+			this.capacity = capacity;
+		}
+
+		/**
+		 * @return boolean <code>false</code> if the queue is closed and the invocation has to
+		 * be run by the caller
+		 */
+		boolean execute(Runnable invocation) {
+
+			synchronized (this) {
+				if (closed) {
+					return false;
+				}
+				if (invocations.size() >= capacity) {
+					dropped.incrementAndGet();
+					if (droppedObjects++ == 0) {
+						log.warn(String.format("Quarantine queue of handler [%s] is full. Dropping objects", handler));
+					}
+					return true;
+				}
+				invocations.add(invocation);
+				if (scheduled) {
+					return true;
+				}
+				scheduled = true;
+			}
+			schedule();
+			return true;
+		}
+
+		private void schedule() {
+
+			boolean submitted = false;
+			try {
+				executor.execute(this);
+				submitted = true;
+			} catch (RejectedExecutionException e) {
+				log.error(String.format("Could not run quarantined handler [%s]", handler), e);
+			} finally {
+				if (!submitted) {
+					// The next invocation will try again
+					synchronized (this) {
+						scheduled = false;
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return boolean Whether the queue was already drained and has been closed
+		 */
+		synchronized boolean release() {
+
+			released = true;
+			if (!scheduled && invocations.isEmpty()) {
+				closed = true;
+			}
+			return closed;
+		}
+
+		/**
+		 * @return boolean <code>false</code> if the queue is already closed
+		 */
+		synchronized boolean quarantine() {
+
+			if (closed) {
+				return false;
+			}
+			released = false;
+			return true;
+		}
+
+		boolean isReleased() {
+
+			return released;
+		}
+
+		synchronized void close() {
+
+			closed = true;
+			invocations.clear();
+		}
+
+		@Override
+		public void run() {
+
+			while (true) {
+				Runnable invocation;
+				synchronized (this) {
+					invocation = invocations.poll();
+					if (invocation == null) {
+						scheduled = false;
+						if (released) {
+							closed = true;
+						}
+						return;
+					}
+				}
+				try {
+					invocation.run();
+				} catch (Exception e) {
+					log.error(String.format("Error on quarantined handler [%s]", handler), e);
+				}
+			}
+		}
+	}
+}
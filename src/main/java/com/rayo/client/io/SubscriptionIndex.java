@@ -0,0 +1,225 @@
+package com.rayo.client.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.rayo.client.listener.RoutedStanzaListener;
+import com.rayo.client.listener.Subscription;
+import com.rayo.client.util.JID;
+import com.rayo.client.xmpp.stanza.Stanza;
+
+/**
+ * <p>Routing index of {@link RoutedStanzaListener}s. Listeners are indexed first by the
+ * element name of their subscription and then by the call id or verb JID they are restricted
+ * to, so finding the listeners of a stanza only costs a couple of hash lookups no matter how
+ * many listeners are registered. The child element name and namespace of the stanza are read
+ * at most once.</p>
+ *
+ * <p>The index does not invoke the listeners. Every listener is added with its registration
+ * order, and the matching listeners are returned in that order so the dispatcher can
+ * interleave them with the listeners that are not routed.</p>
+ *
+ * <p>Lookups are lock free. Registrations are serialized.</p>
+ */
+public class SubscriptionIndex {
+
+	// Key used for the listeners that are not restricted to any call or verb
+	private static final String ANY = "";
+
+	private static final Comparator<Subscriber> BY_ORDER = new Comparator<Subscriber>() {
+
+		@Override
+		public int compare(Subscriber a, Subscriber b) {
+
+			return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+		}
+	};
+
+	private final Map<String, Map<String, List<Subscriber>>> index =
+		new ConcurrentHashMap<String, Map<String, List<Subscriber>>>();
+
+	private volatile int size;
+
+	/**
+	 * A listener of the index and its registration order
+	 */
+	public static class Subscriber {
+
+		private final RoutedStanzaListener listener;
+		private final long order;
+
+		Subscriber(RoutedStanzaListener listener, long order) {
+
+			this.listener = listener;
+			this.order = order;
+		}
+
+		public RoutedStanzaListener getListener() {
+			return listener;
+		}
+
+		public long getOrder() {
+			return order;
+		}
+	}
+
+	/**
+	 * Adds a listener
+	 *
+	 * @param listener Listener
+	 * @param order Registration order of the listener. Listeners added to the same
+	 * subscription must be added in increasing order.
+	 */
+	public synchronized void add(RoutedStanzaListener listener, long order) {
+
+		Subscription subscription = listener.getSubscription();
+		Map<String, List<Subscriber>> byJid = index.get(subscription.getName());
+		if (byJid == null) {
+			byJid = new ConcurrentHashMap<String, List<Subscriber>>();
+			index.put(subscription.getName(), byJid);
+		}
+		String key = subscription.getJid() == null ? ANY : subscription.getJid();
+		List<Subscriber> subscribers = byJid.get(key);
+		if (subscribers == null) {
+			subscribers = new CopyOnWriteArrayList<Subscriber>();
+			byJid.put(key, subscribers);
+		}
+		subscribers.add(new Subscriber(listener, order));
+		size++;
+	}
+
+	public synchronized void remove(RoutedStanzaListener listener) {
+
+		Subscription subscription = listener.getSubscription();
+		Map<String, List<Subscriber>> byJid = index.get(subscription.getName());
+		if (byJid == null) {
+			return;
+		}
+		String key = subscription.getJid() == null ? ANY : subscription.getJid();
+		List<Subscriber> subscribers = byJid.get(key);
+		if (subscribers == null) {
+			return;
+		}
+		for (Subscriber subscriber: subscribers) {
+			if (subscriber.listener.equals(listener)) {
+				subscribers.remove(subscriber);
+				size--;
+				break;
+			}
+		}
+		// Per call subscriptions come and go, do not leak their entries
+		if (subscribers.isEmpty()) {
+			byJid.remove(key);
+			if (byJid.isEmpty()) {
+				index.remove(subscription.getName());
+			}
+		}
+	}
+
+	public synchronized void clear() {
+
+		index.clear();
+		size = 0;
+	}
+
+	/**
+	 * @return int Number of registered listeners
+	 */
+	public int size() {
+
+		return size;
+	}
+
+	/**
+	 * Finds the listeners whose subscription matches the given stanza
+	 *
+	 * @param stanza Incoming stanza
+	 *
+	 * @return List Matching listeners in registration order
+	 */
+	public List<Subscriber> match(Stanza<?> stanza) {
+
+		if (index.isEmpty()) {
+			return Collections.emptyList();
+		}
+		String name = stanza.getChildName();
+		if (name == null) {
+			return Collections.emptyList();
+		}
+		Map<String, List<Subscriber>> byJid = index.get(name);
+		if (byJid == null) {
+			return Collections.emptyList();
+		}
+
+		Match match = new Match(stanza);
+		match.add(byJid.get(ANY));
+		JID from = stanza.getFromJid();
+		if (from != null) {
+			if (from.getNode() != null) {
+				// Call id
+				match.add(byJid.get(from.getNode()));
+			}
+			// Verb JID
+			match.add(byJid.get(from.toString()));
+		}
+		return match.getSubscribers();
+	}
+
+	private static class Match {
+
+		private final Stanza<?> stanza;
+		private String namespace;
+		private boolean resolved;
+		private List<Subscriber> subscribers = Collections.emptyList();
+		private int sources;
+
+		Match(Stanza<?> stanza) {
+
+			this.stanza = stanza;
+		}
+
+		void add(List<Subscriber> candidates) {
+
+			if (candidates == null) {
+				return;
+			}
+			boolean added = false;
+			for (Subscriber subscriber: candidates) {
+				String namespace = subscriber.listener.getSubscription().getNamespace();
+				if (namespace == null || namespace.equals(getNamespace())) {
+					if (subscribers.isEmpty()) {
+						subscribers = new ArrayList<Subscriber>(4);
+					}
+					subscribers.add(subscriber);
+					added = true;
+				}
+			}
+			if (added) {
+				sources++;
+			}
+		}
+
+		List<Subscriber> getSubscribers() {
+
+			// Each source is already in order, they only need merging if there are several
+			if (sources > 1) {
+				Collections.sort(subscribers, BY_ORDER);
+			}
+			return subscribers;
+		}
+
+		String getNamespace() {
+
+			if (!resolved) {
+				namespace = stanza.getChildNamespace();
+				resolved = true;
+			}
+			return namespace;
+		}
+	}
+}
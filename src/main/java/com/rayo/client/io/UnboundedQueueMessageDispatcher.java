@@ -1,6 +1,9 @@
 package com.rayo.client.io;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -8,8 +11,12 @@ import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.rayo.client.filter.AbstractXmppObjectFilter;
 import com.rayo.client.filter.XmppObjectFilter;
+import com.rayo.client.listener.BatchStanzaListener;
+import com.rayo.client.listener.RoutedStanzaListener;
 import com.rayo.client.listener.StanzaListener;
+import com.rayo.client.trace.StanzaTracer;
 import com.rayo.client.xmpp.stanza.AbstractXmppObject;
 import com.rayo.client.xmpp.stanza.Error;
 import com.rayo.client.xmpp.stanza.Error.Condition;
@@ -17,6 +24,7 @@ import com.rayo.client.xmpp.stanza.Error.Type;
 import com.rayo.client.xmpp.stanza.IQ;
 import com.rayo.client.xmpp.stanza.Message;
 import com.rayo.client.xmpp.stanza.Presence;
+import com.rayo.client.xmpp.stanza.Stanza;
 import com.rayo.client.xmpp.stanza.XmppObject;
 
 /**
@@ -24,6 +32,18 @@ import com.rayo.client.xmpp.stanza.XmppObject;
  * implementation based in an unbounded queue and a thread that reads from 
  * the queue and dispatches messages to the different listeners and filters.</p>
  * 
+ * <p>{@link RoutedStanzaListener}s are kept on a {@link SubscriptionIndex} and only 
+ * receive the IQs and presences that match their subscription. Messages and errors are 
+ * not routed, every listener gets them. Routed listeners are invoked through the regular 
+ * {@link StanzaListener} callbacks, and every listener is invoked in the order it was 
+ * registered in, whether it is routed or not.</p>
+ * 
+ * <p>{@link BatchStanzaListener}s get the incoming objects accumulated on per listener 
+ * batches that are delivered from the listeners thread when they get full or too old.</p>
+ * 
+ * <p>Incoming objects go through a {@link PresenceCoalescer} before reaching the 
+ * listeners queue.</p>
+ * 
  * @author martin
  *
  */
@@ -31,11 +51,23 @@ public class UnboundedQueueMessageDispatcher implements MessageDispatcher {
 
 	private Logger log = LoggerFactory.getLogger(UnboundedQueueMessageDispatcher.class);
 	
-	private Collection<StanzaListener> stanzaListeners = new ConcurrentLinkedQueue<StanzaListener>();
+	private Collection<Registration> stanzaListeners = new ConcurrentLinkedQueue<Registration>();
+	private Collection<Registration> plainListeners = new ConcurrentLinkedQueue<Registration>();
 	private Collection<XmppObjectFilter> filters = new ConcurrentLinkedQueue<XmppObjectFilter>();
+	private SubscriptionIndex subscriptions = new SubscriptionIndex();
+	private long registrations;
+	private Collection<Batch> batches = new ConcurrentLinkedQueue<Batch>();
+	// Batches of removed listeners, delivered one last time from the listeners thread
+	private Queue<Batch> removedBatches = new ConcurrentLinkedQueue<Batch>();
+	private PresenceCoalescer coalescer = new PresenceCoalescer();
+	private SlowHandlerDetector detector = new SlowHandlerDetector();
 
-	private LinkedBlockingQueue<XmppObject> messagesQueue = new LinkedBlockingQueue<XmppObject>();
-	private LinkedBlockingQueue<XmppObject> filtersQueue = new LinkedBlockingQueue<XmppObject>();
+	private Collection<InboundInterceptor> interceptors = new ConcurrentLinkedQueue<InboundInterceptor>();
+
+	private LinkedBlockingQueue<Queued> messagesQueue = new LinkedBlockingQueue<Queued>();
+	private LinkedBlockingQueue<Queued> filtersQueue = new LinkedBlockingQueue<Queued>();
+	
+	private volatile StanzaTracer tracer;
 	
 	/**
 	 * Initiates the message dispatcher. When created, the instance will start a 
@@ -48,14 +80,26 @@ public class UnboundedQueueMessageDispatcher implements MessageDispatcher {
 			@Override
 			public void run() {
 				while(true) {
-					XmppObject object = null;
+					Queued queued = null;
 					try {
-						object = messagesQueue.poll(1000, TimeUnit.SECONDS);
+						queued = messagesQueue.poll(nextTimeout(), TimeUnit.NANOSECONDS);
 					} catch (InterruptedException e) {}
 					
-					if (object != null) {
-						process(object);
+					if (queued != null && queued.object != null) {
+						StanzaTracer tracer = UnboundedQueueMessageDispatcher.this.tracer;
+						if (tracer == null) {
+							process(queued.object);
+						} else {
+							long start = System.nanoTime();
+							process(queued.object);
+							tracer.delivered(queued.object, start - queued.enqueued, System.nanoTime() - start);
+						}
+					}
+					for (XmppObject coalesced: coalescer.drain()) {
+						process(coalesced);
 					}
+					flushBatches();
+					flushRemovedBatches();
 				}
 			}
 		};
@@ -66,13 +110,20 @@ public class UnboundedQueueMessageDispatcher implements MessageDispatcher {
 			@Override
 			public void run() {
 				while(true) {
-					XmppObject object = null;
+					Queued queued = null;
 					try {
-						object = filtersQueue.poll(1000, TimeUnit.SECONDS);
+						queued = filtersQueue.poll(1000, TimeUnit.SECONDS);
 					} catch (InterruptedException e) {}
 					
-					if (object != null) {
-						filter((AbstractXmppObject)object);
+					if (queued != null) {
+						StanzaTracer tracer = UnboundedQueueMessageDispatcher.this.tracer;
+						if (tracer == null) {
+							filter((AbstractXmppObject)queued.object);
+						} else {
+							long start = System.nanoTime();
+							filter((AbstractXmppObject)queued.object);
+							tracer.filtered(queued.object, start - queued.enqueued, System.nanoTime() - start);
+						}
 					}
 				}
 			}
@@ -82,15 +133,49 @@ public class UnboundedQueueMessageDispatcher implements MessageDispatcher {
 	}
 
 	@Override
-	public void addStanzaListener(StanzaListener listener) {
+	public synchronized void addStanzaListener(StanzaListener listener) {
 		
-		stanzaListeners.add(listener);
+		// Registrations are serialized so the listeners of both kinds are kept in order
+		if (listener instanceof BatchStanzaListener) {
+			batches.add(new Batch((BatchStanzaListener)listener));
+			return;
+		}
+		Registration registration = new Registration(listener, registrations++);
+		if (listener instanceof RoutedStanzaListener) {
+			subscriptions.add((RoutedStanzaListener)listener, registration.order);
+			((RoutedStanzaListener)listener).setRouted(true);
+		} else {
+			plainListeners.add(registration);
+		}
+		stanzaListeners.add(registration);
 	}
 	
 	@Override
-	public void removeStanzaListener(StanzaListener listener) {
+	public synchronized void removeStanzaListener(StanzaListener listener) {
 		
-		stanzaListeners.remove(listener);
+		if (listener instanceof BatchStanzaListener) {
+			for (Batch batch: batches) {
+				if (batch.listener == listener) {
+					batches.remove(batch);
+					removedBatches.add(batch);
+				}
+			}
+			// Wakes up the listeners thread so it delivers what the batch already holds
+			messagesQueue.add(new Queued(null));
+		} else {
+			for (Registration registration: stanzaListeners) {
+				if (registration.listener.equals(listener)) {
+					stanzaListeners.remove(registration);
+					plainListeners.remove(registration);
+					break;
+				}
+			}
+			if (listener instanceof RoutedStanzaListener) {
+				subscriptions.remove((RoutedStanzaListener)listener);
+				((RoutedStanzaListener)listener).setRouted(false);
+			}
+		}
+		detector.remove(listener);
 	}
 	
 	@Override
@@ -103,57 +188,377 @@ public class UnboundedQueueMessageDispatcher implements MessageDispatcher {
     public void removeFilter(XmppObjectFilter filter) {
 
     	filters.remove(filter);
+    	detector.remove(filter);
     } 
     
     @Override
     public void dispatch(XmppObject object) {
 
-		log.trace(String.format("Dispatching XMPP Object with id [%s] to the dispatching queue", object.getId()));
-    	messagesQueue.add(object);
-    	filtersQueue.add(object);
+    	if (log.isTraceEnabled()) {
+    		log.trace(String.format("Dispatching XMPP Object with id [%s] to the dispatching queue", object.getId()));
+    	}
+    	for (InboundInterceptor interceptor: interceptors) {
+    		if (!interceptor.accept(object)) {
+    			return;
+    		}
+    	}
+    	// Both queues share the entry, so the enqueue time is taken once
+    	Queued queued = new Queued(object);
+    	if (!coalescer.offer(object)) {
+    		// Whatever is held for a call that has ended goes right before its end
+    		for (XmppObject held: coalescer.flush(object)) {
+    			messagesQueue.add(new Queued(held));
+    		}
+    		messagesQueue.add(queued);
+    	}
+    	filtersQueue.add(queued);
     }
     
     private void filter(final AbstractXmppObject object) {
 
-    	log.trace(String.format("Invoking filters on XMPP Object with id [%s]", object.getId()));
-    	for (XmppObjectFilter filter: filters) {		    		
-    		try {
-    			log.trace("Invoking filter " + filter);
-    			filter.filter(object);
-    			log.trace(String.format("Filter [%s] has finished its work", filter));
-			} catch (Exception e) {
-				e.printStackTrace();
-    			dispatch(new Error(Condition.undefined_condition, Type.cancel, String.format("Error on client filter: %s - %s",e.getClass(),e.getMessage())));  
-			}    		
+    	log.trace("Invoking filters on XMPP Object with id [{}]", object.getId());
+    	boolean watched = detector.isEnabled();
+    	for (final XmppObjectFilter filter: filters) {
+    		if (watched) {
+    			detector.run(filter, object, new Runnable() {
+    				
+    				@Override
+    				public void run() {
+
+    					filter(filter, object);
+    				}
+    			});
+    		} else {
+    			filter(filter, object);
+    		}
     	}   
-    	log.trace(String.format("Done invoking filters", object.getId()));
+    	log.trace("Done invoking filters on XMPP Object with id [{}]", object.getId());
 	}
     
+    private void filter(XmppObjectFilter filter, AbstractXmppObject object) {
+    	
+		try {
+			log.trace("Invoking filter [{}]", filter);
+			filter.filter(object);
+			log.trace("Filter [{}] has finished its work", filter);
+		} catch (Exception e) {
+			e.printStackTrace();
+			dispatch(new Error(Condition.undefined_condition, Type.cancel, String.format("Error on client filter: %s - %s",e.getClass(),e.getMessage())));  
+		}    		
+    }
+    
+    /**
+     * Aborts all the registered filters, releasing the threads that are waiting for an answer 
+     * that will never arrive
+     */
+    public void abortFilters() {
+    	
+    	for (XmppObjectFilter filter: filters) {
+    		if (!(filter instanceof AbstractXmppObjectFilter)) {
+    			continue;
+    		}
+    		try {
+    			((AbstractXmppObjectFilter)filter).abort();
+    		} catch (Exception e) {
+    			log.error(String.format("Error while aborting filter [%s]", filter), e);
+    		}
+    	}
+    }
+    
     @Override
     public void reset() {
 
     	messagesQueue.clear();
     	filters.clear();
+    	for (Registration registration: stanzaListeners) {
+    		if (registration.listener instanceof RoutedStanzaListener) {
+    			((RoutedStanzaListener)registration.listener).setRouted(false);
+    		}
+    	}
     	stanzaListeners.clear();
+    	plainListeners.clear();
+    	subscriptions.clear();
+    	batches.clear();
+    	removedBatches.clear();
+    	coalescer.clear();
+    	detector.clear();
+    }
+    
+    /**
+     * Adds an interceptor that will see every incoming object before it is dispatched. 
+     * Interceptors run on the thread that reads from the socket.
+     * 
+     * @param interceptor Interceptor
+     */
+    public void addInterceptor(InboundInterceptor interceptor) {
+    	
+    	interceptors.add(interceptor);
+    }
+    
+    public void removeInterceptor(InboundInterceptor interceptor) {
+    	
+    	interceptors.remove(interceptor);
+    }
+    
+    /**
+     * @return int Number of objects waiting to be delivered to the listeners
+     */
+    public int getQueueDepth() {
+    	
+    	return messagesQueue.size();
+    }
+    
+    /**
+     * Returns the time that the oldest object waiting to be delivered to the listeners has 
+     * spent on the queue. This is how far behind the listeners are from the socket. 
+     * 
+     * @return long Lag in milliseconds
+     */
+    public long getQueueLag() {
+    	
+    	Queued head = messagesQueue.peek();
+    	if (head == null) {
+    		return 0;
+    	}
+    	return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - head.enqueued);
+    }
+    
+    /**
+     * @return int Number of objects waiting to be run through the filters
+     */
+    public int getFiltersQueueDepth() {
+    	
+    	return filtersQueue.size();
+    }
+    
+    /**
+     * @return int Number of registered filters. It walks the filters, so it is not meant 
+     * to be called on every incoming object.
+     */
+    public int getFiltersCount() {
+    	
+    	return filters.size();
+    }
+    
+    /**
+     * @return int Number of registered stanza listeners, including routed and batch listeners. 
+     * It walks the listeners, so it is not meant to be called on every incoming object.
+     */
+    public int getListenersCount() {
+    	
+    	return stanzaListeners.size() + batches.size();
+    }
+    
+    /**
+     * Returns the stage that times the listeners and filters and reports or quarantines the 
+     * ones that block the dispatching threads. It does nothing until a budget is set.
+     * 
+     * @return SlowHandlerDetector Slow handler detector
+     */
+    public SlowHandlerDetector getSlowHandlerDetector() {
+    	
+    	return detector;
+    }
+    
+    /**
+     * Sets the tracer that is notified every time an object has gone through the filters 
+     * and the listeners
+     * 
+     * @param tracer Tracer or <code>null</code> to disable tracing
+     */
+    public void setTracer(StanzaTracer tracer) {
+    	
+    	this.tracer = tracer;
+    }
+    
+    /**
+     * @return PresenceCoalescer Stage that coalesces and rate limits presences before they 
+     * reach the listeners
+     */
+    public PresenceCoalescer getPresenceCoalescer() {
+    	
+    	return coalescer;
     }
 
-	private void process(XmppObject object) {
-		log.trace(String.format("Fetched XMPP Object [%s] from the dispatching queue", object));
-		for(StanzaListener listener: stanzaListeners) {
-			if (object instanceof IQ) {
+	private void process(final XmppObject object) {
+		boolean trace = log.isTraceEnabled();
+		if (trace) {
+			log.trace(String.format("Fetched XMPP Object [%s] from the dispatching queue", object));
+		}
+		boolean watched = detector.isEnabled();
+		if (object instanceof IQ || object instanceof Presence) {
+			// Matching routed listeners are merged with the plain ones by registration order
+			List<SubscriptionIndex.Subscriber> routed = subscriptions.match((Stanza<?>)object);
+			int next = 0;
+			for (Registration registration: plainListeners) {
+				while (next < routed.size() && routed.get(next).getOrder() < registration.order) {
+					invoke(routed.get(next++).getListener(), object, watched, trace);
+				}
+				invoke(registration.listener, object, watched, trace);
+			}
+			while (next < routed.size()) {
+				invoke(routed.get(next++).getListener(), object, watched, trace);
+			}
+		} else {
+			for (Registration registration: stanzaListeners) {
+				invoke(registration.listener, object, watched, trace);
+			}
+		}
+		for (Batch batch: batches) {
+			batch.add(object);
+		}
+	}
+	
+	private void invoke(final StanzaListener listener, final XmppObject object, boolean watched, boolean trace) {
+		
+		if (watched) {
+			detector.run(listener, object, new Runnable() {
+				
+				@Override
+				public void run() {
+
+					deliver(listener, object, false);
+				}
+			});
+		} else {
+			deliver(listener, object, trace);
+		}
+	}
+	
+	private void deliver(StanzaListener listener, XmppObject object, boolean trace) {
+
+		if (object instanceof IQ) {
+			if (trace) {
 				log.trace(String.format("Invoking listener [%s] onIQ method with IQ id [%s]", listener, object.getId()));
-				listener.onIQ((IQ)object);
-			} else if (object instanceof Presence) {
+			}
+			listener.onIQ((IQ)object);
+		} else if (object instanceof Presence) {
+			if (trace) {
 				log.trace(String.format("Invoking listener [%s] onPresence method  with presence id [%s]", listener, object.getId()));
-				listener.onPresence((Presence)object);
-			} else if (object instanceof Message) {
+			}
+			listener.onPresence((Presence)object);
+		} else if (object instanceof Message) {
+			if (trace) {
 				log.trace(String.format("Invoking listener [%s] onMessage method with message id [%s]", listener, object.getId()));
-				listener.onMessage((Message)object);
-			} else if (object instanceof Error) {
+			}
+			listener.onMessage((Message)object);
+		} else if (object instanceof Error) {
+			if (trace) {
 				log.trace(String.format("Invoking listener [%s] onError method with error id [%s]", listener, object.getId()));
-				listener.onError((Error)object);
 			}
+			listener.onError((Error)object);
+		}
+		if (trace) {
 			log.trace(String.format("Listener [%s] has finished its work", listener));
-		}		
+		}
+	}
+	
+	private long nextTimeout() {
+		
+		long timeout = coalescer.isEnabled() ? coalescer.nextTimeout() : TimeUnit.SECONDS.toNanos(1000);
+		long now = System.nanoTime();
+		for (Batch batch: batches) {
+			if (!batch.objects.isEmpty()) {
+				timeout = Math.min(timeout, Math.max(0, batch.deadline - now));
+			}
+		}
+		return timeout;
+	}
+	
+	private void flushBatches() {
+		
+		if (batches.isEmpty()) {
+			return;
+		}
+		long now = System.nanoTime();
+		for (Batch batch: batches) {
+			if (!batch.objects.isEmpty() && batch.deadline - now <= 0) {
+				batch.deliver();
+			}
+		}
+	}
+	
+	private static class Registration {
+		
+		private final StanzaListener listener;
+		private final long order;
+		
+		Registration(StanzaListener listener, long order) {
+			
+			this.listener = listener;
+			this.order = order;
+		}
+	}
+	
+	private void flushRemovedBatches() {
+		
+		Batch batch;
+		while ((batch = removedBatches.poll()) != null) {
+			if (!batch.objects.isEmpty()) {
+				batch.deliver();
+			}
+		}
+	}
+	
+	private static class Queued {
+		
+		private final XmppObject object;
+		private final long enqueued = System.nanoTime();
+		
+		Queued(XmppObject object) {
+			
+			this.object = object;
+		}
+	}
+	
+	/**
+	 * Objects waiting to be delivered to a batch listener. Only accessed from the 
+	 * listeners thread.
+	 */
+	private class Batch {
+		
+		private final BatchStanzaListener listener;
+		private List<XmppObject> objects;
+		private long deadline;
+		
+		Batch(BatchStanzaListener listener) {
+			
+			this.listener = listener;
+			this.objects = new ArrayList<XmppObject>(listener.getMaxBatchSize());
+		}
+		
+		void add(XmppObject object) {
+			
+			if (objects.isEmpty()) {
+				deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(listener.getMaxBatchDelay());
+			}
+			objects.add(object);
+			if (objects.size() >= listener.getMaxBatchSize()) {
+				deliver();
+			}
+		}
+		
+		void deliver() {
+			
+			final List<XmppObject> batch = objects;
+			objects = new ArrayList<XmppObject>(listener.getMaxBatchSize());
+			Runnable invocation = new Runnable() {
+				
+				@Override
+				public void run() {
+
+					try {
+						listener.onBatch(batch);
+					} catch (Exception e) {
+						log.error(String.format("Error on batch listener [%s]", listener), e);
+					}
+				}
+			};
+			if (detector.isEnabled()) {
+				detector.run(listener, null, invocation);
+			} else {
+				invocation.run();
+			}
+		}
 	}
 }
@@ -2,22 +2,29 @@ package com.rayo.client.io;
 
 import java.io.Reader;
 import java.net.SocketException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xmlpull.mxp1.MXParser;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import com.rayo.client.XmppConnectionListener;
+import com.rayo.client.XmppException;
 import com.rayo.client.auth.AuthenticationListener;
+import com.rayo.client.compression.ZlibCompression;
 import com.rayo.client.filter.XmppObjectFilter;
 import com.rayo.client.filter.XmppObjectFilterSupport;
 import com.rayo.client.listener.StanzaListener;
 import com.rayo.client.listener.StanzaListenerSupport;
+import com.rayo.client.trace.StanzaTracer;
+import com.rayo.client.trace.WireLog;
+import com.rayo.client.util.SymbolParser;
 import com.rayo.client.util.XmppObjectParser;
+import com.rayo.client.xmpp.Namespaces;
 import com.rayo.client.xmpp.stanza.Error;
 import com.rayo.client.xmpp.stanza.Error.Condition;
 import com.rayo.client.xmpp.stanza.Error.Type;
@@ -29,13 +36,21 @@ import com.rayo.client.xmpp.stanza.sasl.Challenge;
 import com.rayo.client.xmpp.stanza.sasl.Success;
 
 public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppObjectFilterSupport {
+
+	private static final Logger logger = LoggerFactory.getLogger(XmppReaderWorker.class);
+	
+	private volatile WireLog wireLog = new WireLog();
+	private volatile boolean compactStanzas;
+	private volatile ZlibCompression compression;
 	
-	private Logger log = LoggerFactory.getLogger(XmppReaderWorker.class);
+	// Binding notifications held back while compression is being negotiated
+	private boolean pendingBind;
+	private boolean pendingSession;
 	
 	private XmlPullParser parser;
 	private String connectionId;
 	
-	private boolean done;
+	private volatile boolean done;
 	
 	private Reader reader;
 	
@@ -44,9 +59,16 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
 	
 	private MessageDispatcher messageDispatcher;
 	
+	private volatile StanzaTracer tracer;
+	
 	public XmppReaderWorker() {
 		
-		messageDispatcher = new UnboundedQueueMessageDispatcher();
+		this(new UnboundedQueueMessageDispatcher());
+	}
+	
+	public XmppReaderWorker(MessageDispatcher messageDispatcher) {
+		
+		this.messageDispatcher = messageDispatcher;
 	}
 	
 	@Override
@@ -100,7 +122,7 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
     	log("Reseting parser");
         try {
         	this.reader = reader;
-            parser = new MXParser();
+            parser = new SymbolParser();
             parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
             parser.setInput(reader);
         }
@@ -120,19 +142,24 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
             int eventType = parser.getEventType();            
             do {
                 if (eventType == XmlPullParser.START_TAG) {
+                	final StanzaTracer tracer = this.tracer;
+                	final long start = tracer == null ? 0 : System.nanoTime();
                     if (parser.getName().equals("message")) {
                     	final Message message = XmppObjectParser.parseMessage(parser);
+                    	trace(tracer, message, start);
                     	log(message);
                     	messageDispatcher.dispatch(message);
                     } else if (parser.getName().equals("iq")) {
-                    	final IQ iq = XmppObjectParser.parseIQ(parser);
+                    	final IQ iq = compactStanzas ? XmppObjectParser.parseCompactIQ(parser) : XmppObjectParser.parseIQ(parser);
+                    	trace(tracer, iq, start);
                     	if (iq.hasChild("error")) {
                     		handleError(iq.getError());
                     	}
                     	log(iq);
                     	messageDispatcher.dispatch(iq);
                     } else if (parser.getName().equals("presence")) {
-                    	final Presence presence = XmppObjectParser.parsePresence(parser);
+                    	final Presence presence = compactStanzas ? XmppObjectParser.parseCompactPresence(parser) : XmppObjectParser.parsePresence(parser);
+                    	trace(tracer, presence, start);
                     	log(presence);
                     	messageDispatcher.dispatch(presence);
                     }
@@ -174,7 +201,10 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
 
                     }
                     else if (parser.getName().equals("failure")) {
-
+                    	if (Namespaces.COMPRESS.equals(parser.getNamespace())) {
+                    		log("Stream compression failed");
+                    		notifyBinding(pendingBind, pendingSession);
+                    	}
                     }
                     else if (parser.getName().equals("challenge")) {
                     	final Challenge challenge = new Challenge().setText(parser.nextText());
@@ -200,8 +230,14 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
                     	resetParser(reader);                    	
                     	
                     }
-                    else if (parser.getName().equals("compressed")) {
-
+                    else if (parser.getName().equals("compressed") && compression != null) {
+                    	log("Stream compressed");
+                    	// Nothing else is read from the server until the new stream is opened
+                    	compression.start();
+                    	for (final XmppConnectionListener listener: listeners) {
+		            	    listener.connectionReset(connectionId);
+                    	}
+                    	resetParser(reader);
                     }
                 }
                 else if (eventType == XmlPullParser.END_TAG) {
@@ -223,17 +259,45 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
         	if (!done) {
             	se.printStackTrace();
                 handleError(new Error(Condition.gone, Type.cancel, se.getMessage()));        		
+                connectionError(se);
         	}
         } catch (Exception e) {        	
-        	e.printStackTrace();    
-        	handleError(new Error(Condition.undefined_condition, Type.cancel, e.getMessage()));
+        	if (!done) {
+            	e.printStackTrace();    
+            	handleError(new Error(Condition.undefined_condition, Type.cancel, e.getMessage()));
+        		connectionError(e);
+        	}
         }
     }
+    
+    private void trace(StanzaTracer tracer, XmppObject object, long start) {
+    	
+    	if (tracer != null) {
+    		tracer.received(object, System.nanoTime() - start);
+    	}
+    }
+    
+    private void connectionError(Exception e) {
+    	
+    	// Listeners may close the connection, which clears the listeners collection
+    	List<XmppConnectionListener> copy = new ArrayList<XmppConnectionListener>(listeners);
+    	String id = connectionId;
+    	for (XmppConnectionListener listener: copy) {
+    		try {
+    			listener.connectionError(id, e);
+    		} catch (Exception ex) {
+    			logger.error(String.format("Error on connection listener [%s]", listener), ex);
+    		}
+    	}
+    }
 
 	private void parseFeatures(XmlPullParser parser) throws Exception {
     	
         boolean startTLSReceived = false;
         boolean startTLSRequired = false;
+        boolean bindRequired = false;
+        boolean sessionsSupported = false;
+        boolean zlibOffered = false;
         boolean done = false;
         while (!done) {
             int eventType = parser.next();
@@ -253,20 +317,16 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
         	    	}
                 }
                 else if (parser.getName().equals("bind")) {
-                	log("Received bind");                	
-        	    	for (final AuthenticationListener listener: authListeners) {
-        	    		listener.authBindingRequired();
-        	    	}
+                	log("Received bind");
+                	bindRequired = true;
                 }
                 else if (parser.getName().equals("session")) {
                 	log("Received session");
-        	    	for (final AuthenticationListener listener: authListeners) {
-                	    listener.authSessionsSupported();
-        	    	}
+                	sessionsSupported = true;
                 }
                 else if (parser.getName().equals("compression")) {
                     // The server supports stream compression
-
+                	zlibOffered = XmppObjectParser.parseCompressionMethods(parser).contains(ZlibCompression.METHOD);
                 }
                 else if (parser.getName().equals("register")) {
 
@@ -286,6 +346,27 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
             }
         }
         
+        // Compression is negotiated after authentication, so only along with binding. The 
+        // server sends the features again on the compressed stream.
+        // Binding waits for the answer of the server, so it is held back until then.
+        ZlibCompression compression = this.compression;
+        boolean compressionRequested = false;
+        if (zlibOffered && bindRequired && compression != null && !compression.isActive() && ZlibCompression.isAvailable()) {
+        	try {
+        		log("Requesting stream compression");
+        		compression.request();
+        		compressionRequested = true;
+        	} catch (XmppException e) {
+        		log("Could not request stream compression: " + e.getMessage());
+        	}
+        }
+        if (compressionRequested) {
+        	pendingBind = bindRequired;
+        	pendingSession = sessionsSupported;
+        } else {
+        	notifyBinding(bindRequired, sessionsSupported);
+        }
+        
         //TODO: Lots of stuff to handle here. Code based in Packet reader from Smack
         
         // Release the lock after TLS has been negotiated or we are not insterested in TLS
@@ -294,6 +375,31 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
         }
     }
     
+    private void notifyBinding(boolean bindRequired, boolean sessionsSupported) {
+    	
+    	pendingBind = false;
+    	pendingSession = false;
+    	if (bindRequired) {
+	    	for (final AuthenticationListener listener: authListeners) {
+	    		listener.authBindingRequired();
+	    	}
+    	}
+    	if (sessionsSupported) {
+	    	for (final AuthenticationListener listener: authListeners) {
+	    		listener.authSessionsSupported();
+	    	}
+    	}
+    }
+    
+    /**
+     * @param compression Compression negotiated with the server after authentication or 
+     * <code>null</code> to not compress the stream
+     */
+    public void setCompression(ZlibCompression compression) {
+    	
+    	this.compression = compression;
+    }
+    
     private void connectionEstablished() {
     	
     	if (connectionId != null) {
@@ -344,18 +450,49 @@ public class XmppReaderWorker implements Runnable, StanzaListenerSupport, XmppOb
 		messageDispatcher.reset();
 	};
     
+    /**
+     * Sets the tracer that is notified of every stanza parsed by this worker
+     * 
+     * @param tracer Tracer or <code>null</code> to disable tracing
+     */
+    public void setTracer(StanzaTracer tracer) {
+    	
+    	this.tracer = tracer;
+    }
+    
     public String getConnectionId() {
     	
     	return connectionId;
     }
     
+    /**
+     * Whether received IQs and presences are backed by compact elements, which build their 
+     * dom4j element only when it is needed. Disabled by default.
+     * 
+     * @param compactStanzas <code>true</code> to parse received stanzas into compact elements
+     */
+    public void setCompactStanzas(boolean compactStanzas) {
+    	
+    	this.compactStanzas = compactStanzas;
+    }
+    
+    /**
+     * Sets the wire log every received stanza is written to
+     * 
+     * @param wireLog Wire log
+     */
+    public void setWireLog(WireLog wireLog) {
+    	
+    	this.wireLog = wireLog;
+    }
+    
     private void log(XmppObject object) {
     	
-    	log(object.toString());
+    	wireLog.inbound(object);
     }
     
     private void log(String value) {
     	
-    	log.debug(String.format("[IN ] [%s]", value));
+    	wireLog.inbound(value);
     }
 }
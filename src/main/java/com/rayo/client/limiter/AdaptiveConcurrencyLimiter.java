@@ -0,0 +1,238 @@
+package com.rayo.client.limiter;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Limits the number of IQ requests that are waiting for an answer on a connection. The
+ * limit is not fixed. It adapts to the observed round-trip times using an AIMD strategy with
+ * a latency gradient:</p>
+ *
+ * <ul>
+ * 	<li>Every timely answer grows the limit additively, by one request per limit's worth
+ * 	of answers.</li>
+ * 	<li>When the smoothed round-trip time grows over a tolerance of the best round-trip time
+ * 	seen, the server is queueing requests and the limit shrinks multiplicatively.</li>
+ * 	<li>Requests that are never answered shrink the limit multiplicatively too.</li>
+ * </ul>
+ *
+ * <p>Requests that exceed the limit wait for a permit for a bounded amount of time and are
+ * then rejected so callers fail fast instead of piling up on an overloaded server.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class AdaptiveConcurrencyLimiter {
+
+	private static final double BACKOFF = 0.9;
+
+	// Round-trip times below one millisecond are considered noise
+	private static final long MIN_RTT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private int minLimit = 1;
+	private int maxLimit = 1000;
+	private double tolerance = 2.0;
+	private long maxQueueWait = 1000;
+	private long requestTimeout = 60000;
+	private int minRttWindow = 1000;
+
+	private double limit;
+	private int inFlight;
+	private long minRtt;
+	private double smoothedRtt;
+	private int samples;
+	private long lastExpiration = System.currentTimeMillis();
+
+	private long rejected;
+	private long dropped;
+
+	private final Map<String, Long> pending = new ConcurrentHashMap<String, Long>();
+
+	public AdaptiveConcurrencyLimiter() {
+
+		this(20);
+	}
+
+	public AdaptiveConcurrencyLimiter(int initialLimit) {
+
+		this.limit = initialLimit;
+	}
+
+	/**
+	 * Acquires a permit for the request with the given id. If the limit has been reached
+	 * this method will block until a permit is available or the maximum queue wait time
+	 * expires.
+	 *
+	 * @param id Id of the request
+	 *
+	 * @return boolean <code>true</code> if the permit was acquired or <code>false</code> if
+	 * the request has been rejected
+	 */
+	public synchronized boolean acquire(String id) {
+
+		expire();
+		if (inFlight >= (int)limit) {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxQueueWait);
+			while (inFlight >= (int)limit) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					rejected++;
+					return false;
+				}
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					rejected++;
+					return false;
+				}
+				expire();
+			}
+		}
+		inFlight++;
+		pending.put(id, System.nanoTime());
+		return true;
+	}
+
+	/**
+	 * Notifies that the request with the given id has been answered. Unknown ids are
+	 * ignored, so it is safe to invoke this method for every incoming answer.
+	 *
+	 * @param id Id of the request
+	 */
+	public void complete(String id) {
+
+		if (id == null) {
+			return;
+		}
+		Long start = pending.remove(id);
+		if (start != null) {
+			sample(System.nanoTime() - start, false);
+		}
+	}
+
+	/**
+	 * Notifies that the request with the given id could not be sent or will never be
+	 * answered.
+	 *
+	 * @param id Id of the request
+	 */
+	public void cancel(String id) {
+
+		Long start = pending.remove(id);
+		if (start != null) {
+			sample(System.nanoTime() - start, true);
+		}
+	}
+
+	private synchronized void sample(long rtt, boolean drop) {
+
+		inFlight--;
+		if (drop) {
+			dropped++;
+			limit = Math.max(minLimit, limit * BACKOFF);
+		} else {
+			if (minRtt == 0 || rtt < minRtt || ++samples >= minRttWindow) {
+				// The best rtt is reset periodically so a permanently slower
+				// server does not keep the limit at its minimum forever
+				minRtt = rtt;
+				samples = 0;
+			}
+			smoothedRtt = smoothedRtt == 0 ? rtt : smoothedRtt * 0.9 + rtt * 0.1;
+			if (smoothedRtt > Math.max(minRtt, MIN_RTT_NANOS) * tolerance) {
+				limit = Math.max(minLimit, limit * BACKOFF);
+			} else if (inFlight + 1 >= limit / 2) {
+				// Only grow when the limit is actually being used
+				limit = Math.min(maxLimit, limit + 1 / limit);
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Forgets all the requests waiting for an answer. Used when the connection is closed
+	 * as those answers will never arrive. The current limit is kept.
+	 */
+	public synchronized void reset() {
+
+		pending.clear();
+		inFlight = 0;
+		notifyAll();
+	}
+
+	private void expire() {
+
+		long now = System.currentTimeMillis();
+		if (now - lastExpiration < 1000) {
+			return;
+		}
+		lastExpiration = now;
+		long threshold = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(requestTimeout);
+		Iterator<Map.Entry<String, Long>> it = pending.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Long> entry = it.next();
+			if (entry.getValue() < threshold && pending.remove(entry.getKey()) != null) {
+				sample(requestTimeout, true);
+			}
+		}
+	}
+
+	/**
+	 * @return int Current number of requests allowed to be waiting for an answer
+	 */
+	public synchronized int getLimit() {
+		return (int)limit;
+	}
+
+	/**
+	 * @return int Number of requests waiting for an answer
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return long Number of requests rejected because the limit had been reached
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return long Number of requests that were never answered
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	public synchronized void setMinLimit(int minLimit) {
+		this.minLimit = minLimit;
+	}
+
+	public synchronized void setMaxLimit(int maxLimit) {
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * Sets how much the round-trip time may grow over the best observed round-trip time
+	 * before the limit starts shrinking. Defaults to 2.0.
+	 */
+	public synchronized void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Sets the milliseconds that a request will wait for a permit before being rejected
+	 */
+	public synchronized void setMaxQueueWait(long maxQueueWait) {
+		this.maxQueueWait = maxQueueWait;
+	}
+
+	/**
+	 * Sets the milliseconds after which an unanswered request is considered lost
+	 */
+	public synchronized void setRequestTimeout(long requestTimeout) {
+		this.requestTimeout = requestTimeout;
+	}
+}
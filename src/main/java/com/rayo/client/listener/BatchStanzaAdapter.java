@@ -0,0 +1,66 @@
+package com.rayo.client.listener;
+
+import java.util.Collections;
+
+import com.rayo.client.xmpp.stanza.Error;
+import com.rayo.client.xmpp.stanza.IQ;
+import com.rayo.client.xmpp.stanza.Message;
+import com.rayo.client.xmpp.stanza.Presence;
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Base class for batch listeners. When used with a dispatcher that does not support
+ * batching, every stanza is delivered to {@link #onBatch(java.util.List)} as a batch of
+ * one.</p>
+ */
+public abstract class BatchStanzaAdapter implements BatchStanzaListener {
+
+	private int maxBatchSize;
+	private long maxBatchDelay;
+
+	/**
+	 * @param maxBatchSize Maximum number of stanzas on a batch
+	 * @param maxBatchDelay Maximum time in microseconds that a stanza waits on a batch
+	 */
+	public BatchStanzaAdapter(int maxBatchSize, long maxBatchDelay) {
+
+		this.maxBatchSize = maxBatchSize;
+		this.maxBatchDelay = maxBatchDelay;
+	}
+
+	@Override
+	public int getMaxBatchSize() {
+
+		return maxBatchSize;
+	}
+
+	@Override
+	public long getMaxBatchDelay() {
+
+		return maxBatchDelay;
+	}
+
+	@Override
+	public void onIQ(IQ iq) {
+
+		onBatch(Collections.<XmppObject>singletonList(iq));
+	}
+
+	@Override
+	public void onMessage(Message message) {
+
+		onBatch(Collections.<XmppObject>singletonList(message));
+	}
+
+	@Override
+	public void onPresence(Presence presence) {
+
+		onBatch(Collections.<XmppObject>singletonList(presence));
+	}
+
+	@Override
+	public void onError(Error error) {
+
+		onBatch(Collections.<XmppObject>singletonList(error));
+	}
+}
@@ -0,0 +1,38 @@
+package com.rayo.client.listener;
+
+import java.util.List;
+
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>A stanza listener that receives incoming stanzas in batches. Message dispatchers that
+ * support batching accumulate the stanzas for these listeners and deliver them with a single
+ * call once the batch reaches its maximum size or its oldest stanza has waited for the
+ * maximum delay, whatever happens first.</p>
+ *
+ * <p>Batching amortizes the dispatching cost for listeners that only aggregate data, like
+ * metrics collectors. Latency sensitive listeners should keep using {@link StanzaListener}.</p>
+ *
+ * @see BatchStanzaAdapter
+ */
+public interface BatchStanzaListener extends StanzaListener {
+
+	/**
+	 * @return int Maximum number of stanzas delivered on a single batch
+	 */
+	public int getMaxBatchSize();
+
+	/**
+	 * @return long Maximum time in microseconds that a stanza will wait on a batch before
+	 * the batch is delivered
+	 */
+	public long getMaxBatchDelay();
+
+	/**
+	 * Invoked with a batch of stanzas in the order they were received. The list must not be
+	 * kept after this method returns.
+	 *
+	 * @param batch Stanzas
+	 */
+	public void onBatch(List<XmppObject> batch);
+}
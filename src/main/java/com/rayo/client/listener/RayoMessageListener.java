@@ -1,32 +1,85 @@
 package com.rayo.client.listener;
 
+import com.rayo.client.util.JID;
 import com.rayo.client.xmpp.stanza.IQ;
 import com.rayo.client.xmpp.stanza.Presence;
+import com.rayo.client.xmpp.stanza.Stanza;
 
-public abstract class RayoMessageListener extends StanzaAdapter {
+/**
+ * <p>Listens for a given Rayo message, optionally restricted to a namespace and to the
+ * messages coming from a call id or a verb JID.</p>
+ *
+ * <p>The listener publishes its interest as a {@link Subscription} so the message dispatcher
+ * only invokes it for matching IQs and presences. Those are trusted as they come. Only when
+ * registered on a dispatcher that does not route stanzas does the listener check every
+ * stanza it gets.</p>
+ */
+public abstract class RayoMessageListener extends StanzaAdapter implements RoutedStanzaListener {
 
-	private String message;
+	private Subscription subscription;
+	private volatile boolean routed;
 
 	public RayoMessageListener(String rayoMessage) {
-		
-		this.message = rayoMessage;
+
+		this(rayoMessage, null, null);
+	}
+
+	public RayoMessageListener(String rayoMessage, String namespace) {
+
+		this(rayoMessage, namespace, null);
+	}
+
+	public RayoMessageListener(String rayoMessage, String namespace, String jid) {
+
+		this.subscription = new Subscription(rayoMessage, namespace, jid);
+	}
+
+	@Override
+	public Subscription getSubscription() {
+
+		return subscription;
+	}
+
+	@Override
+	public void setRouted(boolean routed) {
+
+		this.routed = routed;
 	}
-	
+
 	@Override
 	public void onIQ(IQ iq) {
 
-		if (message.equals(iq.getChildName())) {
+		if (routed || matches(iq)) {
 			messageReceived(iq);
 		}
 	}
-	
+
 	@Override
 	public void onPresence(Presence presence) {
 
-		if (message.equals(presence.getChildName())) {
+		if (routed || matches(presence)) {
 			messageReceived(presence);
 		}
 	}
-	
+
+	private boolean matches(Stanza<?> stanza) {
+
+		if (!subscription.getName().equals(stanza.getChildName())) {
+			return false;
+		}
+		if (subscription.getNamespace() != null &&
+			!subscription.getNamespace().equals(stanza.getChildNamespace())) {
+			return false;
+		}
+		if (subscription.getJid() != null) {
+			JID from = stanza.getFromJid();
+			if (from == null) {
+				return false;
+			}
+			return subscription.getJid().equals(from.toString()) || subscription.getJid().equals(from.getNode());
+		}
+		return true;
+	}
+
 	public abstract void messageReceived(Object object);
 }
@@ -0,0 +1,28 @@
+package com.rayo.client.listener;
+
+/**
+ * <p>A stanza listener that declares upfront the stanzas it is interested in. Message
+ * dispatchers index these listeners by their {@link Subscription} and only hand them the
+ * IQs and presences that match it, instead of invoking them for every incoming stanza.
+ * Matching stanzas are still delivered through the regular callbacks, in the same order as
+ * to any other listener.</p>
+ *
+ * <p>Dispatchers that do not support routing treat these listeners as plain
+ * {@link StanzaListener}s, so implementations must still filter on the regular callbacks
+ * unless they have been told they are routed.</p>
+ */
+public interface RoutedStanzaListener extends StanzaListener {
+
+	/**
+	 * @return Subscription Stanzas this listener is interested in
+	 */
+	public Subscription getSubscription();
+
+	/**
+	 * Called by routing dispatchers when the listener is added to them and removed from them.
+	 * While routed, the IQs and presences the listener gets already match its subscription.
+	 *
+	 * @param routed Whether a dispatcher routes the stanzas of this listener
+	 */
+	public void setRouted(boolean routed);
+}
@@ -0,0 +1,16 @@
+package com.rayo.client.listener;
+
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+public abstract class SlowHandlerAdapter implements SlowHandlerListener {
+
+	@Override
+	public void budgetExceeded(Object handler, XmppObject object, long nanos) {
+		
+	}
+	
+	@Override
+	public void quarantined(Object handler) {
+		
+	}
+}
@@ -0,0 +1,29 @@
+package com.rayo.client.listener;
+
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Callback interface for the events generated by a 
+ * {@link com.rayo.client.io.SlowHandlerDetector}. Handlers are the stanza listeners, routed 
+ * and batch listeners and filters registered on a connection. Callbacks are invoked from the 
+ * dispatching threads, so implementations must return quickly.</p>
+ */
+public interface SlowHandlerListener {
+
+	/**
+	 * A handler has taken longer than the configured budget
+	 * 
+	 * @param handler Offending listener or filter
+	 * @param object Object the handler was processing, or <code>null</code> for a batch
+	 * @param nanos Time the handler took in nanoseconds
+	 */
+	public void budgetExceeded(Object handler, XmppObject object, long nanos);
+	
+	/**
+	 * A handler has exceeded its budget too many times and has been moved to its own queue, 
+	 * so it does not block the rest of the handlers anymore
+	 * 
+	 * @param handler Quarantined listener or filter
+	 */
+	public void quarantined(Object handler);
+}
@@ -0,0 +1,62 @@
+package com.rayo.client.listener;
+
+/**
+ * <p>Describes the stanzas a {@link RoutedStanzaListener} is interested in. A subscription
+ * matches the stanzas whose first child element has the given name and, optionally, the given
+ * namespace. It can also be narrowed to the stanzas sent from a single call, using the call id,
+ * or from a single verb, using the verb's full JID.</p>
+ *
+ * <p>Subscriptions are immutable.</p>
+ */
+public class Subscription {
+
+	private final String name;
+	private final String namespace;
+	private final String jid;
+
+	/**
+	 * Creates a subscription to every stanza with the given child element name
+	 *
+	 * @param name Name of the child element
+	 */
+	public Subscription(String name) {
+
+		this(name, null, null);
+	}
+
+	/**
+	 * Creates a subscription
+	 *
+	 * @param name Name of the child element
+	 * @param namespace Namespace of the child element or <code>null</code> to match any namespace
+	 * @param jid Call id or verb JID the stanzas must come from, or <code>null</code> to match
+	 * stanzas from any call
+	 */
+	public Subscription(String name, String namespace, String jid) {
+
+		if (name == null) {
+			throw new IllegalArgumentException("Subscription element name cannot be null");
+		}
+		this.name = name;
+		this.namespace = namespace;
+		this.jid = jid;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getNamespace() {
+		return namespace;
+	}
+
+	public String getJid() {
+		return jid;
+	}
+
+	@Override
+	public String toString() {
+
+		return String.format("Subscription [name=%s, namespace=%s, jid=%s]", name, namespace, jid);
+	}
+}
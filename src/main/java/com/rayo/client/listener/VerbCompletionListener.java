@@ -0,0 +1,29 @@
+package com.rayo.client.listener;
+
+import com.rayo.client.XmppException;
+import com.rayo.core.verb.VerbCompleteEvent;
+import com.rayo.core.verb.VerbRef;
+
+/**
+ * Callback invoked when a verb finishes. Callbacks run on the thread that dispatches incoming
+ * events, so implementations should not block.
+ */
+public interface VerbCompletionListener {
+
+	/**
+	 * Invoked when the complete event of the verb is received
+	 *
+	 * @param ref Verb reference
+	 * @param event Complete event
+	 */
+	public void completed(VerbRef ref, VerbCompleteEvent event);
+
+	/**
+	 * Invoked when the verb will never complete, for example because its call has ended
+	 * without a complete event for the verb
+	 *
+	 * @param ref Verb reference
+	 * @param cause Reason of the failure
+	 */
+	public void failed(VerbRef ref, XmppException cause);
+}
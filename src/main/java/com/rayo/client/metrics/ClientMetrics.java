@@ -0,0 +1,323 @@
+package com.rayo.client.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Metrics of a client connection: stanzas and bytes that go through the socket, requests 
+ * waiting for an answer and how long the server takes to answer each type of command, 
+ * together with gauges over the internal queues that are registered by the connection and 
+ * by the Rayo client.</p>
+ * 
+ * <p>Recording is meant to be cheap enough to stay always on. Counters are striped and 
+ * histograms are lock free, so the threads that send and receive stanzas never block on 
+ * them. All the aggregation is done when the metrics are read through 
+ * {@link #visit(MetricsVisitor)}, {@link #snapshot()} or the MBean exported by 
+ * {@link MetricsMBean}.</p>
+ * 
+ * <p>Round trip times are kept on one histogram per command, named after the first child 
+ * of the request IQ, e.g. <code>rtt.dial</code> or <code>rtt.say</code>.</p>
+ */
+public class ClientMetrics {
+
+	public static final String STANZAS_IN = "stanzas.in";
+	public static final String STANZAS_OUT = "stanzas.out";
+	public static final String BYTES_IN = "bytes.in";
+	public static final String BYTES_OUT = "bytes.out";
+	public static final String CONNECTIONS = "connections";
+	public static final String RECONNECTS = "reconnects";
+	public static final String CONNECTIONS_LOST = "connections.lost";
+	public static final String REQUEST_ERRORS = "requests.errors";
+	public static final String REQUEST_TIMEOUTS = "requests.timeouts";
+	public static final String RTT_PREFIX = "rtt.";
+	
+	/**
+	 * Requests that never get an answer are dropped by the limiter but not by the metrics 
+	 * unless they time out on a synchronous send. This bounds how many are tracked.
+	 */
+	public static final int MAX_PENDING_REQUESTS = 10000;
+	
+	private final ConcurrentMap<String, StripedCounter> counters = new ConcurrentSkipListMap<String, StripedCounter>();
+	private final ConcurrentMap<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentSkipListMap<String, Histogram>();
+	
+	private final ConcurrentMap<String, PendingRequest> pending = new ConcurrentHashMap<String, PendingRequest>();
+
+	private final StripedCounter stanzasIn = getCounter(STANZAS_IN);
+	private final StripedCounter stanzasOut = getCounter(STANZAS_OUT);
+	private final StripedCounter bytesIn = getCounter(BYTES_IN);
+	private final StripedCounter bytesOut = getCounter(BYTES_OUT);
+	private final StripedCounter connections = getCounter(CONNECTIONS);
+	private final StripedCounter reconnects = getCounter(RECONNECTS);
+	private final StripedCounter connectionsLost = getCounter(CONNECTIONS_LOST);
+	private final StripedCounter requestErrors = getCounter(REQUEST_ERRORS);
+	private final StripedCounter requestTimeouts = getCounter(REQUEST_TIMEOUTS);
+	
+	public ClientMetrics() {
+		
+		addGauge(STANZAS_IN + ".rate", new Rate(stanzasIn));
+		addGauge(STANZAS_OUT + ".rate", new Rate(stanzasOut));
+		addGauge(BYTES_IN + ".rate", new Rate(bytesIn));
+		addGauge(BYTES_OUT + ".rate", new Rate(bytesOut));
+		addGauge("requests.tracked", new Gauge() {
+			
+			@Override
+			public long getValue() {
+
+				return pending.size();
+			}
+		});
+	}
+	
+	/**
+	 * Returns the counter with the given name, creating it if it does not exist yet. Callers 
+	 * on hot paths should keep the returned counter instead of looking it up every time.
+	 * 
+	 * @param name Counter name
+	 * 
+	 * @return StripedCounter Counter
+	 */
+	public StripedCounter getCounter(String name) {
+		
+		StripedCounter counter = counters.get(name);
+		if (counter == null) {
+			StripedCounter created = new StripedCounter();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+	
+	/**
+	 * Returns the histogram with the given name, creating it if it does not exist yet
+	 * 
+	 * @param name Histogram name
+	 * 
+	 * @return Histogram Histogram
+	 */
+	public Histogram getHistogram(String name) {
+		
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			Histogram created = new Histogram();
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+	
+	/**
+	 * Registers a gauge, replacing any other gauge with the same name
+	 * 
+	 * @param name Gauge name
+	 * @param gauge Gauge
+	 */
+	public void addGauge(String name, Gauge gauge) {
+		
+		gauges.put(name, gauge);
+	}
+	
+	public void removeGauge(String name) {
+		
+		gauges.remove(name);
+	}
+
+	public void stanzaReceived() {
+		
+		stanzasIn.increment();
+	}
+	
+	public void stanzaSent() {
+		
+		stanzasOut.increment();
+	}
+	
+	public StripedCounter getBytesIn() {
+		
+		return bytesIn;
+	}
+	
+	public StripedCounter getBytesOut() {
+		
+		return bytesOut;
+	}
+	
+	/**
+	 * Records that a connection has been established. Every connection but the first one 
+	 * counts as a reconnect.
+	 */
+	public void connected() {
+		
+		if (connections.get() > 0) {
+			reconnects.increment();
+		}
+		connections.increment();
+	}
+	
+	public void connectionLost() {
+		
+		connectionsLost.increment();
+		pending.clear();
+	}
+	
+	/**
+	 * Starts timing a request
+	 * 
+	 * @param id Request id
+	 * @param command Name of the command, or <code>null</code> if the request has no payload
+	 */
+	public void requestSent(String id, String command) {
+		
+		if (pending.size() < MAX_PENDING_REQUESTS) {
+			pending.put(id, new PendingRequest(command == null ? "unknown" : command));
+		}
+	}
+	
+	/**
+	 * Records the round trip time of a request when its answer arrives
+	 * 
+	 * @param id Request id
+	 * @param error Whether the server answered with an error
+	 */
+	public void responseReceived(String id, boolean error) {
+		
+		PendingRequest request = pending.remove(id);
+		if (request == null) {
+			return;
+		}
+		getHistogram(RTT_PREFIX + request.command).record(
+				TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - request.start));
+		if (error) {
+			requestErrors.increment();
+		}
+	}
+	
+	/**
+	 * Stops timing a request that will not get an answer
+	 * 
+	 * @param id Request id
+	 * @param timedOut Whether the request is abandoned because it took too long
+	 */
+	public void requestAbandoned(String id, boolean timedOut) {
+		
+		if (pending.remove(id) != null && timedOut) {
+			requestTimeouts.increment();
+		}
+	}
+
+	/**
+	 * Reports the current value of every metric to the given visitor, sorted by name 
+	 * within counters, gauges and histograms
+	 * 
+	 * @param visitor Visitor
+	 */
+	public void visit(MetricsVisitor visitor) {
+		
+		for (Map.Entry<String, StripedCounter> entry: counters.entrySet()) {
+			visitor.counter(entry.getKey(), entry.getValue().get());
+		}
+		for (Map.Entry<String, Gauge> entry: gauges.entrySet()) {
+			visitor.gauge(entry.getKey(), entry.getValue().getValue());
+		}
+		for (Map.Entry<String, Histogram> entry: histograms.entrySet()) {
+			visitor.histogram(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/**
+	 * Returns the current value of every metric. Histograms are flattened into their count, 
+	 * mean, max and some percentiles, e.g. <code>rtt.dial.p99</code>, all in microseconds.
+	 * 
+	 * @return Map<String, Long> Metric values by name
+	 */
+	public Map<String, Long> snapshot() {
+		
+		final Map<String, Long> snapshot = new LinkedHashMap<String, Long>();
+		visit(new MetricsVisitor() {
+			
+			@Override
+			public void counter(String name, long count) {
+
+				snapshot.put(name, count);
+			}
+			
+			@Override
+			public void gauge(String name, long value) {
+
+				snapshot.put(name, value);
+			}
+			
+			@Override
+			public void histogram(String name, Histogram histogram) {
+
+				snapshot.put(name + ".count", histogram.getCount());
+				snapshot.put(name + ".mean", Math.round(histogram.getMean()));
+				snapshot.put(name + ".p50", histogram.getPercentile(50));
+				snapshot.put(name + ".p99", histogram.getPercentile(99));
+				snapshot.put(name + ".p999", histogram.getPercentile(99.9));
+				snapshot.put(name + ".max", histogram.getMax());
+			}
+		});
+		return snapshot;
+	}
+	
+	@Override
+	public String toString() {
+		
+		return snapshot().toString();
+	}
+	
+	private static class PendingRequest {
+		
+		private final String command;
+		private final long start = System.nanoTime();
+		
+		PendingRequest(String command) {
+			
+			this.command = command;
+		}
+	}
+	
+	/**
+	 * Per second rate of a counter over the time elapsed since the rate was last read, 
+	 * measured over one second at least. Nothing is done on the path that increments the 
+	 * counter.
+	 */
+	private static class Rate implements Gauge {
+		
+		private static final long MIN_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+		
+		private final StripedCounter counter;
+		private long lastCount;
+		private long lastTime = System.nanoTime();
+		private long rate;
+		
+		Rate(StripedCounter counter) {
+			
+			this.counter = counter;
+			this.lastCount = counter.get();
+		}
+		
+		@Override
+		public synchronized long getValue() {
+
+			long now = System.nanoTime();
+			long elapsed = now - lastTime;
+			if (elapsed >= MIN_INTERVAL) {
+				long count = counter.get();
+				rate = (count - lastCount) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+				lastCount = count;
+				lastTime = now;
+			}
+			return rate;
+		}
+	}
+}
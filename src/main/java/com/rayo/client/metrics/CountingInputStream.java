@@ -0,0 +1,47 @@
+package com.rayo.client.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Adds the number of bytes read from the wrapped stream to a counter
+ */
+public class CountingInputStream extends FilterInputStream {
+
+	private final StripedCounter counter;
+	
+	public CountingInputStream(InputStream in, StripedCounter counter) {
+		
+		super(in);
+		this.counter = counter;
+	}
+	
+	@Override
+	public int read() throws IOException {
+
+		int b = super.read();
+		if (b != -1) {
+			counter.increment();
+		}
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		int read = super.read(b, off, len);
+		if (read > 0) {
+			counter.add(read);
+		}
+		return read;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+
+		long skipped = super.skip(n);
+		counter.add(skipped);
+		return skipped;
+	}
+}
@@ -0,0 +1,34 @@
+package com.rayo.client.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Adds the number of bytes written to the wrapped stream to a counter
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+	private final StripedCounter counter;
+	
+	public CountingOutputStream(OutputStream out, StripedCounter counter) {
+		
+		super(out);
+		this.counter = counter;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+
+		out.write(b);
+		counter.increment();
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+
+		// FilterOutputStream would write the array byte by byte
+		out.write(b, off, len);
+		counter.add(len);
+	}
+}
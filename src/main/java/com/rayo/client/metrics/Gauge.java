@@ -0,0 +1,9 @@
+package com.rayo.client.metrics;
+
+/**
+ * A value that is computed every time that metrics are read, like the size of a queue
+ */
+public interface Gauge {
+
+	public long getValue();
+}
@@ -0,0 +1,106 @@
+package com.rayo.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Lock free latency histogram with a bounded relative error, in the spirit of HdrHistogram.
+ * Values are kept in buckets whose width doubles with every power of two, so percentiles are
+ * reported with less than 1/32 (about 3%) of error whatever their magnitude. Values are in
+ * microseconds and the histogram covers up to more than a day.</p>
+ *
+ * <p>Recording is a couple of array increments, so many threads can record concurrently
+ * without affecting the latencies being measured.</p>
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAGNITUDES = 32;
+
+	private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * MAGNITUDES);
+	private final StripedCounter count = new StripedCounter();
+	private final StripedCounter total = new StripedCounter();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency
+	 *
+	 * @param micros Latency in microseconds
+	 */
+	public void record(long micros) {
+
+		if (micros < 0) {
+			micros = 0;
+		}
+		counts.incrementAndGet(index(micros));
+		count.increment();
+		total.add(micros);
+		long current = max.get();
+		while (micros > current && !max.compareAndSet(current, micros)) {
+			current = max.get();
+		}
+	}
+
+	private int index(long value) {
+
+		// Values below SUB_BUCKETS have their own bucket. Beyond that every magnitude is
+		// split in SUB_BUCKETS / 2 buckets of the same width.
+		int magnitude = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+		if (magnitude == 0) {
+			return (int)value;
+		}
+		int index = magnitude * (SUB_BUCKETS / 2) + (int)(value >>> magnitude);
+		return Math.min(index, counts.length() - 1);
+	}
+
+	private long highestValue(int index) {
+
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int magnitude = (index - SUB_BUCKETS / 2) / (SUB_BUCKETS / 2);
+		long sub = index - magnitude * (SUB_BUCKETS / 2);
+		return ((sub + 1) << magnitude) - 1;
+	}
+
+	/**
+	 * @param percentile Percentile between 0 and 100
+	 *
+	 * @return long Latency in microseconds below which the given percentage of values are
+	 */
+	public long getPercentile(double percentile) {
+
+		// The buckets are the source of truth, as the count may be slightly ahead of them
+		long recorded = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			recorded += counts.get(i);
+		}
+		if (recorded == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long)Math.ceil(recorded * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+
+		long n = count.get();
+		return n == 0 ? 0 : (double)total.get() / n;
+	}
+}
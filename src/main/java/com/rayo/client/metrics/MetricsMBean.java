@@ -0,0 +1,127 @@
+package com.rayo.client.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * <p>Exposes a {@link ClientMetrics} as a read only MBean with one attribute per metric, as 
+ * returned by {@link ClientMetrics#snapshot()}. The attributes are computed on every read, so 
+ * new metrics, like the round trip times of commands that had not been used yet, show up 
+ * without registering the MBean again.</p>
+ * 
+ * <p>MBeans are registered on the platform MBean server under the 
+ * <code>com.rayo.client</code> domain, where they can be read through JConsole or Jolokia.</p>
+ */
+public class MetricsMBean implements DynamicMBean {
+
+	public static final String DOMAIN = "com.rayo.client";
+	
+	private final ClientMetrics metrics;
+	
+	public MetricsMBean(ClientMetrics metrics) {
+		
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Registers the given metrics on the platform MBean server
+	 * 
+	 * @param metrics Metrics to export
+	 * @param name Name of the client, e.g. its JID
+	 * 
+	 * @return ObjectName Name the MBean has been registered with
+	 * 
+	 * @throws JMException If the MBean cannot be registered, e.g. because there is already 
+	 * a client registered with the same name
+	 */
+	public static ObjectName register(ClientMetrics metrics, String name) throws JMException {
+		
+		ObjectName objectName = new ObjectName(DOMAIN + ":type=RayoClient,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(metrics), objectName);
+		return objectName;
+	}
+	
+	/**
+	 * Unregisters an MBean registered with {@link #register(ClientMetrics, String)}. It does 
+	 * nothing if the MBean is not registered.
+	 * 
+	 * @param objectName MBean name
+	 * 
+	 * @throws JMException If the MBean cannot be unregistered
+	 */
+	public static void unregister(ObjectName objectName) throws JMException {
+		
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(objectName)) {
+			server.unregisterMBean(objectName);
+		}
+	}
+	
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+
+		Long value = metrics.snapshot().get(attribute);
+		if (value == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return value;
+	}
+	
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+
+		Map<String, Long> snapshot = metrics.snapshot();
+		AttributeList list = new AttributeList();
+		for (String attribute: attributes) {
+			Long value = snapshot.get(attribute);
+			if (value != null) {
+				list.add(new Attribute(attribute, value));
+			}
+		}
+		return list;
+	}
+	
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+
+		throw new AttributeNotFoundException(String.format("Metric [%s] is read only", attribute.getName()));
+	}
+	
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+
+		return new AttributeList();
+	}
+	
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+	
+	@Override
+	public MBeanInfo getMBeanInfo() {
+
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (String name: metrics.snapshot().keySet()) {
+			attributes.add(new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false));
+		}
+		return new MBeanInfo(getClass().getName(), "Rayo client metrics", 
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), 
+				null, new MBeanOperationInfo[0], null);
+	}
+}
@@ -0,0 +1,27 @@
+package com.rayo.client.metrics;
+
+/**
+ * <p>Receives the current value of every metric of a {@link ClientMetrics}. This is the hook 
+ * to publish the client metrics into other registries or monitoring systems. Implementations 
+ * are called on the thread that invokes {@link ClientMetrics#visit(MetricsVisitor)}.</p>
+ */
+public interface MetricsVisitor {
+
+	/**
+	 * @param name Metric name
+	 * @param count Total count since the metrics were created. It never decreases.
+	 */
+	public void counter(String name, long count);
+
+	/**
+	 * @param name Metric name
+	 * @param value Current value
+	 */
+	public void gauge(String name, long value);
+
+	/**
+	 * @param name Metric name
+	 * @param histogram Histogram. Values are in microseconds.
+	 */
+	public void histogram(String name, Histogram histogram);
+}
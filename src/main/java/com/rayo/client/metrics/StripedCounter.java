@@ -0,0 +1,68 @@
+package com.rayo.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Counter that many threads can increment at the same time without fighting for the 
+ * same memory location. Each thread adds to one of several stripes, which are only summed 
+ * up when the counter is read, so reads are more expensive than writes.</p>
+ * 
+ * <p>Stripes are kept on different cache lines to avoid false sharing between the threads 
+ * that increment them.</p>
+ */
+public class StripedCounter {
+
+	// 8 longs are 64 bytes, the usual size of a cache line
+	private static final int PADDING = 8;
+	private static final int STRIPES = stripes();
+	
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+	
+	public void increment() {
+		
+		add(1);
+	}
+	
+	public void add(long delta) {
+		
+		// Thread ids are sequential, so they spread evenly across the stripes
+		int stripe = (int)(Thread.currentThread().getId() & (STRIPES - 1));
+		cells.addAndGet(stripe * PADDING, delta);
+	}
+	
+	/**
+	 * @return long Sum of all the stripes. It is not an atomic snapshot, so it may miss 
+	 * increments that happen while it is being computed.
+	 */
+	public long get() {
+		
+		long sum = 0;
+		for (int i = 0; i < cells.length(); i += PADDING) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+	
+	public void reset() {
+		
+		for (int i = 0; i < cells.length(); i += PADDING) {
+			cells.set(i, 0);
+		}
+	}
+	
+	private static int stripes() {
+		
+		int stripes = 1;
+		int target = Math.min(64, Runtime.getRuntime().availableProcessors() * 2);
+		while (stripes < target) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+	
+	@Override
+	public String toString() {
+		
+		return String.valueOf(get());
+	}
+}
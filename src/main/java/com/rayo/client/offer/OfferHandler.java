@@ -0,0 +1,17 @@
+package com.rayo.client.offer;
+
+import com.rayo.core.OfferEvent;
+
+/**
+ * Handles the calls offered to an {@link OfferWorkerPool}
+ */
+public interface OfferHandler {
+
+	/**
+	 * Invoked on a worker thread with an offer that no other worker will get. The worker
+	 * does not take any other offer until this method returns.
+	 *
+	 * @param offer Incoming offer
+	 */
+	public void handle(OfferEvent offer);
+}
@@ -0,0 +1,199 @@
+package com.rayo.client.offer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rayo.core.OfferEvent;
+
+/**
+ * <p>Intake queue for incoming offers. Every offer is handed to exactly one consumer, either
+ * a thread blocked on {@link #take(long)} or a worker of an {@link OfferWorkerPool}. Consumers
+ * are served in the order they started waiting, so idle call handlers pull offers in turns and
+ * a busy handler never gets a new offer before it asks for one.</p>
+ *
+ * <p>The queue only starts collecting offers once it gets its first consumer, so applications
+ * that only use stanza listeners do not accumulate offers. It is bounded: when it is full the
+ * oldest offer is discarded, and offers that have waited longer than the maximum age are
+ * discarded instead of being handed to a consumer, as the server has likely timed them out
+ * already. Rayo servers only wait a few seconds for an answer to an offer.</p>
+ */
+public class OfferQueue {
+
+	private static final Logger log = LoggerFactory.getLogger(OfferQueue.class);
+	
+	public static final int DEFAULT_CAPACITY = 1000;
+	public static final long DEFAULT_MAX_AGE = 5000;
+
+	private final BlockingQueue<Entry> queue;
+	private volatile long maxAge = DEFAULT_MAX_AGE;
+	private volatile boolean active;
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final AtomicInteger releases = new AtomicInteger();
+
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+
+	public OfferQueue() {
+
+		this(DEFAULT_CAPACITY);
+	}
+
+	public OfferQueue(int capacity) {
+
+		// A fair queue serves waiting consumers in FIFO order
+		this.queue = new ArrayBlockingQueue<Entry>(capacity, true);
+	}
+
+	/**
+	 * Adds an incoming offer. The offer is ignored if no consumer has used this queue yet.
+	 *
+	 * @param offer Offer with its call id already set
+	 */
+	public void add(OfferEvent offer) {
+
+		if (!active) {
+			return;
+		}
+		received.incrementAndGet();
+		Entry entry = new Entry(offer, 0);
+		while (!queue.offer(entry)) {
+			Entry oldest = queue.poll();
+			if (oldest != null && oldest.offer != null) {
+				discarded.incrementAndGet();
+				log.warn(String.format("Offer queue is full. Discarding offer for call [%s]", oldest.offer.getCallId()));
+			}
+		}
+	}
+
+	/**
+	 * Takes the next offer, waiting for it up to the given time
+	 *
+	 * @param timeout Maximum milliseconds to wait
+	 *
+	 * @return OfferEvent Offer or <code>null</code> if no offer has arrived on time
+	 *
+	 * @throws InterruptedException If the thread is interrupted while waiting
+	 */
+	public OfferEvent take(long timeout) throws InterruptedException {
+
+		active = true;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		// Only the releases that happen while this consumer waits concern it
+		int release = releases.get();
+		waiting.incrementAndGet();
+		try {
+			if (releases.get() != release) {
+				// Released before it could be counted as waiting
+				return null;
+			}
+			while (true) {
+				long remaining = deadline - System.nanoTime();
+				Entry entry = queue.poll(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+				if (entry == null) {
+					return null;
+				}
+				if (entry.offer == null) {
+					if (entry.release > release) {
+						return null;
+					}
+					// Left over from a release that happened before this consumer started
+					continue;
+				}
+				if (System.nanoTime() - entry.received > TimeUnit.MILLISECONDS.toNanos(maxAge)) {
+					discarded.incrementAndGet();
+					log.warn(String.format("Discarding stale offer for call [%s]", entry.offer.getCallId()));
+					continue;
+				}
+				return entry.offer;
+			}
+		} finally {
+			waiting.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Discards the queued offers and releases the consumers that are currently waiting, which 
+	 * get <code>null</code> as if they had timed out. Used when no more offers can arrive, 
+	 * e.g. because the connection to the server has been lost.
+	 */
+	public void release() {
+		
+		Entry released = new Entry(null, releases.incrementAndGet());
+		queue.clear();
+		// The count may be off as consumers come and go. Markers nobody needs are ignored
+		// by the consumers that start waiting later.
+		for (int i = waiting.get(); i > 0; i--) {
+			queue.offer(released);
+		}
+	}
+
+	/**
+	 * Marks this queue as having consumers. Offers received before are not collected.
+	 */
+	public void activate() {
+
+		active = true;
+	}
+
+	/**
+	 * Discards all the queued offers
+	 */
+	public void clear() {
+
+		queue.clear();
+	}
+
+	/**
+	 * Sets the milliseconds after which a queued offer is discarded. Defaults to 5 seconds.
+	 */
+	public void setMaxAge(long maxAge) {
+
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * @return int Number of offers waiting for a consumer
+	 */
+	public int size() {
+
+		return queue.size();
+	}
+
+	/**
+	 * @return long Number of offers received since the queue got its first consumer
+	 */
+	public long getReceivedCount() {
+
+		return received.get();
+	}
+
+	/**
+	 * @return long Number of offers discarded because the queue was full or they were too old
+	 */
+	public long getDiscardedCount() {
+
+		return discarded.get();
+	}
+
+	/**
+	 * An offer, or a marker that releases the consumers waiting before the given release
+	 */
+	private static class Entry {
+
+		private final OfferEvent offer;
+		private final int release;
+		private final long received = System.nanoTime();
+
+		Entry(OfferEvent offer, int release) {
+
+			this.offer = offer;
+			this.release = release;
+		}
+	}
+}
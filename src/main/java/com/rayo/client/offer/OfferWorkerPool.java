@@ -0,0 +1,151 @@
+package com.rayo.client.offer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rayo.client.RayoClient;
+import com.rayo.core.OfferEvent;
+
+/**
+ * <p>A pool of call handling threads fed by the {@link OfferQueue} of a {@link RayoClient}.
+ * Workers pull offers from the queue only when they are idle, so every offer goes to exactly
+ * one worker and it is always one of the least loaded ones. Idle workers get offers in the
+ * order they became idle.</p>
+ */
+public class OfferWorkerPool {
+
+	private static final Logger log = LoggerFactory.getLogger(OfferWorkerPool.class);
+
+	private static final long POLL_TIMEOUT = 1000;
+	private static final long STOP_TIMEOUT = 5000;
+
+	private final OfferQueue queue;
+	private final OfferHandler handler;
+	private final int size;
+
+	private final List<Thread> workers = new ArrayList<Thread>();
+	private volatile boolean running;
+
+	private final AtomicInteger busy = new AtomicInteger();
+	private final AtomicLong handled = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	public OfferWorkerPool(RayoClient client, int size, OfferHandler handler) {
+
+		this(client.getOfferQueue(), size, handler);
+	}
+
+	public OfferWorkerPool(OfferQueue queue, int size, OfferHandler handler) {
+
+		this.queue = queue;
+		this.size = size;
+		this.handler = handler;
+	}
+
+	public synchronized void start() {
+
+		if (running) {
+			return;
+		}
+		running = true;
+		queue.activate();
+		for (int i = 0; i < size; i++) {
+			Thread worker = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+
+					work();
+				}
+			}, "rayo-offer-worker-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Stops the workers and waits for them to finish. Every worker is interrupted, so idle
+	 * workers stop right away and busy workers once their handler returns. A handler that
+	 * ignores the interruption is waited for up to five seconds.
+	 */
+	public void stop() {
+
+		List<Thread> stopped;
+		synchronized (this) {
+			running = false;
+			stopped = new ArrayList<Thread>(workers);
+			workers.clear();
+		}
+		for (Thread worker: stopped) {
+			worker.interrupt();
+		}
+		long deadline = System.currentTimeMillis() + STOP_TIMEOUT;
+		for (Thread worker: stopped) {
+			// A handler may stop the pool from its own worker
+			if (worker == Thread.currentThread()) {
+				continue;
+			}
+			try {
+				worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (worker.isAlive()) {
+				log.warn(String.format("Offer worker [%s] is still handling an offer after being stopped", worker.getName()));
+			}
+		}
+	}
+
+	private void work() {
+
+		while (running) {
+			OfferEvent offer;
+			try {
+				offer = queue.take(POLL_TIMEOUT);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			if (offer == null) {
+				continue;
+			}
+			busy.incrementAndGet();
+			try {
+				handler.handle(offer);
+				handled.incrementAndGet();
+			} catch (Exception e) {
+				failed.incrementAndGet();
+				log.error(String.format("Error while handling offer for call [%s]", offer.getCallId()), e);
+			} finally {
+				busy.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @return int Number of workers handling an offer
+	 */
+	public int getBusyWorkers() {
+		return busy.get();
+	}
+
+	/**
+	 * @return long Number of offers handled
+	 */
+	public long getHandledCount() {
+		return handled.get();
+	}
+
+	/**
+	 * @return long Number of offers whose handler threw an exception
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+}
@@ -1,20 +1,60 @@
 package com.rayo.client.registry;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.rayo.client.util.JIDImpl;
+
 /**
- * Record information for a call
- * 
+ * Record information for a call. Besides its id and domain, a call keeps its state, the verbs
+ * that are running on it, the parties it is joined to and the headers it was offered with.
+ * Collections are only allocated when first used to keep records small.
+ *
  * @author martin
  *
  */
 public class Call {
 
+	/**
+	 * Call states. A call can only move forward through these states.
+	 */
+	public enum State {
+
+		OFFERED(0), DIALING(0), RINGING(1), ANSWERED(2), ENDED(3);
+
+		private final int rank;
+
+		private State(int rank) {
+
+			this.rank = rank;
+		}
+	}
+
 	private String callId;
 	private Object callDomain;
 
+	private volatile State state;
+	private final long creationTime = System.currentTimeMillis();
+	private volatile long lastActivity = creationTime;
+
+	private Set<String> verbs;
+	private Set<String> joined;
+	private Map<String, String> headers;
+
+	private volatile CallJID jid;
+
 	public Call(String callId, String callDomain) {
-		
+
+		this(callId, callDomain, State.OFFERED);
+	}
+
+	public Call(String callId, String callDomain, State state) {
+
 		this.callId = callId;
 		this.callDomain = callDomain;
+		this.state = state;
 	}
 
 	public String getCallId() {
@@ -32,4 +72,154 @@ public class Call {
 	public void setCallDomain(Object callDomain) {
 		this.callDomain = callDomain;
 	}
+
+	/**
+	 * Returns the JID of this call on the given domain. It is built once and reused by every
+	 * command sent to the call while the domain does not change.
+	 *
+	 * @param domain Domain of the Rayo server or node the call runs on
+	 *
+	 * @return String JID of the call, e.g. <i>callid@domain</i>
+	 */
+	public String getJid(String domain) {
+
+		CallJID jid = this.jid;
+		// Callers usually pass the same domain instance, the client's server or the node
+		if (jid == null || !jid.isBuiltFrom(callId, domain)) {
+			jid = new CallJID(callId, domain);
+			this.jid = jid;
+		}
+		return jid.value;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Moves the call to the given state
+	 *
+	 * @param state New state
+	 *
+	 * @return boolean <code>false</code> if the call is already on that state or on a later one
+	 */
+	public synchronized boolean transition(State state) {
+
+		touch();
+		if (state.rank <= this.state.rank) {
+			return false;
+		}
+		this.state = state;
+		return true;
+	}
+
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	public long getLastActivity() {
+		return lastActivity;
+	}
+
+	/**
+	 * Records activity on this call, so it is not considered idle
+	 */
+	public void touch() {
+
+		lastActivity = System.currentTimeMillis();
+	}
+
+	public synchronized void addVerb(String verbId) {
+
+		if (verbs == null) {
+			verbs = new HashSet<String>(4);
+		}
+		verbs.add(verbId);
+		touch();
+	}
+
+	public synchronized boolean removeVerb(String verbId) {
+
+		touch();
+		return verbs != null && verbs.remove(verbId);
+	}
+
+	public synchronized boolean hasVerb(String verbId) {
+
+		return verbs != null && verbs.contains(verbId);
+	}
+
+	/**
+	 * @return Set Ids of the verbs running on this call
+	 */
+	public synchronized Set<String> getVerbs() {
+
+		if (verbs == null) {
+			return Collections.emptySet();
+		}
+		return new HashSet<String>(verbs);
+	}
+
+	public synchronized void addJoined(String party) {
+
+		if (joined == null) {
+			joined = new HashSet<String>(2);
+		}
+		joined.add(party);
+		touch();
+	}
+
+	public synchronized void removeJoined(String party) {
+
+		touch();
+		if (joined != null) {
+			joined.remove(party);
+		}
+	}
+
+	/**
+	 * @return Set Call ids or mixer names this call is joined to
+	 */
+	public synchronized Set<String> getJoined() {
+
+		if (joined == null) {
+			return Collections.emptySet();
+		}
+		return new HashSet<String>(joined);
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public void setHeaders(Map<String, String> headers) {
+		this.headers = headers;
+	}
+
+	/**
+	 * A call JID and the call id and domain it was built from
+	 */
+	private static class CallJID {
+
+		private final String callId;
+		private final String domain;
+		private final String value;
+
+		CallJID(String callId, String domain) {
+
+			this.callId = callId;
+			this.domain = domain;
+			this.value = new JIDImpl(callId, domain, null).toString();
+		}
+
+		boolean isBuiltFrom(String callId, String domain) {
+
+			return same(this.callId, callId) && same(this.domain, domain);
+		}
+
+		private static boolean same(String a, String b) {
+
+			return a == b || (a != null && a.equals(b));
+		}
+	}
 }
@@ -1,30 +1,273 @@
 package com.rayo.client.registry;
 
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap.Builder;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
 
 /**
- * This registry stores information for calls. 
- * 
+ * <p>This registry stores information for calls.</p>
+ *
+ * <p>Calls are normally removed when their end event arrives. As end events can get lost,
+ * the registry also cleans itself up:</p>
+ *
+ * <ul>
+ * 	<li>Calls that have lived longer than the maximum call duration are expired.</li>
+ * 	<li>Calls that were never answered and have had no activity for longer than the maximum
+ * 	idle time are expired. Answered calls can be quiet for a long time, they only expire
+ * 	after the maximum duration.</li>
+ * 	<li>The registry holds a bounded number of calls. When it is full, the least recently
+ * 	used call is evicted.</li>
+ * </ul>
+ *
+ * <p>Once started, expired calls are swept by a background thread every sweep interval.
+ * {@link CallsRegistryListener}s are notified of every call expired or evicted, so
+ * whatever else is kept for the call can be released.</p>
+ *
  * @author martin
  *
  */
 public class CallsRegistry {
 
-	private Map<String, Call> callsMap = new ConcurrentHashMap<String, Call>(50);
-	
+	private static final Logger log = LoggerFactory.getLogger(CallsRegistry.class);
+
+	public static final int DEFAULT_MAX_CALLS = 100000;
+	public static final long DEFAULT_MAX_DURATION = 4 * 60 * 60 * 1000;
+	public static final long DEFAULT_MAX_IDLE = 60 * 60 * 1000;
+
+	private static final long SWEEP_INTERVAL = 1000;
+
+	private final List<CallsRegistryListener> listeners = new CopyOnWriteArrayList<CallsRegistryListener>();
+
+	private final ConcurrentLinkedHashMap<String, Call> callsMap;
+
+	private volatile long maxDuration = DEFAULT_MAX_DURATION;
+	private volatile long maxIdle = DEFAULT_MAX_IDLE;
+
+	private ScheduledExecutorService sweeper;
+
+	private final AtomicLong registered = new AtomicLong();
+	private final AtomicLong ended = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+	private final AtomicLong evicted = new AtomicLong();
+	private final AtomicLong peak = new AtomicLong();
+
+	public CallsRegistry() {
+
+		this(DEFAULT_MAX_CALLS);
+	}
+
+	public CallsRegistry(int maxCalls) {
+
+		callsMap = new Builder<String, Call>()
+			.initialCapacity(50)
+			.maximumWeightedCapacity(maxCalls)
+			.listener(new EvictionListener<String, Call>() {
+
+				@Override
+				public void onEviction(String callId, Call call) {
+
+					evicted.incrementAndGet();
+					log.warn(String.format("Calls registry is full. Evicting call [%s]", callId));
+					for (CallsRegistryListener listener: listeners) {
+						listener.callEvicted(call);
+					}
+				}
+			})
+			.build();
+	}
+
 	public void registerCall(String callId, Call call) {
-		
+
 		callsMap.put(callId, call);
+		registered.incrementAndGet();
+		long size = callsMap.size();
+		long max = peak.get();
+		while (size > max && !peak.compareAndSet(max, size)) {
+			max = peak.get();
+		}
 	}
-	
+
 	public Call get(String callId) {
-		
+
 		return callsMap.get(callId);
 	}
-	
+
+	/**
+	 * Returns the call that runs the verb with the given JID
+	 *
+	 * @param verbJid Verb JID, e.g. <i>callid@domain/verbid</i>
+	 *
+	 * @return Call Call or <code>null</code> if the verb is not running on any active call
+	 */
+	public Call getByVerb(String verbJid) {
+
+		int at = verbJid.indexOf('@');
+		int slash = verbJid.indexOf('/');
+		if (at == -1 || slash == -1) {
+			return null;
+		}
+		Call call = callsMap.get(verbJid.substring(0, at));
+		if (call == null || !call.hasVerb(verbJid.substring(slash+1))) {
+			return null;
+		}
+		return call;
+	}
+
 	public void unregisterCal(String callId) {
-		
-		callsMap.remove(callId);
+
+		Call call = callsMap.remove(callId);
+		if (call != null) {
+			call.transition(Call.State.ENDED);
+			ended.incrementAndGet();
+		}
+	}
+
+	public int size() {
+
+		return callsMap.size();
+	}
+
+	public void addListener(CallsRegistryListener listener) {
+
+		listeners.add(listener);
+	}
+
+	public void removeListener(CallsRegistryListener listener) {
+
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Starts sweeping expired calls in the background
+	 */
+	public synchronized void start() {
+
+		if (sweeper != null) {
+			return;
+		}
+		sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+
+				Thread thread = new Thread(r, "rayo-calls-sweeper");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		sweeper.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+					purge();
+				} catch (Exception e) {
+					log.error("Error while expiring calls", e);
+				}
+			}
+		}, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops sweeping expired calls. Calls are kept.
+	 */
+	public synchronized void stop() {
+
+		if (sweeper != null) {
+			sweeper.shutdownNow();
+			sweeper = null;
+		}
+	}
+
+	/**
+	 * Removes the calls that have exceeded the maximum duration or idle time. Normally there
+	 * is no need to invoke this method as the registry sweeps itself once started.
+	 */
+	public void purge() {
+
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Call> entry: callsMap.entrySet()) {
+			Call call = entry.getValue();
+			if (isExpired(call, now) && callsMap.remove(entry.getKey(), call)) {
+				expired.incrementAndGet();
+				log.debug(String.format("Expiring orphan call [%s]", entry.getKey()));
+				for (CallsRegistryListener listener: listeners) {
+					listener.callExpired(call);
+				}
+			}
+		}
+	}
+
+	private boolean isExpired(Call call, long now) {
+
+		if (now - call.getCreationTime() > maxDuration) {
+			return true;
+		}
+		// Answered calls with no verbs running send nothing until they end
+		return call.getState() != Call.State.ANSWERED && now - call.getLastActivity() > maxIdle;
+	}
+
+	/**
+	 * Sets the milliseconds after which a call that has not ended is expired
+	 */
+	public void setMaxDuration(long maxDuration) {
+		this.maxDuration = maxDuration;
+	}
+
+	/**
+	 * Sets the milliseconds without activity after which a call that was never answered is
+	 * expired
+	 */
+	public void setMaxIdle(long maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * @return long Number of calls registered
+	 */
+	public long getRegisteredCount() {
+		return registered.get();
+	}
+
+	/**
+	 * @return long Number of calls removed because they ended
+	 */
+	public long getEndedCount() {
+		return ended.get();
+	}
+
+	/**
+	 * @return long Number of calls removed because they exceeded their maximum duration or
+	 * idle time
+	 */
+	public long getExpiredCount() {
+		return expired.get();
+	}
+
+	/**
+	 * @return long Number of calls evicted because the registry was full
+	 */
+	public long getEvictedCount() {
+		return evicted.get();
+	}
+
+	/**
+	 * @return long Maximum number of calls held at the same time
+	 */
+	public long getPeakSize() {
+		return peak.get();
 	}
 }
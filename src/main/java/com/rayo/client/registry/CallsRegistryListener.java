@@ -0,0 +1,18 @@
+package com.rayo.client.registry;
+
+/**
+ * Notified when the {@link CallsRegistry} discards a call before its end event arrives, so
+ * anything else kept for the call can be released too.
+ */
+public interface CallsRegistryListener {
+
+	/**
+	 * The call exceeded its maximum duration or idle time
+	 */
+	public void callExpired(Call call);
+
+	/**
+	 * The registry was full and the call was the least recently used one
+	 */
+	public void callEvicted(Call call);
+}
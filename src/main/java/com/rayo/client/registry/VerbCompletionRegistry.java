@@ -0,0 +1,143 @@
+package com.rayo.client.registry;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap.Builder;
+import com.rayo.client.XmppException;
+import com.rayo.client.verb.VerbFuture;
+import com.rayo.core.verb.VerbCompleteEvent;
+import com.rayo.core.verb.VerbRef;
+
+/**
+ * <p>Keeps a {@link VerbFuture} for every verb of the active calls, keyed by the verb JID.
+ * Complete events resolve their future with a single lookup, no matter how many verbs are
+ * running on the connection.</p>
+ *
+ * <p>A complete event may be processed before the thread that started the verb gets its
+ * reference back, so futures are created by whichever side comes first. Futures are kept
+ * until their call ends. At that point any verb that did not complete is failed.</p>
+ *
+ * <p>Complete events and verb references can still arrive after the end of their call. The
+ * ids of the most recently ended calls are remembered so those do not track the call again,
+ * as nothing would ever remove it.</p>
+ */
+public class VerbCompletionRegistry {
+
+	private static final int ENDED_CALLS = 10000;
+
+	private final ConcurrentMap<String, ConcurrentMap<String, VerbFuture>> calls =
+		new ConcurrentHashMap<String, ConcurrentMap<String, VerbFuture>>(50);
+
+	private final ConcurrentLinkedHashMap<String, Boolean> ended = new Builder<String, Boolean>()
+		.initialCapacity(50)
+		.maximumWeightedCapacity(ENDED_CALLS)
+		.build();
+
+	/**
+	 * Returns the future for the given verb, creating it if needed. The future of a verb
+	 * whose call has already ended is failed and not kept.
+	 *
+	 * @param ref Verb reference
+	 *
+	 * @return VerbFuture Future of the verb
+	 */
+	public VerbFuture get(VerbRef ref) {
+
+		if (ended.containsKey(ref.getCallId())) {
+			VerbFuture future = new VerbFuture(ref);
+			future.fail(ended(ref.getCallId()));
+			return future;
+		}
+		ConcurrentMap<String, VerbFuture> verbs = calls.get(ref.getCallId());
+		if (verbs == null) {
+			verbs = new ConcurrentHashMap<String, VerbFuture>(4);
+			ConcurrentMap<String, VerbFuture> existing = calls.putIfAbsent(ref.getCallId(), verbs);
+			if (existing != null) {
+				verbs = existing;
+			}
+		}
+		VerbFuture future = verbs.get(ref.getVerbId());
+		if (future == null) {
+			future = new VerbFuture(ref);
+			VerbFuture existing = verbs.putIfAbsent(ref.getVerbId(), future);
+			if (existing != null) {
+				future = existing;
+			}
+		}
+		if (ended.containsKey(ref.getCallId())) {
+			// The call ended while its verbs were being added back
+			calls.remove(ref.getCallId(), verbs);
+			fail(verbs.values(), ended(ref.getCallId()));
+		}
+		return future;
+	}
+
+	/**
+	 * Resolves the future of the given verb. Events of calls that have already ended are
+	 * ignored.
+	 *
+	 * @param callId Id of the call
+	 * @param verbId Id of the verb
+	 * @param event Complete event
+	 */
+	public void complete(String callId, String verbId, VerbCompleteEvent event) {
+
+		if (ended.containsKey(callId)) {
+			return;
+		}
+		get(new VerbRef(callId, verbId)).complete(event);
+	}
+
+	/**
+	 * Removes all the futures of the given call. Verbs that have not completed are failed.
+	 *
+	 * @param callId Id of the call
+	 */
+	public void callEnded(String callId) {
+
+		ended.put(callId, Boolean.TRUE);
+		Map<String, VerbFuture> verbs = calls.remove(callId);
+		if (verbs != null) {
+			fail(verbs.values(), ended(callId));
+		}
+	}
+
+	private XmppException ended(String callId) {
+
+		return new XmppException(String.format("Call [%s] ended before the verb completed", callId));
+	}
+
+	/**
+	 * Removes all the futures. Verbs that have not completed are failed with the given cause.
+	 *
+	 * @param cause Reason of the failure
+	 */
+	public void clear(XmppException cause) {
+
+		for (String callId: calls.keySet()) {
+			Map<String, VerbFuture> verbs = calls.remove(callId);
+			if (verbs != null) {
+				fail(verbs.values(), cause);
+			}
+		}
+	}
+
+	private void fail(Collection<VerbFuture> futures, XmppException cause) {
+
+		for (VerbFuture future: futures) {
+			future.fail(cause);
+		}
+	}
+
+	/**
+	 * @return int Number of calls with verbs being tracked
+	 */
+	public int getCallsCount() {
+
+		return calls.size();
+	}
+}
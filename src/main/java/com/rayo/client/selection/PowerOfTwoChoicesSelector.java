@@ -0,0 +1,108 @@
+package com.rayo.client.selection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>Implements the {@link RayoNodeSelector} interface using the power of two choices
+ * algorithm. Two available nodes are picked at random and the one with the best load
+ * score is selected. This avoids the herd behaviour of always picking the least loaded
+ * node while still steering traffic away from slow or failing nodes.</p>
+ *
+ * <p>Nodes with their circuit breaker open are never selected. The selected node is
+ * acquired with {@link RayoNode#tryAcquire(String)}, and when another thread takes the last trial
+ * request of a node first the next best node is tried.</p>
+ */
+public class PowerOfTwoChoicesSelector implements RayoNodeSelector {
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_COOL_DOWN = 10000;
+
+	private final List<RayoNode> nodes;
+	private final Random random = new Random();
+
+	public PowerOfTwoChoicesSelector(Collection<String> jids) {
+
+		this(jids, DEFAULT_FAILURE_THRESHOLD, DEFAULT_COOL_DOWN);
+	}
+
+	/**
+	 * Creates a new selector
+	 *
+	 * @param jids JIDs of the Rayo servers or gateways
+	 * @param failureThreshold Consecutive failures that will open the circuit of a node
+	 * @param coolDownMillis Time in milliseconds that a node will be ignored after its circuit opens
+	 */
+	public PowerOfTwoChoicesSelector(Collection<String> jids, int failureThreshold, long coolDownMillis) {
+
+		if (jids == null || jids.isEmpty()) {
+			throw new IllegalArgumentException("At least one Rayo node is required");
+		}
+		List<RayoNode> list = new ArrayList<RayoNode>(jids.size());
+		for (String jid: jids) {
+			list.add(new RayoNode(jid, failureThreshold, coolDownMillis));
+		}
+		this.nodes = Collections.unmodifiableList(list);
+	}
+
+	@Override
+	public RayoNode select(String requestId) {
+
+		int size = nodes.size();
+		if (size == 1) {
+			RayoNode node = nodes.get(0);
+			return node.tryAcquire(requestId) ? node : null;
+		}
+
+		int first = random.nextInt(size);
+		int second = random.nextInt(size - 1);
+		if (second >= first) {
+			second++;
+		}
+		RayoNode a = nodes.get(first);
+		RayoNode b = nodes.get(second);
+		boolean aAvailable = a.isAvailable();
+		boolean bAvailable = b.isAvailable();
+		if (aAvailable && bAvailable) {
+			RayoNode best = a.getScore() <= b.getScore() ? a : b;
+			RayoNode other = best == a ? b : a;
+			if (best.tryAcquire(requestId)) {
+				return best;
+			} else if (other.tryAcquire(requestId)) {
+				return other;
+			}
+		} else if (aAvailable && a.tryAcquire(requestId)) {
+			return a;
+		} else if (bAvailable && b.tryAcquire(requestId)) {
+			return b;
+		}
+
+		// Both picks are out. Fall back to a full scan before giving up
+		List<RayoNode> candidates = new ArrayList<RayoNode>(nodes);
+		while (!candidates.isEmpty()) {
+			RayoNode best = null;
+			for (RayoNode node: candidates) {
+				if (node.isAvailable() && (best == null || node.getScore() < best.getScore())) {
+					best = node;
+				}
+			}
+			if (best == null) {
+				return null;
+			}
+			if (best.tryAcquire(requestId)) {
+				return best;
+			}
+			candidates.remove(best);
+		}
+		return null;
+	}
+
+	@Override
+	public Collection<RayoNode> getNodes() {
+
+		return nodes;
+	}
+}
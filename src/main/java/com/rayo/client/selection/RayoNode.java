@@ -0,0 +1,203 @@
+package com.rayo.client.selection;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Keeps the runtime statistics of a Rayo server or gateway JID that dial requests
+ * can be sent to. Round-trip times and error rates are tracked as exponentially
+ * weighted moving averages so a node that degrades is noticed after a few requests
+ * while a single slow response does not ban it.</p>
+ *
+ * <p>Every node has a simple circuit breaker. After a number of consecutive failures the
+ * circuit opens and the node is not selected until the cool down period expires. Then a
+ * single trial request is let through. If it succeeds the circuit closes again, otherwise
+ * it stays open for another cool down period. The trial is claimed with a compare and set,
+ * so only one of the threads selecting the node at the same time gets it.</p>
+ *
+ * <p>Requests are identified by their IQ id. Only the trial request closes or reopens the
+ * circuit. Requests that were sent before the circuit opened still count towards the
+ * statistics when they finish, but they do not change the state of the circuit.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class RayoNode {
+
+	private static final double DECAY = 0.2;
+
+	private final String jid;
+	private final int failureThreshold;
+	private final long coolDownMillis;
+
+	private final AtomicInteger outstanding = new AtomicInteger();
+	// Id of the trial request, or null if there is none in flight
+	private final AtomicReference<String> trial = new AtomicReference<String>();
+
+	private double averageLatencyNanos = 0;
+	private double errorRate = 0;
+	private int consecutiveFailures = 0;
+	private long openedAt = -1;
+
+	private long requests;
+	private long errors;
+
+	public RayoNode(String jid, int failureThreshold, long coolDownMillis) {
+
+		if (jid == null) {
+			throw new IllegalArgumentException("Invalid argument: NULL");
+		}
+		this.jid = jid;
+		this.failureThreshold = failureThreshold;
+		this.coolDownMillis = coolDownMillis;
+	}
+
+	public String getJid() {
+
+		return jid;
+	}
+
+	/**
+	 * Tells whether this node can receive requests at this moment. A node with its circuit
+	 * open will become available once the cool down period expires, but only for a single
+	 * trial request.
+	 *
+	 * @return boolean <code>true</code> if the node may be selected
+	 */
+	public synchronized boolean isAvailable() {
+
+		if (openedAt < 0) {
+			return true;
+		}
+		return trial.get() == null && System.currentTimeMillis() - openedAt >= coolDownMillis;
+	}
+
+	/**
+	 * Acquires this node for a request if it is available. While the circuit is open, only
+	 * the first caller after the cool down period gets the trial request. Every successful
+	 * call must be followed by {@link #requestFinished(String, long, boolean)}.
+	 *
+	 * @param requestId Id of the request
+	 *
+	 * @return boolean <code>true</code> if the request can be sent to this node
+	 */
+	public boolean tryAcquire(String requestId) {
+
+		boolean open;
+		synchronized(this) {
+			open = openedAt >= 0;
+			if (open && System.currentTimeMillis() - openedAt < coolDownMillis) {
+				return false;
+			}
+		}
+		if (open && !trial.compareAndSet(null, requestId)) {
+			return false;
+		}
+		outstanding.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Tells whether the circuit breaker of this node is currently open.
+	 *
+	 * @return boolean <code>true</code> if the circuit is open
+	 */
+	public synchronized boolean isCircuitOpen() {
+
+		return openedAt >= 0;
+	}
+
+	/**
+	 * Returns the load score of this node. Lower is better. The score weights the average
+	 * round-trip time with the number of outstanding requests and penalizes nodes that
+	 * have been returning errors.
+	 *
+	 * @return double Load score
+	 */
+	public synchronized double getScore() {
+
+		// Unknown latency is treated as 1ms so fresh nodes get traffic and get measured
+		double latency = averageLatencyNanos > 0 ? averageLatencyNanos : 1000000;
+		return latency * (outstanding.get() + 1) / Math.max(0.05, 1 - errorRate);
+	}
+
+	/**
+	 * Must be invoked right before sending a request to this node when it has not been
+	 * acquired through {@link #tryAcquire(String)}.
+	 *
+	 * @param requestId Id of the request
+	 */
+	public void requestStarted(String requestId) {
+
+		outstanding.incrementAndGet();
+		synchronized(this) {
+			if (openedAt >= 0) {
+				trial.compareAndSet(null, requestId);
+			}
+		}
+	}
+
+	/**
+	 * Must be invoked once a request sent to this node has finished, either successfully
+	 * or not. Timeouts are counted as failures. It must be invoked once per request.
+	 *
+	 * @param requestId Id of the request
+	 * @param latencyNanos Round-trip time of the request in nanoseconds
+	 * @param failed <code>true</code> if the request failed or timed out
+	 */
+	public void requestFinished(String requestId, long latencyNanos, boolean failed) {
+
+		outstanding.decrementAndGet();
+		synchronized(this) {
+			requests++;
+			averageLatencyNanos = averageLatencyNanos == 0 ? latencyNanos :
+				(1 - DECAY) * averageLatencyNanos + DECAY * latencyNanos;
+			errorRate = (1 - DECAY) * errorRate + (failed ? DECAY : 0);
+			String current = trial.get();
+			boolean wasTrial = requestId != null && requestId.equals(current) && trial.compareAndSet(current, null);
+			if (failed) {
+				errors++;
+				consecutiveFailures++;
+				if (openedAt < 0 ? consecutiveFailures >= failureThreshold : wasTrial) {
+					openedAt = System.currentTimeMillis();
+				}
+			} else {
+				consecutiveFailures = 0;
+				if (wasTrial) {
+					openedAt = -1;
+				}
+			}
+		}
+	}
+
+	public int getOutstandingRequests() {
+
+		return outstanding.get();
+	}
+
+	public synchronized long getAverageLatencyNanos() {
+
+		return (long)averageLatencyNanos;
+	}
+
+	public synchronized double getErrorRate() {
+
+		return errorRate;
+	}
+
+	public synchronized long getRequests() {
+
+		return requests;
+	}
+
+	public synchronized long getErrors() {
+
+		return errors;
+	}
+
+	@Override
+	public String toString() {
+
+		return String.format("RayoNode[%s, latency=%sus, outstanding=%s, errorRate=%.2f, open=%s]",
+				jid, getAverageLatencyNanos() / 1000, getOutstandingRequests(), getErrorRate(), isCircuitOpen());
+	}
+}
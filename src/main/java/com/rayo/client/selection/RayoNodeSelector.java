@@ -0,0 +1,31 @@
+package com.rayo.client.selection;
+
+import java.util.Collection;
+
+/**
+ * <p>A Rayo node selector decides which Rayo server or gateway will receive the next
+ * request that is not bound to an existing call, like for example a dial command.</p>
+ *
+ * <p>Implementations must be thread safe as the same selector will be used concurrently
+ * by every thread dialing through a {@link com.rayo.client.RayoClient}.</p>
+ */
+public interface RayoNodeSelector {
+
+	/**
+	 * Selects the node that should receive the next request. The node is returned already
+	 * acquired through {@link RayoNode#tryAcquire(String)}, so the caller must report the
+	 * outcome of the request with {@link RayoNode#requestFinished(String, long, boolean)}.
+	 *
+	 * @param requestId Id of the request that will be sent to the node
+	 *
+	 * @return RayoNode Selected node or <code>null</code> if there is no available node
+	 */
+	RayoNode select(String requestId);
+
+	/**
+	 * Returns all the nodes handled by this selector
+	 *
+	 * @return Collection<RayoNode> Nodes
+	 */
+	Collection<RayoNode> getNodes();
+}
@@ -0,0 +1,93 @@
+package com.rayo.client.trace;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Tracer that logs one debug line per stage of every stanza with its id, call id, element 
+ * name and durations in microseconds. Lines of the same stanza can be grouped by id to see 
+ * where its latency went.</p>
+ */
+public class Slf4jStanzaTracer extends StanzaTracerAdapter {
+
+	private final Logger log;
+	
+	public Slf4jStanzaTracer() {
+		
+		this(LoggerFactory.getLogger(Slf4jStanzaTracer.class));
+	}
+	
+	public Slf4jStanzaTracer(Logger log) {
+		
+		this.log = log;
+	}
+	
+	@Override
+	public void received(XmppObject object, long parseNanos) {
+
+		if (log.isDebugEnabled()) {
+			log.debug(String.format("[received] %s parse=%sus", 
+					describe(object, object.attribute("from")), micros(parseNanos)));
+		}
+	}
+	
+	@Override
+	public void filtered(XmppObject object, long queuedNanos, long filtersNanos) {
+
+		if (log.isDebugEnabled()) {
+			log.debug(String.format("[filtered] %s queued=%sus filters=%sus", 
+					describe(object, object.attribute("from")), micros(queuedNanos), micros(filtersNanos)));
+		}
+	}
+	
+	@Override
+	public void delivered(XmppObject object, long queuedNanos, long listenersNanos) {
+
+		if (log.isDebugEnabled()) {
+			log.debug(String.format("[delivered] %s queued=%sus listeners=%sus", 
+					describe(object, object.attribute("from")), micros(queuedNanos), micros(listenersNanos)));
+		}
+	}
+	
+	@Override
+	public void sent(XmppObject object, long permitNanos, long enqueueNanos) {
+
+		if (log.isDebugEnabled()) {
+			log.debug(String.format("[sent] %s permit=%sus enqueue=%sus", 
+					describe(object, object.attribute("to")), micros(permitNanos), micros(enqueueNanos)));
+		}
+	}
+	
+	@Override
+	public void written(XmppObject object, long queuedNanos, long writeNanos) {
+
+		if (log.isDebugEnabled()) {
+			log.debug(String.format("[written] %s queued=%sus write=%sus", 
+					describe(object, object.attribute("to")), micros(queuedNanos), micros(writeNanos)));
+		}
+	}
+	
+	@Override
+	public void answered(XmppObject request, XmppObject response, long roundTripNanos) {
+
+		if (log.isDebugEnabled()) {
+			log.debug(String.format("[%s] %s rtt=%sus", response == null ? "timeout" : "answered", 
+					describe(request, request.attribute("to")), micros(roundTripNanos)));
+		}
+	}
+	
+	private String describe(XmppObject object, String jid) {
+		
+		return String.format("id=%s call=%s element=%s", 
+				object.getId(), getCallId(jid), getElementName(object));
+	}
+	
+	private long micros(long nanos) {
+		
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
@@ -0,0 +1,77 @@
+package com.rayo.client.trace;
+
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Receives an event every time a stanza goes through one of the stages of the client, 
+ * with the time it spent on that stage, so the path of a stanza and where its latency went 
+ * can be rebuilt: parsing, waiting on the dispatcher queues, running the filters and the 
+ * listeners, waiting on the writer queue and writing to the socket.</p>
+ * 
+ * <p>Tracers are set on a connection with 
+ * {@link com.rayo.client.SimpleXmppConnection#setTracer(StanzaTracer)}. When there is no 
+ * tracer set, which is the default, no clocks are read and no events are created. Tracers 
+ * are called from the reader, dispatcher and writer threads and from the threads that send 
+ * stanzas, so they must be thread safe and they should not block. Durations are in 
+ * nanoseconds.</p>
+ * 
+ * <p>This is the place to plug a bridge to Java Flight Recorder events or to any other 
+ * tracing system on runtimes that have them.</p>
+ */
+public interface StanzaTracer {
+
+	/**
+	 * An incoming stanza has been parsed. This is called on the reader thread.
+	 * 
+	 * @param object Incoming stanza
+	 * @param parseNanos Time since the start tag of the stanza was read until it was parsed, 
+	 * including the socket reads needed to get the rest of the stanza
+	 */
+	public void received(XmppObject object, long parseNanos);
+	
+	/**
+	 * An incoming stanza has gone through the filters
+	 * 
+	 * @param object Incoming stanza
+	 * @param queuedNanos Time the stanza waited for the filters thread
+	 * @param filtersNanos Time spent running all the filters
+	 */
+	public void filtered(XmppObject object, long queuedNanos, long filtersNanos);
+	
+	/**
+	 * An incoming stanza has been delivered to the stanza listeners. Presences released 
+	 * by the presence coalescer are not reported.
+	 * 
+	 * @param object Incoming stanza
+	 * @param queuedNanos Time the stanza waited for the listeners thread
+	 * @param listenersNanos Time spent running all the listeners
+	 */
+	public void delivered(XmppObject object, long queuedNanos, long listenersNanos);
+	
+	/**
+	 * A stanza has been handed to the writer
+	 * 
+	 * @param object Outgoing stanza
+	 * @param permitNanos Time the sender waited for a permit of the request limiter
+	 * @param enqueueNanos Time spent serializing the stanza and queuing it for the writer
+	 */
+	public void sent(XmppObject object, long permitNanos, long enqueueNanos);
+	
+	/**
+	 * A stanza has been written to the socket
+	 * 
+	 * @param object Outgoing stanza
+	 * @param queuedNanos Time the stanza waited for the writer thread
+	 * @param writeNanos Time spent writing the stanza to the socket buffer
+	 */
+	public void written(XmppObject object, long queuedNanos, long writeNanos);
+	
+	/**
+	 * A synchronous request has got its answer or has timed out
+	 * 
+	 * @param request Request
+	 * @param response Answer or <code>null</code> if the request timed out
+	 * @param roundTripNanos Time since the request was sent until the answer was picked up
+	 */
+	public void answered(XmppObject request, XmppObject response, long roundTripNanos);
+}
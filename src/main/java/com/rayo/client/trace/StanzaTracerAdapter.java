@@ -0,0 +1,67 @@
+package com.rayo.client.trace;
+
+import org.dom4j.Element;
+
+import com.rayo.client.xmpp.stanza.AbstractXmppObject;
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+/**
+ * <p>Empty implementation of {@link StanzaTracer} with helpers to extract the data tracers 
+ * usually want from a stanza. Extend it to handle only the events you are interested in.</p>
+ */
+public class StanzaTracerAdapter implements StanzaTracer {
+
+	@Override
+	public void received(XmppObject object, long parseNanos) {}
+	
+	@Override
+	public void filtered(XmppObject object, long queuedNanos, long filtersNanos) {}
+	
+	@Override
+	public void delivered(XmppObject object, long queuedNanos, long listenersNanos) {}
+	
+	@Override
+	public void sent(XmppObject object, long permitNanos, long enqueueNanos) {}
+	
+	@Override
+	public void written(XmppObject object, long queuedNanos, long writeNanos) {}
+	
+	@Override
+	public void answered(XmppObject request, XmppObject response, long roundTripNanos) {}
+	
+	/**
+	 * @param jid JID of a call or a verb, e.g. the <code>from</code> of an incoming stanza 
+	 * or the <code>to</code> of an outgoing one
+	 * 
+	 * @return String Call id, or <code>null</code> if the JID does not have a node
+	 */
+	protected static String getCallId(String jid) {
+		
+		if (jid == null) {
+			return null;
+		}
+		int at = jid.indexOf('@');
+		return at == -1 ? null : jid.substring(0, at);
+	}
+	
+	/**
+	 * @param object Stanza
+	 * 
+	 * @return String Name of the stanza element followed by the name of its first child, 
+	 * e.g. <code>iq/dial</code> or <code>presence/answered</code>
+	 */
+	protected static String getElementName(XmppObject object) {
+		
+		if (object instanceof AbstractXmppObject) {
+			// Does not build the dom4j element of compact stanzas
+			String child = ((AbstractXmppObject)object).getChildName();
+			return child == null ? object.getStanzaName() : object.getStanzaName() + "/" + child;
+		}
+		Element element = object.getElement();
+		if (element == null) {
+			return object.getStanzaName();
+		}
+		Element child = object.getFirstChild();
+		return child == null ? element.getName() : element.getName() + "/" + child.getName();
+	}
+}
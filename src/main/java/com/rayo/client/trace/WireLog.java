@@ -0,0 +1,278 @@
+package com.rayo.client.trace;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dom4j.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rayo.client.xmpp.stanza.XmppObject;
+import com.rayo.client.xmpp.stanza.sasl.AuthMechanism;
+import com.rayo.client.xmpp.stanza.sasl.Response;
+
+/**
+ * <p>Logs the stanzas sent to and received from the server at debug level. They are logged on
+ * the categories used by earlier releases, so existing logging configurations keep working:
+ * received stanzas on <code>com.rayo.client.io.XmppReaderWorker</code> and sent stanzas on
+ * <code>com.rayo.client.SimpleXmppConnection</code>.</p>
+ *
+ * <ul>
+ * 	<li><b>Lazy</b>. When debug is not enabled for the logger, logging a stanza is a single
+ * 	level check. Nothing is formatted or serialized.</li>
+ * 	<li><b>Off-thread</b>. Stanzas are put on a bounded queue and serialized and written by
+ * 	a background thread, so the reader and the senders never wait for the appenders. When
+ * 	the queue is full lines are dropped and counted instead of blocking.</li>
+ * 	<li><b>Sampling</b>. With a sample rate of N only the stanzas of one in every N calls are
+ * 	logged. Every stanza of a sampled call is logged, so its whole conversation can be
+ * 	followed. Stanzas that do not belong to a call are always logged.</li>
+ * 	<li><b>Redaction</b>. The text of SASL auth and response elements, which carries the
+ * 	credentials, is masked unless redaction is disabled.</li>
+ * </ul>
+ *
+ * <p>As stanzas are serialized later on the background thread, a stanza that is modified
+ * right after being sent or dispatched may be logged with the modifications.</p>
+ *
+ * <p>Once shut down, the background thread is started again if more stanzas are logged. The
+ * new thread waits for the previous one to write what was queued before, so lines are
+ * never written by two threads at the same time nor out of order.</p>
+ */
+public class WireLog {
+
+	public static final String INBOUND_LOGGER_NAME = "com.rayo.client.io.XmppReaderWorker";
+	public static final String OUTBOUND_LOGGER_NAME = "com.rayo.client.SimpleXmppConnection";
+	public static final int DEFAULT_QUEUE_SIZE = 10000;
+
+	static final String REDACTED = "[REDACTED]";
+
+	private static final Logger log = LoggerFactory.getLogger(WireLog.class);
+
+	private final Logger inbound;
+	private final Logger outbound;
+	private final BlockingQueue<Entry> queue;
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile int sampleRate = 1;
+	private volatile boolean redact = true;
+	private volatile Thread thread;
+	private Thread stopping;
+
+	public WireLog() {
+
+		this(LoggerFactory.getLogger(INBOUND_LOGGER_NAME), LoggerFactory.getLogger(OUTBOUND_LOGGER_NAME), DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * @param wire Logger all the stanzas are written to
+	 * @param queueSize Lines that can be waiting to be written
+	 */
+	public WireLog(Logger wire, int queueSize) {
+
+		this(wire, wire, queueSize);
+	}
+
+	/**
+	 * @param inbound Logger the stanzas received are written to
+	 * @param outbound Logger the stanzas sent are written to
+	 * @param queueSize Lines that can be waiting to be written
+	 */
+	public WireLog(Logger inbound, Logger outbound, int queueSize) {
+
+		this.inbound = inbound;
+		this.outbound = outbound;
+		this.queue = new ArrayBlockingQueue<Entry>(queueSize);
+	}
+
+	/**
+	 * @return boolean Whether stanzas are being logged at all
+	 */
+	public boolean isEnabled() {
+
+		return inbound.isDebugEnabled() || outbound.isDebugEnabled();
+	}
+
+	/**
+	 * Logs only the stanzas of one of every <code>sampleRate</code> calls. Defaults to 1,
+	 * which logs every call.
+	 */
+	public void setSampleRate(int sampleRate) {
+
+		if (sampleRate < 1) {
+			throw new IllegalArgumentException("Sample rate must be 1 or greater");
+		}
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Whether SASL credentials are masked. Defaults to <code>true</code>.
+	 */
+	public void setRedact(boolean redact) {
+
+		this.redact = redact;
+	}
+
+	/**
+	 * @return long Lines dropped because the queue was full
+	 */
+	public long getDropped() {
+
+		return dropped.get();
+	}
+
+	/**
+	 * Logs a stanza received from the server
+	 */
+	public void inbound(XmppObject object) {
+
+		if (inbound.isDebugEnabled() && isSampled(object.attribute("from"))) {
+			enqueue(new Entry(inbound, "[IN ]", object, null));
+		}
+	}
+
+	/**
+	 * Logs a stanza sent to the server
+	 */
+	public void outbound(XmppObject object) {
+
+		if (outbound.isDebugEnabled() && isSampled(object.attribute("to"))) {
+			enqueue(new Entry(outbound, "[OUT]", object, null));
+		}
+	}
+
+	/**
+	 * Logs a stream event, e.g. a new stream or a parser reset
+	 */
+	public void inbound(String text) {
+
+		if (inbound.isDebugEnabled()) {
+			enqueue(new Entry(inbound, "[IN ]", null, text));
+		}
+	}
+
+	private boolean isSampled(String jid) {
+
+		int sampleRate = this.sampleRate;
+		if (sampleRate == 1) {
+			return true;
+		}
+		String callId = StanzaTracerAdapter.getCallId(jid);
+		return callId == null || (callId.hashCode() & Integer.MAX_VALUE) % sampleRate == 0;
+	}
+
+	private void enqueue(Entry entry) {
+
+		if (thread == null) {
+			start();
+		}
+		if (!queue.offer(entry)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	private synchronized void start() {
+
+		if (thread != null) {
+			return;
+		}
+		final Thread previous = stopping;
+		stopping = null;
+		thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+
+				awaitTermination(previous);
+				try {
+					while (!Thread.currentThread().isInterrupted()) {
+						write(queue.take());
+					}
+				} catch (InterruptedException e) {
+					// Shutting down
+				}
+				Entry entry;
+				while ((entry = queue.poll()) != null) {
+					write(entry);
+				}
+			}
+		}, "rayo-wire-log");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Waits for a thread stopped by {@link #shutdown()} to write the lines it is draining
+	 */
+	private void awaitTermination(Thread previous) {
+
+		if (previous == null) {
+			return;
+		}
+		boolean interrupted = false;
+		while (previous.isAlive()) {
+			try {
+				previous.join();
+			} catch (InterruptedException e) {
+				// Shut down while waiting, the queue is drained once the previous thread is done
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void write(Entry entry) {
+
+		try {
+			entry.logger.debug(entry.direction + " [" + format(entry) + "]");
+		} catch (Exception e) {
+			log.error("Error writing to the wire log", e);
+		}
+	}
+
+	private String format(Entry entry) {
+
+		XmppObject object = entry.object;
+		if (object == null) {
+			return entry.text;
+		}
+		if (redact && (object instanceof AuthMechanism || object instanceof Response) && object.getElement() != null) {
+			Element copy = object.getElement().createCopy();
+			copy.setText(REDACTED);
+			return copy.asXML();
+		}
+		return object.toString();
+	}
+
+	/**
+	 * Writes the lines still queued and stops the background thread. It is started again if
+	 * more stanzas are logged.
+	 */
+	public synchronized void shutdown() {
+
+		Thread thread = this.thread;
+		if (thread == null) {
+			return;
+		}
+		this.thread = null;
+		stopping = thread;
+		thread.interrupt();
+	}
+
+	private static class Entry {
+
+		final Logger logger;
+		final String direction;
+		final XmppObject object;
+		final String text;
+
+		Entry(Logger logger, String direction, XmppObject object, String text) {
+
+			this.logger = logger;
+			this.direction = direction;
+			this.object = object;
+			this.text = text;
+		}
+	}
+}
@@ -2,6 +2,13 @@ package com.rayo.client.util;
 
 import java.io.Serializable;
 
+/**
+ * <p>A JID parsed once into its node, domain and resource. Domains are taken from the 
+ * {@link SymbolTable}, so the JIDs of every call on a server share their domain string.</p>
+ * 
+ * <p>The string form is kept while the parts are not modified, so <code>toString</code> does 
+ * not build it again.</p>
+ */
 public class JIDImpl implements JID, Serializable {
 
   private static final long serialVersionUID = 1L;
@@ -12,25 +19,56 @@ public class JIDImpl implements JID, Serializable {
 
   private String resource;
 
+  private transient String jid;
+
   public JIDImpl(String stringJID) {
 
-    int atIndex = stringJID.indexOf("@");
+    int atIndex = stringJID.indexOf('@');
 
     if (atIndex > 0) {
       node = stringJID.substring(0, atIndex);
     }
 
-    int slashIndex = stringJID.indexOf("/");
+    int slashIndex = stringJID.indexOf('/');
 
     if (slashIndex > 0) {
       resource = stringJID.substring(slashIndex + 1);
-      domain = stringJID.substring(atIndex + 1, slashIndex);
+      domain = SymbolTable.symbol(stringJID.substring(atIndex + 1, slashIndex));
     }
     else {
-      domain = stringJID.substring(atIndex + 1);
+      domain = SymbolTable.symbol(stringJID.substring(atIndex + 1));
+    }
+
+    // Inputs like "@domain" or "node@domain/" are written back without the empty parts
+    if (length() == stringJID.length()) {
+      jid = stringJID;
     }
   }
 
+  /**
+   * @param node Node or <code>null</code>
+   * @param domain Domain
+   * @param resource Resource or <code>null</code>
+   */
+  public JIDImpl(String node, String domain, String resource) {
+
+    this.node = node;
+    this.domain = domain;
+    this.resource = resource;
+  }
+
+  private int length() {
+
+    int length = domain.length();
+    if (node != null && node.length() > 0) {
+      length += node.length() + 1;
+    }
+    if (resource != null && resource.length() > 0) {
+      length += resource.length() + 1;
+    }
+    return length;
+  }
+
   @Override
   public Object clone() {
     return new JIDImpl(toString());
@@ -38,9 +76,9 @@ public class JIDImpl implements JID, Serializable {
 
   public JID getBareJID() {
     if (node != null && node.length() > 0) {
-      return new JIDImpl(node + "@" + domain);
+      return new JIDImpl(node, domain, null);
     }
-    return new JIDImpl(domain);
+    return new JIDImpl(null, domain, null);
   }
 
   public String getDomain() {
@@ -57,14 +95,17 @@ public class JIDImpl implements JID, Serializable {
 
   public void setDomain(String domain) {
     this.domain = domain;
+    jid = null;
   }
 
   public void setNode(String node) {
     this.node = node;
+    jid = null;
   }
 
   public void setResource(String resource) {
     this.resource = resource;
+    jid = null;
   }
 
   @Override
@@ -109,18 +150,26 @@ public class JIDImpl implements JID, Serializable {
 
   @Override
   public String toString() {
-    if (node != null && node.length() > 0) {
-      StringBuffer sb = new StringBuffer();
-      if (resource != null && resource.length() > 0) {
-        return sb.append(node).append("@").append(domain).append("/").append(resource).toString();
-      }
-      return sb.append(node).append("@").append(domain).toString();
+    String jid = this.jid;
+    if (jid != null) {
+      return jid;
     }
-    else if (resource != null && resource.length() > 0) {
-      StringBuffer sb = new StringBuffer();
-      return sb.append(domain).append("/").append(resource).toString();
+    boolean hasNode = node != null && node.length() > 0;
+    boolean hasResource = resource != null && resource.length() > 0;
+    if (!hasNode && !hasResource) {
+      return domain;
     }
-    return domain;
+    StringBuilder sb = new StringBuilder();
+    if (hasNode) {
+      sb.append(node).append('@');
+    }
+    sb.append(domain);
+    if (hasResource) {
+      sb.append('/').append(resource);
+    }
+    jid = sb.toString();
+    this.jid = jid;
+    return jid;
   }
 
 }
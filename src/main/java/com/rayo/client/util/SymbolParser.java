@@ -0,0 +1,24 @@
+package com.rayo.client.util;
+
+import org.xmlpull.mxp1.MXParser;
+
+/**
+ * <p>Pull parser that takes element names, attribute names, prefixes and namespaces from
+ * the {@link SymbolTable}, so they are not allocated again for every stanza. Attribute
+ * values and text are not affected.</p>
+ */
+public class SymbolParser extends MXParser {
+
+	@Override
+	protected String newString(char[] cbuf, int off, int len) {
+
+		return SymbolTable.symbol(cbuf, off, len);
+	}
+
+	@Override
+	protected String newStringIntern(char[] cbuf, int off, int len) {
+
+		// Namespaces. The parser only needs them to be the same instance every time.
+		return SymbolTable.symbol(cbuf, off, len);
+	}
+}
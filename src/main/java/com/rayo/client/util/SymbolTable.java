@@ -0,0 +1,220 @@
+package com.rayo.client.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.dom4j.DocumentFactory;
+import org.dom4j.QName;
+
+import com.rayo.client.xmpp.Namespaces;
+
+/**
+ * <p>Shared instances of the element names, attribute names, prefixes and namespaces found
+ * in the stanzas received from the server, and of their dom4j QNames. It is shared by all
+ * the connections in the JVM.</p>
+ *
+ * <p>Names can be looked up straight from the parser buffer, so a name that has been seen
+ * before does not allocate a new String. As every parsed name is then the same instance,
+ * comparing it with <code>equals</code> returns on the first reference check. The usual
+ * XMPP and Rayo names are registered up front with the same instances as the constants in
+ * the code.</p>
+ *
+ * <p>The table is bounded. Once it is full, new names are returned as new Strings and are
+ * not registered, so a server sending random names cannot grow it forever.</p>
+ */
+public final class SymbolTable {
+
+	private static final int CAPACITY = 8192;
+	private static final int MAX_SYMBOLS = CAPACITY / 2;
+	private static final int MAX_SYMBOL_LENGTH = 256;
+
+	private static final String[] symbols = new String[CAPACITY];
+	private static int count;
+
+	private static final DocumentFactory factory = DocumentFactory.getInstance();
+	private static final ConcurrentMap<String, ConcurrentMap<String, QName>> qnames =
+			new ConcurrentHashMap<String, ConcurrentMap<String, QName>>();
+	private static final ConcurrentMap<String, QName> attributeNames = new ConcurrentHashMap<String, QName>();
+
+	static {
+		String[] known = new String[] {
+			"stream", "features", "iq", "presence", "message", "error", "type", "id", "from", "to",
+			"xmlns", "xml", "lang", "mechanisms", "mechanism", "challenge", "success", "failure",
+			"compression", "compressed", "method", "starttls", "bind", "session", "ping", "query",
+			"jid", "resource", "body", "subject", "thread", "status", "show", "priority", "text",
+			"result", "get", "set", "unavailable",
+			"offer", "ref", "answered", "ringing", "end", "complete", "header", "name", "value",
+			"joined", "unjoined", "started-speaking", "stopped-speaking", "hangup",
+			Namespaces.STREAMS, Namespaces.CLIENT, Namespaces.ROSTER, Namespaces.SASL, Namespaces.BIND,
+			Namespaces.SESSION, Namespaces.REGISTER, Namespaces.AUTH, Namespaces.PING, Namespaces.RAYO,
+			"urn:xmpp:rayo:ext:1", "urn:xmpp:rayo:ext:complete:1", "urn:ietf:params:xml:ns:xmpp-stanzas",
+			"http://www.w3.org/XML/1998/namespace"
+		};
+		for (String symbol: known) {
+			symbol(symbol);
+		}
+	}
+
+	private SymbolTable() {}
+
+	/**
+	 * Returns the shared instance of the name in the given buffer range, allocating a new
+	 * String only when the name has not been seen before
+	 */
+	public static String symbol(char[] buffer, int offset, int length) {
+
+		if (length > MAX_SYMBOL_LENGTH) {
+			return new String(buffer, offset, length);
+		}
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + buffer[i];
+		}
+		String symbol = find(buffer, offset, length, hash);
+		if (symbol != null) {
+			return symbol;
+		}
+		return add(new String(buffer, offset, length), hash);
+	}
+
+	/**
+	 * Returns the shared instance of the given name
+	 */
+	public static String symbol(String name) {
+
+		if (name == null || name.length() > MAX_SYMBOL_LENGTH) {
+			return name;
+		}
+		int hash = name.hashCode();
+		String[] symbols = SymbolTable.symbols;
+		for (int i = hash & (CAPACITY - 1); ; i = (i + 1) & (CAPACITY - 1)) {
+			String symbol = symbols[i];
+			if (symbol == null) {
+				break;
+			}
+			if (symbol == name || (symbol.hashCode() == hash && symbol.equals(name))) {
+				return symbol;
+			}
+		}
+		return add(name, hash);
+	}
+
+	private static String find(char[] buffer, int offset, int length, int hash) {
+
+		String[] symbols = SymbolTable.symbols;
+		for (int i = hash & (CAPACITY - 1); ; i = (i + 1) & (CAPACITY - 1)) {
+			String symbol = symbols[i];
+			if (symbol == null) {
+				return null;
+			}
+			if (symbol.hashCode() == hash && matches(symbol, buffer, offset, length)) {
+				return symbol;
+			}
+		}
+	}
+
+	private static boolean matches(String symbol, char[] buffer, int offset, int length) {
+
+		if (symbol.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (symbol.charAt(i) != buffer[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static synchronized String add(String name, int hash) {
+
+		// Symbols are never removed, so a free slot ends the probe
+		int i = hash & (CAPACITY - 1);
+		for (; symbols[i] != null; i = (i + 1) & (CAPACITY - 1)) {
+			if (symbols[i].equals(name)) {
+				return symbols[i];
+			}
+		}
+		if (count >= MAX_SYMBOLS) {
+			return name;
+		}
+		symbols[i] = name;
+		count++;
+		return name;
+	}
+
+	/**
+	 * @return int Number of names registered
+	 */
+	public static synchronized int size() {
+
+		return count;
+	}
+
+	/**
+	 * Returns the shared dom4j QName of an unprefixed name in a namespace. Lookups do not
+	 * lock, unlike the QName cache of the dom4j document factory.
+	 *
+	 * @param name Local name
+	 * @param namespace Namespace or an empty string
+	 */
+	public static QName qname(String name, String namespace) {
+
+		if (namespace == null) {
+			namespace = "";
+		}
+		ConcurrentMap<String, QName> names = qnames.get(namespace);
+		if (names == null) {
+			if (qnames.size() >= MAX_SYMBOLS) {
+				return factory.createQName(name, namespace);
+			}
+			ConcurrentMap<String, QName> created = new ConcurrentHashMap<String, QName>();
+			names = qnames.putIfAbsent(symbol(namespace), created);
+			if (names == null) {
+				names = created;
+			}
+		}
+		QName qname = names.get(name);
+		if (qname == null) {
+			qname = factory.createQName(name, namespace);
+			if (names.size() < MAX_SYMBOLS) {
+				names.putIfAbsent(symbol(name), qname);
+			}
+		}
+		return qname;
+	}
+
+	/**
+	 * Returns the shared dom4j QName of an unprefixed attribute. Unlike element names, these
+	 * have no namespace at all, which is how dom4j writes them without an <code>xmlns</code>.
+	 *
+	 * @param name Local name of the attribute
+	 */
+	public static QName qname(String name) {
+
+		QName qname = attributeNames.get(name);
+		if (qname == null) {
+			qname = factory.createQName(name);
+			if (attributeNames.size() < MAX_SYMBOLS) {
+				attributeNames.putIfAbsent(symbol(name), qname);
+			}
+		}
+		return qname;
+	}
+
+	/**
+	 * Returns the dom4j QName of a name, with or without prefix
+	 *
+	 * @param name Local name
+	 * @param prefix Prefix or <code>null</code>
+	 * @param namespace Namespace or an empty string
+	 */
+	public static QName qname(String name, String prefix, String namespace) {
+
+		if (prefix == null) {
+			return qname(name, namespace);
+		}
+		// Prefixed names are rare, the dom4j cache is good enough for them
+		return factory.createQName(name, prefix, namespace);
+	}
+}
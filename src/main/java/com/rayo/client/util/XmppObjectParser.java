@@ -21,6 +21,7 @@ import com.rayo.client.UnknownXmppObjectException;
 import com.rayo.client.xmpp.Namespaces;
 import com.rayo.client.xmpp.extensions.Extension;
 import com.rayo.client.xmpp.stanza.Bind;
+import com.rayo.client.xmpp.stanza.CompactElement;
 import com.rayo.client.xmpp.stanza.Error;
 import com.rayo.client.xmpp.stanza.IQ;
 import com.rayo.client.xmpp.stanza.Message;
@@ -40,6 +41,9 @@ public class XmppObjectParser {
 
 	static DocumentFactory df = DocumentFactory.getInstance();
 	
+	private static final int MAX_SHARED_VALUE_LENGTH = 128;
+	private static final String[] sharedValues = new String[4096];
+	
     /**
      * Namespace used to store packet properties.
      */
@@ -340,10 +344,169 @@ public class XmppObjectParser {
 		stanza.setChild(extension);
 	}
 
+    /**
+     * Parses an IQ packet into a compact IQ, whose dom4j element is only built if somebody 
+     * asks for it.
+     *
+     * @param parser the XML parser, positioned at the start of an IQ packet.
+     * @return an IQ object.
+     * @throws Exception if an exception occurs while parsing the packet.
+     */
+    public static IQ parseCompactIQ(XmlPullParser parser) throws Exception {
+    	
+    	// Same validation as parseIQ
+    	IQ.Type.valueOf(parser.getAttributeValue("", "type"));
+    	return new IQ(parseCompactElement(parser, 0, null));
+    }
+    
+    /**
+     * Parses a presence packet into a compact presence, whose dom4j element is only built if 
+     * somebody asks for it.
+     *
+     * @param parser the XML parser, positioned at the start of a presence packet.
+     * @return a Presence packet.
+     * @throws Exception if an exception occurs while parsing the packet.
+     */
+    public static Presence parseCompactPresence(XmlPullParser parser) throws Exception {
+    	
+    	String skip = null;
+        String typeString = parser.getAttributeValue("", "type");
+        if (typeString != null) {
+            try {
+                Presence.Type.valueOf(typeString);
+            }
+            catch (IllegalArgumentException iae) {
+            	if (!typeString.equals("")) {
+            		System.err.println("Found invalid presence type " + typeString);
+            	}
+                // parsePresence drops empty and invalid types
+                skip = "type";
+            }
+        }
+    	return new Presence(parseCompactElement(parser, 0, skip));
+    }
+    
+    /**
+     * Parses the element the parser is positioned at, and all its content, into a compact 
+     * element. Like the other stanza parsers, the root element and its direct children in the 
+     * client namespace are stored without a namespace, and text directly under the root is 
+     * ignored.
+     * 
+     * @param parser the XML parser, positioned at the start of an element
+     * @param depth Depth of the element below the stanza, 0 for the stanza itself
+     * @param skip Unprefixed attribute of the element that must not be stored or <code>null</code>
+     */
+	private static CompactElement parseCompactElement(XmlPullParser parser, int depth, String skip) 
+			throws XmlPullParserException, IOException {
+		
+		String name = symbol(parser.getName());
+		String prefix = symbol(parser.getPrefix());
+		String namespace = parser.getNamespace();
+		if (depth == 0 || (depth == 1 && Namespaces.CLIENT.equals(namespace))) {
+			namespace = "";
+		}
+		
+		String[] namespaces = null;
+		if (depth > 0) {
+			int nsStart = parser.getNamespaceCount(parser.getDepth() - 1);
+			int nsEnd = parser.getNamespaceCount(parser.getDepth());
+			for (int i = nsStart; i < nsEnd; i++) {
+				if (parser.getNamespacePrefix(i) != null) {
+					namespaces = append(namespaces, symbol(parser.getNamespacePrefix(i)), symbol(parser.getNamespaceUri(i)));
+				}
+			}
+		}
+		
+		int count = parser.getAttributeCount();
+		String[] attributes = new String[count * 2];
+		String[] prefixedAttributes = null;
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			String attributePrefix = parser.getAttributePrefix(i);
+			if (attributePrefix == null) {
+				if (!parser.getAttributeName(i).equals(skip)) {
+					attributes[size++] = symbol(parser.getAttributeName(i));
+					attributes[size++] = value(parser.getAttributeValue(i));
+				}
+			} else {
+				prefixedAttributes = append(prefixedAttributes, symbol(parser.getAttributeName(i)), 
+						symbol(attributePrefix), symbol(parser.getAttributeNamespace(i)), parser.getAttributeValue(i));
+			}
+		}
+		if (size < attributes.length) {
+			String[] trimmed = new String[size];
+			System.arraycopy(attributes, 0, trimmed, 0, size);
+			attributes = trimmed;
+		}
+		
+		List<Object> content = null;
+		while (true) {
+			int eventType = parser.next();
+			if (eventType == XmlPullParser.START_TAG) {
+				if (content == null) {
+					content = new ArrayList<Object>(2);
+				}
+				content.add(parseCompactElement(parser, depth + 1, null));
+			} else if (eventType == XmlPullParser.TEXT) {
+				if (depth > 0) {
+					if (content == null) {
+						content = new ArrayList<Object>(2);
+					}
+					content.add(parser.getText());
+				}
+			} else if (eventType == XmlPullParser.END_TAG || eventType == XmlPullParser.END_DOCUMENT) {
+				break;
+			}
+		}
+		return new CompactElement(name, prefix, namespace, attributes, prefixedAttributes, namespaces,
+				content == null ? null : content.toArray());
+	}
+	
+	private static String[] append(String[] array, String... values) {
+		
+		if (array == null) {
+			return values;
+		}
+		String[] result = new String[array.length + values.length];
+		System.arraycopy(array, 0, result, 0, array.length);
+		System.arraycopy(values, 0, result, array.length, values.length);
+		return result;
+	}
+	
+	/**
+	 * Returns a previously seen instance of an attribute value if there is one. Values like 
+	 * the JID of the client, the JIDs of active calls or IQ types repeat in most stanzas, 
+	 * while ids never do, so the values are kept in a small table where newer values replace 
+	 * older ones instead of being interned forever. Races between parsing threads can only 
+	 * make a value miss the table.
+	 */
+	private static String value(String value) {
+		
+		if (value == null || value.length() > MAX_SHARED_VALUE_LENGTH) {
+			return value;
+		}
+		int index = value.hashCode() & (sharedValues.length - 1);
+		String shared = sharedValues[index];
+		if (value.equals(shared)) {
+			return shared;
+		}
+		sharedValues[index] = value;
+		return value;
+	}
+	
+	/**
+	 * Returns the shared instance of an element name, attribute name, prefix or namespace, so 
+	 * every compact stanza references the same strings. Names read by a {@link SymbolParser} 
+	 * are already shared and are found on the first reference check.
+	 */
+	private static String symbol(String value) {
+		
+		return SymbolTable.symbol(value);
+	}
+
 	private static Element buildAndParseElement(XmlPullParser parser, Element parent) throws XmlPullParserException {
 		
-		QName qname = (parser.getPrefix() == null) ? df.createQName(parser.getName(), parser.getNamespace()) : 
-										df.createQName(parser.getName(), parser.getPrefix(), parser.getNamespace());                        	
+		QName qname = SymbolTable.qname(parser.getName(), parser.getPrefix(), parser.getNamespace());
 		Element newElement = df.createElement(qname);
 		int nsStart = parser.getNamespaceCount(parser.getDepth() - 1);
 		int nsEnd = parser.getNamespaceCount(parser.getDepth());
@@ -352,7 +515,7 @@ public class XmppObjectParser {
 			newElement.addNamespace(parser.getNamespacePrefix(i), parser.getNamespaceUri(i));
 		}
 		for (int i = 0; i < parser.getAttributeCount(); i++) {
-			QName qa = (parser.getAttributePrefix(i) == null) ? df.createQName(parser.getAttributeName(i)) : 
+			QName qa = (parser.getAttributePrefix(i) == null) ? SymbolTable.qname(parser.getAttributeName(i)) : 
 				df.createQName(parser.getAttributeName(i), parser.getAttributePrefix(i), parser.getAttributeNamespace(i));
 			newElement.addAttribute(qa, parser.getAttributeValue(i));
 		}
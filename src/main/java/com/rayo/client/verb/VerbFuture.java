@@ -0,0 +1,185 @@
+package com.rayo.client.verb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rayo.client.XmppException;
+import com.rayo.client.listener.VerbCompletionListener;
+import com.rayo.core.verb.VerbCompleteEvent;
+import com.rayo.core.verb.VerbRef;
+
+/**
+ * <p>The outcome of a single verb. The future is resolved with the verb's complete event as
+ * soon as it is received, or failed if the verb will never complete. Callers can either block
+ * on {@link #get()} or register a {@link VerbCompletionListener} to be notified without
+ * blocking any thread.</p>
+ */
+public class VerbFuture implements Future<VerbCompleteEvent> {
+
+	private static final Logger log = LoggerFactory.getLogger(VerbFuture.class);
+
+	private final VerbRef ref;
+	private final CountDownLatch latch = new CountDownLatch(1);
+	private final List<VerbCompletionListener> listeners = new ArrayList<VerbCompletionListener>();
+
+	private VerbCompleteEvent event;
+	private XmppException failure;
+	private boolean cancelled;
+	private boolean done;
+
+	public VerbFuture(VerbRef ref) {
+
+		this.ref = ref;
+	}
+
+	public VerbRef getRef() {
+
+		return ref;
+	}
+
+	/**
+	 * Adds a listener that will be invoked when the verb completes. If the verb has already
+	 * completed the listener is invoked immediately on the calling thread.
+	 *
+	 * @param listener Listener
+	 */
+	public void addListener(VerbCompletionListener listener) {
+
+		synchronized (this) {
+			if (!done) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		notify(listener);
+	}
+
+	/**
+	 * Resolves this future with the verb's complete event
+	 *
+	 * @return boolean <code>true</code> if the future was resolved by this call
+	 */
+	public boolean complete(VerbCompleteEvent event) {
+
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			this.event = event;
+			done = true;
+		}
+		finish();
+		return true;
+	}
+
+	/**
+	 * Fails this future
+	 *
+	 * @return boolean <code>true</code> if the future was failed by this call
+	 */
+	public boolean fail(XmppException cause) {
+
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			this.failure = cause;
+			done = true;
+		}
+		finish();
+		return true;
+	}
+
+	/**
+	 * Cancelling only stops waiting for the outcome. It does not stop the verb, use
+	 * {@link com.rayo.client.RayoClient#stop(VerbRef)} for that.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			cancelled = true;
+			done = true;
+		}
+		listeners.clear();
+		latch.countDown();
+		return true;
+	}
+
+	private void finish() {
+
+		latch.countDown();
+		// No listener can be added once done is set, so the list is not modified anymore
+		for (VerbCompletionListener listener: listeners) {
+			notify(listener);
+		}
+		listeners.clear();
+	}
+
+	private void notify(VerbCompletionListener listener) {
+
+		try {
+			if (cancelled) {
+				return;
+			}
+			if (failure != null) {
+				listener.failed(ref, failure);
+			} else {
+				listener.completed(ref, event);
+			}
+		} catch (Exception e) {
+			log.error(String.format("Error on verb completion listener [%s]", listener), e);
+		}
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+
+		return cancelled;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+
+		return done;
+	}
+
+	@Override
+	public VerbCompleteEvent get() throws InterruptedException, ExecutionException {
+
+		latch.await();
+		return result();
+	}
+
+	@Override
+	public VerbCompleteEvent get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+
+		if (!latch.await(timeout, unit)) {
+			throw new TimeoutException(String.format("Timed out while waiting for verb [%s] to complete", ref.getVerbId()));
+		}
+		return result();
+	}
+
+	private synchronized VerbCompleteEvent result() throws ExecutionException {
+
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return event;
+	}
+}
@@ -3,6 +3,7 @@ package com.rayo.client.xmpp;
 public interface Namespaces {
 
 	public static final String STREAMS = "http://etherx.jabber.org/streams";
+	public static final String CLIENT = "jabber:client";
 	public static final String ROSTER = "jabber:iq:roster";
 	public static final String SASL = "urn:ietf:params:xml:ns:xmpp-sasl";
 	public static final String BIND = "urn:ietf:params:xml:ns:xmpp-bind";
@@ -10,6 +11,7 @@ public interface Namespaces {
 	public static final String REGISTER = "jabber:iq:register";
 	public static final String AUTH = "jabber:iq:auth";
 	public static final String PING = "urn:xmpp:ping";
+	public static final String COMPRESS = "http://jabber.org/protocol/compress";
 	
 	public static final String RAYO = "urn:xmpp:rayo:1";
 }
@@ -13,7 +13,9 @@ import org.dom4j.QName;
 public abstract class AbstractXmppObject implements XmppObject {
 
 	protected static final DocumentFactory factory = DocumentFactory.getInstance();
-	private Element element;
+	private volatile Element element;
+	// Inbound stanzas are backed by a compact element until their dom4j element is needed
+	private volatile CompactElement compact;
 	private boolean fromServer = false;
 	
 	private String sessionId;
@@ -70,9 +72,50 @@ public abstract class AbstractXmppObject implements XmppObject {
 		}
 	}
 	
-	public void setElement(Element element) {
+	/**
+	 * Constructs a new XMPP Object backed by a compact element. The dom4j element is built 
+	 * the first time it is needed. Until then ids, attributes and child names are read from 
+	 * the compact element.
+	 * 
+	 * @param compact Compact element received from the server
+	 */
+	protected AbstractXmppObject(CompactElement compact) {
+		
+		this.compact = compact;
+	}
+	
+	public synchronized void setElement(Element element) {
 		
 		this.element = element;
+		this.compact = null;
+	}
+	
+	private Element element() {
+		
+		Element element = this.element;
+		if (element == null) {
+			// Another thread may be building it, both fields are checked again under the lock
+			element = materialize();
+		}
+		return element;
+	}
+	
+	private synchronized Element materialize() {
+		
+		if (element == null && compact != null) {
+			element = compact.toElement(factory, true);
+			compact = null;
+		}
+		return element;
+	}
+	
+	/**
+	 * @return boolean Whether this object is still backed by a compact element, i.e. its 
+	 * dom4j element has not been built yet
+	 */
+	public boolean isCompact() {
+		
+		return compact != null;
 	}
 	
 	/* (non-Javadoc)
@@ -90,7 +133,11 @@ public abstract class AbstractXmppObject implements XmppObject {
 	@Override
 	public String getNamespace() {
 		
-		return element.getNamespaceURI();
+		CompactElement compact = this.compact;
+		if (compact != null) {
+			return compact.getNamespace();
+		}
+		return element().getNamespaceURI();
 	}
 	
 	/* (non-Javadoc)
@@ -114,7 +161,7 @@ public abstract class AbstractXmppObject implements XmppObject {
 	@Override
 	public XmppObject copy(XmppObject object) {
 		
-		element = object.getElement().createCopy();
+		setElement(object.getElement().createCopy());
 		return this;
 	}
     
@@ -124,7 +171,7 @@ public abstract class AbstractXmppObject implements XmppObject {
 	@Override
 	public Element getElement() {
 		
-		return element;
+		return element();
 	}
 	  
 	/* (non-Javadoc)
@@ -133,7 +180,7 @@ public abstract class AbstractXmppObject implements XmppObject {
 	@Override
 	public Element getChildElement(String childName) {
 		
-		return element.element(childName);
+		return element().element(childName);
 	}
 	
 	/* (non-Javadoc)
@@ -142,7 +189,7 @@ public abstract class AbstractXmppObject implements XmppObject {
 	@Override	
 	public Element getFirstChild() {
 		
-		List<Element> list = element.elements();
+		List<Element> list = element().elements();
 		if (list.size() > 0) {
 			return list.get(0);
 		}
@@ -156,14 +203,14 @@ public abstract class AbstractXmppObject implements XmppObject {
 	@SuppressWarnings("unchecked")
 	public List<Element> getChildElements(String childName) {
 		
-		return (List<Element>)element.elements(childName);
+		return (List<Element>)element().elements(childName);
 	}
 	
 	@Override
 	@SuppressWarnings("unchecked")
 	public List<Element> getChildElements() {
 		
-		return (List<Element>)element.elements();
+		return (List<Element>)element().elements();
 	}
 	
 	
@@ -174,15 +221,44 @@ public abstract class AbstractXmppObject implements XmppObject {
 	 */
 	public String getChildName() {
 		
-		if (element.elementIterator().hasNext()) {
-			return ((Element)element.elementIterator().next()).getName();
+		CompactElement compact = this.compact;
+		if (compact != null) {
+			CompactElement child = compact.getFirstChild();
+			return child == null ? null : child.getName();
+		}
+		if (element().elementIterator().hasNext()) {
+			return ((Element)element().elementIterator().next()).getName();
 		}
 		return null;
 	}
 	
+	/**
+	 * Returns an attribute of the first child of this XMPP object. Unlike 
+	 * {@link #getFirstChild()} it does not build the dom4j element of compact objects.
+	 * 
+	 * @param name Name of the attribute
+	 * 
+	 * @return String Value of the attribute or <code>null</code> if there is no child or no 
+	 * such attribute
+	 */
+	public String getChildAttribute(String name) {
+		
+		CompactElement compact = this.compact;
+		if (compact != null) {
+			CompactElement child = compact.getFirstChild();
+			return child == null ? null : child.attribute(name);
+		}
+		Element child = getFirstChild();
+		return child == null ? null : child.attributeValue(name);
+	}
+	
 	protected String getRootName() {
 		
-		return element.getName();
+		CompactElement compact = this.compact;
+		if (compact != null) {
+			return compact.getName();
+		}
+		return element().getName();
 	}
 	
 	/**
@@ -192,8 +268,13 @@ public abstract class AbstractXmppObject implements XmppObject {
 	 */
 	public String getChildNamespace() {
 		
-		if (element.elementIterator().hasNext()) {
-			return ((Element)element.elementIterator().next()).getNamespaceURI();
+		CompactElement compact = this.compact;
+		if (compact != null) {
+			CompactElement child = compact.getFirstChild();
+			return child == null ? null : child.getNamespace();
+		}
+		if (element().elementIterator().hasNext()) {
+			return ((Element)element().elementIterator().next()).getNamespaceURI();
 		}
 		return null;
 	}
@@ -204,7 +285,11 @@ public abstract class AbstractXmppObject implements XmppObject {
 	@Override
 	public String attribute(String name) {
 		
-		return element.attributeValue(name);
+		CompactElement compact = this.compact;
+		if (compact != null) {
+			return compact.attribute(name);
+		}
+		return element().attributeValue(name);
 	}
 		
 	/**
@@ -216,7 +301,7 @@ public abstract class AbstractXmppObject implements XmppObject {
 	 */
 	protected String value(String name) {
 		
-		return element.elementText(name);
+		return element().elementText(name);
 	}
 	
 	protected void set(String name, String value) {
@@ -236,18 +321,18 @@ public abstract class AbstractXmppObject implements XmppObject {
 	 */
 	protected void set(String name, String value, String namespaceUri) {
 		
-		Element currentElement = element.element(name);
+		Element currentElement = element().element(name);
 
 		if (value ==  null) {
-			if (element != null) {
-				element.remove(currentElement);
+			if (element() != null) {
+				element().remove(currentElement);
 			}
 		}
 		if (currentElement == null) {
 			if (namespaceUri == null) {
-				currentElement = element.addElement(name);
+				currentElement = element().addElement(name);
 			} else {
-				currentElement = element.addElement(new QName(name, new Namespace("", namespaceUri)));
+				currentElement = element().addElement(new QName(name, new Namespace("", namespaceUri)));
 			}
 			if (value != null) {
 				currentElement.setText(value);
@@ -258,10 +343,10 @@ public abstract class AbstractXmppObject implements XmppObject {
 	@SuppressWarnings("rawtypes")
 	protected void clearChildren() {
 		
-		Iterator it = element.elementIterator();
+		Iterator it = element().elementIterator();
 		while (it.hasNext()) {
 			Element child = (Element)it.next();
-			element.remove(child);
+			element().remove(child);
 		}
 	}
 	
@@ -272,7 +357,7 @@ public abstract class AbstractXmppObject implements XmppObject {
 	 */
 	protected void set(String text) {
 		
-		element.setText(text);
+		element().setText(text);
 	}
 	
 	/**
@@ -282,7 +367,7 @@ public abstract class AbstractXmppObject implements XmppObject {
 	 */
 	protected String text() {
 		
-		return element.getText();	
+		return element().getText();	
 	}
 	
 	/**
@@ -299,12 +384,12 @@ public abstract class AbstractXmppObject implements XmppObject {
 		if (object == null) {
 			throw new IllegalArgumentException("Invalid argument: NULL");
 		}
-		Element currentElement = element.element(object.getStanzaName());
+		Element currentElement = element().element(object.getStanzaName());
 		if (currentElement != null) {
-			element.remove(currentElement);
+			element().remove(currentElement);
 		}
 
-		element.add(object.getElement());
+		element().add(object.getElement());
 	}
 	
 	/**
@@ -320,11 +405,11 @@ public abstract class AbstractXmppObject implements XmppObject {
 			throw new IllegalArgumentException("Invalid argument: NULL");
 		}
 		
-		if (element.getNamespace() != null) {
-			setNamespaces(object.getElement(),element.getNamespace());
+		if (element().getNamespace() != null) {
+			setNamespaces(object.getElement(),element().getNamespace());
 		}
 		
-		element.add(object.getElement());
+		element().add(object.getElement());
 	}
 	
 	/* (non-Javadoc)
@@ -390,7 +475,7 @@ public abstract class AbstractXmppObject implements XmppObject {
 	 */
 	protected void setAttribute(String name, Object attribute) {
 		
-		element.addAttribute(name, (attribute == null)?null:attribute.toString());
+		element().addAttribute(name, (attribute == null)?null:attribute.toString());
 	}
 
 	/**
@@ -401,12 +486,12 @@ public abstract class AbstractXmppObject implements XmppObject {
 	 */
 	protected void setAttribute(String name, String attribute) {
 		
-		element.addAttribute(name, attribute);
+		element().addAttribute(name, attribute);
 	}
 	
 	protected void setChildAttribute(String name, String attribute, String childName) {
 		
-		Element child = element.element(childName);
+		Element child = element().element(childName);
 		if (child !=  null) {
 			child.addAttribute(name,attribute);
 		}
@@ -419,7 +504,7 @@ public abstract class AbstractXmppObject implements XmppObject {
 	public String getXmlLang() {
 	    
 		QName qname = new QName("lang", Namespace.XML_NAMESPACE);
-	    return element.attributeValue(qname);
+	    return element().attributeValue(qname);
 	}
 	
 	/* (non-Javadoc)
@@ -429,7 +514,7 @@ public abstract class AbstractXmppObject implements XmppObject {
 	public void setXmlLang(String xmlLang) {
 		
 		QName qname = new QName("lang", Namespace.XML_NAMESPACE);
-		element.addAttribute(qname, xmlLang);
+		element().addAttribute(qname, xmlLang);
 	}
 	
     /* (non-Javadoc)
@@ -438,7 +523,11 @@ public abstract class AbstractXmppObject implements XmppObject {
     @Override
 	public Error getError() {
     	
-        Element error = element.element("error");
+    	CompactElement compact = this.compact;
+    	if (compact != null && compact.getChild("error", null) == null) {
+    		return null;
+    	}
+        Element error = element().element("error");
         if (error != null) {
             return new Error(error);
         }
@@ -455,8 +544,8 @@ public abstract class AbstractXmppObject implements XmppObject {
     		return;
     	}
         setAttribute("type", "error");
-        if (element.element("error") != null) {
-            element.remove(element.element("error"));
+        if (element().element("error") != null) {
+            element().remove(element().element("error"));
         }
         add(error);
     }
@@ -467,7 +556,11 @@ public abstract class AbstractXmppObject implements XmppObject {
     @Override
 	public boolean hasChild(String childName) {
     	
-    	return element.element(childName) != null;
+    	CompactElement compact = this.compact;
+    	if (compact != null) {
+    		return compact.getChild(childName, null) != null;
+    	}
+    	return element().element(childName) != null;
     }
     
     /* (non-Javadoc)
@@ -476,7 +569,11 @@ public abstract class AbstractXmppObject implements XmppObject {
     @Override
 	public boolean hasChild(String childName, String namespace) {
     	
-    	return element.element(new QName(childName, new Namespace("", namespace))) != null;    	
+    	CompactElement compact = this.compact;
+    	if (compact != null) {
+    		return compact.getChild(childName, namespace) != null;
+    	}
+    	return element().element(new QName(childName, new Namespace("", namespace))) != null;    	
     }
 
     @Override
@@ -491,6 +588,11 @@ public abstract class AbstractXmppObject implements XmppObject {
 	@Override
 	public String toString() {
 
+		CompactElement compact = this.compact;
+		if (compact != null) {
+			return compact.asXML();
+		}
+		Element element = element();
 		if (element == null) {
 			return "";
 		}
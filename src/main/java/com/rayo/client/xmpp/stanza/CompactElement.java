@@ -0,0 +1,246 @@
+package com.rayo.client.xmpp.stanza;
+
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.dom4j.QName;
+
+import com.rayo.client.util.SymbolTable;
+
+/**
+ * <p>Read only XML element stored in flat arrays. It backs the stanzas received from the
+ * server until somebody asks for their dom4j element.</p>
+ *
+ * <p>A dom4j tree needs a document, a QName, a content list and an attribute list per
+ * element, and one object per attribute. This element keeps its attributes as name and
+ * value pairs in a single array and its content as an array of child elements and text
+ * strings. Names and namespaces are interned, so every stanza shares them. Attribute
+ * values, like JIDs and ids, are not, as they are rarely shared and interning them would
+ * only grow the string pool.</p>
+ *
+ * <p>Prefixed attributes and namespace declarations are rare in Rayo traffic. They are kept
+ * in their own arrays, which are <code>null</code> otherwise.</p>
+ */
+public class CompactElement {
+
+	private static final String[] NO_ATTRIBUTES = new String[0];
+	private static final Object[] NO_CONTENT = new Object[0];
+
+	private final String name;
+	private final String prefix;
+	private final String namespace;
+	private final String[] attributes;
+	private final String[] prefixedAttributes;
+	private final String[] namespaces;
+	private final Object[] content;
+
+	/**
+	 * @param name Local name
+	 * @param prefix Prefix or <code>null</code>
+	 * @param namespace Namespace or an empty string
+	 * @param attributes Unprefixed attributes as name and value pairs
+	 * @param prefixedAttributes Prefixed attributes as name, prefix, namespace and value
+	 * quads, or <code>null</code>
+	 * @param namespaces Prefixed namespaces declared on this element as prefix and namespace
+	 * pairs, or <code>null</code>
+	 * @param content Child {@link CompactElement}s and text strings in document order
+	 */
+	public CompactElement(String name, String prefix, String namespace, String[] attributes,
+			String[] prefixedAttributes, String[] namespaces, Object[] content) {
+
+		this.name = name;
+		this.prefix = prefix;
+		this.namespace = namespace == null ? "" : namespace;
+		this.attributes = attributes == null || attributes.length == 0 ? NO_ATTRIBUTES : attributes;
+		this.prefixedAttributes = prefixedAttributes;
+		this.namespaces = namespaces;
+		this.content = content == null || content.length == 0 ? NO_CONTENT : content;
+	}
+
+	public String getName() {
+
+		return name;
+	}
+
+	public String getNamespace() {
+
+		return namespace;
+	}
+
+	/**
+	 * @param name Local name of the attribute
+	 *
+	 * @return String Value of the attribute or <code>null</code>
+	 */
+	public String attribute(String name) {
+
+		for (int i = 0; i < attributes.length; i += 2) {
+			if (attributes[i].equals(name)) {
+				return attributes[i + 1];
+			}
+		}
+		if (prefixedAttributes != null) {
+			for (int i = 0; i < prefixedAttributes.length; i += 4) {
+				if (prefixedAttributes[i].equals(name)) {
+					return prefixedAttributes[i + 3];
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return CompactElement First child element or <code>null</code>
+	 */
+	public CompactElement getFirstChild() {
+
+		for (Object node: content) {
+			if (node instanceof CompactElement) {
+				return (CompactElement)node;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param name Local name of the child
+	 * @param namespace Namespace of the child or <code>null</code> for any namespace
+	 *
+	 * @return CompactElement First child element with the given name or <code>null</code>
+	 */
+	public CompactElement getChild(String name, String namespace) {
+
+		for (Object node: content) {
+			if (node instanceof CompactElement) {
+				CompactElement child = (CompactElement)node;
+				if (child.name.equals(name) && (namespace == null || child.namespace.equals(namespace))) {
+					return child;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Builds the dom4j tree of this element. The root of a stanza is added to a new document,
+	 * like the stanzas created by the client.
+	 *
+	 * @param factory Factory of the dom4j nodes
+	 * @param root Whether this element is the root of a stanza
+	 *
+	 * @return Element dom4j element
+	 */
+	public Element toElement(DocumentFactory factory, boolean root) {
+
+		QName qname = SymbolTable.qname(name, prefix, namespace);
+		Element element = root ? factory.createDocument().addElement(qname) : factory.createElement(qname);
+		if (namespaces != null) {
+			for (int i = 0; i < namespaces.length; i += 2) {
+				element.addNamespace(namespaces[i], namespaces[i + 1]);
+			}
+		}
+		for (int i = 0; i < attributes.length; i += 2) {
+			element.addAttribute(SymbolTable.qname(attributes[i]), attributes[i + 1]);
+		}
+		if (prefixedAttributes != null) {
+			for (int i = 0; i < prefixedAttributes.length; i += 4) {
+				element.addAttribute(factory.createQName(prefixedAttributes[i], prefixedAttributes[i + 1],
+						prefixedAttributes[i + 2]), prefixedAttributes[i + 3]);
+			}
+		}
+		for (Object node: content) {
+			if (node instanceof CompactElement) {
+				element.add(((CompactElement)node).toElement(factory, false));
+			} else {
+				element.addText((String)node);
+			}
+		}
+		return element;
+	}
+
+	/**
+	 * @return String XML of this element, as dom4j would write it
+	 */
+	public String asXML() {
+
+		StringBuilder builder = new StringBuilder(128);
+		write(builder, "");
+		return builder.toString();
+	}
+
+	private void write(StringBuilder builder, String parentNamespace) {
+
+		builder.append('<');
+		if (prefix != null) {
+			builder.append(prefix).append(':');
+		}
+		builder.append(name);
+		if (prefix == null && !namespace.equals(parentNamespace)) {
+			builder.append(" xmlns=\"");
+			escape(builder, namespace, true);
+			builder.append('"');
+		}
+		if (namespaces != null) {
+			for (int i = 0; i < namespaces.length; i += 2) {
+				builder.append(" xmlns:").append(namespaces[i]).append("=\"");
+				escape(builder, namespaces[i + 1], true);
+				builder.append('"');
+			}
+		}
+		for (int i = 0; i < attributes.length; i += 2) {
+			builder.append(' ').append(attributes[i]).append("=\"");
+			escape(builder, attributes[i + 1], true);
+			builder.append('"');
+		}
+		if (prefixedAttributes != null) {
+			for (int i = 0; i < prefixedAttributes.length; i += 4) {
+				builder.append(' ').append(prefixedAttributes[i + 1]).append(':').append(prefixedAttributes[i]).append("=\"");
+				escape(builder, prefixedAttributes[i + 3], true);
+				builder.append('"');
+			}
+		}
+		if (content.length == 0) {
+			builder.append("/>");
+			return;
+		}
+		builder.append('>');
+		String elementNamespace = prefix == null ? namespace : parentNamespace;
+		for (Object node: content) {
+			if (node instanceof CompactElement) {
+				((CompactElement)node).write(builder, elementNamespace);
+			} else {
+				escape(builder, (String)node, false);
+			}
+		}
+		builder.append("</");
+		if (prefix != null) {
+			builder.append(prefix).append(':');
+		}
+		builder.append(name).append('>');
+	}
+
+	private static void escape(StringBuilder builder, String text, boolean attribute) {
+
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '<': builder.append("&lt;"); break;
+				case '>': builder.append("&gt;"); break;
+				case '&': builder.append("&amp;"); break;
+				case '"':
+					if (attribute) {
+						builder.append("&quot;");
+					} else {
+						builder.append(c);
+					}
+					break;
+				default: builder.append(c);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+
+		return asXML();
+	}
+}
@@ -0,0 +1,47 @@
+package com.rayo.client.xmpp.stanza;
+
+import com.rayo.client.xmpp.Namespaces;
+
+/**
+ * Request to compress the stream with the given method (XEP-0138)
+ */
+public class Compress extends AbstractXmppObject {
+
+	public static final String NAME = "compress";
+	
+	public Compress() {
+		
+		super(Namespaces.COMPRESS);
+	}
+	
+	public Compress(String method) {
+		
+		this();
+		setMethod(method);
+	}
+	
+	public String getMethod() {
+		
+		return value("method");
+	}
+	
+	public Compress setMethod(String method) {
+		
+		set("method", method);
+		return this;
+	}
+	
+	@Override
+	public String getStanzaName() {
+
+		return NAME;
+	}
+	
+	@Override
+	public Compress copy() {
+
+		Compress compress = new Compress();
+		compress.copy(this);
+		return compress;
+	}
+}
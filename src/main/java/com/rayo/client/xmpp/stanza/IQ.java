@@ -45,6 +45,16 @@ public class IQ extends Stanza<IQ> {
 		super(element);
 	} 
 	
+	/**
+	 * Constructs an IQ stanza object backed by a compact element received from the server
+	 * 
+	 * @param compact Compact element
+	 */
+	public IQ(CompactElement compact) {
+		
+		super(compact);
+	}
+	
 	public IQ(XmppObject copy) {
 		
 		super(copy);
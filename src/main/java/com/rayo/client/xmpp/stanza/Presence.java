@@ -35,6 +35,16 @@ public class Presence extends Stanza<Presence> {
 		super(element);
 	} 
 	
+	/**
+	 * Constructs a Presence stanza object backed by a compact element received from the server
+	 * 
+	 * @param compact Compact element
+	 */
+	public Presence(CompactElement compact) {
+		
+		super(compact);
+	}
+	
 	public Presence(Presence presence) { 
 		
 		super(presence);
@@ -25,6 +25,9 @@ import com.rayo.client.xmpp.extensions.Extension;
  */
 public abstract class Stanza<T extends XmppObject> extends AbstractXmppObject {
 	
+	private volatile ParsedJID fromJid;
+	private volatile ParsedJID toJid;
+	
 	/**
 	 * Creates an empty Stanza element.
 	 */
@@ -48,6 +51,16 @@ public abstract class Stanza<T extends XmppObject> extends AbstractXmppObject {
 		super(element);
 	}	
 	
+	/**
+	 * Constructs a new Stanza backed by a compact element received from the server. 
+	 * 
+	 * @param compact Compact element
+	 */
+	protected Stanza(CompactElement compact) {
+		
+		super(compact);
+	}
+	
 	public Stanza(XmppObject xmppObject) {
 		
 		super(xmppObject);
@@ -71,14 +84,65 @@ public abstract class Stanza<T extends XmppObject> extends AbstractXmppObject {
 		return attribute("to");
 	}
 	
+	/**
+	 * Returns the parsed <code>from</code> JID. It is parsed only once and every listener of 
+	 * this stanza gets the same instance, so it must not be modified. Clone it instead.
+	 * 
+	 * @return JID From JID or <code>null</code> if the stanza has no from
+	 */
 	public JID getFromJid() {
 		
-		return new JIDImpl(getFrom());
+		String from = getFrom();
+		ParsedJID parsed = fromJid;
+		if (parsed == null || !parsed.isParsedFrom(from)) {
+			if (from == null) {
+				return null;
+			}
+			parsed = new ParsedJID(from);
+			fromJid = parsed;
+		}
+		return parsed.jid;
 	}
 	
+	/**
+	 * Returns the parsed <code>to</code> JID. It is parsed only once and every caller gets the 
+	 * same instance, so it must not be modified. Clone it instead.
+	 * 
+	 * @return JID To JID or <code>null</code> if the stanza has no to
+	 */
 	public JID getToJid() {
 		
-		return new JIDImpl(getTo());
+		String to = getTo();
+		ParsedJID parsed = toJid;
+		if (parsed == null || !parsed.isParsedFrom(to)) {
+			if (to == null) {
+				return null;
+			}
+			parsed = new ParsedJID(to);
+			toJid = parsed;
+		}
+		return parsed.jid;
+	}
+	
+	/**
+	 * A parsed JID and the attribute value it was parsed from
+	 */
+	private static class ParsedJID {
+		
+		private final String value;
+		private final JID jid;
+		
+		ParsedJID(String value) {
+			
+			this.value = value;
+			this.jid = new JIDImpl(value);
+		}
+		
+		boolean isParsedFrom(String value) {
+			
+			// The attribute usually hands back the very same string, otherwise compare it
+			return this.value == value || this.value.equals(value);
+		}
 	}
 
     public T setTo(String to) {
@@ -36,6 +36,11 @@ public class NettyServer {
 		nettyServerHandler.sendRayoOffer();
 	}
 	
+	public void dropConnection() {
+		
+		nettyServerHandler.dropConnection();
+	}
+	
 	public static NettyServer newInstance(int port) throws Exception {
 		
 		NettyServer server = servers.get(port);
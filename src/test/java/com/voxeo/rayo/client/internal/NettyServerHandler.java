@@ -34,6 +34,14 @@ public class NettyServerHandler extends SimpleChannelHandler {
 		this.channel = e.getChannel();
 	}
 	
+	/**
+	 * Closes the connection with the client without ending the stream
+	 */
+	public void dropConnection() {
+		
+		channel.close().awaitUninterruptibly();
+	}
+	
 	public void sendRayoOffer() {
 		
 		offerId = UUID.randomUUID().toString();
@@ -0,0 +1,378 @@
+package com.voxeo.rayo.client.internal.benchmark;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rayo.client.AsynchronousRayoClient;
+import com.rayo.client.RayoClient;
+import com.rayo.client.SimpleXmppConnection;
+import com.rayo.client.XmppException;
+import com.rayo.client.io.InboundInterceptor;
+import com.rayo.client.metrics.Histogram;
+import com.rayo.client.offer.OfferHandler;
+import com.rayo.client.offer.OfferWorkerPool;
+import com.rayo.client.response.ResponseHandler;
+import com.rayo.client.xmpp.stanza.IQ;
+import com.rayo.client.xmpp.stanza.Presence;
+import com.rayo.client.xmpp.stanza.XmppObject;
+import com.rayo.core.DialCommand;
+import com.rayo.core.OfferEvent;
+import com.rayo.core.verb.VerbRef;
+import com.voxeo.rayo.client.internal.simulator.LatencyDistribution;
+import com.voxeo.rayo.client.internal.simulator.RayoServerSimulator;
+
+/**
+ * <p>Measures what Rayo commands cost from the moment they are issued on a {@link RayoClient}
+ * until their IQ result arrives, under a fixed load.</p>
+ *
+ * <p>Outbound call flows (dial, say, hangup) are started at a fixed rate, whatever the time
+ * previous flows take. Latencies are measured from the time each flow was meant to start and
+ * not from the time it actually started, so a stalled client shows up in the percentiles
+ * instead of silently lowering the request rate (coordinated omission). Inbound answers are
+ * measured from the moment the offer reached the client.</p>
+ *
+ * <p>By default it starts an embedded {@link RayoServerSimulator}. Options are system
+ * properties:</p>
+ *
+ * <ul>
+ * 	<li>host, port: Rayo server. Defaults to an embedded simulator on localhost:10399.</li>
+ * 	<li>simulator: Whether to start the embedded simulator. Defaults to true.</li>
+ * 	<li>serverLatency: Mean command latency of the simulator in milliseconds. Defaults to 1.</li>
+ * 	<li>async: Use {@link AsynchronousRayoClient} instances. Defaults to false.</li>
+ * 	<li>clients: Number of client connections. Defaults to 1.</li>
+ * 	<li>rate: Outbound call flows per second across all clients. Defaults to 100.</li>
+ * 	<li>offers: Inbound offers per second. Defaults to 0.</li>
+ * 	<li>threads: Threads running the flows. Defaults to 200.</li>
+ * 	<li>warmup, duration: Seconds of warm up and of measurement. Default to 10 and 60.</li>
+ * 	<li>report: File the report is appended to, to compare client releases.</li>
+ * 	<li>label: Name of the run on the report, e.g. the client version.</li>
+ * </ul>
+ */
+public class CommandLatencyBenchmark {
+
+	private static final long RESULT_TIMEOUT = 30000;
+
+	private final boolean async = Boolean.getBoolean("async");
+	private final List<RayoClient> clients = new ArrayList<RayoClient>();
+	private final Map<String, Histogram> histograms = new LinkedHashMap<String, Histogram>();
+	private final AtomicLong errors = new AtomicLong();
+	private volatile boolean measuring;
+
+	// Asynchronous clients do not return results, so they are matched by IQ id
+	private final ConcurrentMap<String, CountDownLatch> pendingResults = new ConcurrentHashMap<String, CountDownLatch>();
+	private final ThreadLocal<PendingResult> expected = new ThreadLocal<PendingResult>();
+	private final ConcurrentMap<String, Long> offerArrivals = new ConcurrentHashMap<String, Long>();
+
+	private static class PendingResult {
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		volatile String id;
+	}
+
+	/**
+	 * Registers the result expected by the calling thread under the id of the IQ right
+	 * before sending it, so the result can not arrive before it is expected
+	 */
+	private class BenchmarkRayoClient extends AsynchronousRayoClient {
+
+		BenchmarkRayoClient(String host, int port) {
+
+			super(host, port, host);
+		}
+
+		@Override
+		protected IQ sendIQ(IQ iq) throws XmppException {
+
+			PendingResult pending = expected.get();
+			if (pending != null) {
+				expected.remove();
+				pending.id = iq.getId();
+				pendingResults.put(iq.getId(), pending.latch);
+			}
+			return super.sendIQ(iq);
+		}
+	}
+
+	public CommandLatencyBenchmark() {
+
+		for (String command: new String[]{"dial", "answer", "say", "hangup"}) {
+			histograms.put(command, new Histogram());
+		}
+	}
+
+	public void connect(String host, int port, int count) throws Exception {
+
+		for (int i = 0; i < count; i++) {
+			RayoClient client = async ?
+					new BenchmarkRayoClient(host, port) :
+					new RayoClient(host, port, host);
+			// Interceptors run on the reading thread before any listener, so offers are timed
+			// before the client can queue them and results before anybody else sees them
+			((SimpleXmppConnection)client.getXmppConnection()).getDispatcher().addInterceptor(new InboundInterceptor() {
+
+				@Override
+				public boolean accept(XmppObject object) {
+
+					if (object instanceof IQ) {
+						IQ iq = (IQ)object;
+						if (iq.isResult() || iq.isError()) {
+							CountDownLatch latch = pendingResults.remove(iq.getId());
+							if (latch != null) {
+								latch.countDown();
+							}
+						}
+					} else if (object instanceof Presence) {
+						Presence presence = (Presence)object;
+						if (presence.getFrom() != null && presence.hasChild("offer")) {
+							offerArrivals.put(node(presence.getFrom()), System.nanoTime());
+						}
+					}
+					return true;
+				}
+			});
+			client.connect("bench" + i, "1", "voxeo");
+			clients.add(client);
+		}
+	}
+
+	public void run(double rate, int threads, long warmup, long duration) throws Exception {
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<OfferWorkerPool> pools = new ArrayList<OfferWorkerPool>();
+		for (final RayoClient client: clients) {
+			OfferWorkerPool pool = new OfferWorkerPool(client, threads / clients.size() + 1, new OfferHandler() {
+
+				@Override
+				public void handle(OfferEvent offer) {
+
+					answerAndHangup(client, offer.getCallId());
+				}
+			});
+			pool.start();
+			pools.add(pool);
+		}
+
+		long interval = (long)(TimeUnit.SECONDS.toNanos(1) / rate);
+		long start = System.nanoTime();
+		long measureStart = start + TimeUnit.SECONDS.toNanos(warmup);
+		long end = measureStart + TimeUnit.SECONDS.toNanos(duration);
+		long intended = start;
+		int next = 0;
+		while (intended < end) {
+			long wait = intended - System.nanoTime();
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			measuring = intended >= measureStart;
+			final RayoClient client = clients.get(next++ % clients.size());
+			final long flowStart = intended;
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+
+					outboundFlow(client, flowStart);
+				}
+			});
+			intended += interval;
+		}
+		measuring = false;
+		executor.shutdown();
+		executor.awaitTermination(RESULT_TIMEOUT, TimeUnit.MILLISECONDS);
+		for (OfferWorkerPool pool: pools) {
+			pool.stop();
+		}
+	}
+
+	private void outboundFlow(RayoClient client, long intended) {
+
+		try {
+			long start = intended;
+			String callId = dial(client);
+			start = record("dial", start);
+			// Commands returning a ref always wait for their result, null means it never came
+			if (client.say("Thanks for calling", callId) == null) {
+				throw new IllegalStateException("No say ref for call " + callId);
+			}
+			start = record("say", start);
+			hangup(client, callId);
+			record("hangup", start);
+		} catch (Exception e) {
+			errors.incrementAndGet();
+		}
+	}
+
+	private void answerAndHangup(RayoClient client, String callId) {
+
+		Long arrival = offerArrivals.remove(callId);
+		try {
+			long start = arrival != null ? arrival : System.nanoTime();
+			PendingResult pending = expectResult();
+			client.answer(callId);
+			awaitResult(pending, callId);
+			start = record("answer", start);
+			hangup(client, callId);
+			record("hangup", start);
+		} catch (Exception e) {
+			errors.incrementAndGet();
+		}
+	}
+
+	private String dial(RayoClient client) throws Exception {
+
+		DialCommand dial = new DialCommand();
+		dial.setTo(new URI("sip:bench@localhost"));
+		dial.setFrom(new URI("sip:rayo@localhost"));
+		if (!async) {
+			VerbRef ref = client.dial(dial);
+			return ref.getCallId();
+		}
+		final CountDownLatch latch = new CountDownLatch(1);
+		final String[] callId = new String[1];
+		client.dial(dial, new ResponseHandler() {
+
+			@Override
+			public void handle(XmppObject response) {
+
+				IQ result = (IQ)response;
+				if (!result.isError()) {
+					callId[0] = result.getChildElement("ref").attributeValue("id");
+				}
+				latch.countDown();
+			}
+		});
+		if (!latch.await(RESULT_TIMEOUT, TimeUnit.MILLISECONDS) || callId[0] == null) {
+			throw new IllegalStateException("Dial failed");
+		}
+		return callId[0];
+	}
+
+	private void hangup(RayoClient client, String callId) throws Exception {
+
+		PendingResult pending = expectResult();
+		client.hangup(callId);
+		awaitResult(pending, callId);
+	}
+
+	private PendingResult expectResult() {
+
+		if (!async) {
+			return null;
+		}
+		PendingResult pending = new PendingResult();
+		expected.set(pending);
+		return pending;
+	}
+
+	private void awaitResult(PendingResult pending, String callId) throws Exception {
+
+		if (pending == null) {
+			return;
+		}
+		if (pending.id == null) {
+			throw new IllegalStateException("No command sent for call " + callId);
+		}
+		if (!pending.latch.await(RESULT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+			pendingResults.remove(pending.id);
+			throw new IllegalStateException("No result for call " + callId);
+		}
+	}
+
+	private long record(String command, long start) {
+
+		long now = System.nanoTime();
+		if (measuring) {
+			histograms.get(command).record(TimeUnit.NANOSECONDS.toMicros(now - start));
+		}
+		return now;
+	}
+
+	public String report(String title) {
+
+		StringBuilder report = new StringBuilder();
+		report.append(title).append('\n');
+		report.append(String.format("%-8s %10s %10s %10s %10s %10s %10s%n", "command", "count", "mean", "p50", "p99", "p99.9", "max"));
+		for (Map.Entry<String, Histogram> entry: histograms.entrySet()) {
+			Histogram histogram = entry.getValue();
+			if (histogram.getCount() == 0) {
+				continue;
+			}
+			report.append(String.format("%-8s %10d %10.2f %10.2f %10.2f %10.2f %10.2f%n", entry.getKey(), histogram.getCount(),
+					histogram.getMean() / 1000, histogram.getPercentile(50) / 1000d, histogram.getPercentile(99) / 1000d,
+					histogram.getPercentile(99.9) / 1000d, histogram.getMax() / 1000d));
+		}
+		report.append(String.format("Latencies in milliseconds. Errors: %s%n", errors.get()));
+		return report.toString();
+	}
+
+	public void disconnect() {
+
+		for (RayoClient client: clients) {
+			try {
+				client.disconnect();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static String node(String jid) {
+
+		int at = jid.indexOf('@');
+		return at == -1 ? jid : jid.substring(0, at);
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		String host = System.getProperty("host", "localhost");
+		int port = Integer.getInteger("port", 10399);
+		int clients = Integer.getInteger("clients", 1);
+		double rate = Double.parseDouble(System.getProperty("rate", "100"));
+		double offers = Double.parseDouble(System.getProperty("offers", "0"));
+		int threads = Integer.getInteger("threads", 200);
+		long warmup = Long.getLong("warmup", 10);
+		long duration = Long.getLong("duration", 60);
+
+		RayoServerSimulator simulator = null;
+		if (Boolean.parseBoolean(System.getProperty("simulator", "true"))) {
+			simulator = new RayoServerSimulator(port);
+			simulator.setCommandLatency(LatencyDistribution.exponential(Long.getLong("serverLatency", 1)));
+			simulator.setEventLatency(LatencyDistribution.fixed(0));
+			simulator.setVerbDuration(LatencyDistribution.fixed(100));
+			simulator.setOffersPerSecond(offers);
+			simulator.start();
+		}
+
+		CommandLatencyBenchmark benchmark = new CommandLatencyBenchmark();
+		try {
+			benchmark.connect(host, port, clients);
+			benchmark.run(rate, threads, warmup, duration);
+			String report = benchmark.report(String.format("%s clients=%s async=%s rate=%s offers=%s duration=%ss",
+					System.getProperty("label", "rayo-java-client"), clients, benchmark.async, rate, offers, duration));
+			System.out.println(report);
+			String file = System.getProperty("report");
+			if (file != null) {
+				PrintWriter writer = new PrintWriter(new FileWriter(file, true));
+				writer.println(report);
+				writer.close();
+			}
+		} finally {
+			benchmark.disconnect();
+			if (simulator != null) {
+				simulator.shutdown();
+			}
+		}
+	}
+}
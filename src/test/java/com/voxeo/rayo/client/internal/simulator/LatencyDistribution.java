@@ -0,0 +1,79 @@
+package com.voxeo.rayo.client.internal.simulator;
+
+import java.util.Random;
+
+/**
+ * <p>Distribution of the delays the simulator applies before answering commands or sending
+ * events. Delays are in milliseconds.</p>
+ */
+public abstract class LatencyDistribution {
+
+	private static final Random random = new Random();
+
+	/**
+	 * @return long Next delay in milliseconds
+	 */
+	public abstract long nextDelay();
+
+	/**
+	 * Always the same delay
+	 */
+	public static LatencyDistribution fixed(final long millis) {
+
+		return new LatencyDistribution() {
+
+			@Override
+			public long nextDelay() {
+
+				return millis;
+			}
+		};
+	}
+
+	/**
+	 * Delays evenly spread between the given bounds
+	 */
+	public static LatencyDistribution uniform(final long min, final long max) {
+
+		return new LatencyDistribution() {
+
+			@Override
+			public long nextDelay() {
+
+				return min + (long)(random.nextDouble() * (max - min));
+			}
+		};
+	}
+
+	/**
+	 * Delays that are mostly around the given mean with a long tail, like the ones of a
+	 * loaded server
+	 */
+	public static LatencyDistribution exponential(final long mean) {
+
+		return new LatencyDistribution() {
+
+			@Override
+			public long nextDelay() {
+
+				return (long)(-mean * Math.log(1 - random.nextDouble()));
+			}
+		};
+	}
+
+	/**
+	 * A base delay plus an exponential tail
+	 */
+	public static LatencyDistribution shiftedExponential(final long base, final long tailMean) {
+
+		final LatencyDistribution tail = exponential(tailMean);
+		return new LatencyDistribution() {
+
+			@Override
+			public long nextDelay() {
+
+				return base + tail.nextDelay();
+			}
+		};
+	}
+}
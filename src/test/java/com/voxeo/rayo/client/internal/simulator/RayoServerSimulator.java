@@ -0,0 +1,507 @@
+package com.voxeo.rayo.client.internal.simulator;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.string.StringDecoder;
+import org.jboss.netty.handler.codec.string.StringEncoder;
+import org.jboss.netty.util.CharsetUtil;
+
+/**
+ * <p>A local Rayo server that simulates calls, so the client can be load tested and
+ * benchmarked end to end without any external service.</p>
+ *
+ * <p>Unlike the {@link com.voxeo.rayo.client.internal.NettyServer} test harness it handles any
+ * number of client connections and keeps the state of every simulated call:</p>
+ *
+ * <ul>
+ * 	<li>Offers are generated at a configurable rate and spread across the connected clients.</li>
+ * 	<li>Commands are answered after a delay taken from a {@link LatencyDistribution}.</li>
+ * 	<li>Answered and dialed calls get their ringing and answered events, verbs complete after
+ * 	their own delay and every call is eventually hung up by the remote party.</li>
+ * 	<li>Commands sent to calls that do not exist get an item-not-found error.</li>
+ * 	<li>Zlib stream compression can be offered after authentication, and made to fail.</li>
+ * </ul>
+ *
+ * <p>It can be embedded in tests or started from the command line:</p>
+ *
+ * <pre>
+ * 	mvn test-compile exec:java -Dexec.classpathScope=test
+ * 		-Dexec.mainClass=com.voxeo.rayo.client.internal.simulator.RayoServerSimulator
+ * 		-Dexec.args="5222 100"
+ * </pre>
+ */
+public class RayoServerSimulator {
+
+	static final Set<String> VERBS = new HashSet<String>(Arrays.asList(
+			"say", "output", "ask", "input", "record", "transfer", "conference"));
+
+	private static final long OFFER_TICK = 10;
+
+	private final int port;
+	private String domain = "localhost";
+	private volatile double offersPerSecond;
+	private volatile int maxCalls = 50000;
+	private volatile LatencyDistribution commandLatency = LatencyDistribution.fixed(0);
+	private volatile LatencyDistribution eventLatency = LatencyDistribution.fixed(50);
+	private volatile LatencyDistribution verbDuration = LatencyDistribution.uniform(500, 2000);
+	private volatile LatencyDistribution callDuration = LatencyDistribution.uniform(10000, 60000);
+	private volatile boolean compressionOffered;
+	private volatile boolean compressionFailing;
+
+	private ChannelFactory factory;
+	private Channel serverChannel;
+	private ScheduledExecutorService scheduler;
+
+	private final List<SimulatorSession> sessions = new CopyOnWriteArrayList<SimulatorSession>();
+	private final ConcurrentMap<String, SimulatedCall> calls = new ConcurrentHashMap<String, SimulatedCall>();
+	private final AtomicInteger sessionNumber = new AtomicInteger();
+	private int nextSession;
+	private double pendingOffers;
+
+	private final AtomicLong offers = new AtomicLong();
+	private final AtomicLong dials = new AtomicLong();
+	private final AtomicLong commands = new AtomicLong();
+	private final AtomicLong ended = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong compressed = new AtomicLong();
+
+	public RayoServerSimulator(int port) {
+
+		this.port = port;
+	}
+
+	public synchronized void start() {
+
+		scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+		factory = new NioServerSocketChannelFactory(
+				Executors.newCachedThreadPool(),
+				Executors.newCachedThreadPool());
+
+		ServerBootstrap bootstrap = new ServerBootstrap(factory);
+		bootstrap.setOption("child.tcpNoDelay", true);
+		bootstrap.setOption("child.keepAlive", true);
+		bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+
+			@Override
+			public ChannelPipeline getPipeline() throws Exception {
+
+				ChannelPipeline pipeline = Channels.pipeline();
+				pipeline.addLast("framer", new XmppFrameDecoder());
+				pipeline.addLast("decoder", new StringDecoder(CharsetUtil.UTF_8));
+				pipeline.addLast("encoder", new StringEncoder(CharsetUtil.UTF_8));
+				pipeline.addLast("handler", new SimulatorSession(RayoServerSimulator.this));
+				return pipeline;
+			}
+		});
+		serverChannel = bootstrap.bind(new InetSocketAddress(port));
+
+		scheduler.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+
+				generateOffers();
+			}
+		}, OFFER_TICK, OFFER_TICK, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void shutdown() {
+
+		if (serverChannel != null) {
+			serverChannel.close().awaitUninterruptibly();
+		}
+		for (SimulatorSession session: sessions) {
+			session.send("</stream:stream>");
+		}
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		if (factory != null) {
+			factory.releaseExternalResources();
+		}
+		sessions.clear();
+		calls.clear();
+	}
+
+	private void generateOffers() {
+
+		if (offersPerSecond <= 0 || sessions.isEmpty()) {
+			return;
+		}
+		pendingOffers += offersPerSecond * OFFER_TICK / 1000;
+		while (pendingOffers >= 1) {
+			pendingOffers--;
+			if (calls.size() >= maxCalls) {
+				dropped.incrementAndGet();
+				continue;
+			}
+			int size = sessions.size();
+			if (size == 0) {
+				return;
+			}
+			nextSession = (nextSession + 1) % size;
+			offer(sessions.get(nextSession));
+		}
+	}
+
+	/**
+	 * Sends an offer to the given client
+	 */
+	SimulatedCall offer(SimulatorSession session) {
+
+		SimulatedCall call = createCall(session);
+		offers.incrementAndGet();
+		session.send(String.format("<presence from='%s@%s' to='%s'>" +
+				"<offer xmlns='urn:xmpp:rayo:1' to='sip:%s' from='sip:+1305%07d@%s'>" +
+				"<header name='Via' value='SIP/2.0/UDP 10.0.1.11:5060;branch=z9hG4bK-%s'/>" +
+				"<header name='Max-Forwards' value='70'/>" +
+				"<header name='Call-ID' value='%s'/>" +
+				"<header name='CSeq' value='1 INVITE'/>" +
+				"<header name='Content-Type' value='application/sdp'/>" +
+				"<header name='User-Agent' value='Rayo Server Simulator'/>" +
+				"</offer></presence>",
+				call.id, domain, session.getJid(), session.getJid(), offers.get() % 10000000, domain, call.id, call.id));
+		return call;
+	}
+
+	SimulatedCall dial(SimulatorSession session) {
+
+		final SimulatedCall call = createCall(session);
+		dials.incrementAndGet();
+		long ringing = commandLatency.nextDelay() + eventLatency.nextDelay();
+		schedule(call.event("<ringing xmlns='urn:xmpp:rayo:1'/>"), ringing);
+		schedule(new Runnable() {
+
+			@Override
+			public void run() {
+
+				answer(call);
+			}
+		}, ringing + eventLatency.nextDelay());
+		return call;
+	}
+
+	private SimulatedCall createCall(SimulatorSession session) {
+
+		final SimulatedCall call = new SimulatedCall(UUID.randomUUID().toString(), session);
+		calls.put(call.id, call);
+		call.hangup = schedule(new Runnable() {
+
+			@Override
+			public void run() {
+
+				end(call, "hangup");
+			}
+		}, callDuration.nextDelay());
+		return call;
+	}
+
+	void answer(SimulatedCall call) {
+
+		if (!call.ended) {
+			schedule(call.event("<answered xmlns='urn:xmpp:rayo:1'/>"), eventLatency.nextDelay());
+		}
+	}
+
+	void startVerb(final SimulatedCall call, final String verbId, String verb) {
+
+		call.verbs.add(verbId);
+		final String reason = verb.equals("say") || verb.equals("output") ?
+			"<success xmlns='urn:xmpp:rayo:output:complete:1'/>" :
+			"<stop xmlns='urn:xmpp:rayo:ext:complete:1'/>";
+		schedule(new Runnable() {
+
+			@Override
+			public void run() {
+
+				completeVerb(call, verbId, reason);
+			}
+		}, commandLatency.nextDelay() + verbDuration.nextDelay());
+	}
+
+	void stopVerb(final SimulatedCall call, final String verbId) {
+
+		schedule(new Runnable() {
+
+			@Override
+			public void run() {
+
+				completeVerb(call, verbId, "<stop xmlns='urn:xmpp:rayo:ext:complete:1'/>");
+			}
+		}, eventLatency.nextDelay());
+	}
+
+	private void completeVerb(SimulatedCall call, String verbId, String reason) {
+
+		if (call.verbs.remove(verbId) && !call.ended) {
+			call.session.send(String.format("<presence from='%s@%s/%s' to='%s'>" +
+					"<complete xmlns='urn:xmpp:rayo:ext:1'>%s</complete></presence>",
+					call.id, domain, verbId, call.session.getJid(), reason));
+		}
+	}
+
+	void end(SimulatedCall call, String reason) {
+
+		if (calls.remove(call.id) == null) {
+			return;
+		}
+		ended.incrementAndGet();
+		if (call.hangup != null) {
+			call.hangup.cancel(false);
+		}
+		// Running verbs complete because of the hang up before the call ends
+		for (String verbId: call.verbs) {
+			completeVerb(call, verbId, "<hangup xmlns='urn:xmpp:rayo:ext:complete:1'/>");
+		}
+		call.ended = true;
+		schedule(call.event(String.format("<end xmlns='urn:xmpp:rayo:1'><%s/></end>", reason)), eventLatency.nextDelay());
+	}
+
+	/**
+	 * Runs the given task after the configured command latency
+	 */
+	void schedule(Runnable task) {
+
+		schedule(task, commandLatency.nextDelay());
+	}
+
+	private ScheduledFuture<?> schedule(Runnable task, long delay) {
+
+		try {
+			return scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+		} catch (RuntimeException e) {
+			// Simulator is shutting down
+			return null;
+		}
+	}
+
+	void sessionReady(SimulatorSession session) {
+
+		sessions.add(session);
+	}
+
+	void sessionClosed(SimulatorSession session) {
+
+		sessions.remove(session);
+		for (SimulatedCall call: calls.values()) {
+			if (call.session == session && calls.remove(call.id) != null) {
+				call.ended = true;
+				if (call.hangup != null) {
+					call.hangup.cancel(false);
+				}
+			}
+		}
+	}
+
+	int nextSessionNumber() {
+
+		return sessionNumber.incrementAndGet();
+	}
+
+	SimulatedCall getCall(String callId) {
+
+		return calls.get(callId);
+	}
+
+	void commandReceived() {
+
+		commands.incrementAndGet();
+	}
+
+	void sessionCompressed() {
+
+		compressed.incrementAndGet();
+	}
+
+	public String getDomain() {
+		return domain;
+	}
+
+	public void setDomain(String domain) {
+		this.domain = domain;
+	}
+
+	/**
+	 * Sets the number of offers per second sent across all the connected clients
+	 */
+	public void setOffersPerSecond(double offersPerSecond) {
+		this.offersPerSecond = offersPerSecond;
+	}
+
+	/**
+	 * Sets the maximum number of simultaneous calls. Offers beyond it are not sent.
+	 */
+	public void setMaxCalls(int maxCalls) {
+		this.maxCalls = maxCalls;
+	}
+
+	/**
+	 * Sets the delay before the result of a command is sent
+	 */
+	public void setCommandLatency(LatencyDistribution commandLatency) {
+		this.commandLatency = commandLatency;
+	}
+
+	/**
+	 * Sets the delay before call events like ringing, answered or end are sent
+	 */
+	public void setEventLatency(LatencyDistribution eventLatency) {
+		this.eventLatency = eventLatency;
+	}
+
+	/**
+	 * Sets how long verbs run before completing
+	 */
+	public void setVerbDuration(LatencyDistribution verbDuration) {
+		this.verbDuration = verbDuration;
+	}
+
+	/**
+	 * Sets how long calls last before the remote party hangs up
+	 */
+	public void setCallDuration(LatencyDistribution callDuration) {
+		this.callDuration = callDuration;
+	}
+
+	/**
+	 * Sets whether zlib stream compression is offered to clients after authentication
+	 */
+	public void setCompressionOffered(boolean compressionOffered) {
+		this.compressionOffered = compressionOffered;
+	}
+
+	boolean isCompressionOffered() {
+		return compressionOffered;
+	}
+
+	/**
+	 * Sets whether compression requests are answered with a failure instead of compressing
+	 */
+	public void setCompressionFailing(boolean compressionFailing) {
+		this.compressionFailing = compressionFailing;
+	}
+
+	boolean isCompressionFailing() {
+		return compressionFailing;
+	}
+
+	public int getActiveCalls() {
+		return calls.size();
+	}
+
+	public int getSessions() {
+		return sessions.size();
+	}
+
+	public long getOffers() {
+		return offers.get();
+	}
+
+	public long getDials() {
+		return dials.get();
+	}
+
+	public long getCommands() {
+		return commands.get();
+	}
+
+	public long getEnded() {
+		return ended.get();
+	}
+
+	/**
+	 * @return long Offers not sent because the maximum number of calls was reached
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return long Connections whose stream has been compressed
+	 */
+	public long getCompressed() {
+		return compressed.get();
+	}
+
+	@Override
+	public String toString() {
+
+		return String.format("sessions=%s activeCalls=%s offers=%s dials=%s commands=%s ended=%s dropped=%s",
+				getSessions(), getActiveCalls(), getOffers(), getDials(), getCommands(), getEnded(), getDropped());
+	}
+
+	/**
+	 * Simulated call. Every call belongs to the client session it was offered to or
+	 * dialed from.
+	 */
+	static class SimulatedCall {
+
+		private final String id;
+		private final SimulatorSession session;
+		private final Set<String> verbs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		private volatile ScheduledFuture<?> hangup;
+		private volatile boolean ended;
+
+		SimulatedCall(String id, SimulatorSession session) {
+
+			this.id = id;
+			this.session = session;
+		}
+
+		String getId() {
+
+			return id;
+		}
+
+		Runnable event(String payload) {
+
+			return session.sender(String.format("<presence from='%s@%s' to='%s'>%s</presence>",
+					id, session.getDomain(), session.getJid(), payload));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 5222;
+		double rate = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+
+		final RayoServerSimulator simulator = new RayoServerSimulator(port);
+		simulator.setOffersPerSecond(rate);
+		simulator.start();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+
+			@Override
+			public void run() {
+
+				simulator.shutdown();
+			}
+		});
+		System.out.println(String.format("Rayo server simulator listening on port %s with %s offers per second", port, rate));
+		while (true) {
+			Thread.sleep(5000);
+			System.out.println(simulator);
+		}
+	}
+}
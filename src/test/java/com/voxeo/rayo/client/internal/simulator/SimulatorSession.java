@@ -0,0 +1,242 @@
+package com.voxeo.rayo.client.internal.simulator;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.dom4j.Element;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.handler.codec.compression.ZlibDecoder;
+import org.jboss.netty.handler.codec.compression.ZlibEncoder;
+
+import com.rayo.client.xmpp.util.Dom4jParser;
+import com.voxeo.rayo.client.internal.simulator.RayoServerSimulator.SimulatedCall;
+
+/**
+ * <p>Server side of a client connection to the {@link RayoServerSimulator}. It negotiates the
+ * stream, authentication, resource binding and session like the test harness does and then
+ * answers every Rayo command after the configured latency.</p>
+ *
+ * <p>When the simulator offers compression, it is offered along with resource binding. Once
+ * confirmed, zlib codecs are added in front of the pipeline and the client opens a new
+ * stream, which is not offered compression again.</p>
+ */
+public class SimulatorSession extends SimpleChannelHandler {
+
+	private static final String STREAM_HEADER = "<stream:stream xmlns='jabber:client' id='%s' from='%s' version='1.0' xmlns:stream='http://etherx.jabber.org/streams'>";
+
+	private final RayoServerSimulator simulator;
+	private final String domain;
+	private Channel channel;
+
+	private volatile boolean authenticated;
+	private volatile boolean compressed;
+	private volatile String jid;
+
+	public SimulatorSession(RayoServerSimulator simulator) {
+
+		this.simulator = simulator;
+		this.domain = simulator.getDomain();
+	}
+
+	@Override
+	public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+
+		channel = e.getChannel();
+		super.channelConnected(ctx, e);
+	}
+
+	@Override
+	public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+
+		simulator.sessionClosed(this);
+		super.channelClosed(ctx, e);
+	}
+
+	@Override
+	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+
+		String frame = (String)e.getMessage();
+		if (frame.startsWith("<stream:stream")) {
+			openStream();
+		} else if (frame.startsWith("</stream:stream")) {
+			channel.close();
+		} else {
+			Element element = Dom4jParser.parseXml(frame);
+			String name = element.getName();
+			if (name.equals("auth")) {
+				send("<challenge xmlns='urn:ietf:params:xml:ns:xmpp-sasl'>cmVhbG09InNvbWVyZWFsbSIsbm9uY2U9Ik9BNk1HOXRFUUdtMmhoIixxb3A9ImF1dGgiLGNoYXJzZXQ9dXRmLTgsYWxnb3JpdGhtPW1kNS1zZXNzCg==</challenge>");
+				send("<success xmlns='urn:ietf:params:xml:ns:xmpp-sasl'/>");
+				authenticated = true;
+			} else if (name.equals("compress")) {
+				compress(ctx);
+			} else if (name.equals("iq")) {
+				processIQ(element);
+			}
+		}
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+
+		e.getCause().printStackTrace();
+		e.getChannel().close();
+	}
+
+	private void openStream() {
+
+		send(String.format(STREAM_HEADER, UUID.randomUUID().toString(), domain));
+		if (!authenticated) {
+			send("<stream:features><mechanisms xmlns='urn:ietf:params:xml:ns:xmpp-sasl'><mechanism>DIGEST-MD5</mechanism><mechanism>PLAIN</mechanism></mechanisms></stream:features>");
+		} else if (simulator.isCompressionOffered() && !compressed) {
+			send("<stream:features><compression xmlns='http://jabber.org/features/compress'><method>zlib</method></compression>" +
+					"<bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/><session xmlns='urn:ietf:params:xml:ns:xmpp-session'/></stream:features>");
+		} else {
+			send("<stream:features><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/></stream:features>");
+			send("<stream:features><session xmlns='urn:ietf:params:xml:ns:xmpp-session'/></stream:features>");
+		}
+	}
+
+	private void compress(ChannelHandlerContext ctx) {
+
+		if (simulator.isCompressionFailing()) {
+			send("<failure xmlns='http://jabber.org/protocol/compress'><setup-failed/></failure>");
+			return;
+		}
+		// The confirmation is encoded before the codecs are added, and the client does not send
+		// anything else until it has read it
+		send("<compressed xmlns='http://jabber.org/protocol/compress'/>");
+		ctx.getPipeline().addFirst("deflater", new ZlibEncoder());
+		ctx.getPipeline().addFirst("inflater", new ZlibDecoder());
+		compressed = true;
+		simulator.sessionCompressed();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void processIQ(Element iq) {
+
+		String id = iq.attributeValue("id");
+		String to = iq.attributeValue("to");
+		List<Element> children = iq.elements();
+		if (children.isEmpty()) {
+			simulator.schedule(result(id, to));
+			return;
+		}
+		Element child = children.get(0);
+		String command = child.getName();
+		if (command.equals("bind")) {
+			Element resource = child.element("resource");
+			jid = String.format("user%s@%s/%s", simulator.nextSessionNumber(), domain, resource != null ? resource.getTextTrim() : "voxeo");
+			send(String.format("<iq id='%s' type='result' from='%s' to='%s'><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'><jid>%s</jid></bind></iq>", escape(id), domain, jid, jid));
+			return;
+		}
+		if (command.equals("session")) {
+			send(String.format("<iq id='%s' type='result' from='%s' to='%s'><session xmlns='urn:ietf:params:xml:ns:xmpp-session'/></iq>", escape(id), domain, jid));
+			simulator.sessionReady(this);
+			return;
+		}
+		simulator.commandReceived();
+		if (command.equals("dial")) {
+			SimulatedCall call = simulator.dial(this);
+			simulator.schedule(ref(id, to, call.getId()));
+			return;
+		}
+
+		String callId = node(to);
+		SimulatedCall call = callId == null ? null : simulator.getCall(callId);
+		if (call == null) {
+			// Pings and other server requests have no call
+			simulator.schedule(callId == null ? result(id, to) : notFound(id, to));
+			return;
+		}
+		String verbId = resource(to);
+		if (verbId != null) {
+			simulator.schedule(result(id, to));
+			if (command.equals("stop")) {
+				simulator.stopVerb(call, verbId);
+			}
+		} else if (RayoServerSimulator.VERBS.contains(command)) {
+			String newVerbId = UUID.randomUUID().toString();
+			simulator.schedule(ref(id, to, newVerbId));
+			simulator.startVerb(call, newVerbId, command);
+		} else {
+			simulator.schedule(result(id, to));
+			if (command.equals("answer")) {
+				simulator.answer(call);
+			} else if (command.equals("hangup") || command.equals("reject") || command.equals("redirect")) {
+				simulator.end(call, command.equals("hangup") ? "hangup" : "rejected");
+			}
+		}
+	}
+
+	private Runnable result(String id, String from) {
+
+		return sender(String.format("<iq type='result' id='%s' from='%s' to='%s'/>", escape(id), escape(from), jid));
+	}
+
+	private Runnable ref(String id, String from, String ref) {
+
+		return sender(String.format("<iq type='result' id='%s' from='%s' to='%s'><ref xmlns='urn:xmpp:rayo:1' id='%s'/></iq>", escape(id), escape(from), jid, ref));
+	}
+
+	private Runnable notFound(String id, String from) {
+
+		return sender(String.format("<iq type='error' id='%s' from='%s' to='%s'><error type='cancel'><item-not-found xmlns='urn:ietf:params:xml:ns:xmpp-stanzas'/></error></iq>", escape(id), escape(from), jid));
+	}
+
+	Runnable sender(final String stanza) {
+
+		return new Runnable() {
+
+			@Override
+			public void run() {
+
+				send(stanza);
+			}
+		};
+	}
+
+	void send(String stanza) {
+
+		if (channel != null && channel.isConnected()) {
+			channel.write(stanza);
+		}
+	}
+
+	String getJid() {
+
+		return jid;
+	}
+
+	String getDomain() {
+
+		return domain;
+	}
+
+	private String node(String jid) {
+
+		if (jid == null) {
+			return null;
+		}
+		int at = jid.indexOf('@');
+		return at == -1 ? null : jid.substring(0, at);
+	}
+
+	private String resource(String jid) {
+
+		int slash = jid.indexOf('/');
+		return slash == -1 ? null : jid.substring(slash + 1);
+	}
+
+	private String escape(String value) {
+
+		if (value == null) {
+			return "";
+		}
+		return value.replace("&", "&amp;").replace("'", "&apos;").replace("<", "&lt;");
+	}
+}
@@ -0,0 +1,120 @@
+package com.voxeo.rayo.client.internal.simulator;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+
+/**
+ * <p>Splits the incoming XMPP stream into frames holding exactly one top level element. The
+ * stream header and the stream end are frames on their own, as they are not complete XML
+ * elements. Whitespace keep alives between stanzas are discarded.</p>
+ *
+ * <p>The decoder does not validate the XML. It only tracks the element depth, skipping
+ * quoted attribute values, processing instructions and comments.</p>
+ */
+public class XmppFrameDecoder extends FrameDecoder {
+
+	private static final String STREAM_START = "<stream:stream";
+	private static final String STREAM_END = "</stream:stream>";
+
+	@Override
+	protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+
+		// Skip whitespace and the XML declaration
+		while (buffer.readable()) {
+			byte b = buffer.getByte(buffer.readerIndex());
+			if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+				buffer.skipBytes(1);
+			} else if (b == '<' && startsWith(buffer, "<?")) {
+				int end = indexOf(buffer, buffer.readerIndex(), '>');
+				if (end == -1) {
+					return null;
+				}
+				buffer.readerIndex(end + 1);
+			} else {
+				break;
+			}
+		}
+		if (!buffer.readable()) {
+			return null;
+		}
+		if (startsWith(buffer, STREAM_START)) {
+			int end = tagEnd(buffer, buffer.readerIndex());
+			return end == -1 ? null : buffer.readBytes(end + 1 - buffer.readerIndex());
+		}
+		if (startsWith(buffer, STREAM_END)) {
+			return buffer.readBytes(STREAM_END.length());
+		}
+
+		int depth = 0;
+		int i = buffer.readerIndex();
+		int limit = buffer.writerIndex();
+		while (i < limit) {
+			if (buffer.getByte(i) != '<') {
+				i++;
+				continue;
+			}
+			int end = tagEnd(buffer, i);
+			if (end == -1) {
+				return null;
+			}
+			byte next = i + 1 < limit ? buffer.getByte(i + 1) : 0;
+			if (next == '/') {
+				depth--;
+			} else if (next != '?' && next != '!' && buffer.getByte(end - 1) != '/') {
+				depth++;
+			}
+			i = end + 1;
+			if (depth == 0) {
+				return buffer.readBytes(i - buffer.readerIndex());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the closing bracket of the tag starting at the given index, ignoring brackets
+	 * inside quoted attribute values
+	 */
+	private int tagEnd(ChannelBuffer buffer, int start) {
+
+		byte quote = 0;
+		for (int i = start + 1; i < buffer.writerIndex(); i++) {
+			byte b = buffer.getByte(i);
+			if (quote != 0) {
+				if (b == quote) {
+					quote = 0;
+				}
+			} else if (b == '"' || b == '\'') {
+				quote = b;
+			} else if (b == '>') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int indexOf(ChannelBuffer buffer, int start, char c) {
+
+		for (int i = start; i < buffer.writerIndex(); i++) {
+			if (buffer.getByte(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean startsWith(ChannelBuffer buffer, String prefix) {
+
+		if (buffer.readableBytes() < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (buffer.getByte(buffer.readerIndex() + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
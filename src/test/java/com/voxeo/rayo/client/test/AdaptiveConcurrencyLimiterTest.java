@@ -0,0 +1,73 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.rayo.client.limiter.AdaptiveConcurrencyLimiter;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+	@Test
+	public void testRejectsOverLimit() throws Exception {
+
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2);
+		limiter.setMaxQueueWait(50);
+		assertTrue(limiter.acquire("1"));
+		assertTrue(limiter.acquire("2"));
+		assertFalse(limiter.acquire("3"));
+		assertEquals(1, limiter.getRejected());
+		assertEquals(2, limiter.getInFlight());
+
+		limiter.complete("1");
+		assertTrue(limiter.acquire("3"));
+	}
+
+	@Test
+	public void testQueuedRequestGetsReleasedPermit() throws Exception {
+
+		final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1);
+		limiter.setMaxQueueWait(5000);
+		assertTrue(limiter.acquire("1"));
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {}
+				limiter.complete("1");
+			}
+		}.start();
+		assertTrue(limiter.acquire("2"));
+		assertEquals(0, limiter.getRejected());
+	}
+
+	@Test
+	public void testLimitGrowsWithFastAnswers() throws Exception {
+
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4);
+		for (int i=0;i<200;i++) {
+			for (int j=0;j<4;j++) {
+				limiter.acquire(i + "-" + j);
+			}
+			for (int j=0;j<4;j++) {
+				limiter.complete(i + "-" + j);
+			}
+		}
+		assertTrue(limiter.getLimit() > 4);
+	}
+
+	@Test
+	public void testLimitShrinksOnLostRequests() throws Exception {
+
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20);
+		for (int i=0;i<10;i++) {
+			limiter.acquire(String.valueOf(i));
+			limiter.cancel(String.valueOf(i));
+		}
+		assertTrue(limiter.getLimit() < 20);
+		assertEquals(10, limiter.getDropped());
+		assertEquals(0, limiter.getInFlight());
+	}
+}
@@ -0,0 +1,122 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+import com.rayo.client.io.UnboundedQueueMessageDispatcher;
+import com.rayo.client.listener.BatchStanzaAdapter;
+import com.rayo.client.listener.StanzaAdapter;
+import com.rayo.client.xmpp.stanza.Message;
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+public class BatchDeliveryTest {
+
+	// Long enough to never be reached by a test
+	private static final long NO_DELAY = 60 * 1000 * 1000;
+
+	private final List<String> delivered = new CopyOnWriteArrayList<String>();
+
+	@Test
+	public void testBatchIsDeliveredWhenFull() throws Exception {
+
+		UnboundedQueueMessageDispatcher dispatcher = new UnboundedQueueMessageDispatcher();
+		dispatcher.addStanzaListener(new RecordingBatchListener(3, NO_DELAY));
+
+		dispatch(dispatcher, "m1", "m2", "m3", "m4");
+		assertTrue(await(1));
+		assertEquals(Arrays.asList("batch[m1, m2, m3]"), delivered);
+	}
+
+	@Test
+	public void testBatchIsDeliveredAfterTheDelay() throws Exception {
+
+		UnboundedQueueMessageDispatcher dispatcher = new UnboundedQueueMessageDispatcher();
+		// 50 milliseconds
+		dispatcher.addStanzaListener(new RecordingBatchListener(100, 50000));
+
+		long start = System.nanoTime();
+		dispatch(dispatcher, "m1", "m2");
+		assertTrue(await(1));
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		assertTrue(elapsed >= 40 && elapsed < 1000);
+		assertEquals(Arrays.asList("batch[m1, m2]"), delivered);
+	}
+
+	@Test
+	public void testBatchesAreDeliveredAfterTheSingleEventListeners() throws Exception {
+
+		UnboundedQueueMessageDispatcher dispatcher = new UnboundedQueueMessageDispatcher();
+		dispatcher.addStanzaListener(new RecordingBatchListener(2, NO_DELAY));
+		dispatcher.addStanzaListener(new RecordingListener());
+
+		dispatch(dispatcher, "m1", "m2");
+		assertTrue(await(3));
+		assertEquals(Arrays.asList("m1", "m2", "batch[m1, m2]"), delivered);
+	}
+
+	@Test
+	public void testRemovedListenerGetsWhatItsBatchHolds() throws Exception {
+
+		UnboundedQueueMessageDispatcher dispatcher = new UnboundedQueueMessageDispatcher();
+		RecordingBatchListener batch = new RecordingBatchListener(100, NO_DELAY);
+		dispatcher.addStanzaListener(batch);
+		dispatcher.addStanzaListener(new RecordingListener());
+
+		dispatch(dispatcher, "m1", "m2");
+		assertTrue(await(2));
+		dispatcher.removeStanzaListener(batch);
+		assertTrue(await(3));
+		assertEquals(Arrays.asList("m1", "m2", "batch[m1, m2]"), delivered);
+	}
+
+	private void dispatch(UnboundedQueueMessageDispatcher dispatcher, String... ids) {
+
+		for (String id: ids) {
+			dispatcher.dispatch(new Message().setId(id));
+		}
+	}
+
+	private boolean await(int count) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + 1000;
+		while (delivered.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		// Leaves time for any unexpected delivery
+		Thread.sleep(50);
+		return delivered.size() == count;
+	}
+
+	class RecordingListener extends StanzaAdapter {
+
+		@Override
+		public void onMessage(Message message) {
+
+			delivered.add(message.getId());
+		}
+	}
+
+	class RecordingBatchListener extends BatchStanzaAdapter {
+
+		RecordingBatchListener(int maxBatchSize, long maxBatchDelay) {
+
+			super(maxBatchSize, maxBatchDelay);
+		}
+
+		@Override
+		public void onBatch(List<XmppObject> batch) {
+
+			StringBuilder ids = new StringBuilder();
+			for (XmppObject object: batch) {
+				ids.append(ids.length() == 0 ? "" : ", ").append(object.getId());
+			}
+			delivered.add("batch[" + ids + "]");
+		}
+	}
+}
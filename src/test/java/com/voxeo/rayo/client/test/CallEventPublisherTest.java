@@ -0,0 +1,98 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.rayo.client.flow.CallEventPublisher;
+import com.rayo.client.flow.Flow;
+
+public class CallEventPublisherTest {
+
+	@Test
+	public void testHonorsDemand() throws Exception {
+
+		CallEventPublisher publisher = new CallEventPublisher("call1");
+		publisher.publish("ringing");
+		publisher.publish("answered");
+
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+		assertEquals(0, subscriber.items.size());
+
+		subscriber.subscription.request(1);
+		assertEquals(1, subscriber.items.size());
+		assertEquals("ringing", subscriber.items.get(0));
+
+		publisher.publish("end");
+		publisher.complete();
+		assertFalse(subscriber.completed);
+
+		subscriber.subscription.request(10);
+		assertEquals(3, subscriber.items.size());
+		assertTrue(subscriber.completed);
+		assertNull(subscriber.error);
+	}
+
+	@Test
+	public void testFailsWhenBufferIsFull() throws Exception {
+
+		CallEventPublisher publisher = new CallEventPublisher("call1", 2);
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		publisher.subscribe(subscriber);
+
+		assertTrue(publisher.publish("a"));
+		assertTrue(publisher.publish("b"));
+		assertFalse(publisher.publish("c"));
+		assertTrue(subscriber.error != null);
+		assertEquals(0, publisher.getBufferedCount());
+	}
+
+	@Test
+	public void testSingleSubscriber() throws Exception {
+
+		CallEventPublisher publisher = new CallEventPublisher("call1");
+		publisher.subscribe(new RecordingSubscriber());
+		RecordingSubscriber second = new RecordingSubscriber();
+		publisher.subscribe(second);
+		assertTrue(second.error instanceof IllegalStateException);
+	}
+
+	class RecordingSubscriber implements Flow.Subscriber<Object> {
+
+		Flow.Subscription subscription;
+		List<Object> items = new ArrayList<Object>();
+		Throwable error;
+		boolean completed;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(Object item) {
+
+			items.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+
+			error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+
+			completed = true;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.rayo.client.registry.Call;
+import com.rayo.client.registry.CallsRegistry;
+import com.rayo.client.registry.CallsRegistryListener;
+
+public class CallsRegistryTest {
+
+	@Test
+	public void testEvictsWhenFull() throws Exception {
+
+		CallsRegistry registry = new CallsRegistry(2);
+		RecordingListener listener = new RecordingListener();
+		registry.addListener(listener);
+		
+		registry.registerCall("a", new Call("a", "localhost"));
+		registry.registerCall("b", new Call("b", "localhost"));
+		registry.get("a");
+		registry.registerCall("c", new Call("c", "localhost"));
+		
+		assertEquals(2, registry.size());
+		assertEquals(1, registry.getEvictedCount());
+		assertNull(registry.get("b"));
+		assertNotNull(registry.get("a"));
+		assertEquals(1, listener.evicted.size());
+		assertEquals("b", listener.evicted.get(0).getCallId());
+	}
+	
+	@Test
+	public void testExpiresIdleCallsThatWereNotAnswered() throws Exception {
+
+		CallsRegistry registry = new CallsRegistry();
+		RecordingListener listener = new RecordingListener();
+		registry.addListener(listener);
+		registry.setMaxIdle(10);
+		
+		Call answered = new Call("answered", "localhost");
+		answered.transition(Call.State.ANSWERED);
+		registry.registerCall("offered", new Call("offered", "localhost"));
+		registry.registerCall("answered", answered);
+		Thread.sleep(50);
+		registry.purge();
+		
+		assertNull(registry.get("offered"));
+		assertNotNull(registry.get("answered"));
+		assertEquals(1, registry.getExpiredCount());
+		assertEquals(1, listener.expired.size());
+		assertEquals("offered", listener.expired.get(0).getCallId());
+	}
+	
+	@Test
+	public void testExpiresCallsThatExceedTheirDuration() throws Exception {
+
+		CallsRegistry registry = new CallsRegistry();
+		registry.setMaxDuration(10);
+		
+		Call answered = new Call("answered", "localhost");
+		answered.transition(Call.State.ANSWERED);
+		registry.registerCall("answered", answered);
+		Thread.sleep(50);
+		registry.purge();
+		
+		assertNull(registry.get("answered"));
+		assertEquals(1, registry.getExpiredCount());
+	}
+	
+	@Test
+	public void testSweepsInTheBackground() throws Exception {
+
+		CallsRegistry registry = new CallsRegistry();
+		final CountDownLatch latch = new CountDownLatch(1);
+		registry.addListener(new RecordingListener() {
+			@Override
+			public void callExpired(Call call) {
+				latch.countDown();
+			}
+		});
+		registry.setMaxIdle(0);
+		registry.registerCall("a", new Call("a", "localhost"));
+		registry.start();
+		try {
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+			assertEquals(0, registry.size());
+		} finally {
+			registry.stop();
+		}
+	}
+	
+	@Test
+	public void testTracksCallState() throws Exception {
+
+		CallsRegistry registry = new CallsRegistry();
+		Call call = new Call("a", "localhost", Call.State.DIALING);
+		registry.registerCall("a", call);
+		
+		assertTrue(call.transition(Call.State.RINGING));
+		assertTrue(call.transition(Call.State.ANSWERED));
+		assertFalse(call.transition(Call.State.RINGING));
+		assertEquals(Call.State.ANSWERED, call.getState());
+		
+		registry.unregisterCal("a");
+		assertEquals(Call.State.ENDED, call.getState());
+		assertNull(registry.get("a"));
+		assertEquals(1, registry.getRegisteredCount());
+		assertEquals(1, registry.getEndedCount());
+		assertEquals(0, registry.getExpiredCount());
+	}
+	
+	class RecordingListener implements CallsRegistryListener {
+		
+		final List<Call> expired = new CopyOnWriteArrayList<Call>();
+		final List<Call> evicted = new CopyOnWriteArrayList<Call>();
+		
+		@Override
+		public void callExpired(Call call) {
+			expired.add(call);
+		}
+		
+		@Override
+		public void callEvicted(Call call) {
+			evicted.add(call);
+		}
+	}
+}
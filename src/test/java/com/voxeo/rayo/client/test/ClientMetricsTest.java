@@ -0,0 +1,101 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.rayo.client.metrics.ClientMetrics;
+import com.rayo.client.metrics.Gauge;
+import com.rayo.client.metrics.Histogram;
+import com.rayo.client.metrics.StripedCounter;
+
+public class ClientMetricsTest {
+
+	@Test
+	public void testStripedCounterSumsAllThreads() throws Exception {
+
+		final StripedCounter counter = new StripedCounter();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						counter.increment();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		assertEquals(80000, counter.get());
+		
+		counter.reset();
+		assertEquals(0, counter.get());
+	}
+	
+	@Test
+	public void testHistogramPercentiles() {
+
+		Histogram histogram = new Histogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		// Relative error is below 1/32
+		assertEquals(500000, histogram.getPercentile(50), 500000 / 32);
+		assertEquals(990000, histogram.getPercentile(99), 990000 / 32);
+		assertEquals(500500, histogram.getMean(), 1);
+	}
+	
+	@Test
+	public void testRoundTripPerCommand() {
+
+		ClientMetrics metrics = new ClientMetrics();
+		metrics.requestSent("1", "dial");
+		metrics.requestSent("2", "say");
+		metrics.requestSent("3", "say");
+		metrics.responseReceived("1", false);
+		metrics.responseReceived("2", true);
+		metrics.requestAbandoned("3", true);
+		// Unknown answers are ignored
+		metrics.responseReceived("4", false);
+		
+		Map<String, Long> snapshot = metrics.snapshot();
+		assertEquals(Long.valueOf(1), snapshot.get("rtt.dial.count"));
+		assertEquals(Long.valueOf(1), snapshot.get("rtt.say.count"));
+		assertEquals(Long.valueOf(1), snapshot.get(ClientMetrics.REQUEST_ERRORS));
+		assertEquals(Long.valueOf(1), snapshot.get(ClientMetrics.REQUEST_TIMEOUTS));
+		assertEquals(Long.valueOf(0), snapshot.get("requests.tracked"));
+	}
+	
+	@Test
+	public void testReconnectsAndGauges() {
+
+		ClientMetrics metrics = new ClientMetrics();
+		metrics.connected();
+		metrics.connectionLost();
+		metrics.connected();
+		metrics.addGauge("queue", new Gauge() {
+			public long getValue() {
+				return 42;
+			}
+		});
+		
+		Map<String, Long> snapshot = metrics.snapshot();
+		assertEquals(Long.valueOf(2), snapshot.get(ClientMetrics.CONNECTIONS));
+		assertEquals(Long.valueOf(1), snapshot.get(ClientMetrics.RECONNECTS));
+		assertEquals(Long.valueOf(1), snapshot.get(ClientMetrics.CONNECTIONS_LOST));
+		assertEquals(Long.valueOf(42), snapshot.get("queue"));
+		
+		metrics.removeGauge("queue");
+		assertFalse(metrics.snapshot().containsKey("queue"));
+		assertTrue(metrics.snapshot().containsKey(ClientMetrics.STANZAS_IN + ".rate"));
+	}
+}
@@ -0,0 +1,160 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+
+import com.rayo.client.io.UnboundedQueueMessageDispatcher;
+import com.rayo.client.io.XmppReaderWorker;
+import com.rayo.client.listener.StanzaAdapter;
+import com.rayo.client.util.XmppObjectParser;
+import com.rayo.client.xmpp.stanza.IQ;
+import com.rayo.client.xmpp.stanza.Presence;
+
+public class CompactStanzaTest {
+
+	private static final String OFFER =
+		"<presence to=\"usera@rayo.net/voxeo\" from=\"9f00061@call.rayo.net\">" +
+			"<offer xmlns=\"urn:xmpp:rayo:1\" to=\"sip:usera@rayo.net\" from=\"sip:+13055195825@rayo.net\">" +
+				"<header name=\"Contact\" value=\"&lt;sip:+13055195825@10.0.1.11:5060&gt;\"/>" +
+				"<header name=\"CSeq\" value=\"1 INVITE\"/>" +
+			"</offer>" +
+		"</presence>";
+
+	private static final String RESULT =
+		"<iq id=\"abc\" type=\"result\" to=\"usera@rayo.net/voxeo\" from=\"9f00061@call.rayo.net\">" +
+			"<ref xmlns=\"urn:xmpp:rayo:1\" id=\"fgh4590\"/>" +
+		"</iq>";
+
+	@Test
+	public void testAttributesDoNotBuildTheElement() throws Exception {
+
+		IQ iq = XmppObjectParser.parseCompactIQ(parser(RESULT));
+		assertEquals("abc", iq.getId());
+		assertEquals("9f00061@call.rayo.net", iq.getFrom());
+		assertTrue(iq.isResult());
+		assertEquals("ref", iq.getChildName());
+		assertEquals("urn:xmpp:rayo:1", iq.getChildNamespace());
+		assertTrue(iq.hasChild("ref", "urn:xmpp:rayo:1"));
+		assertFalse(iq.hasChild("error"));
+		assertNull(iq.getError());
+		assertTrue(iq.isCompact());
+	}
+
+	@Test
+	public void testCompactIQMatchesParsedIQ() throws Exception {
+
+		IQ compact = XmppObjectParser.parseCompactIQ(parser(RESULT));
+		IQ parsed = XmppObjectParser.parseIQ(parser(RESULT));
+		assertEquals(RESULT, compact.toString());
+		assertTrue(compact.isCompact());
+		assertEquals(parsed.toString(), compact.getElement().asXML());
+		assertFalse(compact.isCompact());
+		assertEquals("fgh4590", compact.getChildElement("ref").attributeValue("id"));
+	}
+
+	@Test
+	public void testCompactPresenceMatchesParsedPresence() throws Exception {
+
+		Presence compact = XmppObjectParser.parseCompactPresence(parser(OFFER));
+		Presence parsed = XmppObjectParser.parsePresence(parser(OFFER));
+		String xml = compact.toString();
+		assertEquals(OFFER, xml);
+		assertEquals(parsed.toString(), compact.getElement().asXML());
+		assertEquals(xml, compact.toString());
+	}
+
+	@Test
+	public void testElementCanBeModifiedOnceBuilt() throws Exception {
+
+		Presence presence = XmppObjectParser.parseCompactPresence(parser(OFFER));
+		presence.setFrom("other@call.rayo.net");
+		assertFalse(presence.isCompact());
+		assertEquals("other@call.rayo.net", presence.getFrom());
+		assertTrue(presence.toString().contains("from=\"other@call.rayo.net\""));
+	}
+
+	@Test
+	public void testElementIsBuiltOnceForConcurrentReaders() throws Exception {
+
+		final int threads = 8;
+		final AtomicInteger failures = new AtomicInteger();
+		for (int i = 0; i < 200; i++) {
+			final Presence presence = XmppObjectParser.parseCompactPresence(parser(OFFER));
+			final CyclicBarrier barrier = new CyclicBarrier(threads);
+			final CountDownLatch done = new CountDownLatch(threads);
+			for (int j = 0; j < threads; j++) {
+				new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+
+						try {
+							barrier.await();
+							if (presence.getElement() == null || presence.getChildElement("offer") == null) {
+								failures.incrementAndGet();
+							}
+						} catch (Exception e) {
+							failures.incrementAndGet();
+						} finally {
+							done.countDown();
+						}
+					}
+				}).start();
+			}
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			assertFalse(presence.isCompact());
+		}
+		assertEquals(0, failures.get());
+	}
+
+	@Test
+	public void testReaderOnlyCompactsWhenEnabled() throws Exception {
+
+		assertFalse(read(null).isCompact());
+		assertFalse(read(false).isCompact());
+		assertTrue(read(true).isCompact());
+	}
+
+	private Presence read(Boolean compactStanzas) throws Exception {
+
+		final LinkedBlockingQueue<Presence> received = new LinkedBlockingQueue<Presence>();
+		UnboundedQueueMessageDispatcher dispatcher = new UnboundedQueueMessageDispatcher();
+		dispatcher.addStanzaListener(new StanzaAdapter() {
+
+			@Override
+			public void onPresence(Presence presence) {
+
+				received.add(presence);
+			}
+		});
+		XmppReaderWorker worker = new XmppReaderWorker(dispatcher);
+		if (compactStanzas != null) {
+			worker.setCompactStanzas(compactStanzas);
+		}
+		worker.resetParser(new StringReader("<stream:stream xmlns:stream=\"http://etherx.jabber.org/streams\">" + OFFER + "</stream:stream>"));
+		worker.run();
+		return received.poll(5, TimeUnit.SECONDS);
+	}
+
+	private XmlPullParser parser(String xml) throws Exception {
+
+		XmlPullParser parser = new MXParser();
+		parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+		parser.setInput(new StringReader(xml));
+		parser.nextTag();
+		return parser;
+	}
+}
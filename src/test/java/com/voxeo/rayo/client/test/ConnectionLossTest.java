@@ -0,0 +1,54 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rayo.client.SimpleXmppConnection;
+import com.rayo.client.exception.ConnectionLostException;
+import com.rayo.client.xmpp.stanza.Message;
+import com.voxeo.rayo.client.internal.NettyServer;
+import com.voxeo.rayo.client.test.config.TestConfig;
+
+public class ConnectionLossTest {
+
+	private NettyServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		
+		server = NettyServer.newInstance(TestConfig.port);
+	}
+
+	@Test
+	public void testConnectionLossAbortsSendAndWait() throws Exception {
+
+		SimpleXmppConnection connection = new SimpleXmppConnection(TestConfig.serverEndpoint, TestConfig.port);
+		connection.connect();
+		connection.login("userc", "1", "voxeo");
+		
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {}
+				server.dropConnection();
+			}
+		}.start();
+		
+		// The test server never answers messages
+		long start = System.currentTimeMillis();
+		try {
+			connection.sendAndWait(new Message().setId(UUID.randomUUID().toString()), 10000);
+			fail("Expected the request to be aborted");
+		} catch (ConnectionLostException e) {
+			assertTrue(System.currentTimeMillis() - start < 5000);
+		} finally {
+			connection.disconnect();
+		}
+	}
+}
@@ -71,6 +71,26 @@ public class ConnectionTest {
 		fail("Expected exception");
 	}
 
+	@Test
+	public void testFailedSendsDoNotLeaveFiltersBehind() throws Exception {
+		
+		connection = createConnection(TestConfig.serverEndpoint, TestConfig.port);
+		connection.connect();
+		
+		// Not authenticated, so nothing gets written
+		try {
+			connection.sendAndWait(new IQ(IQ.Type.get));
+			fail("Expected exception");
+		} catch (XmppException xe) {
+		}
+		try {
+			connection.send(new IQ(IQ.Type.get), new MockResponseHandler());
+			fail("Expected exception");
+		} catch (XmppException xe) {
+		}
+		assertEquals(0, ((SimpleXmppConnection)connection).getDispatcher().getFiltersCount());
+	}
+
 	@Test
 	public void testSendFailsOnNonExistentServer() throws Exception {
 		
@@ -0,0 +1,34 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+import com.rayo.client.DefaultXmppConnectionFactory;
+import com.rayo.client.XmppConnection;
+import com.rayo.core.verb.VerbRef;
+import com.voxeo.rayo.client.internal.XmppIntegrationTest;
+
+public class DialTest extends XmppIntegrationTest {
+
+	@Test
+	public void testSynchronousDial() throws Exception {
+
+		VerbRef ref = rayo.dial(new URI("sip:from@localhost"), new URI("sip:to@localhost"));
+
+		assertNotNull(ref);
+		assertNotNull(ref.getCallId());
+		assertEquals(ref.getVerbId(), ref.getCallId());
+		// The call is tracked once the server has answered the dial
+		assertNotNull(rayo.getCallEvents(ref.getCallId()));
+	}
+
+	@Override
+	protected XmppConnection createConnection(String hostname, Integer port) {
+
+		return new DefaultXmppConnectionFactory().createConnection(hostname, port);
+	}
+}
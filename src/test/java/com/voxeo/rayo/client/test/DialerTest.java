@@ -0,0 +1,120 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.rayo.client.DefaultXmppConnectionFactory;
+import com.rayo.client.XmppConnection;
+import com.rayo.client.dialer.Dialer;
+import com.rayo.client.dialer.DialerAdapter;
+import com.rayo.client.dialer.DialerConfiguration;
+import com.rayo.core.DialCommand;
+import com.voxeo.rayo.client.internal.XmppIntegrationTest;
+
+public class DialerTest extends XmppIntegrationTest {
+
+	@Test
+	public void testDialsAreSentAndRefsCollected() throws Exception {
+
+		DialerConfiguration config = new DialerConfiguration();
+		config.setCallsPerSecond(20);
+		Dialer dialer = new Dialer(rayo, config);
+		CountDownLatch latch = awaitDials(dialer, 5);
+		dialer.start();
+		try {
+			for (int i=0;i<5;i++) {
+				DialCommand dial = new DialCommand();
+				dial.setTo(new URI("sip:userc@127.0.0.1:5060"));
+				dial.setFrom(new URI("sip:test@127.0.0.1:5060"));
+				dialer.submit(dial);
+			}
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+			assertEquals(5, dialer.getSubmitted());
+			assertEquals(5, dialer.getDialed());
+			assertEquals(0, dialer.getFailed());
+			assertEquals(0, dialer.getPending());
+		} finally {
+			dialer.stop();
+		}
+	}
+
+	@Test
+	public void testMaxConcurrentCalls() throws Exception {
+
+		DialerConfiguration config = new DialerConfiguration();
+		config.setCallsPerSecond(50);
+		config.setMaxConcurrentCalls(2);
+		Dialer dialer = new Dialer(rayo, config);
+		CountDownLatch latch = awaitDials(dialer, 2);
+		dialer.start();
+		try {
+			for (int i=0;i<5;i++) {
+				DialCommand dial = new DialCommand();
+				dial.setTo(new URI("sip:userc@127.0.0.1:5060"));
+				dial.setFrom(new URI("sip:test@127.0.0.1:5060"));
+				dialer.submit(dial);
+			}
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+			// No end events are sent so the calls stay active
+			assertEquals(2, dialer.getDialed());
+			assertEquals(2, dialer.getConcurrentCalls());
+			assertTrue(dialer.getPending() == 3);
+		} finally {
+			dialer.stop();
+		}
+	}
+
+	@Test
+	public void testSlotsOfDiscardedCallsAreReleased() throws Exception {
+
+		DialerConfiguration config = new DialerConfiguration();
+		config.setCallsPerSecond(50);
+		config.setMaxConcurrentCalls(1);
+		// Calls that are never answered are expired by the registry
+		rayo.getCallsRegistry().setMaxIdle(200);
+		Dialer dialer = new Dialer(rayo, config);
+		CountDownLatch latch = awaitDials(dialer, 2);
+		dialer.start();
+		try {
+			for (int i=0;i<2;i++) {
+				DialCommand dial = new DialCommand();
+				dial.setTo(new URI("sip:userc@127.0.0.1:5060"));
+				dial.setFrom(new URI("sip:test@127.0.0.1:5060"));
+				dialer.submit(dial);
+			}
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+			assertEquals(2, dialer.getDialed());
+			assertTrue(dialer.getLost() >= 1);
+			assertEquals(0, dialer.getEnded());
+		} finally {
+			dialer.stop();
+		}
+	}
+
+	private CountDownLatch awaitDials(Dialer dialer, int dials) {
+
+		final CountDownLatch latch = new CountDownLatch(dials);
+		dialer.addDialerListener(new DialerAdapter() {
+			@Override
+			public void dialed(DialCommand command, String callId) {
+				latch.countDown();
+			}
+		});
+		return latch;
+	}
+
+	@Override
+	protected XmppConnection createConnection(String hostname, Integer port) {
+
+		return new DefaultXmppConnectionFactory().createConnection(hostname, port);
+	}
+}
@@ -0,0 +1,66 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.rayo.client.util.JID;
+import com.rayo.client.registry.Call;
+import com.rayo.client.util.JIDImpl;
+import com.rayo.client.xmpp.stanza.Presence;
+
+public class JIDTest {
+
+	@Test
+	public void testParse() throws Exception {
+
+		String value = "9f00061@call.rayo.net/a1b2";
+		JID jid = new JIDImpl(value);
+		assertEquals("9f00061", jid.getNode());
+		assertEquals("call.rayo.net", jid.getDomain());
+		assertEquals("a1b2", jid.getResource());
+		assertSame(value, jid.toString());
+		assertEquals("9f00061@call.rayo.net", jid.getBareJID().toString());
+		assertSame(jid.getDomain(), new JIDImpl("other@call.rayo.net").getDomain());
+		assertEquals("call.rayo.net", new JIDImpl("@call.rayo.net/").toString());
+	}
+
+	@Test
+	public void testModifiedJidIsWrittenAgain() throws Exception {
+
+		JID jid = new JIDImpl("9f00061@call.rayo.net/a1b2");
+		jid.setResource(null);
+		assertEquals("9f00061@call.rayo.net", jid.toString());
+	}
+
+	@Test
+	public void testStanzaReusesParsedJid() throws Exception {
+
+		Presence presence = new Presence().setFrom("9f00061@call.rayo.net/a1b2");
+		JID jid = presence.getFromJid();
+		assertSame(jid, presence.getFromJid());
+		presence.setFrom("9f00062@call.rayo.net");
+		assertNotSame(jid, presence.getFromJid());
+		assertEquals("9f00062", presence.getFromJid().getNode());
+		assertNull(presence.getToJid());
+	}
+
+	@Test
+	public void testCachesAreKeyedOnTheRawValue() throws Exception {
+
+		// Equal strings that are not the same instance must not be parsed again
+		Presence presence = new Presence().setFrom(new String("9f00061@call.rayo.net/a1b2"));
+		JID jid = presence.getFromJid();
+		presence.setFrom(new String("9f00061@call.rayo.net/a1b2"));
+		assertSame(jid, presence.getFromJid());
+
+		Call call = new Call("9f00061", "call.rayo.net");
+		String callJid = call.getJid(new String("call.rayo.net"));
+		assertEquals("9f00061@call.rayo.net", callJid);
+		assertSame(callJid, call.getJid(new String("call.rayo.net")));
+		assertEquals("9f00061@node.rayo.net", call.getJid("node.rayo.net"));
+	}
+}
@@ -0,0 +1,152 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+import com.rayo.client.io.UnboundedQueueMessageDispatcher;
+import com.rayo.client.listener.RayoMessageListener;
+import com.rayo.client.listener.StanzaAdapter;
+import com.rayo.client.xmpp.stanza.IQ;
+import com.rayo.client.xmpp.stanza.Message;
+import com.rayo.client.xmpp.stanza.Ping;
+
+public class MessageDispatcherTest {
+
+	private final List<String> invoked = new CopyOnWriteArrayList<String>();
+
+	@Test
+	public void testListenersAreInvokedInRegistrationOrder() throws Exception {
+
+		UnboundedQueueMessageDispatcher dispatcher = new UnboundedQueueMessageDispatcher();
+		dispatcher.addStanzaListener(new PlainListener("a"));
+		dispatcher.addStanzaListener(new RoutedListener("ping", null, "routed1"));
+		dispatcher.addStanzaListener(new PlainListener("b"));
+		dispatcher.addStanzaListener(new RoutedListener("ping", "callA", "routed2"));
+		dispatcher.addStanzaListener(new RoutedListener("offer", null, "other"));
+		dispatcher.addStanzaListener(new RoutedListener("ping", null, "routed3"));
+		dispatcher.addStanzaListener(new PlainListener("c"));
+
+		dispatcher.dispatch(new IQ(IQ.Type.get, new Ping()).setFrom("callA@localhost/verb1"));
+		assertTrue(await(6));
+		assertEquals(Arrays.asList("a", "routed1", "b", "routed2", "routed3", "c"), invoked);
+	}
+
+	@Test
+	public void testRoutedListenersGetMessages() throws Exception {
+
+		UnboundedQueueMessageDispatcher dispatcher = new UnboundedQueueMessageDispatcher();
+		dispatcher.addStanzaListener(new RoutedListener("ping", null, "routed"));
+		dispatcher.addStanzaListener(new PlainListener("plain"));
+
+		dispatcher.dispatch(new Message());
+		assertTrue(await(2));
+		assertEquals(Arrays.asList("routed", "plain"), invoked);
+	}
+
+	@Test
+	public void testRoutedListenersOnlyFilterWhenNotRouted() throws Exception {
+
+		ReceivingListener listener = new ReceivingListener("ping");
+		IQ offer = new IQ(IQ.Type.set).setFrom("callA@localhost");
+
+		// Not registered anywhere, so the listener checks what it gets
+		listener.onIQ(offer);
+		assertTrue(invoked.isEmpty());
+
+		UnboundedQueueMessageDispatcher dispatcher = new UnboundedQueueMessageDispatcher();
+		dispatcher.addStanzaListener(listener);
+		dispatcher.dispatch(new IQ(IQ.Type.get, new Ping()).setFrom("callA@localhost/verb1"));
+		assertTrue(await(1));
+
+		// Routed, so whatever it gets has already been matched by the dispatcher
+		listener.onIQ(offer);
+		assertEquals(2, invoked.size());
+
+		dispatcher.removeStanzaListener(listener);
+		listener.onIQ(offer);
+		assertEquals(2, invoked.size());
+	}
+
+	private boolean await(int count) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + 1000;
+		while (invoked.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		// Leaves time for any unexpected invocation
+		Thread.sleep(50);
+		return invoked.size() == count;
+	}
+
+	class PlainListener extends StanzaAdapter {
+
+		private final String name;
+
+		PlainListener(String name) {
+
+			this.name = name;
+		}
+
+		@Override
+		public void onIQ(IQ iq) {
+
+			invoked.add(name);
+		}
+
+		@Override
+		public void onMessage(Message message) {
+
+			invoked.add(name);
+		}
+	}
+
+	class ReceivingListener extends RayoMessageListener {
+
+		ReceivingListener(String message) {
+
+			super(message);
+		}
+
+		@Override
+		public void messageReceived(Object object) {
+
+			invoked.add("messageReceived");
+		}
+	}
+
+	class RoutedListener extends RayoMessageListener {
+
+		private final String name;
+
+		RoutedListener(String message, String jid, String name) {
+
+			super(message, null, jid);
+			this.name = name;
+		}
+
+		// Overridden callbacks must not be bypassed for routed stanzas
+		@Override
+		public void onIQ(IQ iq) {
+
+			invoked.add(name);
+		}
+
+		@Override
+		public void onMessage(Message message) {
+
+			invoked.add(name);
+		}
+
+		@Override
+		public void messageReceived(Object object) {
+
+			invoked.add("messageReceived");
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.rayo.client.DefaultXmppConnectionFactory;
+import com.rayo.client.SimpleXmppConnection;
+import com.rayo.client.XmppConnection;
+import com.rayo.client.XmppConnectionAdapter;
+import com.rayo.client.admission.OfferAdmissionController;
+import com.rayo.client.io.UnboundedQueueMessageDispatcher;
+import com.rayo.client.listener.StanzaAdapter;
+import com.rayo.client.xmpp.stanza.IQ;
+import com.rayo.client.xmpp.stanza.Message;
+import com.rayo.client.xmpp.stanza.Presence;
+import com.rayo.client.xmpp.stanza.XmppObject;
+import com.rayo.client.xmpp.util.Dom4jParser;
+import com.voxeo.rayo.client.internal.XmppIntegrationTest;
+
+public class OfferAdmissionControllerTest extends XmppIntegrationTest {
+
+	private static final String OFFER = "<presence from=\"%s@localhost\" to=\"userc@localhost/voxeo\">" +
+			"<offer xmlns=\"urn:xmpp:rayo:1\" to=\"sip:userc@localhost:5060\" from=\"sip:test@someip.com:6089\"/></presence>";
+
+	@Test
+	public void testOffersAreAdmittedWhenNotOverloaded() throws Exception {
+
+		OfferAdmissionController controller = new OfferAdmissionController(rayo);
+		controller.start();
+		try {
+			assertTrue(controller.accept(offer("admitted")));
+			assertFalse(controller.isOverloaded());
+			assertEquals(0, controller.getRejectedCount());
+		} finally {
+			controller.stop();
+		}
+	}
+
+	@Test
+	public void testOffersAreRejectedWhenTheQueueIsFull() throws Exception {
+
+		OfferAdmissionController controller = new OfferAdmissionController(rayo);
+		controller.setMaxQueueDepth(5);
+		controller.setCheckInterval(10000);
+		controller.start();
+		CountDownLatch release = blockListeners(10);
+		try {
+			assertFalse(controller.accept(offer("rejected")));
+			assertTrue(controller.isOverloaded());
+			assertEquals(1, controller.getRejectedCount());
+			assertEquals(1, controller.getOverloadsCount());
+		} finally {
+			release.countDown();
+			controller.stop();
+		}
+	}
+
+	@Test
+	public void testRejectionIsSentWithoutWaitingForTheServer() throws Exception {
+
+		OfferAdmissionController controller = new OfferAdmissionController(rayo);
+		controller.setMaxQueueDepth(5);
+		controller.setCheckInterval(10000);
+		controller.start();
+		final CountDownLatch sent = new CountDownLatch(3);
+		rayo.getXmppConnection().addXmppConnectionListener(new XmppConnectionAdapter() {
+
+			@Override
+			public void messageSent(XmppObject message) {
+
+				if (message instanceof IQ && "reject".equals(((IQ)message).getChildName())) {
+					sent.countDown();
+				}
+			}
+		});
+		CountDownLatch release = blockListeners(10);
+		try {
+			for (int i = 0; i < 3; i++) {
+				assertFalse(controller.accept(offer("busy" + i)));
+			}
+			// The test server takes over 100ms to answer every IQ. Waiting for every answer
+			// would send the last rejection 200ms later.
+			assertTrue(sent.await(150, TimeUnit.MILLISECONDS));
+			Thread.sleep(600);
+			for (int i = 0; i < 3; i++) {
+				assertServerReceived(String.format("<iq id=\"*\" type=\"set\" from=\"userc@localhost/voxeo\" to=\"busy%s@localhost\"><reject xmlns=\"urn:xmpp:rayo:1\"><busy/></reject></iq>", i));
+			}
+		} finally {
+			release.countDown();
+			controller.stop();
+		}
+	}
+
+	/**
+	 * Holds the listeners thread on a first message and queues the rest behind it
+	 */
+	private CountDownLatch blockListeners(int messages) throws Exception {
+
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		rayo.addStanzaListener(new StanzaAdapter() {
+
+			@Override
+			public void onMessage(Message message) {
+
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		UnboundedQueueMessageDispatcher dispatcher = ((SimpleXmppConnection)rayo.getXmppConnection()).getDispatcher();
+		dispatcher.dispatch(new Message());
+		blocked.await();
+		for (int i = 1; i < messages; i++) {
+			dispatcher.dispatch(new Message());
+		}
+		return release;
+	}
+
+	private Presence offer(String callId) {
+
+		return new Presence(Dom4jParser.parseXml(String.format(OFFER, callId)));
+	}
+
+	@Override
+	protected XmppConnection createConnection(String hostname, Integer port) {
+
+		return new DefaultXmppConnectionFactory().createConnection(hostname, port);
+	}
+}
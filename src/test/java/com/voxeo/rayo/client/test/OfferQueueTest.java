@@ -0,0 +1,142 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.rayo.client.offer.OfferHandler;
+import com.rayo.client.offer.OfferQueue;
+import com.rayo.client.offer.OfferWorkerPool;
+import com.rayo.core.OfferEvent;
+
+public class OfferQueueTest {
+
+	@Test
+	public void testReleaseWakesUpWaitingConsumers() throws Exception {
+
+		OfferQueue queue = new OfferQueue();
+		Consumer first = new Consumer(queue, 10000);
+		Consumer second = new Consumer(queue, 10000);
+		awaitWaiting(first);
+		awaitWaiting(second);
+		
+		queue.release();
+		assertTrue(first.done.await(1, TimeUnit.SECONDS));
+		assertTrue(second.done.await(1, TimeUnit.SECONDS));
+		assertNull(first.offer);
+		assertNull(second.offer);
+	}
+	
+	@Test
+	public void testConsumersAfterAReleaseStillWait() throws Exception {
+
+		OfferQueue queue = new OfferQueue();
+		// Back to back releases can leave markers behind for consumers that are gone
+		for (int i = 0; i < 100; i++) {
+			Consumer consumer = new Consumer(queue, 10000);
+			awaitWaiting(consumer);
+			queue.release();
+			queue.release();
+			assertTrue(consumer.done.await(1, TimeUnit.SECONDS));
+		}
+		
+		long start = System.nanoTime();
+		assertNull(queue.take(100));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+		
+		queue.add(new OfferEvent("call1"));
+		assertEquals("call1", queue.take(1000).getCallId());
+	}
+	
+	@Test
+	public void testStaleOffersAreDiscarded() throws Exception {
+
+		assertTrue(OfferQueue.DEFAULT_MAX_AGE <= 10000);
+
+		OfferQueue queue = new OfferQueue();
+		queue.setMaxAge(50);
+		queue.activate();
+		queue.add(new OfferEvent("stale"));
+		Thread.sleep(100);
+		queue.add(new OfferEvent("fresh"));
+
+		assertEquals("fresh", queue.take(1000).getCallId());
+		assertEquals(1, queue.getDiscardedCount());
+	}
+
+	@Test
+	public void testStopInterruptsAndJoinsTheWorkers() throws Exception {
+
+		final CountDownLatch handling = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		final OfferQueue queue = new OfferQueue();
+		OfferWorkerPool pool = new OfferWorkerPool(queue, 2, new OfferHandler() {
+
+			@Override
+			public void handle(OfferEvent offer) {
+
+				handling.countDown();
+				try {
+					Thread.sleep(60000);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+				}
+			}
+		});
+		pool.start();
+		queue.add(new OfferEvent("call1"));
+		assertTrue(handling.await(1, TimeUnit.SECONDS));
+
+		long start = System.nanoTime();
+		pool.stop();
+		// Neither the busy worker nor the idle one waiting on the queue hold the pool back
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+		assertEquals(0, interrupted.getCount());
+		assertEquals(0, pool.getBusyWorkers());
+		assertEquals(1, pool.getHandledCount());
+		for (Thread thread: Thread.getAllStackTraces().keySet()) {
+			assertFalse(thread.getName().startsWith("rayo-offer-worker-"));
+		}
+	}
+
+	private void awaitWaiting(Consumer consumer) throws InterruptedException {
+		
+		long deadline = System.currentTimeMillis() + 1000;
+		while (consumer.getState() != Thread.State.TIMED_WAITING && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+	}
+	
+	class Consumer extends Thread {
+		
+		private final OfferQueue queue;
+		private final long timeout;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile OfferEvent offer;
+		
+		Consumer(OfferQueue queue, long timeout) {
+			
+			this.queue = queue;
+			this.timeout = timeout;
+			setDaemon(true);
+			start();
+		}
+		
+		@Override
+		public void run() {
+			
+			try {
+				offer = queue.take(timeout);
+			} catch (InterruptedException e) {
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+
+import com.rayo.client.io.PresenceCoalescer;
+import com.rayo.client.util.XmppObjectParser;
+import com.rayo.client.xmpp.stanza.Presence;
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+public class PresenceCoalescerTest {
+
+	@Test
+	public void testLatestPresenceIsDeliveredWithoutBuildingIt() throws Exception {
+
+		PresenceCoalescer coalescer = coalescer();
+		Presence first = presence("call1", "<speaking xmlns=\"urn:xmpp:rayo:1\" call-id=\"party\"/>");
+		Presence second = presence("call1", "<finished-speaking xmlns=\"urn:xmpp:rayo:1\" call-id=\"party\"/>");
+		Presence other = presence("call1", "<speaking xmlns=\"urn:xmpp:rayo:1\" call-id=\"other\"/>");
+		assertTrue(coalescer.offer(first));
+		assertTrue(coalescer.offer(second));
+		assertTrue(coalescer.offer(other));
+		assertEquals(1, coalescer.getMergedCount());
+		assertEquals(2, coalescer.getPendingCount());
+
+		Thread.sleep(20);
+		List<XmppObject> due = coalescer.drain();
+		assertEquals(2, due.size());
+		assertSame(second, due.get(0));
+		assertSame(other, due.get(1));
+		assertTrue(first.isCompact());
+		assertTrue(second.isCompact());
+		assertTrue(other.isCompact());
+	}
+
+	@Test
+	public void testOtherPresencesPassThrough() throws Exception {
+
+		PresenceCoalescer coalescer = coalescer();
+		Presence answered = presence("call1", "<answered xmlns=\"urn:xmpp:rayo:1\"/>");
+		assertFalse(coalescer.offer(answered));
+		assertEquals(0, coalescer.getPendingCount());
+		assertTrue(answered.isCompact());
+	}
+
+	@Test
+	public void testHeldPresencesAreFlushedBeforeTheEndOfTheirCall() throws Exception {
+
+		PresenceCoalescer coalescer = coalescer();
+		coalescer.setWindow(60000);
+		Presence speaking = presence("call1", "<speaking xmlns=\"urn:xmpp:rayo:1\" call-id=\"party\"/>");
+		Presence otherCall = presence("call2", "<speaking xmlns=\"urn:xmpp:rayo:1\" call-id=\"party\"/>");
+		coalescer.offer(speaking);
+		coalescer.offer(otherCall);
+
+		Presence end = presence("call1", "<end xmlns=\"urn:xmpp:rayo:1\"><hangup/></end>");
+		assertFalse(coalescer.offer(end));
+		List<XmppObject> held = coalescer.flush(end);
+		assertEquals(1, held.size());
+		assertSame(speaking, held.get(0));
+		assertEquals(1, coalescer.getPendingCount());
+		assertTrue(coalescer.flush(otherCall).isEmpty());
+	}
+
+	private PresenceCoalescer coalescer() {
+
+		PresenceCoalescer coalescer = new PresenceCoalescer();
+		coalescer.coalesce("speaking", "speaking");
+		coalescer.coalesce("finished-speaking", "speaking");
+		coalescer.setWindow(10);
+		return coalescer;
+	}
+
+	private Presence presence(String callId, String child) throws Exception {
+
+		String xml = "<presence to=\"usera@rayo.net/voxeo\" from=\"" + callId + "@call.rayo.net\">" + child + "</presence>";
+		XmlPullParser parser = new MXParser();
+		parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+		parser.setInput(new StringReader(xml));
+		parser.nextTag();
+		return XmppObjectParser.parseCompactPresence(parser);
+	}
+}
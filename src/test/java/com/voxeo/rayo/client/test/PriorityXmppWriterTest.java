@@ -0,0 +1,105 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.rayo.client.io.OutboundPriority;
+import com.rayo.client.io.PriorityXmppWriter;
+import com.rayo.client.xmpp.extensions.Extension;
+import com.rayo.client.xmpp.stanza.IQ;
+import com.rayo.client.xmpp.stanza.Ping;
+import com.rayo.client.xmpp.stanza.Presence;
+import com.rayo.core.HangupCommand;
+import com.rayo.core.verb.Say;
+import com.rayo.core.verb.Ssml;
+
+public class PriorityXmppWriterTest {
+
+	@Test
+	public void testCallControlOvertakesMedia() throws Exception {
+
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		StringWriter out = new StringWriter() {
+			boolean first = true;
+			@Override
+			public void write(String str) {
+				if (first) {
+					first = false;
+					blocked.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {}
+				}
+				super.write(str);
+			}
+		};
+		PriorityXmppWriter writer = new PriorityXmppWriter(out);
+		writer.start();
+
+		// Keeps the writer thread busy while the rest of the objects are queued
+		writer.write("<first/>");
+		blocked.await();
+
+		Say say = new Say();
+		say.setPrompt(new Ssml("hello"));
+		writer.write(new Presence().setId("presence"));
+		writer.write(new IQ(IQ.Type.get).setId("ping").setChild(new Ping()));
+		writer.write(new IQ(IQ.Type.set).setId("say").setChild(Extension.create(say)));
+		writer.write(new IQ(IQ.Type.set).setId("hangup").setChild(Extension.create(new HangupCommand(null))));
+		assertEquals(1, writer.getQueueDepth(OutboundPriority.MEDIA));
+		assertEquals(2, writer.getQueueDepth(OutboundPriority.BACKGROUND));
+
+		release.countDown();
+		writer.close();
+
+		String result = out.toString();
+		int hangupIndex = result.indexOf("id=\"hangup\"");
+		int sayIndex = result.indexOf("id=\"say\"");
+		int presenceIndex = result.indexOf("id=\"presence\"");
+		int pingIndex = result.indexOf("id=\"ping\"");
+		assertTrue(hangupIndex > 0 && hangupIndex < sayIndex);
+		assertTrue(sayIndex < presenceIndex);
+		assertTrue(presenceIndex < pingIndex);
+		assertEquals(2, writer.getWrittenCount(OutboundPriority.CALL_CONTROL));
+	}
+	
+	@Test
+	public void testWriterThreadWritesAndClosesTheStream() throws Exception {
+
+		final StringBuffer writers = new StringBuffer();
+		StringWriter out = new StringWriter() {
+			@Override
+			public void write(String str) {
+				if (str.equals("</stream:stream>")) {
+					writers.append(Thread.currentThread().getName());
+				}
+				super.write(str);
+			}
+		};
+		PriorityXmppWriter writer = new PriorityXmppWriter(out);
+		writer.write("<a/>");
+		writer.write("<b/>");
+		Thread.sleep(100);
+		assertEquals("", out.toString());
+
+		writer.start();
+		writer.close();
+		assertEquals("<a/><b/></stream:stream>", out.toString());
+		assertEquals("rayo-writer", writers.toString());
+	}
+	
+	@Test
+	public void testPriorityClassification() throws Exception {
+		
+		assertEquals(OutboundPriority.BACKGROUND, OutboundPriority.of(new Presence()));
+		assertEquals(OutboundPriority.BACKGROUND, OutboundPriority.of(new IQ(IQ.Type.get).setChild(new Ping())));
+		assertEquals(OutboundPriority.CALL_CONTROL, OutboundPriority.of(new IQ(IQ.Type.set).setChild(Extension.create(new HangupCommand(null)))));
+		assertEquals(OutboundPriority.NORMAL, OutboundPriority.of(new IQ(IQ.Type.result)));
+	}
+}
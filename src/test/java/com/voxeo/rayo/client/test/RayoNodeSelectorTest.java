@@ -0,0 +1,133 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.rayo.client.selection.PowerOfTwoChoicesSelector;
+import com.rayo.client.selection.RayoNode;
+
+public class RayoNodeSelectorTest {
+
+	@Test
+	public void testSlowNodeGetsLessTraffic() throws Exception {
+
+		PowerOfTwoChoicesSelector selector = new PowerOfTwoChoicesSelector(Arrays.asList("fast.localhost","slow.localhost"));
+		for (RayoNode node: selector.getNodes()) {
+			node.requestStarted("warmup");
+			node.requestFinished("warmup", node.getJid().startsWith("fast") ? 1000000 : 50000000, false);
+		}
+
+		int fast = 0;
+		for (int i=0;i<100;i++) {
+			RayoNode node = selector.select("dial" + i);
+			if (node.getJid().startsWith("fast")) {
+				fast++;
+			}
+			node.requestFinished("dial" + i, node.getJid().startsWith("fast") ? 1000000 : 50000000, false);
+		}
+		assertEquals(100, fast);
+	}
+
+	@Test
+	public void testCircuitOpensOnFailures() throws Exception {
+
+		PowerOfTwoChoicesSelector selector = new PowerOfTwoChoicesSelector(Arrays.asList("a.localhost","b.localhost"), 3, 60000);
+		RayoNode failing = selector.getNodes().iterator().next();
+		for (int i=0;i<3;i++) {
+			failing.requestStarted("dial" + i);
+			failing.requestFinished("dial" + i, 1000000, true);
+		}
+		assertTrue(failing.isCircuitOpen());
+		assertFalse(failing.isAvailable());
+
+		for (int i=0;i<100;i++) {
+			RayoNode node = selector.select("other" + i);
+			assertFalse(node == failing);
+			node.requestFinished("other" + i, 1000000, false);
+		}
+	}
+
+	@Test
+	public void testCircuitClosesAfterSuccessfulTrial() throws Exception {
+
+		PowerOfTwoChoicesSelector selector = new PowerOfTwoChoicesSelector(Arrays.asList("a.localhost"), 1, 50);
+		RayoNode node = selector.getNodes().iterator().next();
+		node.requestStarted("failed");
+		node.requestFinished("failed", 1000000, true);
+		assertNull(selector.select("early"));
+
+		Thread.sleep(100);
+		assertEquals(node, selector.select("trial"));
+		// Only a single trial request is let through while the circuit is open
+		assertNull(selector.select("other"));
+		node.requestFinished("trial", 1000000, false);
+		assertFalse(node.isCircuitOpen());
+	}
+
+	@Test
+	public void testOnlyTheTrialRequestChangesTheCircuit() throws Exception {
+
+		RayoNode node = new RayoNode("a.localhost", 1, 50);
+		node.requestStarted("old");
+		node.requestStarted("failed");
+		node.requestFinished("failed", 1000000, true);
+		assertTrue(node.isCircuitOpen());
+
+		// A request sent before the circuit opened neither closes it nor ends the cool down
+		node.requestFinished("old", 1000000, false);
+		assertTrue(node.isCircuitOpen());
+
+		Thread.sleep(100);
+		assertTrue(node.tryAcquire("trial"));
+		node.requestStarted("late");
+		node.requestFinished("late", 1000000, true);
+		assertFalse(node.isAvailable());
+
+		node.requestFinished("trial", 1000000, false);
+		assertFalse(node.isCircuitOpen());
+		assertEquals(0, node.getOutstandingRequests());
+	}
+
+	@Test
+	public void testOnlyOneThreadGetsTheTrialRequest() throws Exception {
+
+		final RayoNode node = new RayoNode("a.localhost", 1, 50);
+		node.requestStarted("failed");
+		node.requestFinished("failed", 1000000, true);
+		Thread.sleep(100);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger acquired = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int i=0;i<threads.length;i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					if (node.tryAcquire(getName())) {
+						acquired.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		assertEquals(1, acquired.get());
+		assertEquals(1, node.getOutstandingRequests());
+		assertFalse(node.isAvailable());
+	}
+}
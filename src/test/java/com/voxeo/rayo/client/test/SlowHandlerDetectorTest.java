@@ -0,0 +1,262 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.rayo.client.io.SlowHandlerDetector;
+import com.rayo.client.listener.SlowHandlerAdapter;
+import com.rayo.client.xmpp.stanza.XmppObject;
+
+public class SlowHandlerDetectorTest {
+
+	@Test
+	public void testDisabledByDefault() {
+
+		SlowHandlerDetector detector = new SlowHandlerDetector();
+		assertFalse(detector.isEnabled());
+		
+		final Thread[] thread = new Thread[1];
+		detector.run("handler", null, new Runnable() {
+			public void run() {
+				thread[0] = Thread.currentThread();
+			}
+		});
+		assertSame(Thread.currentThread(), thread[0]);
+		assertTrue(detector.getStats().isEmpty());
+	}
+	
+	@Test
+	public void testReportsSlowHandler() {
+
+		SlowHandlerDetector detector = new SlowHandlerDetector();
+		detector.setBudget(10, TimeUnit.MILLISECONDS);
+		final List<Object> slow = new CopyOnWriteArrayList<Object>();
+		detector.addSlowHandlerListener(new SlowHandlerAdapter() {
+			@Override
+			public void budgetExceeded(Object handler, XmppObject object, long nanos) {
+				slow.add(handler);
+			}
+		});
+		
+		detector.run("fast", null, sleep(0));
+		detector.run("slow", null, sleep(30));
+		
+		assertEquals(1, slow.size());
+		assertEquals("slow", slow.get(0));
+		assertEquals(1, detector.getViolations());
+		assertEquals(2, detector.getStats().size());
+		assertTrue(detector.getStats().get("slow").getMaxNanos() >= TimeUnit.MILLISECONDS.toNanos(30));
+	}
+	
+	@Test
+	public void testSampling() {
+
+		SlowHandlerDetector detector = new SlowHandlerDetector();
+		detector.setBudget(10, TimeUnit.MILLISECONDS);
+		detector.setSampleRate(4);
+		for (int i = 0; i < 8; i++) {
+			detector.run("handler", null, sleep(0));
+		}
+		assertEquals(2, detector.getStats().get("handler").getTimedCount());
+	}
+	
+	@Test
+	public void testQuarantinesRepeatOffender() throws Exception {
+
+		SlowHandlerDetector detector = new SlowHandlerDetector();
+		detector.setBudget(5, TimeUnit.MILLISECONDS);
+		detector.setQuarantineThreshold(2);
+		final List<Object> quarantined = new CopyOnWriteArrayList<Object>();
+		detector.addSlowHandlerListener(new SlowHandlerAdapter() {
+			@Override
+			public void quarantined(Object handler) {
+				quarantined.add(handler);
+			}
+		});
+		
+		detector.run("slow", null, sleep(10));
+		assertFalse(detector.isQuarantined("slow"));
+		detector.run("slow", null, sleep(10));
+		assertTrue(detector.isQuarantined("slow"));
+		assertEquals(1, quarantined.size());
+		
+		// Quarantined handlers run on other threads, in order
+		final List<Integer> order = new CopyOnWriteArrayList<Integer>();
+		final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+		final CountDownLatch latch = new CountDownLatch(10);
+		for (int i = 0; i < 10; i++) {
+			final int n = i;
+			detector.run("slow", null, new Runnable() {
+				public void run() {
+					order.add(n);
+					threads.add(Thread.currentThread());
+					latch.countDown();
+				}
+			});
+		}
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertEquals("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9]", order.toString());
+		assertNotSame(Thread.currentThread(), threads.get(0));
+		
+		detector.release("slow");
+		assertFalse(detector.isQuarantined("slow"));
+		detector.shutdown();
+	}
+	
+	@Test
+	public void testQuarantineQueueIsBounded() throws Exception {
+
+		SlowHandlerDetector detector = new SlowHandlerDetector();
+		detector.setQuarantineCapacity(2);
+		detector.quarantine("slow");
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch blocker = new CountDownLatch(1);
+		try {
+			detector.run("slow", null, block(started, blocker));
+			assertTrue(started.await(1, TimeUnit.SECONDS));
+			for (int i = 0; i < 5; i++) {
+				detector.run("slow", null, sleep(0));
+			}
+			assertEquals(3, detector.getDropped());
+		} finally {
+			blocker.countDown();
+			detector.shutdown();
+		}
+	}
+	
+	@Test
+	public void testReleaseDrainsTheQueueFirst() throws Exception {
+
+		SlowHandlerDetector detector = new SlowHandlerDetector();
+		final List<Thread> workers = new CopyOnWriteArrayList<Thread>();
+		detector.setQuarantineExecutor(new Executor() {
+			public void execute(Runnable command) {
+				Thread worker = new Thread(command);
+				workers.add(worker);
+				worker.start();
+			}
+		});
+		detector.quarantine("slow");
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch blocker = new CountDownLatch(1);
+		final List<Integer> order = new CopyOnWriteArrayList<Integer>();
+		final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+		try {
+			detector.run("slow", null, block(started, blocker));
+			assertTrue(started.await(1, TimeUnit.SECONDS));
+			detector.run("slow", null, record(1, order, threads));
+			detector.release("slow");
+			assertFalse(detector.isQuarantined("slow"));
+			
+			// Still queued behind the pending invocation, never run at the same time
+			detector.run("slow", null, record(2, order, threads));
+			assertTrue(order.isEmpty());
+			blocker.countDown();
+			assertEquals(1, workers.size());
+			workers.get(0).join(1000);
+			assertEquals("[1, 2]", order.toString());
+			assertNotSame(Thread.currentThread(), threads.get(1));
+			
+			// Drained, so the handler runs on the dispatching thread again
+			detector.run("slow", null, record(3, order, threads));
+			assertEquals("[1, 2, 3]", order.toString());
+			assertSame(Thread.currentThread(), threads.get(2));
+			assertEquals(0, detector.getQuarantinedCount());
+		} finally {
+			blocker.countDown();
+			detector.shutdown();
+		}
+	}
+	
+	@Test
+	public void testShutdownDiscardsQueuedObjects() throws Exception {
+
+		SlowHandlerDetector detector = new SlowHandlerDetector();
+		detector.quarantine("slow");
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch blocker = new CountDownLatch(1);
+		final List<Integer> order = new CopyOnWriteArrayList<Integer>();
+		final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+		try {
+			detector.run("slow", null, block(started, blocker));
+			assertTrue(started.await(1, TimeUnit.SECONDS));
+			detector.run("slow", null, record(1, order, threads));
+			detector.shutdown();
+			assertFalse(detector.isQuarantined("slow"));
+			
+			detector.run("slow", null, record(2, order, threads));
+			assertEquals("[2]", order.toString());
+			assertSame(Thread.currentThread(), threads.get(0));
+		} finally {
+			blocker.countDown();
+		}
+	}
+	
+	@Test
+	public void testRejectedExecutionIsRetried() throws Exception {
+
+		SlowHandlerDetector detector = new SlowHandlerDetector();
+		final AtomicInteger submissions = new AtomicInteger();
+		detector.setQuarantineExecutor(new Executor() {
+			public void execute(Runnable command) {
+				if (submissions.incrementAndGet() == 1) {
+					throw new RejectedExecutionException();
+				}
+				command.run();
+			}
+		});
+		detector.quarantine("slow");
+		final List<Integer> order = new CopyOnWriteArrayList<Integer>();
+		final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+		detector.run("slow", null, record(1, order, threads));
+		assertTrue(order.isEmpty());
+		detector.run("slow", null, record(2, order, threads));
+		assertEquals("[1, 2]", order.toString());
+	}
+	
+	private Runnable block(final CountDownLatch started, final CountDownLatch blocker) {
+		
+		return new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					blocker.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {}
+			}
+		};
+	}
+	
+	private Runnable record(final int n, final List<Integer> order, final List<Thread> threads) {
+		
+		return new Runnable() {
+			public void run() {
+				threads.add(Thread.currentThread());
+				order.add(n);
+			}
+		};
+	}
+	
+	private Runnable sleep(final long millis) {
+		
+		return new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(millis);
+				} catch (InterruptedException e) {}
+			}
+		};
+	}
+}
@@ -0,0 +1,142 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rayo.client.SimpleXmppConnection;
+import com.rayo.client.trace.StanzaTracerAdapter;
+import com.rayo.client.xmpp.stanza.Bind;
+import com.rayo.client.xmpp.stanza.IQ;
+import com.rayo.client.xmpp.stanza.XmppObject;
+import com.voxeo.rayo.client.internal.NettyServer;
+import com.voxeo.rayo.client.test.config.TestConfig;
+
+public class StanzaTracerTest {
+	
+	private SimpleXmppConnection connection;
+
+	@Before
+	public void setUp() throws Exception {
+		
+		 NettyServer.newInstance(TestConfig.port);
+	}
+
+	@Test
+	public void testTracesRequestPath() throws Exception {
+
+		connection = new SimpleXmppConnection(TestConfig.serverEndpoint, TestConfig.port);
+		connection.connect();
+		connection.login("userc", "1", "voxeo");
+		
+		RecordingTracer tracer = new RecordingTracer();
+		connection.setTracer(tracer);
+		
+		IQ iq = new IQ(IQ.Type.set)
+			.setFrom("userc@127.0.0.1")
+			.setChild(new Bind().setResource("clienttest"));
+		XmppObject response = connection.sendAndWait(iq);
+		assertNotNull(response);
+
+		// Listeners run on their own thread
+		Thread.sleep(150);
+		
+		// Filters and listeners run on different threads, so only the stages are checked
+		List<String> stages = tracer.stages(iq.getId());
+		assertEquals(6, stages.size());
+		assertTrue(stages.containsAll(Arrays.asList("sent", "written", "received", "filtered", "delivered", "answered")));
+		for (Long duration: tracer.durations) {
+			assertTrue(duration >= 0);
+		}
+		
+		connection.disconnect();
+	}
+
+	@Test
+	public void testNoEventsWithoutTracer() throws Exception {
+
+		connection = new SimpleXmppConnection(TestConfig.serverEndpoint, TestConfig.port);
+		RecordingTracer tracer = new RecordingTracer();
+		connection.setTracer(tracer);
+		connection.setTracer(null);
+		connection.connect();
+		connection.login("userc", "1", "voxeo");
+		
+		connection.sendAndWait(new IQ(IQ.Type.set)
+			.setFrom("userc@127.0.0.1")
+			.setChild(new Bind().setResource("clienttest")));
+		Thread.sleep(150);
+		
+		assertTrue(tracer.events.isEmpty());
+		connection.disconnect();
+	}
+	
+	@After
+	public void shutdown() throws Exception {
+		
+		if (connection != null && connection.isConnected()) {
+			connection.disconnect();
+		}
+	}
+	
+	class RecordingTracer extends StanzaTracerAdapter {
+		
+		List<String[]> events = new CopyOnWriteArrayList<String[]>();
+		List<Long> durations = new CopyOnWriteArrayList<Long>();
+		
+		@Override
+		public void sent(XmppObject object, long permitNanos, long enqueueNanos) {
+			record("sent", object, permitNanos, enqueueNanos);
+		}
+		
+		@Override
+		public void written(XmppObject object, long queuedNanos, long writeNanos) {
+			record("written", object, queuedNanos, writeNanos);
+		}
+		
+		@Override
+		public void received(XmppObject object, long parseNanos) {
+			record("received", object, parseNanos);
+		}
+		
+		@Override
+		public void filtered(XmppObject object, long queuedNanos, long filtersNanos) {
+			record("filtered", object, queuedNanos, filtersNanos);
+		}
+		
+		@Override
+		public void delivered(XmppObject object, long queuedNanos, long listenersNanos) {
+			record("delivered", object, queuedNanos, listenersNanos);
+		}
+		
+		@Override
+		public void answered(XmppObject request, XmppObject response, long roundTripNanos) {
+			record("answered", request, roundTripNanos);
+		}
+		
+		void record(String stage, XmppObject object, long... nanos) {
+			events.add(new String[]{stage, object.getId()});
+			for (long duration: nanos) {
+				durations.add(duration);
+			}
+		}
+		
+		List<String> stages(String id) {
+			List<String> stages = new CopyOnWriteArrayList<String>();
+			for (String[] event: events) {
+				if (id.equals(event[1])) {
+					stages.add(event[0]);
+				}
+			}
+			return stages;
+		}
+	}
+}
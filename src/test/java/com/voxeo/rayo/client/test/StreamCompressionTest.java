@@ -0,0 +1,85 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rayo.client.SimpleXmppConnection;
+import com.rayo.client.compression.ZlibCompression;
+import com.rayo.client.xmpp.stanza.IQ;
+import com.rayo.client.xmpp.stanza.IQ.Type;
+import com.voxeo.rayo.client.internal.simulator.RayoServerSimulator;
+import com.voxeo.rayo.client.test.config.TestConfig;
+
+public class StreamCompressionTest {
+
+	private static final int PORT = 10399;
+
+	private RayoServerSimulator simulator;
+	private SimpleXmppConnection connection;
+	private ZlibCompression compression;
+
+	@Before
+	public void setUp() throws Exception {
+
+		simulator = new RayoServerSimulator(PORT);
+		simulator.setCompressionOffered(true);
+
+		compression = new ZlibCompression();
+		connection = new SimpleXmppConnection(TestConfig.serverEndpoint, PORT);
+		connection.setCompression(compression);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+
+		try {
+			connection.disconnect();
+		} finally {
+			simulator.shutdown();
+		}
+	}
+
+	@Test
+	public void testStreamIsCompressedBeforeBinding() throws Exception {
+
+		simulator.start();
+		connection.connect();
+		connection.login("usera", "1", "voxeo");
+
+		// Features, compress, compressed and a new stream on which the resource is bound
+		assertTrue(connection.isAuthenticated());
+		assertTrue(compression.isActive());
+		assertEquals(1, simulator.getCompressed());
+		assertNotNull(connection.getConnectionId());
+
+		IQ result = (IQ)connection.sendAndWait(new IQ(Type.get).setTo(simulator.getDomain()));
+		assertNotNull(result);
+		assertTrue(result.isResult());
+		assertTrue(compression.getBytesIn() > 0);
+		assertTrue(compression.getDeflatedBytesOut() > 0);
+	}
+
+	@Test
+	public void testFailedCompressionBindsOnTheOriginalStream() throws Exception {
+
+		simulator.setCompressionFailing(true);
+		simulator.start();
+		connection.connect();
+		connection.login("usera", "1", "voxeo");
+
+		assertTrue(connection.isAuthenticated());
+		assertFalse(compression.isActive());
+		assertEquals(0, simulator.getCompressed());
+
+		IQ result = (IQ)connection.sendAndWait(new IQ(Type.get).setTo(simulator.getDomain()));
+		assertNotNull(result);
+		assertTrue(result.isResult());
+		assertEquals(0, compression.getBytesIn());
+	}
+}
@@ -0,0 +1,160 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.rayo.client.io.SubscriptionIndex;
+import com.rayo.client.io.SubscriptionIndex.Subscriber;
+import com.rayo.client.listener.RayoMessageListener;
+import com.rayo.client.xmpp.Namespaces;
+import com.rayo.client.xmpp.stanza.IQ;
+import com.rayo.client.xmpp.stanza.Ping;
+
+public class SubscriptionIndexTest {
+
+	@Test
+	public void testRouting() throws Exception {
+
+		SubscriptionIndex index = new SubscriptionIndex();
+		CountingListener any = new CountingListener("ping", null, null);
+		CountingListener namespace = new CountingListener("ping", Namespaces.PING, null);
+		CountingListener otherNamespace = new CountingListener("ping", Namespaces.RAYO, null);
+		CountingListener callId = new CountingListener("ping", null, "callA");
+		CountingListener verbJid = new CountingListener("ping", null, "callA@localhost/verb1");
+		CountingListener otherCall = new CountingListener("ping", null, "callB");
+		CountingListener otherName = new CountingListener("offer", null, null);
+		CountingListener[] listeners = new CountingListener[]{any, namespace, otherNamespace, callId, verbJid, otherCall, otherName};
+		for (int i = 0; i < listeners.length; i++) {
+			index.add(listeners[i], i);
+		}
+
+		IQ iq = new IQ(IQ.Type.get, new Ping()).setFrom("callA@localhost/verb1");
+		route(index, iq);
+
+		assertEquals(1, any.count);
+		assertEquals(1, namespace.count);
+		assertEquals(0, otherNamespace.count);
+		assertEquals(1, callId.count);
+		assertEquals(1, verbJid.count);
+		assertEquals(0, otherCall.count);
+		assertEquals(0, otherName.count);
+
+		index.remove(callId);
+		route(index, iq);
+		assertEquals(2, any.count);
+		assertEquals(1, callId.count);
+	}
+
+	@Test
+	public void testSubscribe() throws Exception {
+
+		SubscriptionIndex index = new SubscriptionIndex();
+		CountingListener first = new CountingListener("ping", null, null);
+		CountingListener second = new CountingListener("ping", null, null);
+		index.add(first, 0);
+		index.add(second, 1);
+		assertEquals(2, index.size());
+
+		List<Subscriber> subscribers = index.match(ping("callA@localhost/verb1"));
+		assertEquals(2, subscribers.size());
+		assertSame(first, subscribers.get(0).getListener());
+		assertEquals(0, subscribers.get(0).getOrder());
+		assertSame(second, subscribers.get(1).getListener());
+		assertEquals(1, subscribers.get(1).getOrder());
+	}
+
+	@Test
+	public void testUnsubscribe() throws Exception {
+
+		SubscriptionIndex index = new SubscriptionIndex();
+		CountingListener any = new CountingListener("ping", null, null);
+		CountingListener call = new CountingListener("ping", null, "callA");
+		index.add(any, 0);
+		index.add(call, 1);
+
+		index.remove(call);
+		assertEquals(1, index.size());
+		assertEquals(1, index.match(ping("callA@localhost/verb1")).size());
+
+		// Listeners that were never added are ignored
+		index.remove(call);
+		index.remove(new CountingListener("offer", null, null));
+		assertEquals(1, index.size());
+
+		index.remove(any);
+		assertEquals(0, index.size());
+		assertTrue(index.match(ping("callA@localhost/verb1")).isEmpty());
+
+		index.add(any, 2);
+		index.clear();
+		assertEquals(0, index.size());
+		assertTrue(index.match(ping("callA@localhost/verb1")).isEmpty());
+	}
+
+	@Test
+	public void testRoutingKeepsTheRegistrationOrderAcrossSubscriptions() throws Exception {
+
+		SubscriptionIndex index = new SubscriptionIndex();
+		CountingListener verbJid = new CountingListener("ping", null, "callA@localhost/verb1");
+		CountingListener any = new CountingListener("ping", null, null);
+		CountingListener callId = new CountingListener("ping", null, "callA");
+		index.add(verbJid, 0);
+		index.add(any, 1);
+		index.add(callId, 2);
+
+		List<Subscriber> subscribers = index.match(ping("callA@localhost/verb1"));
+		assertEquals(3, subscribers.size());
+		assertSame(verbJid, subscribers.get(0).getListener());
+		assertSame(any, subscribers.get(1).getListener());
+		assertSame(callId, subscribers.get(2).getListener());
+	}
+
+	@Test
+	public void testRoutingStanzasWithoutSenderOrChild() throws Exception {
+
+		SubscriptionIndex index = new SubscriptionIndex();
+		CountingListener any = new CountingListener("ping", null, null);
+		CountingListener callId = new CountingListener("ping", null, "callA");
+		index.add(any, 0);
+		index.add(callId, 1);
+
+		List<Subscriber> subscribers = index.match(new IQ(IQ.Type.get, new Ping()));
+		assertEquals(1, subscribers.size());
+		assertSame(any, subscribers.get(0).getListener());
+
+		assertTrue(index.match(new IQ(IQ.Type.get).setFrom("callA@localhost")).isEmpty());
+	}
+
+	private IQ ping(String from) {
+
+		return new IQ(IQ.Type.get, new Ping()).setFrom(from);
+	}
+
+	private void route(SubscriptionIndex index, IQ iq) {
+
+		for (Subscriber subscriber: index.match(iq)) {
+			subscriber.getListener().onIQ(iq);
+		}
+	}
+
+	class CountingListener extends RayoMessageListener {
+
+		int count;
+
+		CountingListener(String message, String namespace, String jid) {
+
+			super(message, namespace, jid);
+		}
+
+		@Override
+		public void messageReceived(Object object) {
+
+			count++;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+
+import com.rayo.client.util.SymbolParser;
+import com.rayo.client.util.SymbolTable;
+import com.rayo.client.util.XmppObjectParser;
+import com.rayo.client.xmpp.Namespaces;
+import com.rayo.client.xmpp.stanza.IQ;
+
+public class SymbolTableTest {
+
+	@Test
+	public void testKnownNamesAreTheConstants() throws Exception {
+
+		char[] buffer = "<ref xmlns='urn:xmpp:rayo:1'/>".toCharArray();
+		assertSame(Namespaces.RAYO, SymbolTable.symbol(buffer, 12, Namespaces.RAYO.length()));
+		assertSame("ref", SymbolTable.symbol(buffer, 1, 3));
+		assertSame(SymbolTable.symbol(new String("custom-name")), SymbolTable.symbol("custom-name".toCharArray(), 0, 11));
+	}
+
+	@Test
+	public void testParserSharesNamesAndQNames() throws Exception {
+
+		String xml = "<iq id=\"1\" type=\"result\"><ref xmlns=\"urn:xmpp:rayo:1\" id=\"a\"/></iq>";
+		IQ first = XmppObjectParser.parseIQ(parser(xml));
+		IQ second = XmppObjectParser.parseIQ(parser(xml.replace("\"a\"", "\"b\"")));
+		assertSame(first.getChildElement("ref").getQName(), second.getChildElement("ref").getQName());
+		assertSame(Namespaces.RAYO, second.getChildNamespace());
+		assertEquals("b", second.getChildElement("ref").attributeValue("id"));
+		assertSame(first.getChildElement("ref").attribute("id").getQName(), second.getChildElement("ref").attribute("id").getQName());
+	}
+
+	private XmlPullParser parser(String xml) throws Exception {
+
+		XmlPullParser parser = new SymbolParser();
+		parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+		parser.setInput(new StringReader(xml));
+		parser.nextTag();
+		return parser;
+	}
+}
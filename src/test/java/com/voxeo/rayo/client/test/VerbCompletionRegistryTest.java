@@ -0,0 +1,72 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import com.rayo.client.registry.VerbCompletionRegistry;
+import com.rayo.client.verb.VerbFuture;
+import com.rayo.core.verb.VerbCompleteEvent;
+import com.rayo.core.verb.VerbRef;
+
+public class VerbCompletionRegistryTest {
+
+	@Test
+	public void testCompletionBeforeTheReference() throws Exception {
+
+		VerbCompletionRegistry registry = new VerbCompletionRegistry();
+		VerbCompleteEvent event = new VerbCompleteEvent();
+		registry.complete("call1", "say1", event);
+
+		VerbFuture future = registry.get(new VerbRef("call1", "say1"));
+		assertTrue(future.isDone());
+		assertSame(event, future.get());
+
+		registry.callEnded("call1");
+		assertEquals(0, registry.getCallsCount());
+	}
+
+	@Test
+	public void testPendingVerbsAreFailedWhenTheCallEnds() throws Exception {
+
+		VerbCompletionRegistry registry = new VerbCompletionRegistry();
+		VerbFuture future = registry.get(new VerbRef("call1", "say1"));
+		assertFalse(future.isDone());
+		assertEquals(1, registry.getCallsCount());
+
+		registry.callEnded("call1");
+		assertEquals(0, registry.getCallsCount());
+		assertFailed(future);
+	}
+
+	@Test
+	public void testLateEventsDoNotTrackAnEndedCallAgain() throws Exception {
+
+		VerbCompletionRegistry registry = new VerbCompletionRegistry();
+		registry.get(new VerbRef("call1", "say1"));
+		registry.callEnded("call1");
+
+		registry.complete("call1", "say2", new VerbCompleteEvent());
+		assertEquals(0, registry.getCallsCount());
+
+		VerbFuture late = registry.get(new VerbRef("call1", "say3"));
+		assertEquals(0, registry.getCallsCount());
+		assertFailed(late);
+	}
+
+	private void assertFailed(VerbFuture future) throws InterruptedException {
+
+		assertTrue(future.isDone());
+		try {
+			future.get();
+			fail("The verb should have failed");
+		} catch (ExecutionException e) {
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rayo.client.SimpleXmppConnection;
+import com.rayo.client.capture.CaptureRecord;
+import com.rayo.client.capture.CapturingOutputStream;
+import com.rayo.client.capture.ReplayInputStream;
+import com.rayo.client.capture.WireCapture;
+import com.rayo.client.capture.WireCaptureReader;
+import com.voxeo.rayo.client.internal.NettyServer;
+import com.voxeo.rayo.client.test.config.TestConfig;
+
+public class WireCaptureTest {
+
+	private File file;
+	
+	@Before
+	public void setup() throws Exception {
+		
+		file = File.createTempFile("rayo", ".capture");
+	}
+	
+	@After
+	public void cleanup() {
+		
+		file.delete();
+	}
+	
+	@Test
+	public void testRecordsAreReadBackInOrder() throws Exception {
+
+		WireCapture capture = new WireCapture(file, 4096);
+		capture.outbound("<iq id='1'/>".getBytes("UTF-8"), 0, 12);
+		capture.inbound("<iq id='1' type='result'/>".getBytes("UTF-8"), 0, 26);
+		capture.close();
+		
+		List<CaptureRecord> records = new WireCaptureReader(file).getRecords();
+		assertEquals(2, records.size());
+		assertTrue(records.get(0).isOutbound());
+		assertEquals("<iq id='1'/>", new String(records.get(0).getData(), "UTF-8"));
+		assertTrue(records.get(1).isInbound());
+		assertEquals("<iq id='1' type='result'/>", new String(records.get(1).getData(), "UTF-8"));
+		assertTrue(records.get(1).getNanos() >= records.get(0).getNanos());
+	}
+	
+	@Test
+	public void testOldestRecordsAreOverwritten() throws Exception {
+
+		WireCapture capture = new WireCapture(file, 1024);
+		for (int i = 0; i < 500; i++) {
+			byte[] data = ("<message id='" + i + "'/>").getBytes("UTF-8");
+			capture.inbound(data, 0, data.length);
+		}
+		long count = capture.getRecordCount();
+		capture.close();
+		
+		List<CaptureRecord> records = new WireCaptureReader(file).getInboundRecords();
+		assertEquals(count, records.size());
+		assertTrue(count < 500);
+		for (int i = 0; i < records.size(); i++) {
+			int id = (int)(500 - count + i);
+			assertEquals("<message id='" + id + "'/>", new String(records.get(i).getData(), "UTF-8"));
+		}
+	}
+	
+	@Test
+	public void testReplayReturnsOneRecordPerRead() throws Exception {
+
+		WireCapture capture = new WireCapture(file, 4096);
+		capture.inbound("<a/>".getBytes("UTF-8"), 0, 4);
+		capture.inbound("<bb/>".getBytes("UTF-8"), 0, 5);
+		capture.close();
+		
+		final boolean[] ended = new boolean[1];
+		ReplayInputStream input = new ReplayInputStream(new WireCaptureReader(file).getInboundRecords(), 0, new Runnable() {
+			public void run() {
+				ended[0] = true;
+			}
+		});
+		ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64];
+		assertEquals(4, input.read(buffer, 0, buffer.length));
+		replayed.write(buffer, 0, 4);
+		assertEquals(5, input.read(buffer, 0, buffer.length));
+		replayed.write(buffer, 0, 5);
+		assertEquals(-1, input.read(buffer, 0, buffer.length));
+		assertEquals("<a/><bb/>", replayed.toString("UTF-8"));
+		assertTrue(ended[0]);
+	}
+	
+	@Test
+	public void testSuspendedWritesAreNotCaptured() throws Exception {
+
+		WireCapture capture = new WireCapture(file, 4096);
+		ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		CapturingOutputStream out = new CapturingOutputStream(sent, capture);
+		out.suspend();
+		out.write("<auth>secret</auth>".getBytes("UTF-8"));
+		out.resume();
+		out.write("<iq id='1'/>".getBytes("UTF-8"));
+		capture.close();
+		
+		assertEquals("<auth>secret</auth><iq id='1'/>", sent.toString("UTF-8"));
+		List<CaptureRecord> records = new WireCaptureReader(file).getRecords();
+		assertEquals(1, records.size());
+		assertEquals("<iq id='1'/>", new String(records.get(0).getData(), "UTF-8"));
+	}
+	
+	@Test
+	public void testCredentialsAreNotCaptured() throws Exception {
+
+		NettyServer.newInstance(TestConfig.port);
+		WireCapture capture = new WireCapture(file, 1024 * 1024);
+		SimpleXmppConnection connection = new SimpleXmppConnection(TestConfig.serverEndpoint, TestConfig.port);
+		connection.setWireCapture(capture);
+		connection.connect();
+		connection.login("userc", "1", "voxeo");
+		connection.disconnect();
+		capture.close();
+		
+		StringBuilder inbound = new StringBuilder();
+		for (CaptureRecord record: new WireCaptureReader(file).getRecords()) {
+			String data = new String(record.getData(), "UTF-8");
+			if (record.isOutbound()) {
+				assertFalse(data, data.contains("<auth") || data.contains("<response"));
+			} else {
+				inbound.append(data);
+			}
+		}
+		assertTrue(inbound.toString().contains("<success"));
+	}
+}
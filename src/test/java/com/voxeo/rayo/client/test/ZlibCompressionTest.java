@@ -0,0 +1,88 @@
+package com.voxeo.rayo.client.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+import com.rayo.client.compression.ZlibCompression;
+import com.rayo.client.compression.ZlibCompression.FlushMode;
+
+public class ZlibCompressionTest {
+
+	private static final String OFFER =
+		"<presence to=\"usera@rayo.net/voxeo\" from=\"9f00061@call.rayo.net\">" +
+			"<offer xmlns=\"urn:xmpp:rayo:1\" to=\"sip:usera@rayo.net\" from=\"sip:+13055195825@rayo.net\">" +
+				"<header name=\"Contact\" value=\"&lt;sip:+13055195825@10.0.1.11:5060&gt;\"/>" +
+				"<header name=\"CSeq\" value=\"1 INVITE\"/>" +
+			"</offer>" +
+		"</presence>";
+
+	@Test
+	public void testBytesPassThroughUntilStarted() throws Exception {
+
+		ZlibCompression compression = new ZlibCompression();
+		ByteArrayOutputStream wire = new ByteArrayOutputStream();
+		OutputStream out = compression.wrap(wire);
+		out.write("<compress/>".getBytes("UTF-8"));
+		out.flush();
+		assertEquals("<compress/>", wire.toString("UTF-8"));
+
+		InputStream in = compression.wrap(new ByteArrayInputStream(wire.toByteArray()));
+		assertEquals(11, in.read(new byte[64]));
+		assertFalse(compression.isActive());
+	}
+
+	@Test
+	public void testEveryFlushCanBeReadOnItsOwn() throws Exception {
+
+		for (FlushMode mode: FlushMode.values()) {
+			ZlibCompression client = new ZlibCompression();
+			client.setFlushMode(mode);
+			client.setLevel(9);
+			ByteArrayOutputStream wire = new ByteArrayOutputStream();
+			OutputStream out = client.wrap(wire);
+			client.start();
+
+			ZlibCompression server = new ZlibCompression();
+			out.write(OFFER.getBytes("UTF-8"));
+			out.flush();
+			int first = wire.size();
+			InputStream in = server.wrap(new ByteArrayInputStream(wire.toByteArray()));
+			server.start();
+			assertEquals(OFFER, read(in, OFFER.length()));
+			assertEquals(0, in.available());
+
+			out.write(OFFER.getBytes("UTF-8"));
+			out.flush();
+			if (mode == FlushMode.SYNC) {
+				// Repeated content compresses to a fraction of the first copy
+				assertTrue(wire.size() - first < first / 2);
+			}
+			assertEquals(OFFER.length() * 2, client.getBytesOut());
+			assertEquals(wire.size(), client.getDeflatedBytesOut());
+			assertTrue(client.getBytesSavedOut() > 0);
+			assertEquals(OFFER.length(), server.getInflatedBytesIn());
+		}
+	}
+
+	private String read(InputStream in, int length) throws Exception {
+
+		byte[] buffer = new byte[length];
+		int read = 0;
+		while (read < length) {
+			int count = in.read(buffer, read, length - read);
+			if (count == -1) {
+				break;
+			}
+			read += count;
+		}
+		return new String(buffer, 0, read, "UTF-8");
+	}
+}